@@ -4,9 +4,10 @@ var blessed = require('blessed')
 
 var screen = blessed.screen()
 
-// Database connection
-const DBConnect = require('./lib/db-connect')
-const trik = new DBConnect('./sqlite/db/Trik.db')
+// Connection to the collector's snapshot, or the database when the
+// collector is not running
+const SnapshotConnect = require('./lib/snapshot-connect')
+const trik = new SnapshotConnect(process.env.TRIK_SNAPSHOT_PORT || 8710, './sqlite/db/Trik.db')
 
 // create layout and widgets
 var grid = new contrib.grid({rows: 12, cols: 12, screen: screen})
@@ -14,7 +15,7 @@ var grid = new contrib.grid({rows: 12, cols: 12, screen: screen})
 
 // BATTERY DONUT ------------------------------------------------------------------------------------------
 function updateDonut(){
-  var power = trik.getPowerData()
+  return trik.getPowerData()
   .then((power) => {
     var pct = power.currCapPer;
     var color = "green";
@@ -46,15 +47,9 @@ function updateDonut(){
   });
 }
 
-// Set the donut data to continuously update
-setInterval(function() {
-   updateDonut();
-   screen.render()
-}, 500)
-
 // MEMORY BAR ----------------------------------------------------------------------------------------
 function updateMemoryGauge() {
-  var memory = trik.getMemoryData()
+  return trik.getMemoryData()
   .then((memory) => {
     // Calculate percentages
     var perAvail = (memory.avail / memory.total * 100).toFixed(2);
@@ -74,15 +69,9 @@ function updateMemoryGauge() {
   });
 }
 
-// Set the memory gauge data to continuously update
-setInterval(function() {
-   updateMemoryGauge();
-   screen.render()
-}, 500)
-
 // CPU BAR CHART -------------------------------------------------------------------------------------------------
 function updateCpuGraph() {
-  var cpu = trik.getCpuData()
+  return trik.getCpuData()
   .then((cpu) => {
     var coreData = [];
     var cores = 0;
@@ -106,8 +95,7 @@ function updateCpuGraph() {
     var percs = [];
     coreData.forEach((core) => {
       titles.push(core.coreNum.toString());
-      var total = core.userTicks + core.sysTicks + core.idleTicks;
-      var usage = (core.userTicks + core.sysTicks) / total * 100;
+      var usage = core.userPct + core.sysPct;
       percs.push(usage.toFixed(1));
     });
 
@@ -115,11 +103,6 @@ function updateCpuGraph() {
   });
 }
 
-setInterval(function() {
-   updateCpuGraph();
-   screen.render()
-}, 200)
-
 // STATIC SYSTEM DATA ---------------------------------------------------------------------------------------------
 var system = trik.getSystem()
 .then((system) => {
@@ -134,7 +117,7 @@ var system = trik.getSystem()
 
 // DYNAMIC SYSTEM DATA -------------------------------------------------------------------------------------------
 function updateSystemData() {
-  var systemData = trik.getSystemData()
+  return trik.getSystemData()
   .then((systemData) => {
     var upTime = secondsToTimeString(systemData.upTime);
     var text = "Up time:   " + upTime + " \n\n";
@@ -147,11 +130,6 @@ function updateSystemData() {
   });
 }
 
-setInterval(function() {
-   updateSystemData();
-   screen.render()
-}, 200)
-
 function secondsToTimeString(totalSeconds) {
   days = Math.floor(totalSeconds / 86400);
   totalSeconds %= 86400;
@@ -187,15 +165,12 @@ var trikDisplay = grid.set(0, 9, 4, 3, blessed.text, {content: trikText, fg: 'ma
 
 // PROCESSES TABLE -------------------------------------------------------------------------------------------------
 function updateProcessTable() {
-  var procs = trik.getProcessData()
+  return trik.getProcessData()
   .then((procs) => {
     var active = [];
-    var timestamp = procs[0].timestamp;
     procs.forEach((row) => {
-      if(row.timestamp == timestamp) {
-        var entry = [row.name.substr(0, 20), secondsToHoursString(row.upTime), (row.cpuUsage * 100).toFixed(4)];
-        active.push(entry);
-      }
+      var entry = [row.name.substr(0, 20), secondsToHoursString(row.upTime), (row.cpuUsage * 100).toFixed(4)];
+      active.push(entry);
     });
 
     table =  grid.set(4, 9, 8, 3, contrib.table,
@@ -210,7 +185,22 @@ function updateProcessTable() {
   });
 }
 
-setInterval(updateProcessTable, 2000);
+// REFRESH -------------------------------------------------------------------------------------------------------
+function refresh() {
+  Promise.all([updateDonut(), updateMemoryGauge(), updateCpuGraph(),
+               updateSystemData(), updateProcessTable()])
+  .catch(() => {})
+  .then(() => screen.render());
+}
+
+// Redraw when the collector pushes a new round, and only poll while the
+// event stream is down
+trik.subscribe(refresh);
+setInterval(function() {
+   if (!trik.streaming) {
+     refresh();
+   }
+}, 2000)
 
 function secondsToHoursString(totalSeconds) {
   hours = Math.floor(totalSeconds / 3600);
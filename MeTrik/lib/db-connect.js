@@ -50,40 +50,43 @@ class DBConnect {
 
   getSystemData() {
     let sql = `SELECT upTime, procs, servs, threads
-               FROM SystemData
-               ORDER BY timestamp DESC`;
+               FROM LatestSystemData`;
 
     return this.get(sql);
   }
 
   getPowerData() {
     let sql = `SELECT currCapPer, currCapTime, temp, isCharg
-                FROM PowerData
-                ORDER BY timestamp DESC`;
+                FROM LatestPowerData`;
 
     return this.get(sql);
   }
 
   getMemoryData() {
     let sql = `SELECT avail, total
-               FROM MemoryData
-               ORDER BY timestamp DESC;`;
+               FROM LatestMemoryData;`;
 
     return this.get(sql)
   }
 
   getCpuData() {
-    let sql = `SELECT coreNum, userTicks, sysTicks, idleTicks
-               FROM CpuData
-               ORDER BY timestamp DESC;`;
+    let sql = `SELECT coreNum, userPct, sysPct, idlePct
+               FROM LatestCpuData
+               WHERE coreNum >= 0
+               ORDER BY coreNum;`;
 
     return this.all(sql);
   }
 
   getProcessData() {
-    let sql = `SELECT timestamp, name, upTime, cpuUsage
+    // ProcessData only holds running processes, updated when they change,
+    // so bring upTime forward to now
+    let sql = `SELECT timestamp, name,
+                      upTime + (strftime('%s', 'now') * 1000 - timestamp) AS upTime,
+                      cpuUsage
                FROM ProcessData
-               ORDER BY timestamp DESC;`;
+               JOIN ProcessName ON ProcessName.id = ProcessData.nameID
+               ORDER BY cpuUsage DESC;`;
 
     return this.all(sql);
   }
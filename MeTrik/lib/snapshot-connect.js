@@ -0,0 +1,115 @@
+// Snapshot module, reads the latest values from the collector's
+// in-memory snapshot instead of the database
+const http = require('http');
+const Promise = require('bluebird');
+const DBConnect = require('./db-connect');
+
+class SnapshotConnect {
+
+  constructor(port, filePath) {
+    this.port = port;
+    this.db = new DBConnect(filePath); // used when the collector is not reachable
+    this.latest = null; // last snapshot pushed on the event stream
+    this.streaming = false;
+  }
+
+  // Calls the listener with every snapshot the collector pushes, and
+  // reconnects when the stream is lost
+  subscribe(listener) {
+    let req = http.get({host: '127.0.0.1', port: this.port, path: '/events'}, (res) => {
+      if (res.statusCode != 200) {
+        res.resume();
+        return;
+      }
+      this.streaming = true;
+      let buffer = '';
+      res.setEncoding('utf8');
+      res.on('data', (chunk) => {
+        buffer += chunk;
+        let end;
+        while ((end = buffer.indexOf('\n\n')) >= 0) {
+          let event = buffer.substring(0, end);
+          buffer = buffer.substring(end + 2);
+          event.split('\n').forEach((line) => {
+            if (line.startsWith('data: ')) {
+              this.latest = JSON.parse(line.substring(6));
+              listener(this.latest);
+            }
+          });
+        }
+      });
+      res.on('end', () => this.streaming = false);
+    });
+    req.on('error', () => this.streaming = false);
+    req.on('close', () => {
+      this.streaming = false;
+      setTimeout(() => this.subscribe(listener), 5000);
+    });
+  }
+
+  snapshot() {
+    if (this.streaming && this.latest) {
+      return Promise.resolve(this.latest);
+    }
+    return new Promise((resolve, reject) => {
+      let req = http.get({host: '127.0.0.1', port: this.port, path: '/snapshot', timeout: 1000}, (res) => {
+        let body = '';
+        res.setEncoding('utf8');
+        res.on('data', (chunk) => body += chunk);
+        res.on('end', () => {
+          try {
+            resolve(JSON.parse(body))
+          } catch (err) {
+            reject(err)
+          }
+        });
+      });
+      req.on('timeout', () => req.abort());
+      req.on('error', reject);
+    })
+  }
+
+  // Gets a member of the snapshot, falling back to the database query
+  // when the snapshot is unavailable or does not have it yet
+  member(name, fallback) {
+    return this.snapshot()
+    .then((snapshot) => snapshot[name] != null ? snapshot[name] : fallback())
+    .catch(() => fallback());
+  }
+
+  getSystem() {
+    return this.member('system', () => this.db.getSystem());
+  }
+
+  getSystemData() {
+    return this.member('systemData', () => this.db.getSystemData());
+  }
+
+  getPowerData() {
+    return this.member('powerData', () => this.db.getPowerData());
+  }
+
+  getMemoryData() {
+    return this.member('memoryData', () => this.db.getMemoryData());
+  }
+
+  getCpuData() {
+    return this.member('cpuData', () => this.db.getCpuData());
+  }
+
+  getProcessData() {
+    // Processes are only updated when they change, so bring upTime
+    // forward to now
+    return this.snapshot()
+    .then((snapshot) => snapshot.processData.map((row) => Object.assign({}, row,
+        {upTime: row.upTime + (Date.now() - row.timestamp)})))
+    .catch(() => this.db.getProcessData());
+  }
+
+  getLocationData() {
+    return this.db.getLocationData();
+  }
+
+}
+
+module.exports = SnapshotConnect;
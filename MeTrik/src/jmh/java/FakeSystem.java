@@ -0,0 +1,136 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * FakeSystem
+ *
+ * Deterministic stand-in for the OSHI objects MeTrik collects from, for
+ * benchmarks. Every round advances a seeded simulation of the memory,
+ * battery, processes and CPU tick counters, then turns it into a
+ * CollectionRound the same way MeTrik's collectors do, through a
+ * ProcessTracker and a CpuLoadTracker.
+ */
+public class FakeSystem {
+  public static final long START = 1584000000000L; // 2020-03-12
+  public static final long INTERVAL = 1000;
+
+  // Share of the processes that exit, and are replaced, every round
+  private static final double CHURN = 0.01;
+  private static final String[] NAMES = {"init", "sshd", "bash", "java", "node",
+          "postgres", "nginx", "chrome", "code", "systemd-journal", "dbus-daemon",
+          "cron", "rsyslogd", "containerd", "dockerd", "kworker", "python3"};
+  private static final String[] USERS = {"root", "daemon", "www-data", "me", "postgres"};
+
+  private final Random random = new Random(42);
+  private final int[] procIDs;
+  private final String[] names;
+  private final String[] users;
+  private final long[] startTimes;
+  private final double[] cpuUsages;
+  private final long[][] ticks;
+  private int nextProcID = 1;
+  private long timestamp = START;
+
+  private final ProcessTracker processTracker = new ProcessTracker(MeTrik.PROCESS_CPU_THRESHOLD);
+  private final CpuLoadTracker cpuLoad = new CpuLoadTracker();
+
+  /**
+   * FakeSystem
+   *
+   * @param processes Number of running processes
+   * @param cores Number of logical processors
+   */
+  public FakeSystem(int processes, int cores) {
+    procIDs = new int[processes];
+    names = new String[processes];
+    users = new String[processes];
+    startTimes = new long[processes];
+    cpuUsages = new double[processes];
+    for(int i = 0; i < processes; i++) {
+      spawn(i);
+    }
+
+    ticks = new long[cores][CpuLoadTracker.TICK_TYPES];
+    for(long[] core : ticks) {
+      core[CpuLoadTracker.IDLE_TICKS] = 100000;
+    }
+  }
+
+  private void spawn(int i) {
+    procIDs[i] = nextProcID++;
+    names[i] = NAMES[random.nextInt(NAMES.length)];
+    users[i] = USERS[random.nextInt(USERS.length)];
+    startTimes[i] = timestamp - random.nextInt(3600000);
+    cpuUsages[i] = random.nextDouble() * 0.05;
+  }
+
+  /**
+   * nextRound
+   *
+   * Advances the simulation by one interval and collects every family of
+   * data from it.
+   *
+   * @return the round of collection
+   */
+  public CollectionRound nextRound() {
+    timestamp += INTERVAL;
+    CollectionRound round = new CollectionRound(timestamp);
+
+    round.memory = new CollectionRound.MemoryData(
+            4000000000L + random.nextInt(100000000), 8000000000L);
+    round.power = new CollectionRound.PowerData(random.nextDouble(), 3600, 40, 1);
+    round.system = new CollectionRound.SystemData(START - 3600000,
+            timestamp - START + 3600000, procIDs.length, 20, procIDs.length * 4);
+
+    // Some processes exit and are replaced, the others drift
+    List<CollectionRound.ProcessData> current = new ArrayList<>(procIDs.length);
+    for(int i = 0; i < procIDs.length; i++) {
+      if(random.nextDouble() < CHURN) {
+        spawn(i);
+      } else if(random.nextInt(4) == 0) {
+        cpuUsages[i] = Math.max(0, cpuUsages[i] + (random.nextDouble() - 0.5) * 0.02);
+      }
+      current.add(new CollectionRound.ProcessData(procIDs[i], names[i], users[i],
+              startTimes[i], timestamp - startTimes[i], cpuUsages[i]));
+    }
+    processTracker.diff(current, round.processes);
+
+    // Every core spends 100 ticks per interval
+    for(long[] core : ticks) {
+      int user = random.nextInt(60);
+      int system = random.nextInt(20);
+      core[CpuLoadTracker.USER_TICKS] += user;
+      core[CpuLoadTracker.SYSTEM_TICKS] += system;
+      core[CpuLoadTracker.IDLE_TICKS] += 100 - user - system;
+    }
+    cpuLoad.update(ticks);
+    for(int core = 0; core < ticks.length; core++) {
+      round.cpus.add(new CollectionRound.CpuData(core, 2000000000L, 3000000000L,
+              cpuLoad.getCorePercent(core, CpuLoadTracker.USER),
+              cpuLoad.getCorePercent(core, CpuLoadTracker.SYSTEM),
+              cpuLoad.getCorePercent(core, CpuLoadTracker.IDLE),
+              cpuLoad.getCorePercent(core, CpuLoadTracker.IOWAIT),
+              cpuLoad.getCorePercent(core, CpuLoadTracker.STEAL),
+              ticks[core].clone()));
+    }
+    round.cpus.add(new CollectionRound.CpuData(-1, 2000000000L, 3000000000L,
+            cpuLoad.getTotalPercent(CpuLoadTracker.USER),
+            cpuLoad.getTotalPercent(CpuLoadTracker.SYSTEM),
+            cpuLoad.getTotalPercent(CpuLoadTracker.IDLE),
+            cpuLoad.getTotalPercent(CpuLoadTracker.IOWAIT),
+            cpuLoad.getTotalPercent(CpuLoadTracker.STEAL),
+            null));
+
+    return round;
+  }
+
+  /**
+   * getTimestamp
+   *
+   * @return Timestamp of the latest round
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+}
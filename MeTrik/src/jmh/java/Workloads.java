@@ -0,0 +1,271 @@
+import oshi.SystemInfo;
+import oshi.hardware.CentralProcessor;
+import oshi.hardware.GlobalMemory;
+import oshi.software.os.OperatingSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Workloads
+ *
+ * The operations measured by the benchmarks in the bench package. JMH
+ * does not allow benchmarks in the default package, and classes in a
+ * named package cannot see the default package, so each benchmark gets
+ * its workload from here as a Callable, by name.
+ *
+ * Every factory method starts from a new database.
+ */
+public class Workloads {
+  /**
+   * create
+   *
+   * @param name Name of the factory method
+   * @param args Arguments of the factory method, all ints
+   * @return the workload
+   * @throws Exception if there is no such workload
+   */
+  public static Callable<Object> create(String name, int... args) throws Exception {
+    Class<?>[] types = new Class<?>[args.length];
+    Object[] values = new Object[args.length];
+    for(int i = 0; i < args.length; i++) {
+      types[i] = int.class;
+      values[i] = args[i];
+    }
+    @SuppressWarnings("unchecked")
+    Callable<Object> workload = (Callable<Object>) Workloads.class
+            .getMethod(name, types).invoke(null, values);
+    return workload;
+  }
+
+  private static void newDatabase() {
+    DBHelper.createDB();
+    DBHelper.createTables();
+    DBHelper.insertSystem("Linux", "bench", "1", "Fake CPU", 4, 3000000000L);
+  }
+
+  // DBHelper.insert* paths, one entry per call
+
+  public static Callable<Object> insertMemoryData() {
+    newDatabase();
+    long[] timestamp = {FakeSystem.START};
+    return () -> {
+      DBHelper.insertMemoryData(timestamp[0]++, 4000000000L, 8000000000L);
+      return null;
+    };
+  }
+
+  public static Callable<Object> insertPowerData() {
+    newDatabase();
+    long[] timestamp = {FakeSystem.START};
+    return () -> {
+      DBHelper.insertPowerData(timestamp[0]++, 0.5, 3600, 40, 1);
+      return null;
+    };
+  }
+
+  public static Callable<Object> insertSystemData() {
+    newDatabase();
+    long[] timestamp = {FakeSystem.START};
+    return () -> {
+      DBHelper.insertSystemData(timestamp[0]++, FakeSystem.START, 3600, 300, 20, 1200);
+      return null;
+    };
+  }
+
+  public static Callable<Object> insertProcessData() {
+    newDatabase();
+    int[] procID = {1};
+    return () -> {
+      DBHelper.insertProcessData(FakeSystem.START, procID[0]++, "java", "me",
+              FakeSystem.START - 1000, 1000, 0.01);
+      return null;
+    };
+  }
+
+  public static Callable<Object> insertCpuData() {
+    newDatabase();
+    long[] timestamp = {FakeSystem.START};
+    return () -> {
+      DBHelper.insertCpuData(timestamp[0]++, 0, 2000000000L, 3000000000L,
+              1, 2, 3, 4, 5, 6, 7, 8);
+      return null;
+    };
+  }
+
+  // Full rounds
+
+  /**
+   * collectRound
+   *
+   * Collects rounds from a FakeSystem without writing them.
+   */
+  public static Callable<Object> collectRound(int processes, int cores) {
+    FakeSystem system = new FakeSystem(processes, cores);
+    return system::nextRound;
+  }
+
+  /**
+   * insertRound
+   *
+   * Collects rounds from a FakeSystem and writes each one with
+   * DBHelper.insertRound.
+   */
+  public static Callable<Object> insertRound(int processes, int cores) {
+    newDatabase();
+    FakeSystem system = new FakeSystem(processes, cores);
+    DBHelper.insertRound(system.nextRound()); // Every process starts
+    return () -> {
+      CollectionRound round = system.nextRound();
+      DBHelper.insertRound(round);
+      return round;
+    };
+  }
+
+  /**
+   * logRound
+   *
+   * Collects rounds from a FakeSystem and appends each one to a SampleLog.
+   */
+  public static Callable<Object> logRound(int processes, int cores) {
+    SampleLog log = new SampleLog(new File("sqlite/bench-samples"),
+            SampleLog.DEFAULT_SEGMENT_SIZE, 4);
+    log.open(false);
+    FakeSystem system = new FakeSystem(processes, cores);
+    return () -> {
+      CollectionRound round = system.nextRound();
+      log.write(round);
+      return round;
+    };
+  }
+
+  // Purges. Each fill workload inserts what the matching purge removes
+
+  public static Callable<Object> fillProcessData(int rows) {
+    newDatabase();
+    return () -> {
+      for(int i = 0; i < rows; i++) {
+        DBHelper.insertProcessData(FakeSystem.START, i, "java", "me",
+                FakeSystem.START - 1000, 1000, 0.01);
+      }
+      return null;
+    };
+  }
+
+  public static Callable<Object> removeProcessData() {
+    return () -> {
+      DBHelper.removeProcessData(FakeSystem.START);
+      return null;
+    };
+  }
+
+  public static Callable<Object> fillCpuData(int cores) {
+    newDatabase();
+    return () -> {
+      for(int core = 0; core < cores; core++) {
+        DBHelper.insertCpuData(FakeSystem.START, core, 2000000000L, 3000000000L,
+                1, 2, 3, 4, 5, 6, 7, 8);
+      }
+      return null;
+    };
+  }
+
+  public static Callable<Object> removeCpuData() {
+    return () -> {
+      DBHelper.removeCpuData(FakeSystem.START);
+      return null;
+    };
+  }
+
+  /**
+   * fillHistory
+   *
+   * Writes two hours of rounds, one per minute, so that retention has
+   * entries and CpuData partitions to expire.
+   */
+  public static Callable<Object> fillHistory(int processes, int cores) {
+    return () -> {
+      newDatabase();
+      DBHelper.setRetentionPolicies(Collections.emptyList());
+      FakeSystem system = new FakeSystem(processes, cores);
+      for(int i = 0; i < 120 * 60; i++) {
+        CollectionRound round = system.nextRound();
+        if(i % 60 == 0) {
+          DBHelper.insertRound(round);
+        }
+      }
+      return system;
+    };
+  }
+
+  /**
+   * applyRetention
+   *
+   * Expires everything written by fillHistory.
+   */
+  public static Callable<Object> applyRetention() {
+    List<RetentionPolicy> policies = new ArrayList<>();
+    for(RetentionPolicy policy : RetentionPolicy.defaults()) {
+      policies.add(new RetentionPolicy(policy.table, RetentionPolicy.HOUR));
+    }
+    return () -> {
+      DBHelper.setRetentionPolicies(policies);
+      DBHelper.applyRetention(FakeSystem.START + 3 * RetentionPolicy.HOUR);
+      return null;
+    };
+  }
+
+  // Reads of the live system, through OSHI and through ProcReader (Linux only)
+
+  public static Callable<Object> oshiCpuTicks() {
+    CentralProcessor cpu = new SystemInfo().getHardware().getProcessor();
+    return cpu::getProcessorCpuLoadTicks;
+  }
+
+  public static Callable<Object> procCpuTicks() {
+    ProcReader reader = procReader();
+    int cores = new SystemInfo().getHardware().getProcessor().getLogicalProcessorCount();
+    return () -> {
+      long[][] ticks = new long[cores][CpuLoadTracker.TICK_TYPES];
+      reader.readCpuTicks(ticks);
+      return ticks;
+    };
+  }
+
+  public static Callable<Object> oshiMemory() {
+    GlobalMemory mem = new SystemInfo().getHardware().getMemory();
+    return () -> mem.getAvailable() + mem.getTotal();
+  }
+
+  public static Callable<Object> procMemory() {
+    ProcReader reader = procReader();
+    return () -> {
+      reader.readMemory();
+      return reader.getMemAvailable() + reader.getMemTotal();
+    };
+  }
+
+  public static Callable<Object> oshiProcesses() {
+    OperatingSystem os = new SystemInfo().getOperatingSystem();
+    return os::getProcesses;
+  }
+
+  public static Callable<Object> procProcesses() {
+    ProcReader reader = procReader();
+    return () -> reader.readProcesses(System.currentTimeMillis());
+  }
+
+  private static ProcReader procReader() {
+    try {
+      return new ProcReader(Paths.get("/proc"), Paths.get("/etc/passwd"));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
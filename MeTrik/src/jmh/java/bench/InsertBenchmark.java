@@ -0,0 +1,63 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * InsertBenchmark
+ *
+ * One entry written through each DBHelper.insert* path. Entries are
+ * batched until the next commit, as they are during a round.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InsertBenchmark {
+  private Callable<Object> insertMemoryData;
+  private Callable<Object> insertPowerData;
+  private Callable<Object> insertSystemData;
+  private Callable<Object> insertProcessData;
+  private Callable<Object> insertCpuData;
+
+  @Setup
+  public void setup() throws Exception {
+    insertMemoryData = Workload.create("insertMemoryData");
+    insertPowerData = Workload.create("insertPowerData");
+    insertSystemData = Workload.create("insertSystemData");
+    insertProcessData = Workload.create("insertProcessData");
+    insertCpuData = Workload.create("insertCpuData");
+  }
+
+  @Benchmark
+  public Object insertMemoryData() throws Exception {
+    return insertMemoryData.call();
+  }
+
+  @Benchmark
+  public Object insertPowerData() throws Exception {
+    return insertPowerData.call();
+  }
+
+  @Benchmark
+  public Object insertSystemData() throws Exception {
+    return insertSystemData.call();
+  }
+
+  @Benchmark
+  public Object insertProcessData() throws Exception {
+    return insertProcessData.call();
+  }
+
+  @Benchmark
+  public Object insertCpuData() throws Exception {
+    return insertCpuData.call();
+  }
+}
@@ -0,0 +1,73 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ProcBenchmark
+ *
+ * The CPU ticks, memory and process list of the machine running the
+ * benchmark, read through OSHI and straight from /proc by ProcReader.
+ * Linux only. OSHI caches the CPU ticks and memory for a short time, so
+ * its figures for them are those of a cache hit; the daemon reads them
+ * once per round, long after the cache expired.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProcBenchmark {
+  private Callable<Object> oshiCpuTicks;
+  private Callable<Object> procCpuTicks;
+  private Callable<Object> oshiMemory;
+  private Callable<Object> procMemory;
+  private Callable<Object> oshiProcesses;
+  private Callable<Object> procProcesses;
+
+  @Setup
+  public void setup() throws Exception {
+    oshiCpuTicks = Workload.create("oshiCpuTicks");
+    procCpuTicks = Workload.create("procCpuTicks");
+    oshiMemory = Workload.create("oshiMemory");
+    procMemory = Workload.create("procMemory");
+    oshiProcesses = Workload.create("oshiProcesses");
+    procProcesses = Workload.create("procProcesses");
+  }
+
+  @Benchmark
+  public Object oshiCpuTicks() throws Exception {
+    return oshiCpuTicks.call();
+  }
+
+  @Benchmark
+  public Object procCpuTicks() throws Exception {
+    return procCpuTicks.call();
+  }
+
+  @Benchmark
+  public Object oshiMemory() throws Exception {
+    return oshiMemory.call();
+  }
+
+  @Benchmark
+  public Object procMemory() throws Exception {
+    return procMemory.call();
+  }
+
+  @Benchmark
+  public Object oshiProcesses() throws Exception {
+    return oshiProcesses.call();
+  }
+
+  @Benchmark
+  public Object procProcesses() throws Exception {
+    return procProcesses.call();
+  }
+}
@@ -0,0 +1,98 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PurgeBenchmark
+ *
+ * The queries that remove old entries. Every invocation first refills
+ * what the purge removes, outside of the measurement, so these run in
+ * single shot mode.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PurgeBenchmark {
+
+  @State(Scope.Thread)
+  public static class ProcessData {
+    @Param({"100", "1000", "10000"})
+    public int rows;
+
+    private Callable<Object> fill;
+    private Callable<Object> purge;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+      fill = Workload.create("fillProcessData", rows);
+      purge = Workload.create("removeProcessData");
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() throws Exception {
+      fill.call();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class CpuData {
+    @Param({"8", "64", "256"})
+    public int cores;
+
+    private Callable<Object> fill;
+    private Callable<Object> purge;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+      fill = Workload.create("fillCpuData", cores);
+      purge = Workload.create("removeCpuData");
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() throws Exception {
+      fill.call();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class History {
+    private Callable<Object> fill;
+    private Callable<Object> purge;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+      fill = Workload.create("fillHistory", 100, 8);
+      purge = Workload.create("applyRetention");
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() throws Exception {
+      fill.call();
+    }
+  }
+
+  @Benchmark
+  public Object removeProcessData(ProcessData state) throws Exception {
+    return state.purge.call();
+  }
+
+  @Benchmark
+  public Object removeCpuData(CpuData state) throws Exception {
+    return state.purge.call();
+  }
+
+  @Benchmark
+  public Object applyRetention(History state) throws Exception {
+    return state.purge.call();
+  }
+}
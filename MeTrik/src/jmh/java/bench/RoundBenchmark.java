@@ -0,0 +1,56 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RoundBenchmark
+ *
+ * A full round of collection from a FakeSystem, on its own, written to
+ * the database and appended to a SampleLog, for every size of system.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoundBenchmark {
+  @Param({"100", "1000", "10000"})
+  public int processes;
+
+  @Param({"8", "64", "256"})
+  public int cores;
+
+  private Callable<Object> collectRound;
+  private Callable<Object> insertRound;
+  private Callable<Object> logRound;
+
+  @Setup
+  public void setup() throws Exception {
+    collectRound = Workload.create("collectRound", processes, cores);
+    insertRound = Workload.create("insertRound", processes, cores);
+    logRound = Workload.create("logRound", processes, cores);
+  }
+
+  @Benchmark
+  public Object collectRound() throws Exception {
+    return collectRound.call();
+  }
+
+  @Benchmark
+  public Object insertRound() throws Exception {
+    return insertRound.call();
+  }
+
+  @Benchmark
+  public Object logRound() throws Exception {
+    return logRound.call();
+  }
+}
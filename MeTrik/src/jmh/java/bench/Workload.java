@@ -0,0 +1,19 @@
+package bench;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Workload
+ *
+ * Looks up the workloads defined by Workloads in the default package.
+ */
+final class Workload {
+  private Workload() {}
+
+  @SuppressWarnings("unchecked")
+  static Callable<Object> create(String name, int... args) throws Exception {
+    return (Callable<Object>) Class.forName("Workloads")
+            .getMethod("create", String.class, int[].class)
+            .invoke(null, name, args);
+  }
+}
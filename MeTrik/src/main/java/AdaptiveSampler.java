@@ -0,0 +1,175 @@
+import org.apache.log4j.Logger;
+
+/**
+ * AdaptiveSampler
+ *
+ * Picks the sampling interval of the adaptive collectors from what the
+ * rounds show. A round in which available memory is low or drops sharply,
+ * a core is busy or many processes start and exit switches to the fast
+ * interval right away. Once nothing has crossed a threshold for the hold
+ * period, the interval doubles after every further hold period until it
+ * is back at the floor interval. The thresholds can be overridden with
+ * system properties, eg. -Dtrik.adaptive.coreLoad=75
+ */
+public class AdaptiveSampler {
+  private static final Logger logger = Logger.getLogger("(AdaptiveSampler)");
+
+  public static final long DEFAULT_FAST_INTERVAL = 500;
+  public static final long DEFAULT_FLOOR_INTERVAL = MeTrik.COLLECT_INTERVAL;
+  public static final long DEFAULT_HOLD = 30000;
+  public static final double DEFAULT_MEMORY_LOW = 0.05;
+  public static final double DEFAULT_MEMORY_DROP = 0.05;
+  public static final double DEFAULT_CORE_LOAD = 90;
+  public static final int DEFAULT_PROCESS_CHURN = 10;
+
+  public final long fastInterval;
+  public final long floorInterval;
+  public final long hold;
+  public final double memoryLow;
+  public final double memoryDrop;
+  public final double coreLoad;
+  public final int processChurn;
+
+  private long interval;
+  private long lastTrigger = 0;
+  private long lastChange = 0;
+  private long lastAvail = -1;
+  private long triggers = 0;
+
+  /**
+   * AdaptiveSampler
+   *
+   * @param fastInterval Milliseconds between samples while the system is busy
+   * @param floorInterval Milliseconds between samples while it is quiet
+   * @param hold Milliseconds without a threshold crossed before each backoff
+   * @param memoryLow Fraction of total memory available below which to speed up
+   * @param memoryDrop Drop in available memory between two samples, as a
+   *                   fraction of total memory, at which to speed up
+   * @param coreLoad Percentage of a core's time not idle at which to speed up
+   * @param processChurn Number of processes started and exited in a round at
+   *                     which to speed up
+   */
+  public AdaptiveSampler(long fastInterval, long floorInterval, long hold,
+                         double memoryLow, double memoryDrop, double coreLoad,
+                         int processChurn) {
+    if(fastInterval <= 0 || floorInterval < fastInterval) {
+      throw new IllegalArgumentException("Intervals must be positive, the floor no faster");
+    }
+    this.fastInterval = fastInterval;
+    this.floorInterval = floorInterval;
+    this.hold = hold;
+    this.memoryLow = memoryLow;
+    this.memoryDrop = memoryDrop;
+    this.coreLoad = coreLoad;
+    this.processChurn = processChurn;
+    this.interval = floorInterval;
+  }
+
+  /**
+   * fromSystemProperties
+   *
+   * Builds a sampler from the trik.adaptive.* system properties, falling
+   * back to the defaults for any that are not set.
+   *
+   * @return the resulting sampler
+   */
+  public static AdaptiveSampler fromSystemProperties() {
+    return new AdaptiveSampler(
+            Long.getLong("trik.adaptive.fastInterval", DEFAULT_FAST_INTERVAL),
+            Long.getLong("trik.adaptive.floorInterval", DEFAULT_FLOOR_INTERVAL),
+            Long.getLong("trik.adaptive.hold", DEFAULT_HOLD),
+            Double.parseDouble(System.getProperty("trik.adaptive.memoryLow",
+                    String.valueOf(DEFAULT_MEMORY_LOW))),
+            Double.parseDouble(System.getProperty("trik.adaptive.memoryDrop",
+                    String.valueOf(DEFAULT_MEMORY_DROP))),
+            Double.parseDouble(System.getProperty("trik.adaptive.coreLoad",
+                    String.valueOf(DEFAULT_CORE_LOAD))),
+            Integer.getInteger("trik.adaptive.processChurn", DEFAULT_PROCESS_CHURN));
+  }
+
+  /**
+   * observe
+   *
+   * Checks a round against the thresholds and updates the interval.
+   *
+   * @param round the latest round of collection
+   * @return true if the interval changed
+   */
+  public boolean observe(CollectionRound round) {
+    String reason = trigger(round);
+    if(reason != null) {
+      triggers++;
+      lastTrigger = round.timestamp;
+      if(interval != fastInterval) {
+        logger.info(String.format("Sampling every %1$d ms: %2$s", fastInterval, reason));
+        return change(fastInterval, round.timestamp);
+      }
+    } else if(interval < floorInterval
+            && round.timestamp - Math.max(lastTrigger, lastChange) >= hold) {
+      logger.info(String.format("Sampling every %1$d ms", Math.min(floorInterval, interval * 2)));
+      return change(Math.min(floorInterval, interval * 2), round.timestamp);
+    }
+    return false;
+  }
+
+  private boolean change(long interval, long timestamp) {
+    this.interval = interval;
+    lastChange = timestamp;
+    return true;
+  }
+
+  /**
+   * trigger
+   *
+   * @param round a round of collection
+   * @return which threshold the round crossed, or null if none
+   */
+  private String trigger(CollectionRound round) {
+    String reason = null;
+    if(round.memory != null && round.memory.total > 0) {
+      long avail = round.memory.avail;
+      if(avail < memoryLow * round.memory.total) {
+        reason = "available memory is low";
+      } else if(lastAvail >= 0 && lastAvail - avail >= memoryDrop * round.memory.total) {
+        reason = "available memory dropped";
+      }
+      lastAvail = avail;
+    }
+
+    for(CollectionRound.CpuData core : round.cpus) {
+      if(reason == null && core.coreNum >= 0 && 100 - core.idlePct >= coreLoad) {
+        reason = "core " + core.coreNum + " is busy";
+      }
+    }
+
+    int churn = 0;
+    for(CollectionRound.ProcessData proc : round.processes) {
+      if(proc.event == CollectionRound.ProcessEvent.START
+              || proc.event == CollectionRound.ProcessEvent.EXIT) {
+        churn++;
+      }
+    }
+    if(reason == null && churn >= processChurn) {
+      reason = churn + " processes started or exited";
+    }
+    return reason;
+  }
+
+  /**
+   * getInterval
+   *
+   * @return Milliseconds between samples of the adaptive collectors
+   */
+  public long getInterval() {
+    return interval;
+  }
+
+  /**
+   * getTriggers
+   *
+   * @return Number of rounds that crossed a threshold
+   */
+  public long getTriggers() {
+    return triggers;
+  }
+}
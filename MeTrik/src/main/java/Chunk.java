@@ -0,0 +1,365 @@
+import java.util.Arrays;
+
+/**
+ * Chunk
+ *
+ * Compressed encoding of the rows of one series over a closed window of
+ * time, after Facebook's Gorilla. Timestamps and integer columns store the
+ * delta of their delta, which is 0, a single bit, for regular intervals
+ * and steady values. Double columns store the XOR with the previous value,
+ * which is 0 when it did not change, and otherwise only its meaningful
+ * bits. Nullable columns spend one bit per row on whether they have a
+ * value; rows without one leave the column's state alone.
+ *
+ * The encoding is a version byte, the number of rows (int) and the bit
+ * stream, rows one after the other, each row its timestamp and then its
+ * columns in order.
+ */
+public class Chunk {
+  public static final byte VERSION = 1;
+
+  // Column kinds, NULLABLE is combined with LONG or DOUBLE
+  public static final int LONG = 0;
+  public static final int DOUBLE = 1;
+  public static final int NULLABLE = 2;
+
+  private static final int HEADER_SIZE = 5;
+
+  /**
+   * Encoder
+   *
+   * Encodes rows in timestamp order. Each row is started with row and its
+   * columns are then put in order.
+   */
+  public static class Encoder {
+    private final int[] kinds;
+    private final BitWriter out = new BitWriter();
+    private int count = 0;
+    private int column;
+
+    // Delta-of-delta state of the timestamps and LONG columns, XOR state
+    // of the DOUBLE columns
+    private long timestamp = 0;
+    private long timestampDelta = 0;
+    private final long[] values;
+    private final long[] deltas;
+    private final int[] leading;
+    private final int[] trailing;
+
+    /**
+     * Encoder
+     *
+     * @param kinds Kind of each column, eg. DOUBLE | NULLABLE
+     */
+    public Encoder(int[] kinds) {
+      this.kinds = kinds.clone();
+      this.values = new long[kinds.length];
+      this.deltas = new long[kinds.length];
+      this.leading = new int[kinds.length];
+      this.trailing = new int[kinds.length];
+      Arrays.fill(leading, -1);
+      this.column = kinds.length;
+    }
+
+    /**
+     * row
+     *
+     * Starts the next row.
+     *
+     * @param timestamp UNIX timestamp in milliseconds, not before the previous row's
+     */
+    public Encoder row(long timestamp) {
+      if(column != kinds.length) {
+        throw new IllegalStateException("Row " + count + " is missing columns");
+      }
+      long delta = timestamp - this.timestamp;
+      writeDeltaOfDelta(out, delta - timestampDelta);
+      this.timestamp = timestamp;
+      this.timestampDelta = delta;
+      column = 0;
+      count++;
+      return this;
+    }
+
+    public Encoder putLong(long value) {
+      int i = nextColumn(LONG, true);
+      long delta = value - values[i];
+      writeDeltaOfDelta(out, delta - deltas[i]);
+      values[i] = value;
+      deltas[i] = delta;
+      return this;
+    }
+
+    public Encoder putDouble(double value) {
+      int i = nextColumn(DOUBLE, true);
+      long bits = Double.doubleToRawLongBits(value);
+      long xor = bits ^ values[i];
+      values[i] = bits;
+      if(xor == 0) {
+        out.write(0, 1);
+        return this;
+      }
+      out.write(1, 1);
+
+      int lead = Math.min(Long.numberOfLeadingZeros(xor), 31);
+      int trail = Long.numberOfTrailingZeros(xor);
+      if(leading[i] >= 0 && lead >= leading[i] && trail >= trailing[i]) {
+        // Meaningful bits fit in the previous window
+        out.write(0, 1);
+        out.write(xor >>> trailing[i], 64 - leading[i] - trailing[i]);
+      } else {
+        int length = 64 - lead - trail;
+        out.write(1, 1);
+        out.write(lead, 5);
+        out.write(length - 1, 6);
+        out.write(xor >>> trail, length);
+        leading[i] = lead;
+        trailing[i] = trail;
+      }
+      return this;
+    }
+
+    /**
+     * putNull
+     *
+     * Puts no value in the next column, which must be NULLABLE.
+     */
+    public Encoder putNull() {
+      if(column >= kinds.length || (kinds[column] & NULLABLE) == 0) {
+        throw new IllegalStateException("Column " + column + " is not nullable");
+      }
+      out.write(0, 1);
+      column++;
+      return this;
+    }
+
+    private int nextColumn(int kind, boolean present) {
+      if(column >= kinds.length || (kinds[column] & DOUBLE) != kind) {
+        throw new IllegalStateException("Column " + column + " is not of kind " + kind);
+      }
+      if((kinds[column] & NULLABLE) != 0) {
+        out.write(present ? 1 : 0, 1);
+      }
+      return column++;
+    }
+
+    /**
+     * getCount
+     *
+     * @return Number of rows encoded
+     */
+    public int getCount() {
+      return count;
+    }
+
+    /**
+     * finish
+     *
+     * @return the encoded chunk
+     */
+    public byte[] finish() {
+      if(column != kinds.length) {
+        throw new IllegalStateException("Row " + count + " is missing columns");
+      }
+      byte[] bits = out.toByteArray();
+      byte[] data = new byte[HEADER_SIZE + bits.length];
+      data[0] = VERSION;
+      data[1] = (byte) (count >>> 24);
+      data[2] = (byte) (count >>> 16);
+      data[3] = (byte) (count >>> 8);
+      data[4] = (byte) count;
+      System.arraycopy(bits, 0, data, HEADER_SIZE, bits.length);
+      return data;
+    }
+  }
+
+  /**
+   * Decoder
+   *
+   * Iterates over the rows of an encoded chunk.
+   */
+  public static class Decoder {
+    private final int[] kinds;
+    private final BitReader in;
+    private final int count;
+    private int row = 0;
+
+    private long timestamp = 0;
+    private long timestampDelta = 0;
+    private final long[] values;
+    private final long[] deltas;
+    private final int[] leading;
+    private final int[] trailing;
+    private final boolean[] present;
+
+    /**
+     * Decoder
+     *
+     * @param data the encoded chunk
+     * @param kinds Kind of each column, as they were encoded
+     * @throws IllegalArgumentException if data is not a chunk of this version
+     */
+    public Decoder(byte[] data, int[] kinds) {
+      if(data.length < HEADER_SIZE || data[0] != VERSION) {
+        throw new IllegalArgumentException("Not a version " + VERSION + " chunk");
+      }
+      this.kinds = kinds.clone();
+      this.count = ((data[1] & 0xff) << 24) | ((data[2] & 0xff) << 16)
+              | ((data[3] & 0xff) << 8) | (data[4] & 0xff);
+      this.in = new BitReader(data, HEADER_SIZE);
+      this.values = new long[kinds.length];
+      this.deltas = new long[kinds.length];
+      this.leading = new int[kinds.length];
+      this.trailing = new int[kinds.length];
+      this.present = new boolean[kinds.length];
+    }
+
+    /**
+     * next
+     *
+     * Moves to the next row.
+     *
+     * @return false if there are no more rows
+     */
+    public boolean next() {
+      if(row == count) {
+        return false;
+      }
+      row++;
+      timestampDelta += readDeltaOfDelta(in);
+      timestamp += timestampDelta;
+
+      for(int i = 0; i < kinds.length; i++) {
+        present[i] = (kinds[i] & NULLABLE) == 0 || in.read(1) == 1;
+        if(!present[i]) {
+          continue;
+        }
+        if((kinds[i] & DOUBLE) == 0) {
+          deltas[i] += readDeltaOfDelta(in);
+          values[i] += deltas[i];
+        } else if(in.read(1) == 1) {
+          if(in.read(1) == 1) {
+            leading[i] = (int) in.read(5);
+            int length = (int) in.read(6) + 1;
+            trailing[i] = 64 - leading[i] - length;
+          }
+          int length = 64 - leading[i] - trailing[i];
+          values[i] ^= in.read(length) << trailing[i];
+        }
+      }
+      return true;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public boolean isNull(int column) {
+      return !present[column];
+    }
+
+    public long getLong(int column) {
+      return values[column];
+    }
+
+    public double getDouble(int column) {
+      return Double.longBitsToDouble(values[column]);
+    }
+  }
+
+  /**
+   * writeDeltaOfDelta
+   *
+   * Writes a delta of delta with a prefix for the smallest range it
+   * fits: 0 for none, then 7, 9 and 12 bits, and 64 bits for the rest.
+   */
+  private static void writeDeltaOfDelta(BitWriter out, long dod) {
+    if(dod == 0) {
+      out.write(0, 1);
+    } else if(dod >= -63 && dod <= 64) {
+      out.write(0b10, 2);
+      out.write(dod + 63, 7);
+    } else if(dod >= -255 && dod <= 256) {
+      out.write(0b110, 3);
+      out.write(dod + 255, 9);
+    } else if(dod >= -2047 && dod <= 2048) {
+      out.write(0b1110, 4);
+      out.write(dod + 2047, 12);
+    } else {
+      out.write(0b1111, 4);
+      out.write(dod, 64);
+    }
+  }
+
+  private static long readDeltaOfDelta(BitReader in) {
+    if(in.read(1) == 0) {
+      return 0;
+    } else if(in.read(1) == 0) {
+      return in.read(7) - 63;
+    } else if(in.read(1) == 0) {
+      return in.read(9) - 255;
+    } else if(in.read(1) == 0) {
+      return in.read(12) - 2047;
+    }
+    return in.read(64);
+  }
+
+  /**
+   * BitWriter
+   *
+   * Growable bit stream, most significant bit first.
+   */
+  private static class BitWriter {
+    private byte[] bytes = new byte[64];
+    private long bits = 0; // number of bits written
+
+    void write(long value, int length) {
+      for(int i = length - 1; i >= 0; i--) {
+        int index = (int) (bits >>> 3);
+        if(index == bytes.length) {
+          bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        if(((value >>> i) & 1) != 0) {
+          bytes[index] |= 0x80 >>> (bits & 7);
+        }
+        bits++;
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, (int) ((bits + 7) >>> 3));
+    }
+  }
+
+  /**
+   * BitReader
+   *
+   * Reads a stream written by BitWriter.
+   */
+  private static class BitReader {
+    private final byte[] bytes;
+    private long position;
+
+    BitReader(byte[] bytes, int offset) {
+      this.bytes = bytes;
+      this.position = (long) offset << 3;
+    }
+
+    long read(int length) {
+      long value = 0;
+      for(int i = 0; i < length; i++) {
+        int index = (int) (position >>> 3);
+        if(index >= bytes.length) {
+          throw new IllegalArgumentException("Chunk is truncated");
+        }
+        value = (value << 1) | ((bytes[index] >>> (7 - (position & 7))) & 1);
+        position++;
+      }
+      return value;
+    }
+  }
+}
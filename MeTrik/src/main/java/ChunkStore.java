@@ -0,0 +1,391 @@
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ChunkStore
+ *
+ * Moves the rows of MemoryData, PowerData, SystemData and CpuData into
+ * compressed chunks once their window of time is closed. Each chunk holds
+ * one series (the CPU core for CpuData) of one family over one window, in
+ * the DataChunk table, and replaces the rows it was made from.
+ */
+public class ChunkStore {
+  private static final Logger logger = Logger.getLogger("(ChunkStore)");
+
+  public static final String TABLE = "DataChunk";
+  public static final String DDL = "CREATE TABLE IF NOT EXISTS DataChunk (\n"
+          + " systemID INTEGER NOT NULL, \n"
+          + " family TEXT NOT NULL, \n"
+          + " series INTEGER NOT NULL, \n"
+          + " timestamp INTEGER NOT NULL, \n"
+          + " endTime INTEGER NOT NULL, \n"
+          + " count INTEGER NOT NULL, \n"
+          + " data BLOB NOT NULL, \n"
+          + " PRIMARY KEY(systemID, family, series, timestamp), \n"
+          + " FOREIGN KEY(systemID) REFERENCES System(id) \n"
+          + " );";
+  public static final String END_TIME_INDEX = "CREATE INDEX IF NOT EXISTS "
+          + "DataChunk_endTime ON DataChunk(systemID, family, series, endTime);";
+
+  // Windows converted per family on each pass, so catching up after a
+  // long downtime is spread over several rounds
+  public static final int MAX_WINDOWS = 4;
+
+  private static final String CHUNK_UPSERT = "INSERT OR REPLACE INTO DataChunk(" +
+          "systemID, family, series, timestamp, endTime, count, data) " +
+          "VALUES (?, ?, ?, ?, ?, ?, ?)";
+  private static final String CHUNK_SELECT = "SELECT series, data FROM DataChunk " +
+          "WHERE systemID = ? AND family = ? AND timestamp = ?";
+  private static final String CHUNK_RANGE = "SELECT data FROM DataChunk " +
+          "WHERE systemID = ? AND family = ? AND series = ? " +
+          "AND endTime >= ? AND timestamp <= ? ORDER BY timestamp";
+  private static final String CHUNK_EXPIRE =
+          "DELETE FROM DataChunk WHERE family = ? AND endTime < ?";
+
+  /**
+   * Family
+   *
+   * A table whose rows are converted into chunks, and how its columns are
+   * encoded.
+   */
+  public static class Family {
+    public final String name;
+    public final String series; // column that tells series apart, or null
+    public final String[] columns;
+    public final int[] kinds;
+
+    Family(String name, String series, String[] columns, int[] kinds) {
+      this.name = name;
+      this.series = series;
+      this.columns = columns;
+      this.kinds = kinds;
+    }
+  }
+
+  private static final int NULLABLE_DOUBLE = Chunk.DOUBLE | Chunk.NULLABLE;
+  private static final int NULLABLE_LONG = Chunk.LONG | Chunk.NULLABLE;
+
+  public static final Family MEMORY_DATA = new Family("MemoryData", null,
+          new String[] {"avail", "total"},
+          new int[] {Chunk.LONG, Chunk.LONG});
+  public static final Family POWER_DATA = new Family("PowerData", null,
+          new String[] {"currCapPer", "currCapTime", "temp", "isCharg"},
+          new int[] {Chunk.DOUBLE, Chunk.DOUBLE, Chunk.DOUBLE, Chunk.LONG});
+  public static final Family SYSTEM_DATA = new Family("SystemData", null,
+          new String[] {"bootTime", "upTime", "procs", "servs", "threads"},
+          new int[] {Chunk.LONG, Chunk.LONG, Chunk.LONG, Chunk.LONG, Chunk.LONG});
+  public static final Family CPU_DATA = new Family("CpuData", "coreNum",
+          new String[] {"currFreq", "maxFreq", "userPct", "sysPct", "idlePct",
+                  "ioPct", "stealPct", "userTicks", "niceTicks", "sysTicks",
+                  "idleTicks", "ioTicks", "irqTicks", "sirqTicks", "stealTicks"},
+          new int[] {Chunk.LONG, Chunk.LONG, NULLABLE_DOUBLE, NULLABLE_DOUBLE,
+                  NULLABLE_DOUBLE, NULLABLE_DOUBLE, NULLABLE_DOUBLE, NULLABLE_LONG,
+                  NULLABLE_LONG, NULLABLE_LONG, NULLABLE_LONG, NULLABLE_LONG,
+                  NULLABLE_LONG, NULLABLE_LONG, NULLABLE_LONG});
+
+  private final Map<String, Family> families = new LinkedHashMap<>();
+  private final Map<String, PartitionedTable> partitioned;
+  private long span;
+
+  /**
+   * ChunkStore
+   *
+   * @param span Milliseconds of rows held by each chunk, 0 to keep every
+   *             row as it is
+   * @param partitioned Partitioned tables by name, to delete converted rows
+   *                    from their partitions
+   */
+  public ChunkStore(long span, Map<String, PartitionedTable> partitioned) {
+    this.span = span;
+    this.partitioned = partitioned;
+    for(Family family : new Family[] {MEMORY_DATA, POWER_DATA, SYSTEM_DATA, CPU_DATA}) {
+      families.put(family.name, family);
+    }
+  }
+
+  public void setSpan(long span) {
+    this.span = span;
+  }
+
+  public long getSpan() {
+    return span;
+  }
+
+  /**
+   * getFamily
+   *
+   * @param name Name of the table
+   * @return the family, or null if the table is not converted into chunks
+   */
+  public Family getFamily(String name) {
+    return families.get(name);
+  }
+
+  /**
+   * compact
+   *
+   * Converts the rows of the closed windows into chunks, oldest first and
+   * at most MAX_WINDOWS per family. Rows that arrive for a window that
+   * already has a chunk are merged into it.
+   *
+   * @param conn the writer connection, in a transaction
+   * @param systemID ID of the system
+   * @param now UNIX timestamp in milliseconds, windows that end after it are open
+   * @return Number of rows converted
+   * @throws SQLException if the rows cannot be converted
+   */
+  public int compact(Connection conn, int systemID, long now) throws SQLException {
+    if(span <= 0) {
+      return 0;
+    }
+
+    int converted = 0;
+    for(Family family : families.values()) {
+      for(int i = 0; i < MAX_WINDOWS; i++) {
+        Long oldest = oldest(conn, family);
+        if(oldest == null) {
+          break;
+        }
+        long window = oldest - Math.floorMod(oldest, span);
+        if(window + span > now) {
+          break;
+        }
+        converted += compactWindow(conn, systemID, family, window);
+      }
+    }
+    if(converted > 0) {
+      logger.info(String.format("%1$d rows converted into chunks", converted));
+    }
+    return converted;
+  }
+
+  /**
+   * oldest
+   *
+   * @return Timestamp of the oldest row of the family, or null if it has none
+   */
+  private Long oldest(Connection conn, Family family) throws SQLException {
+    // MIN over a single table is read from its timestamp index, which
+    // does not work through a view or with other conditions
+    List<String> tables = new ArrayList<>();
+    PartitionedTable table = partitioned.get(family.name);
+    if(table == null) {
+      tables.add(family.name);
+    } else {
+      tables.addAll(table.between(conn, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+    for(String name : tables) {
+      try (PreparedStatement pstmt = conn.prepareStatement(
+              "SELECT MIN(timestamp) FROM " + name)) {
+        ResultSet rs = pstmt.executeQuery();
+        if(rs.next() && rs.getObject(1) != null) {
+          return rs.getLong(1);
+        }
+      }
+    }
+    return null;
+  }
+
+  private int compactWindow(Connection conn, int systemID, Family family, long window)
+          throws SQLException {
+    // Chunks already made for this window, by series
+    Map<Integer, byte[]> existing = new HashMap<>();
+    try (PreparedStatement pstmt = conn.prepareStatement(CHUNK_SELECT)) {
+      pstmt.setInt(1, systemID);
+      pstmt.setString(2, family.name);
+      pstmt.setLong(3, window);
+      ResultSet rs = pstmt.executeQuery();
+      while(rs.next()) {
+        existing.put(rs.getInt(1), rs.getBytes(2));
+      }
+    }
+
+    StringBuilder sql = new StringBuilder("SELECT ")
+            .append(family.series == null ? "0" : family.series).append(", timestamp");
+    for(String column : family.columns) {
+      sql.append(", ").append(column);
+    }
+    sql.append(" FROM ").append(family.name)
+            .append(" WHERE systemID = ? AND timestamp >= ? AND timestamp < ?")
+            .append(" ORDER BY 1, timestamp");
+
+    // Each series is encoded as its rows are read, merged in timestamp
+    // order with the rows of its existing chunk, which come first on a tie
+    int converted = 0;
+    try (PreparedStatement select = conn.prepareStatement(sql.toString());
+         PreparedStatement upsert = conn.prepareStatement(CHUNK_UPSERT)) {
+      select.setInt(1, systemID);
+      select.setLong(2, window);
+      select.setLong(3, window + span);
+      ResultSet rs = select.executeQuery();
+      boolean more = rs.next();
+      while(more) {
+        int series = rs.getInt(1);
+        Chunk.Encoder encoder = new Chunk.Encoder(family.kinds);
+        byte[] data = existing.get(series);
+        Chunk.Decoder decoder = data == null ? null : new Chunk.Decoder(data, family.kinds);
+        boolean old = decoder != null && decoder.next();
+        long endTime = 0;
+        while(more && rs.getInt(1) == series) {
+          long timestamp = rs.getLong(2);
+          while(old && decoder.getTimestamp() <= timestamp) {
+            endTime = copy(family, decoder, encoder);
+            old = decoder.next();
+          }
+          encode(family, rs, encoder);
+          endTime = timestamp;
+          converted++;
+          more = rs.next();
+        }
+        while(old) {
+          endTime = copy(family, decoder, encoder);
+          old = decoder.next();
+        }
+
+        upsert.setInt(1, systemID);
+        upsert.setString(2, family.name);
+        upsert.setInt(3, series);
+        upsert.setLong(4, window);
+        upsert.setLong(5, endTime);
+        upsert.setInt(6, encoder.getCount());
+        upsert.setBytes(7, encoder.finish());
+        upsert.addBatch();
+      }
+      upsert.executeBatch();
+    }
+
+    // Partitioned tables are read through a view, so the rows are deleted
+    // from the partitions the window covers
+    List<String> tables = new ArrayList<>();
+    PartitionedTable table = partitioned.get(family.name);
+    if(table == null) {
+      tables.add(family.name);
+    } else {
+      tables.addAll(table.between(conn, window, window + span));
+    }
+    for(String name : tables) {
+      try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM " + name
+              + " WHERE systemID = ? AND timestamp >= ? AND timestamp < ?")) {
+        pstmt.setInt(1, systemID);
+        pstmt.setLong(2, window);
+        pstmt.setLong(3, window + span);
+        pstmt.executeUpdate();
+      }
+    }
+    return converted;
+  }
+
+  /**
+   * encode
+   *
+   * Adds the row the result set is on to a chunk.
+   */
+  private static void encode(Family family, ResultSet rs, Chunk.Encoder encoder)
+          throws SQLException {
+    encoder.row(rs.getLong(2));
+    for(int i = 0; i < family.columns.length; i++) {
+      if((family.kinds[i] & Chunk.DOUBLE) == 0) {
+        long value = rs.getLong(i + 3);
+        if(rs.wasNull()) {
+          encoder.putNull();
+        } else {
+          encoder.putLong(value);
+        }
+      } else {
+        double value = rs.getDouble(i + 3);
+        if(rs.wasNull()) {
+          encoder.putNull();
+        } else {
+          encoder.putDouble(value);
+        }
+      }
+    }
+  }
+
+  /**
+   * copy
+   *
+   * Adds the row the decoder is on to a chunk.
+   *
+   * @return Timestamp of the row
+   */
+  private static long copy(Family family, Chunk.Decoder decoder, Chunk.Encoder encoder) {
+    encoder.row(decoder.getTimestamp());
+    for(int i = 0; i < family.columns.length; i++) {
+      if(decoder.isNull(i)) {
+        encoder.putNull();
+      } else if((family.kinds[i] & Chunk.DOUBLE) == 0) {
+        encoder.putLong(decoder.getLong(i));
+      } else {
+        encoder.putDouble(decoder.getDouble(i));
+      }
+    }
+    return decoder.getTimestamp();
+  }
+
+  /**
+   * read
+   *
+   * Gets the chunks of a series that may hold rows from from to to,
+   * oldest first. Rows outside of the range are left for the caller to
+   * skip.
+   *
+   * @param conn a connection to the database
+   * @param systemID ID of the system
+   * @param family Name of the table
+   * @param series Series of the rows, eg. the CPU core, 0 if there is one
+   * @param from UNIX timestamp in milliseconds of the first rows
+   * @param to UNIX timestamp in milliseconds of the last rows
+   * @return a decoder for each chunk
+   * @throws SQLException if the chunks cannot be read
+   */
+  public List<Chunk.Decoder> read(Connection conn, int systemID, String family, int series,
+                                  long from, long to) throws SQLException {
+    Family definition = families.get(family);
+    if(definition == null) {
+      throw new IllegalArgumentException("Not stored in chunks: " + family);
+    }
+
+    List<Chunk.Decoder> chunks = new ArrayList<>();
+    try (PreparedStatement pstmt = conn.prepareStatement(CHUNK_RANGE)) {
+      pstmt.setInt(1, systemID);
+      pstmt.setString(2, family);
+      pstmt.setInt(3, series);
+      pstmt.setLong(4, from);
+      pstmt.setLong(5, to);
+      ResultSet rs = pstmt.executeQuery();
+      while(rs.next()) {
+        chunks.add(new Chunk.Decoder(rs.getBytes(1), definition.kinds));
+      }
+    }
+    return chunks;
+  }
+
+  /**
+   * expire
+   *
+   * Removes the chunks of a family whose every row is older than the cutoff.
+   *
+   * @param conn the writer connection
+   * @param family Name of the table
+   * @param cutoff UNIX timestamp in milliseconds rows must be older than
+   * @return Number of chunks removed
+   * @throws SQLException if the chunks cannot be removed
+   */
+  public int expire(Connection conn, String family, long cutoff) throws SQLException {
+    try (PreparedStatement pstmt = conn.prepareStatement(CHUNK_EXPIRE)) {
+      pstmt.setString(1, family);
+      pstmt.setLong(2, cutoff);
+      return pstmt.executeUpdate();
+    }
+  }
+}
@@ -0,0 +1,312 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CollectionRound
+ *
+ * Holds the data gathered by a single round of collection so that it
+ * can be written to the database in one transaction.
+ * Every entry in a round shares the round's timestamp.
+ */
+public class CollectionRound {
+  // Names of the collectors, which MeTrik schedules under these names
+  public static final String MEMORY = "Memory";
+  public static final String POWER = "Power";
+  public static final String PROCESS = "Process";
+  public static final String SYSTEM = "System";
+  public static final String CPU = "Cpu";
+
+  public final long timestamp;
+
+  public MemoryData memory;
+  public PowerData power;
+  public SystemData system;
+  public final List<ProcessData> processes = new ArrayList<>(); // change events
+  public final List<CpuData> cpus = new ArrayList<>();
+  public final List<Instrumentation.Summary> instrumentation = new ArrayList<>();
+
+  // Milliseconds between runs of each collector that filled the round, by
+  // collector name, ie. the time its entries stand for
+  public final Map<String, Long> intervals = new HashMap<>();
+
+  /**
+   * CollectionRound
+   *
+   * @param timestamp UNIX timestamp in milliseconds shared by every entry
+   */
+  public CollectionRound(long timestamp) {
+    this.timestamp = timestamp;
+  }
+
+  /**
+   * absorb
+   *
+   * Coalesces an older round into this one. Every family of data this
+   * round does not have is taken from the older round, so that nothing
+   * newer is lost when two rounds are merged. Process events are state
+   * changes rather than samples, so the older round's events are kept
+   * ahead of this round's.
+   *
+   * @param older the round being merged into this one
+   */
+  public void absorb(CollectionRound older) {
+    if(memory == null) {
+      memory = older.memory;
+    }
+    if(power == null) {
+      power = older.power;
+    }
+    if(system == null) {
+      system = older.system;
+    }
+    processes.addAll(0, older.processes);
+    if(cpus.isEmpty()) {
+      cpus.addAll(older.cpus);
+    }
+    if(instrumentation.isEmpty()) {
+      instrumentation.addAll(older.instrumentation);
+    }
+    older.intervals.forEach(intervals::putIfAbsent);
+  }
+
+  /**
+   * getInterval
+   *
+   * @param collector Name of a collector, eg. CollectionRound.MEMORY
+   * @return Milliseconds between runs of the collector when it filled this
+   *         round, 0 if the round is not tagged with it
+   */
+  public long getInterval(String collector) {
+    Long interval = intervals.get(collector);
+    return interval == null ? 0 : interval;
+  }
+
+  /**
+   * SystemInfo
+   *
+   * The entry for the System table. It is static, so it is collected once
+   * instead of with every round.
+   */
+  public static class SystemInfo {
+    public final String os;
+    public final String codeName;
+    public final String version;
+    public final String cpuSignature;
+    public final int cpuCores;
+    public final long cpuVendFreq;
+
+    public SystemInfo(String os, String codeName, String version, String cpuSignature,
+                      int cpuCores, long cpuVendFreq) {
+      this.os = os;
+      this.codeName = codeName;
+      this.version = version;
+      this.cpuSignature = cpuSignature;
+      this.cpuCores = cpuCores;
+      this.cpuVendFreq = cpuVendFreq;
+    }
+  }
+
+  /**
+   * MemoryData
+   *
+   * An entry for the MemoryData table.
+   */
+  public static class MemoryData {
+    public final long avail;
+    public final long total;
+
+    public MemoryData(long avail, long total) {
+      this.avail = avail;
+      this.total = total;
+    }
+  }
+
+  /**
+   * PowerData
+   *
+   * An entry for the PowerData table.
+   */
+  public static class PowerData {
+    public final double currCapPer;
+    public final double currCapTime;
+    public final double temp;
+    public final int isCharg;
+
+    public PowerData(double currCapPer, double currCapTime, double temp, int isCharg) {
+      this.currCapPer = currCapPer;
+      this.currCapTime = currCapTime;
+      this.temp = temp;
+      this.isCharg = isCharg;
+    }
+  }
+
+  /**
+   * SystemData
+   *
+   * An entry for the SystemData table.
+   */
+  public static class SystemData {
+    public final long bootTime;
+    public final long upTime;
+    public final int procs;
+    public final int servs;
+    public final int threads;
+
+    public SystemData(long bootTime, long upTime, int procs, int servs, int threads) {
+      this.bootTime = bootTime;
+      this.upTime = upTime;
+      this.procs = procs;
+      this.servs = servs;
+      this.threads = threads;
+    }
+  }
+
+  /**
+   * ProcessEvent
+   *
+   * What happened to a process since the previous pass. The ordinal is
+   * stored in the ProcessEvent table. FOLD is a process that is still
+   * running but was folded into its user's "other" row, see ProcessCapture.
+   */
+  public enum ProcessEvent { START, UPDATE, EXIT, FOLD }
+
+  /**
+   * ProcessData
+   *
+   * A change to the ProcessData table. START and UPDATE events set the
+   * process's entry, EXIT and FOLD events remove it. cpuUsage is the share of one
+   * logical processor used since the previous pass, and bytesRead and
+   * bytesWritten count the I/O since the process started.
+   */
+  public static class ProcessData {
+    public final ProcessEvent event;
+    public final int procID;
+    public final String name;
+    public final String user;
+    public final long startTime;
+    public final long upTime;
+    public final double cpuUsage;
+    public final long residentSize;
+    public final long virtualSize;
+    public final int threads;
+    public final long bytesRead;
+    public final long bytesWritten;
+
+    public ProcessData(int procID, String name, String user, long startTime,
+                       long upTime, double cpuUsage) {
+      this(ProcessEvent.START, procID, name, user, startTime, upTime, cpuUsage);
+    }
+
+    public ProcessData(ProcessEvent event, int procID, String name, String user,
+                       long startTime, long upTime, double cpuUsage) {
+      this(event, procID, name, user, startTime, upTime, cpuUsage, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * ProcessData
+     *
+     * @param event What happened to the process
+     * @param procID Process ID
+     * @param name Name of the process
+     * @param user User running the process
+     * @param startTime UNIX timestamp in milliseconds of when the process started
+     * @param upTime Milliseconds since the process started
+     * @param cpuUsage Share of one logical processor used since the previous pass
+     * @param residentSize Bytes of physical memory in use
+     * @param virtualSize Bytes of virtual memory mapped
+     * @param threads Number of threads
+     * @param bytesRead Bytes read from disk since the process started
+     * @param bytesWritten Bytes written to disk since the process started
+     */
+    public ProcessData(ProcessEvent event, int procID, String name, String user,
+                       long startTime, long upTime, double cpuUsage,
+                       long residentSize, long virtualSize, int threads,
+                       long bytesRead, long bytesWritten) {
+      this.event = event;
+      this.procID = procID;
+      this.name = name;
+      this.user = user;
+      this.startTime = startTime;
+      this.upTime = upTime;
+      this.cpuUsage = cpuUsage;
+      this.residentSize = residentSize;
+      this.virtualSize = virtualSize;
+      this.threads = threads;
+      this.bytesRead = bytesRead;
+      this.bytesWritten = bytesWritten;
+    }
+
+    /**
+     * withEvent
+     *
+     * @param event the event to record
+     * @return a copy of this entry for the given event
+     */
+    public ProcessData withEvent(ProcessEvent event) {
+      if(event == this.event) {
+        return this;
+      }
+      return new ProcessData(event, procID, name, user, startTime, upTime, cpuUsage,
+              residentSize, virtualSize, threads, bytesRead, bytesWritten);
+    }
+
+    /**
+     * withStartTime
+     *
+     * @param startTime UNIX timestamp in milliseconds of when the process started
+     * @return a copy of this entry with the given start time
+     */
+    public ProcessData withStartTime(long startTime) {
+      return new ProcessData(event, procID, name, user, startTime, upTime, cpuUsage,
+              residentSize, virtualSize, threads, bytesRead, bytesWritten);
+    }
+  }
+
+  /**
+   * CpuData
+   *
+   * An entry for the CpuData table. coreNum is -1 for the entry that
+   * covers all logical processors together.
+   */
+  public static class CpuData {
+    public final int coreNum;
+    public final long currFreq;
+    public final long maxFreq;
+    public final double userPct;
+    public final double sysPct;
+    public final double idlePct;
+    public final double ioPct;
+    public final double stealPct;
+    public final long[] ticks;
+
+    /**
+     * CpuData
+     *
+     * @param coreNum Index number of this logical processor, -1 for all
+     * @param currFreq Current frequency (in Hz)
+     * @param maxFreq Maximum frequency (in Hz)
+     * @param userPct Percentage of the interval spent in user and nice states
+     * @param sysPct Percentage of the interval spent in system state and interrupts
+     * @param idlePct Percentage of the interval spent idle
+     * @param ioPct Percentage of the interval spent in IOWait state
+     * @param stealPct Percentage of the interval spent in steal state
+     * @param ticks Raw ticks since boot in OSHI's TickType order, or null
+     *              if raw ticks are not stored
+     */
+    public CpuData(int coreNum, long currFreq, long maxFreq, double userPct,
+                   double sysPct, double idlePct, double ioPct, double stealPct,
+                   long[] ticks) {
+      this.coreNum = coreNum;
+      this.currFreq = currFreq;
+      this.maxFreq = maxFreq;
+      this.userPct = userPct;
+      this.sysPct = sysPct;
+      this.idlePct = idlePct;
+      this.ioPct = ioPct;
+      this.stealPct = stealPct;
+      this.ticks = ticks;
+    }
+  }
+}
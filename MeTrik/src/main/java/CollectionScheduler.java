@@ -0,0 +1,517 @@
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * CollectionScheduler
+ *
+ * Runs collectors at fixed rates, each with its own interval. Ticks are
+ * aligned to wall-clock multiples of the base tick (the greatest common
+ * divisor of the intervals), so rounds land on the same boundaries no matter
+ * how long collection takes. When a tick overruns into the following ones,
+ * the missed ticks are counted and skipped rather than run back to back.
+ *
+ * The collectors due on a tick run concurrently, each with a timeout, and
+ * the part of the round each one fills is dispatched as soon as it
+ * finishes, while the ticks go on at their own rate. A collector that
+ * fails or times out is cancelled, logged and left out of the round, and
+ * is skipped on later ticks until its last run finishes. State a collector
+ * keeps between runs is updated by its merge step, on the scheduler's
+ * thread, only for parts that are dispatched.
+ *
+ * Intervals can be changed between ticks with setInterval, and every part
+ * of a round is tagged with the interval of the collector that filled it.
+ */
+public class CollectionScheduler {
+  private static final Logger logger = Logger.getLogger("(CollectionScheduler)");
+
+  private final List<Collector> collectors = new ArrayList<>();
+  private final Consumer<CollectionRound> dispatcher;
+  private final long timeout;
+  private final ExecutorService executor = newExecutor();
+  private long baseTick;
+  private long lastTick;
+  private volatile boolean running = true;
+  // Runs whose parts have not been dispatched or timed out yet, and runs
+  // that finished, in the order they finished
+  private final List<Run> pending = new ArrayList<>();
+  private final BlockingQueue<Run> completed = new LinkedBlockingQueue<>();
+
+  // Counters
+  private long ticks;
+  private long overruns;
+  private long missedTicks;
+  private long timeouts;
+  private long failures;
+  private long skipped;
+
+  /**
+   * Collector
+   *
+   * A collector and the interval it runs at.
+   */
+  private static class Collector {
+    final String name;
+    long interval;
+    final Consumer<CollectionRound> collect;
+    final Consumer<CollectionRound> merge;
+    final LatencyHistogram latency;
+    long nextDue;
+    // Set while a run has not finished, only on the scheduler's thread
+    boolean busy;
+
+    Collector(String name, long interval, Consumer<CollectionRound> collect,
+              Consumer<CollectionRound> merge) {
+      this.name = name;
+      this.interval = interval;
+      this.collect = collect;
+      this.merge = merge;
+      this.latency = Instrumentation.histogram("collector." + name);
+    }
+  }
+
+  /**
+   * Run
+   *
+   * One run of a collector and the part of a round it fills. Every run
+   * is put on the completed queue exactly once: when it finishes, or when
+   * it is cancelled before it started.
+   */
+  private class Run {
+    final Collector collector;
+    final CollectionRound part;
+    final long tickStart;
+    final long deadline;
+    final FutureTask<Void> future;
+    // Taken by whichever comes first of starting and cancelling
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    volatile Throwable failure;
+
+    Run(Collector collector, CollectionRound part, long tickStart, long deadline) {
+      this.collector = collector;
+      this.part = part;
+      this.tickStart = tickStart;
+      this.deadline = deadline;
+      this.future = new FutureTask<>(this::collect, null);
+    }
+
+    private void collect() {
+      if(!claimed.compareAndSet(false, true)) {
+        return;
+      }
+      long start = System.nanoTime();
+      try {
+        collector.collect.accept(part);
+      } catch (Throwable e) {
+        failure = e;
+      } finally {
+        collector.latency.recordSince(start);
+        completed.add(this);
+      }
+    }
+
+    void cancel() {
+      if(claimed.compareAndSet(false, true)) {
+        future.cancel(false);
+        completed.add(this);
+      } else {
+        future.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * CollectionScheduler
+   *
+   * @param dispatcher Receives each round once its due collectors have run
+   * @param timeout Milliseconds a collector may run before it is cancelled
+   */
+  public CollectionScheduler(Consumer<CollectionRound> dispatcher, long timeout) {
+    this.dispatcher = dispatcher;
+    this.timeout = timeout;
+  }
+
+  /**
+   * newExecutor
+   *
+   * Creates the executor collectors run on. Virtual threads are used when
+   * the JDK has them, otherwise a pool of daemon threads.
+   *
+   * @return the executor
+   */
+  private static ExecutorService newExecutor() {
+    try {
+      return (ExecutorService) Executors.class
+              .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "trik-collector");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  /**
+   * add
+   *
+   * Adds a collector to the schedule.
+   *
+   * @param name Name of the collector, used for logging
+   * @param interval Milliseconds between runs of the collector
+   * @param collect Adds the collector's entries to a round
+   */
+  public void add(String name, long interval, Consumer<CollectionRound> collect) {
+    add(name, interval, collect, part -> { });
+  }
+
+  /**
+   * add
+   *
+   * Adds a collector to the schedule, with a step that runs on the
+   * scheduler's thread for each of its parts that is dispatched. A part
+   * that timed out is never merged, so state the collector keeps between
+   * runs, eg. to diff against, is only updated for parts that are stored.
+   *
+   * @param name Name of the collector, used for logging
+   * @param interval Milliseconds between runs of the collector
+   * @param collect Adds the collector's entries to a round
+   * @param merge Completes a part before it is dispatched
+   */
+  public void add(String name, long interval, Consumer<CollectionRound> collect,
+                  Consumer<CollectionRound> merge) {
+    if(interval <= 0) {
+      throw new IllegalArgumentException("Interval for " + name + " must be positive");
+    }
+    collectors.add(new Collector(name, interval, collect, merge));
+    baseTick = baseTick == 0 ? interval : gcd(baseTick, interval);
+    logger.info(String.format("%1$s scheduled every %2$d ms", name, interval));
+  }
+
+  /**
+   * setInterval
+   *
+   * Changes the interval of a collector. It next runs on the first
+   * boundary of its new interval after the last tick. Must be called from
+   * the thread running the ticks, eg. by the dispatcher.
+   *
+   * @param name Name of the collector
+   * @param interval Milliseconds between runs of the collector
+   * @return false if there is no collector with the given name
+   */
+  public boolean setInterval(String name, long interval) {
+    if(interval <= 0) {
+      throw new IllegalArgumentException("Interval for " + name + " must be positive");
+    }
+    boolean found = false;
+    for(Collector collector : collectors) {
+      if(collector.name.equals(name) && collector.interval != interval) {
+        collector.interval = interval;
+        collector.nextDue = (lastTick / interval + 1) * interval;
+        logger.info(String.format("%1$s rescheduled every %2$d ms", name, interval));
+      }
+      found |= collector.name.equals(name);
+    }
+
+    baseTick = 0;
+    for(Collector collector : collectors) {
+      baseTick = baseTick == 0 ? collector.interval : gcd(baseTick, collector.interval);
+    }
+    return found;
+  }
+
+  /**
+   * getInterval
+   *
+   * @param name Name of the collector
+   * @return Milliseconds between runs of the collector, 0 if there is none
+   */
+  public long getInterval(String name) {
+    for(Collector collector : collectors) {
+      if(collector.name.equals(name)) {
+        return collector.interval;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * run
+   *
+   * Runs ticks on the calling thread until stop is called, dispatching
+   * the parts of the round as their collectors finish in between.
+   */
+  public void run() {
+    long tickTime = alignNext(System.currentTimeMillis());
+    while(running) {
+      long now = System.currentTimeMillis();
+      if(tickTime - now > baseTick) {
+        tickTime = nextTick(tickTime, now); // Clock moved backwards
+      } else if(now < tickTime) {
+        try {
+          await(tickTime - now);
+        } catch (InterruptedException e) {
+          logger.error(e.getMessage());
+          return;
+        }
+        continue;
+      }
+
+      tick(tickTime);
+      tickTime = nextTick(tickTime, System.currentTimeMillis());
+    }
+  }
+
+  /**
+   * stop
+   *
+   * Stops the scheduler after the current tick.
+   */
+  public void stop() {
+    running = false;
+    executor.shutdownNow();
+  }
+
+  /**
+   * tick
+   *
+   * Starts every collector that is due at the given tick time, each
+   * filling its own part of the round. The parts are dispatched by await
+   * as their collectors finish, so a slow collector does not hold up the
+   * others or the following ticks. Collectors that missed their tick run
+   * once and are then realigned to their interval.
+   *
+   * @param tickTime UNIX timestamp in milliseconds of this tick
+   */
+  protected void tick(long tickTime) {
+    long tickStart = System.nanoTime();
+    lastTick = tickTime;
+    ticks++;
+
+    for(Collector collector : collectors) {
+      if(tickTime >= collector.nextDue) {
+        collector.nextDue = (tickTime / collector.interval + 1) * collector.interval;
+        if(collector.busy) {
+          skipped++;
+          logger.warn(collector.name + " collector is still running, skipped");
+          continue;
+        }
+
+        CollectionRound part = new CollectionRound(tickTime);
+        part.intervals.put(collector.name, collector.interval);
+        Run run = new Run(collector, part, tickStart,
+                tickStart + TimeUnit.MILLISECONDS.toNanos(timeout));
+        collector.busy = true;
+        try {
+          executor.execute(run.future);
+        } catch (RejectedExecutionException e) {
+          collector.busy = false; // Stopped
+          continue;
+        }
+        pending.add(run);
+      }
+    }
+  }
+
+  /**
+   * await
+   *
+   * Waits for collectors to finish, up to the given time or the deadline
+   * of the earliest pending run. The parts of the runs that finished are
+   * merged into one round per tick, passed to their collectors' merge and
+   * then to the dispatcher. Runs past their deadline are cancelled and
+   * their parts discarded when they finish.
+   *
+   * @param millis Milliseconds to wait at most
+   * @throws InterruptedException if the thread was interrupted while waiting
+   */
+  protected void await(long millis) throws InterruptedException {
+    long now = System.nanoTime();
+    long wait = TimeUnit.MILLISECONDS.toNanos(millis);
+    for(Run run : pending) {
+      wait = Math.min(wait, run.deadline - now);
+    }
+    List<Run> done = new ArrayList<>();
+    Run first = completed.poll(Math.max(0, wait), TimeUnit.NANOSECONDS);
+    if(first != null) {
+      done.add(first);
+      completed.drainTo(done);
+    }
+
+    CollectionRound round = null;
+    long roundStart = 0;
+    for(Run run : done) {
+      run.collector.busy = false;
+      if(!pending.remove(run)) {
+        // Timed out, or cancelled before it started
+        continue;
+      }
+      if(run.failure != null) {
+        failures++;
+        logger.error(run.collector.name + " collector failed: " + run.failure);
+        continue;
+      }
+      if(round != null && round.timestamp != run.part.timestamp) {
+        dispatch(round, roundStart);
+        round = null;
+      }
+      if(round == null) {
+        round = new CollectionRound(run.part.timestamp);
+        roundStart = run.tickStart;
+      }
+      run.collector.merge.accept(run.part);
+      round.absorb(run.part);
+    }
+    if(round != null) {
+      dispatch(round, roundStart);
+    }
+
+    // The part of a run that timed out is left out even if it finishes,
+    // and the collector is skipped until it does
+    now = System.nanoTime();
+    Iterator<Run> it = pending.iterator();
+    while(it.hasNext()) {
+      Run run = it.next();
+      if(run.deadline - now <= 0) {
+        it.remove();
+        run.cancel();
+        timeouts++;
+        logger.error(String.format("%1$s collector timed out after %2$d ms",
+                run.collector.name, timeout));
+      }
+    }
+  }
+
+  private void dispatch(CollectionRound round, long tickStart) {
+    Instrumentation.recordSince("round.collect", tickStart);
+    dispatcher.accept(round);
+  }
+
+  /**
+   * getPending
+   *
+   * @return Number of collector runs whose parts have not been dispatched
+   *         or timed out yet
+   */
+  public int getPending() {
+    return pending.size();
+  }
+
+  /**
+   * nextTick
+   *
+   * Gets the time of the tick following the given one, on the next
+   * boundary of the base tick in case it changed. If collection ran
+   * past one or more ticks they are skipped and counted as missed, and the
+   * schedule resumes on the next boundary. If the clock was set back, the
+   * schedule is realigned to the new time.
+   *
+   * @param tickTime time of the tick that just ran
+   * @param now current time
+   * @return time of the next tick to run
+   */
+  protected long nextTick(long tickTime, long now) {
+    long next = alignNext(tickTime);
+    if(now >= next) {
+      long aligned = alignNext(now);
+      long missed = (aligned - next) / baseTick;
+      overruns++;
+      missedTicks += missed;
+      Instrumentation.histogram("round.overrun")
+              .record(TimeUnit.MILLISECONDS.toNanos(now - next));
+      logger.warn(String.format("Tick at %1$d overran by %2$d ms, %3$d ticks skipped",
+              tickTime, now - tickTime, missed));
+      return aligned;
+    } else if(now < tickTime) {
+      logger.warn("Clock moved backwards, realigning schedule");
+      for(Collector collector : collectors) {
+        collector.nextDue = 0;
+      }
+      return alignNext(now);
+    }
+
+    return next;
+  }
+
+  /**
+   * alignNext
+   *
+   * @param time UNIX timestamp in milliseconds
+   * @return the first base tick boundary after the given time
+   */
+  private long alignNext(long time) {
+    return (time / baseTick + 1) * baseTick;
+  }
+
+  private static long gcd(long a, long b) {
+    return b == 0 ? a : gcd(b, a % b);
+  }
+
+  /**
+   * getBaseTick
+   *
+   * @return Milliseconds between ticks
+   */
+  public long getBaseTick() {
+    return baseTick;
+  }
+
+  /**
+   * getTicks
+   *
+   * @return Number of ticks that have run
+   */
+  public long getTicks() {
+    return ticks;
+  }
+
+  /**
+   * getOverruns
+   *
+   * @return Number of ticks that ran past the following tick
+   */
+  public long getOverruns() {
+    return overruns;
+  }
+
+  /**
+   * getMissedTicks
+   *
+   * @return Number of ticks skipped because of overruns
+   */
+  public long getMissedTicks() {
+    return missedTicks;
+  }
+
+  /**
+   * getTimeouts
+   *
+   * @return Number of collector runs cancelled for taking too long
+   */
+  public long getTimeouts() {
+    return timeouts;
+  }
+
+  /**
+   * getFailures
+   *
+   * @return Number of collector runs that threw an exception
+   */
+  public long getFailures() {
+    return failures;
+  }
+
+  /**
+   * getSkipped
+   *
+   * @return Number of collector runs skipped because the last one was still running
+   */
+  public long getSkipped() {
+    return skipped;
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ * CpuLoadTracker
+ *
+ * Turns the cumulative per-core tick counters reported by OSHI into
+ * utilization percentages for the interval since the previous sample.
+ * The previous ticks and the results are kept in preallocated primitive
+ * arrays, so updating does not allocate once the core count is known.
+ * Before the first sample the previous ticks are all zero, which gives the
+ * utilization since boot.
+ */
+public class CpuLoadTracker {
+  // Indexes of the tick types in OSHI's tick arrays
+  public static final int USER_TICKS = 0;
+  public static final int NICE_TICKS = 1;
+  public static final int SYSTEM_TICKS = 2;
+  public static final int IDLE_TICKS = 3;
+  public static final int IOWAIT_TICKS = 4;
+  public static final int IRQ_TICKS = 5;
+  public static final int SOFTIRQ_TICKS = 6;
+  public static final int STEAL_TICKS = 7;
+  public static final int TICK_TYPES = 8;
+
+  // Indexes of the computed percentages
+  public static final int USER = 0; // user and nice
+  public static final int SYSTEM = 1; // system, irq and softirq
+  public static final int IDLE = 2;
+  public static final int IOWAIT = 3;
+  public static final int STEAL = 4;
+  public static final int FIELDS = 5;
+
+  private long[][] prevTicks = new long[0][TICK_TYPES];
+  private double[][] corePercents = new double[0][FIELDS];
+  private final long[] totalDeltas = new long[TICK_TYPES];
+  private final double[] totalPercents = new double[FIELDS];
+
+  /**
+   * update
+   *
+   * Computes the utilization of every core, and of all cores together,
+   * since the previous update.
+   *
+   * @param ticks Cumulative ticks per core, indexed [core][tick type]
+   */
+  public void update(long[][] ticks) {
+    if(ticks.length != prevTicks.length) {
+      // First sample, or the number of cores changed
+      prevTicks = new long[ticks.length][TICK_TYPES];
+      corePercents = new double[ticks.length][FIELDS];
+    }
+
+    for(int i = 0; i < TICK_TYPES; i++) {
+      totalDeltas[i] = 0;
+    }
+
+    for(int core = 0; core < ticks.length; core++) {
+      long[] curr = ticks[core];
+      long[] prev = prevTicks[core];
+      // prev holds this interval's deltas until the percentages are
+      // computed, then takes the current ticks
+      long total = 0;
+      for(int i = 0; i < TICK_TYPES; i++) {
+        // A counter that went backwards was reset, count it from zero
+        long delta = curr[i] >= prev[i] ? curr[i] - prev[i] : curr[i];
+        prev[i] = delta;
+        total += delta;
+      }
+      toPercents(prev, total, corePercents[core]);
+
+      for(int i = 0; i < TICK_TYPES; i++) {
+        totalDeltas[i] += prev[i];
+        prev[i] = curr[i];
+      }
+    }
+
+    long total = 0;
+    for(int i = 0; i < TICK_TYPES; i++) {
+      total += totalDeltas[i];
+    }
+    toPercents(totalDeltas, total, totalPercents);
+  }
+
+  /**
+   * restore
+   *
+   * Resumes from tick counters stored before a restart, so the next
+   * update gives the utilization since they were stored instead of since
+   * boot.
+   *
+   * @param ticks Stored tick counters of each logical processor
+   */
+  public void restore(long[][] ticks) {
+    prevTicks = new long[ticks.length][TICK_TYPES];
+    corePercents = new double[ticks.length][FIELDS];
+    for(int core = 0; core < ticks.length; core++) {
+      System.arraycopy(ticks[core], 0, prevTicks[core], 0, TICK_TYPES);
+    }
+  }
+
+  /**
+   * toPercents
+   *
+   * Converts tick deltas into percentages of the total.
+   *
+   * @param deltas Tick deltas indexed by tick type
+   * @param total Sum of the deltas
+   * @param percents Array to write the percentages to
+   */
+  private static void toPercents(long[] deltas, long total, double[] percents) {
+    if(total == 0) {
+      // No time passed, report the core as idle
+      percents[USER] = 0;
+      percents[SYSTEM] = 0;
+      percents[IDLE] = 100;
+      percents[IOWAIT] = 0;
+      percents[STEAL] = 0;
+      return;
+    }
+
+    double scale = 100.0 / total;
+    percents[USER] = (deltas[USER_TICKS] + deltas[NICE_TICKS]) * scale;
+    percents[SYSTEM] = (deltas[SYSTEM_TICKS] + deltas[IRQ_TICKS]
+            + deltas[SOFTIRQ_TICKS]) * scale;
+    percents[IDLE] = deltas[IDLE_TICKS] * scale;
+    percents[IOWAIT] = deltas[IOWAIT_TICKS] * scale;
+    percents[STEAL] = deltas[STEAL_TICKS] * scale;
+  }
+
+  /**
+   * getCorePercent
+   *
+   * @param core Index number of the logical processor
+   * @param field USER, SYSTEM, IDLE, IOWAIT or STEAL
+   * @return Percentage of the last interval the core spent in that state
+   */
+  public double getCorePercent(int core, int field) {
+    return corePercents[core][field];
+  }
+
+  /**
+   * getTotalPercent
+   *
+   * @param field USER, SYSTEM, IDLE, IOWAIT or STEAL
+   * @return Percentage of the last interval all cores spent in that state
+   */
+  public double getTotalPercent(int field) {
+    return totalPercents[field];
+  }
+
+  /**
+   * getCoreCount
+   *
+   * @return Number of cores in the last update
+   */
+  public int getCoreCount() {
+    return prevTicks.length;
+  }
+}
@@ -2,28 +2,399 @@ import org.apache.log4j.Logger;
 
 import java.io.File;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 public class DBHelper {
   public static final String URL = "jdbc:sqlite:sqlite/db/Trik.db";
+  private static final String DB_PATH = "sqlite/db/Trik.db";
   private static final Logger logger = Logger.getLogger("(DBHelper)");
 
+  private static final String MEMORY_DATA_COLUMNS = "(systemID, timestamp, " +
+          "avail, total) VALUES (?, ?, ?, ?)";
+  private static final String MEMORY_DATA_INSERT = "INSERT INTO MemoryData" + MEMORY_DATA_COLUMNS;
+  private static final String POWER_DATA_COLUMNS = "(systemID, timestamp, " +
+          "currCapPer, currCapTime, temp, isCharg) VALUES (?, ?, ?, ?, ?, ?)";
+  private static final String POWER_DATA_INSERT = "INSERT INTO PowerData" + POWER_DATA_COLUMNS;
+  private static final String PROCESS_DATA_INSERT = "INSERT INTO ProcessData(" +
+          "systemID, timestamp, procID, nameID, userID, startTime, upTime, " +
+          "cpuUsage) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final String SYSTEM_DATA_COLUMNS = "(systemID, timestamp, " +
+          "bootTime, upTime, procs, servs, threads) VALUES (?, ?, ?, ?, ?, ?, ?)";
+  private static final String SYSTEM_DATA_INSERT = "INSERT INTO SystemData" + SYSTEM_DATA_COLUMNS;
+  private static final String CPU_DATA_INSERT = "INSERT INTO %s(" +
+          "systemID, timestamp, coreNum, currFreq, maxFreq, userTicks, " +
+          "niceTicks, sysTicks, idleTicks, ioTicks, irqTicks, sirqTicks, " +
+          "stealTicks) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final String CPU_LOAD_COLUMNS = "(systemID, timestamp, " +
+          "coreNum, currFreq, maxFreq, userPct, sysPct, idlePct, ioPct, " +
+          "stealPct, userTicks, niceTicks, sysTicks, idleTicks, ioTicks, " +
+          "irqTicks, sirqTicks, stealTicks) " +
+          "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final String CPU_LOAD_INSERT = "INSERT INTO %s" + CPU_LOAD_COLUMNS;
+  private static final String LATEST_MEMORY_DATA_UPSERT =
+          "INSERT OR REPLACE INTO LatestMemoryData" + MEMORY_DATA_COLUMNS;
+  private static final String LATEST_POWER_DATA_UPSERT =
+          "INSERT OR REPLACE INTO LatestPowerData" + POWER_DATA_COLUMNS;
+  private static final String LATEST_SYSTEM_DATA_UPSERT =
+          "INSERT OR REPLACE INTO LatestSystemData" + SYSTEM_DATA_COLUMNS;
+  private static final String LATEST_CPU_DATA_UPSERT =
+          "INSERT OR REPLACE INTO LatestCpuData" + CPU_LOAD_COLUMNS;
+  private static final String PROCESS_DATA_DELETE =
+          "DELETE FROM ProcessData WHERE timestamp = ?";
+  private static final String CPU_DATA_DELETE =
+          "DELETE FROM %s WHERE timestamp = ?";
+  private static final String PROCESS_DATA_UPSERT = "INSERT OR REPLACE INTO " +
+          "ProcessData(systemID, timestamp, procID, nameID, userID, startTime, " +
+          "upTime, cpuUsage, residentSize, virtualSize, threads, bytesRead, " +
+          "bytesWritten) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final String PROCESS_DATA_EXIT = "DELETE FROM ProcessData " +
+          "WHERE systemID = ? AND procID = ? AND startTime = ?";
+  private static final String PROCESS_EVENT_INSERT = "INSERT INTO %s(" +
+          "systemID, timestamp, procID, startTime, event, nameID, userID, " +
+          "upTime, cpuUsage, residentSize, virtualSize, threads, bytesRead, " +
+          "bytesWritten) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final String PROCESS_NAME_INSERT =
+          "INSERT INTO ProcessName(id, name) VALUES (?, ?)";
+  private static final String PROCESS_USER_INSERT =
+          "INSERT INTO ProcessUser(id, user) VALUES (?, ?)";
+  private static final String ROLLUP_UPSERT = "INSERT INTO %s(systemID, " +
+          "metric, series, timestamp, min, avg, max, last, count, span) " +
+          "VALUES (?, ?, ?, ?, ?, ?, ?, ?, 1, ?) " +
+          "ON CONFLICT(systemID, metric, series, timestamp) DO UPDATE SET " +
+          "min = MIN(min, excluded.min), max = MAX(max, excluded.max), " +
+          "avg = avg + (excluded.avg - avg) * excluded.span / (span + excluded.span), " +
+          "last = excluded.last, count = count + 1, span = span + excluded.span";
+  private static final String ROLLUP_1M_UPSERT = String.format(ROLLUP_UPSERT, "Rollup1m");
+  private static final String ROLLUP_1H_UPSERT = String.format(ROLLUP_UPSERT, "Rollup1h");
+  private static final String INSTRUMENTATION_INSERT = "INSERT OR REPLACE INTO " +
+          "Instrumentation(systemID, timestamp, name, count, mean, p50, p90, p99, max) " +
+          "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final String SAMPLE_INTERVAL_INSERT = "INSERT OR REPLACE INTO " +
+          "SampleInterval(systemID, collector, timestamp, interval) VALUES (?, ?, ?, ?)";
+  private static final String RETENTION_DELETE = "DELETE FROM %s WHERE timestamp < ?";
+  private static final String LATEST_CPU_DATA_PRUNE =
+          "DELETE FROM LatestCpuData WHERE systemID = ? AND timestamp < ?";
+
+  // Rollup bucket sizes, in milliseconds
+  public static final long MINUTE = 60000;
+  public static final long HOUR = 3600000;
+
+  // Memory, thread and I/O columns of ProcessData and ProcessEvent
+  private static final String[] PROCESS_USAGE_COLUMNS = {"residentSize",
+          "virtualSize", "threads", "bytesRead", "bytesWritten"};
+  private static final String PROCESS_USAGE_DDL = processUsageDDL();
+
+  // Version of the schema created by createTables. MIGRATIONS[v - 1]
+  // holds the statements that upgrade a database from version v to v + 1
+  public static final int SCHEMA_VERSION = 5;
+  private static final String[][] MIGRATIONS = {
+          {ChunkStore.DDL, ChunkStore.END_TIME_INDEX}, // 1 -> 2: DataChunk
+          {instrumentationTable(), timestampIndex("Instrumentation")}, // 2 -> 3
+          {addRollupSpan("Rollup1m"), setRollupSpan("Rollup1m"), // 3 -> 4
+                  addRollupSpan("Rollup1h"), setRollupSpan("Rollup1h"),
+                  sampleIntervalTable()},
+          addProcessUsage("ProcessData", "ProcessEvent") // 4 -> 5
+  };
+
+  // Weight in the rollups of a sample from a round that is not tagged
+  // with its collector's interval, eg. one replayed from a SampleLog
+  private static final long DEFAULT_SPAN = 1000;
+
+  // How often insertRound converts closed windows into chunks and applies
+  // the retention policies, after the round is committed
+  private static final long RETENTION_INTERVAL = MINUTE;
+
+  // Columns of the partitioned tables. ProcessEvent is the history of
+  // ProcessData changes, event being the ordinal of
+  // CollectionRound.ProcessEvent (0 start, 1 update, 2 exit, 3 fold)
+  private static final String PROCESS_EVENT_COLUMNS =
+          " systemID INTEGER NOT NULL, \n"
+          + " timestamp INTEGER NOT NULL, \n"
+          + " procID INTEGER NOT NULL, \n"
+          + " startTime INTEGER NOT NULL, \n"
+          + " event INTEGER NOT NULL, \n"
+          + " nameID INTEGER NOT NULL, \n"
+          + " userID INTEGER NOT NULL, \n"
+          + " upTime INTEGER NOT NULL, \n"
+          + " cpuUsage REAL NOT NULL, \n"
+          + PROCESS_USAGE_DDL
+          + " FOREIGN KEY(systemID) REFERENCES System(id), \n"
+          + " FOREIGN KEY(nameID) REFERENCES ProcessName(id), \n"
+          + " FOREIGN KEY(userID) REFERENCES ProcessUser(id) \n";
+  private static final String CPU_DATA_COLUMNS =
+          " systemID INTEGER NOT NULL, \n"
+          + " timestamp INTEGER NOT NULL, \n"
+          + " coreNum INTEGER NOT NULL, \n"
+          + " currFreq INTEGER NOT NULL, \n"
+          + " maxFreq INTEGER NOT NULL, \n"
+          + " userPct REAL, \n"
+          + " sysPct REAL, \n"
+          + " idlePct REAL, \n"
+          + " ioPct REAL, \n"
+          + " stealPct REAL, \n"
+          + " userTicks INTEGER, \n"
+          + " niceTicks INTEGER, \n"
+          + " sysTicks INTEGER, \n"
+          + " idleTicks INTEGER, \n"
+          + " ioTicks INTEGER, \n"
+          + " irqTicks INTEGER, \n"
+          + " sirqTicks INTEGER, \n"
+          + " stealTicks INTEGER, \n"
+          + " PRIMARY KEY(systemID, timestamp, coreNum), \n"
+          + " FOREIGN KEY(systemID) REFERENCES System(id) \n";
+
+  // Long-lived writer connection, shared by every insert for the life of
+  // the daemon, and its prepared statements cached by SQL
+  private static Connection conn;
+  private static final Map<String, PreparedStatement> statements = new HashMap<>();
+  private static StorageProfile profile = StorageProfile.DEFAULT;
+
+  // Cached contents of the ProcessName and ProcessUser dictionary tables,
+  // loaded on first use
+  private static final StringDictionary processNames = new StringDictionary();
+  private static final StringDictionary processUsers = new StringDictionary();
+  private static boolean dictionariesLoaded = false;
+
+  private static List<RetentionPolicy> retentionPolicies = RetentionPolicy.defaults();
+
+  // Whether CpuData keeps the raw tick counters. LatestCpuData always
+  // keeps them, so CPU load can be resumed after a restart
+  private static boolean storeRawTicks = true;
+
+  // High-volume tables, stored as one table per hour (CpuData) or day
+  // (ProcessEvent) and read through a view
+  private static final PartitionedTable cpuData =
+          new PartitionedTable("CpuData", HOUR, CPU_DATA_COLUMNS);
+  private static final PartitionedTable processEvents =
+          new PartitionedTable("ProcessEvent", 24 * HOUR, PROCESS_EVENT_COLUMNS);
+  private static final Map<String, PartitionedTable> partitioned = new HashMap<>();
+  static {
+    partitioned.put(cpuData.name, cpuData);
+    partitioned.put(processEvents.name, processEvents);
+  }
+
+  // MemoryData, PowerData, SystemData and CpuData rows can be converted
+  // into compressed chunks once their window is over. Off until a span is
+  // set, since the converted rows leave the tables
+  private static final ChunkStore chunks = new ChunkStore(0, partitioned);
+  private static long lastRetention = 0;
+
+  // Interval last recorded in SampleInterval for each collector
+  private static final Map<String, Long> lastIntervals = new HashMap<>();
+
+  /**
+   * setStorageProfile
+   *
+   * Sets the SQLite tuning used when the writer connection is opened.
+   * Takes effect the next time the connection is opened.
+   *
+   * @param storageProfile the storage profile to apply
+   */
+  public static synchronized void setStorageProfile(StorageProfile storageProfile) {
+    profile = storageProfile;
+  }
+
+  /**
+   * setRetentionPolicies
+   *
+   * Sets how long the entries of each table are kept.
+   *
+   * @param policies one policy per table; tables without one are kept forever
+   */
+  public static synchronized void setRetentionPolicies(List<RetentionPolicy> policies) {
+    retentionPolicies = policies;
+  }
+
+  /**
+   * setChunkSpan
+   *
+   * @param span Milliseconds of entries held by each compressed chunk, 0 to
+   *             keep every entry in its table
+   */
+  public static synchronized void setChunkSpan(long span) {
+    chunks.setSpan(span);
+  }
+
+  /**
+   * setStoreRawTicks
+   *
+   * @param store true to keep the raw tick counters in CpuData
+   */
+  public static synchronized void setStoreRawTicks(boolean store) {
+    storeRawTicks = store;
+  }
+
+  /**
+   * getConnection
+   *
+   * Gets the writer connection, opening it and applying the storage
+   * profile if it is not already open.
+   *
+   * @return the writer connection
+   * @throws SQLException if the connection cannot be opened
+   */
+  protected static synchronized Connection getConnection() throws SQLException {
+    if(conn == null || conn.isClosed()) {
+      conn = DriverManager.getConnection(URL);
+      Statement stmt = conn.createStatement();
+      for(String pragma : profile.toPragmas()) {
+        stmt.execute(pragma);
+      }
+      stmt.close();
+      logger.info("Connection to SQLite has been established");
+    }
+
+    return conn;
+  }
+
+  /**
+   * prepare
+   *
+   * Gets the cached prepared statement for the given SQL, preparing it
+   * on the writer connection the first time it is used.
+   *
+   * @param sql SQL of the statement
+   * @return the prepared statement
+   * @throws SQLException if the statement cannot be prepared
+   */
+  private static synchronized PreparedStatement prepare(String sql) throws SQLException {
+    PreparedStatement pstmt = statements.get(sql);
+    if(pstmt == null) {
+      pstmt = getConnection().prepareStatement(sql);
+      statements.put(sql, pstmt);
+    }
+
+    return pstmt;
+  }
+
+  /**
+   * closeStatements
+   *
+   * Closes and forgets the cached statements that use the given table,
+   * which is about to be dropped.
+   *
+   * @param table Name of the table
+   */
+  private static synchronized void closeStatements(String table) throws SQLException {
+    Pattern uses = Pattern.compile("\\b" + Pattern.quote(table) + "\\b");
+    Iterator<Map.Entry<String, PreparedStatement>> it = statements.entrySet().iterator();
+    while(it.hasNext()) {
+      Map.Entry<String, PreparedStatement> entry = it.next();
+      if(uses.matcher(entry.getKey()).find()) {
+        entry.getValue().close();
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * loadDictionaries
+   *
+   * Reloads the process name and user dictionaries from the database.
+   *
+   * @throws SQLException if the dictionary tables cannot be read
+   */
+  private static synchronized void loadDictionaries() throws SQLException {
+    processNames.clear();
+    processUsers.clear();
+
+    Statement stmt = getConnection().createStatement();
+    ResultSet rs = stmt.executeQuery("SELECT id, name FROM ProcessName;");
+    while(rs.next()) {
+      processNames.put(rs.getInt(1), rs.getString(2));
+    }
+    rs = stmt.executeQuery("SELECT id, user FROM ProcessUser;");
+    while(rs.next()) {
+      processUsers.put(rs.getInt(1), rs.getString(2));
+    }
+    stmt.close();
+
+    dictionariesLoaded = true;
+  }
+
+  /**
+   * encode
+   *
+   * Gets the dictionary ID of a value, adding it to the dictionary and its
+   * table if it is new.
+   *
+   * @param dictionary dictionary to look the value up in
+   * @param sql statement that inserts an (id, value) entry into its table
+   * @param value the value to encode
+   * @return ID of the value
+   * @throws SQLException if a new entry cannot be inserted
+   */
+  private static int encode(StringDictionary dictionary, String sql,
+                            String value) throws SQLException {
+    if(!dictionariesLoaded) {
+      loadDictionaries();
+    }
+
+    int id = dictionary.getId(value);
+    if(id == 0) {
+      id = dictionary.add(value);
+      PreparedStatement pstmt = prepare(sql);
+      pstmt.setInt(1, id);
+      pstmt.setString(2, value);
+      pstmt.executeUpdate();
+    }
+
+    return id;
+  }
+
+  /**
+   * closeConnection
+   *
+   * Closes the cached statements and the writer connection. Closing the
+   * last connection also checkpoints the write-ahead log into the database.
+   */
+  public static synchronized void closeConnection() {
+    try {
+      for(PreparedStatement pstmt : statements.values()) {
+        pstmt.close();
+      }
+      statements.clear();
+      dictionariesLoaded = false;
+      lastIntervals.clear();
+
+      if(conn != null) {
+        conn.close();
+        conn = null;
+        logger.info("Connection to SQLite has been closed");
+      }
+    } catch (SQLException e) {
+      logger.error(e.getMessage());
+    }
+  }
+
   /**
    * createDB
    *
    * Creates the Trik database and its tables.
    */
-  public static void createDB() {
+  public static synchronized void createDB() {
     try {
-      // Delete the database if one already exists
-      File db = new File("sqlite/db/Trik.db");
+      // Delete the database if one already exists, along with its
+      // write-ahead log and shared memory files
+      closeConnection();
+      lastRetention = 0;
+      for(PartitionedTable table : partitioned.values()) {
+        table.reset();
+      }
+      File db = new File(DB_PATH);
       if(db.delete()) {
         logger.info("Existing database was deleted");
       }
+      new File(DB_PATH + "-wal").delete();
+      new File(DB_PATH + "-shm").delete();
 
-      // Create a connection to the database
-      Connection conn = DriverManager.getConnection(URL);
-      conn.close();
-      logger.info("Connection to SQLite has been established");
+      // Create the database by opening the writer connection
+      getConnection();
       logger.info("Trik database has been created");
 
     } catch (SQLException e) {
@@ -31,12 +402,215 @@ public class DBHelper {
     }
   }
 
+  /**
+   * openDB
+   *
+   * Opens the existing Trik database so a restart keeps its history,
+   * upgrading its schema if it is older than SCHEMA_VERSION. A database
+   * that is missing or has no schema version is created from scratch. One
+   * that is newer than SCHEMA_VERSION, eg. after going back to an older
+   * build, is moved aside to Trik.db.v[version] first, so its history is
+   * kept. The database is never deleted because it could not be read or
+   * upgraded: that fails instead, and the failed migration leaves it at
+   * the last version that succeeded.
+   *
+   * @return true if an existing database was reopened
+   * @throws IllegalStateException if the database cannot be read or upgraded
+   */
+  public static synchronized boolean openDB() {
+    if(!new File(DB_PATH).exists()) {
+      createDB();
+      return false;
+    }
+
+    int version;
+    try {
+      closeConnection();
+      lastRetention = 0;
+      for(PartitionedTable table : partitioned.values()) {
+        table.reset();
+      }
+
+      version = getSchemaVersion();
+      if(version > 0 && version < SCHEMA_VERSION) {
+        version = migrate(version, MIGRATIONS);
+      }
+    } catch (SQLException e) {
+      logger.error("Cannot open the existing database: " + e.getMessage());
+      throw new IllegalStateException("Cannot open " + DB_PATH, e);
+    }
+
+    if(version == SCHEMA_VERSION) {
+      logger.info("Existing database reopened (schema version " + version + ")");
+      return true;
+    }
+    if(version > SCHEMA_VERSION) {
+      moveAside(".v" + version);
+    } else {
+      logger.warn("Database has no schema version, recreating it");
+    }
+    createDB();
+    return false;
+  }
+
+  /**
+   * moveAside
+   *
+   * Closes the database and renames it, along with its write-ahead log,
+   * so a new one can be created in its place.
+   *
+   * @param suffix Appended to the name of each file
+   * @throws IllegalStateException if the database cannot be renamed
+   */
+  private static synchronized void moveAside(String suffix) {
+    String path = DB_PATH + suffix;
+    if(new File(path).exists()) {
+      path += "." + System.currentTimeMillis();
+    }
+    closeConnection();
+    for(String file : new String[] {"", "-wal", "-shm"}) {
+      File from = new File(DB_PATH + file);
+      if(from.exists() && !from.renameTo(new File(path + file))) {
+        throw new IllegalStateException("Cannot move " + from + " aside");
+      }
+    }
+    logger.warn("Database has a newer schema version, moved aside to " + path);
+  }
+
+  /**
+   * getSchemaVersion
+   *
+   * @return Schema version of the database, 0 if it has none
+   * @throws SQLException if the version cannot be read
+   */
+  protected static synchronized int getSchemaVersion() throws SQLException {
+    try (Statement stmt = getConnection().createStatement()) {
+      ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master " +
+              "WHERE type = 'table' AND name = 'SchemaVersion'");
+      if(rs.getInt(1) == 0) {
+        return 0;
+      }
+      rs = stmt.executeQuery("SELECT version FROM SchemaVersion WHERE id = 1");
+      return rs.next() ? rs.getInt(1) : 0;
+    }
+  }
+
+  /**
+   * migrate
+   *
+   * Applies the migrations that follow the given version, each one in its
+   * own transaction along with the version it leads to.
+   *
+   * @param version Current schema version of the database
+   * @param migrations Statements of each migration, indexed by version - 1
+   * @return Schema version of the database after the migrations
+   * @throws SQLException if a migration fails, which leaves the database
+   *                      at the last version that succeeded
+   */
+  protected static synchronized int migrate(int version, String[][] migrations)
+          throws SQLException {
+    Connection conn = getConnection();
+    while(version <= migrations.length) {
+      conn.setAutoCommit(false);
+      try (Statement stmt = conn.createStatement()) {
+        for(String sql : migrations[version - 1]) {
+          PartitionedTable table = alteredPartitions(sql);
+          if(table != null) {
+            table.alter(conn, sql.substring(("ALTER TABLE " + table.name).length()));
+          } else {
+            stmt.executeUpdate(sql);
+          }
+        }
+        stmt.executeUpdate("UPDATE SchemaVersion SET version = " + (version + 1)
+                + " WHERE id = 1");
+        conn.commit();
+      } catch (SQLException e) {
+        conn.rollback();
+        throw e;
+      } finally {
+        conn.setAutoCommit(true);
+      }
+      version++;
+      logger.info("Database migrated to schema version " + version);
+    }
+    return version;
+  }
+
+  /**
+   * loadProcesses
+   *
+   * Reads back the running processes stored in ProcessData, to resume
+   * tracking them after a restart. Entries are only stored when they
+   * change, so their up time is brought forward to the given time.
+   *
+   * @param now UNIX timestamp in milliseconds
+   * @return the stored processes
+   */
+  public static synchronized List<CollectionRound.ProcessData> loadProcesses(long now) {
+    List<CollectionRound.ProcessData> processes = new ArrayList<>();
+    String sql = "SELECT procID, name, user, startTime, " +
+            "upTime + (? - timestamp), cpuUsage, residentSize, virtualSize, " +
+            "threads, bytesRead, bytesWritten FROM ProcessData " +
+            "JOIN ProcessName ON ProcessName.id = ProcessData.nameID " +
+            "JOIN ProcessUser ON ProcessUser.id = ProcessData.userID";
+    try (PreparedStatement pstmt = getConnection().prepareStatement(sql)) {
+      pstmt.setLong(1, now);
+      ResultSet rs = pstmt.executeQuery();
+      while(rs.next()) {
+        processes.add(new CollectionRound.ProcessData(CollectionRound.ProcessEvent.START,
+                rs.getInt(1), rs.getString(2), rs.getString(3), rs.getLong(4),
+                rs.getLong(5), rs.getDouble(6), rs.getLong(7), rs.getLong(8),
+                rs.getInt(9), rs.getLong(10), rs.getLong(11)));
+      }
+    } catch (SQLException e) {
+      logger.error(e.getMessage());
+    }
+    return processes;
+  }
+
+  /**
+   * loadCpuTicks
+   *
+   * Reads back the tick counters of every core from the newest round, to
+   * resume computing CPU load after a restart.
+   *
+   * @return ticks of each core, indexed by core number, or null if they
+   *         were not stored
+   */
+  public static synchronized long[][] loadCpuTicks() {
+    String sql = "SELECT coreNum, userTicks, niceTicks, sysTicks, idleTicks, " +
+            "ioTicks, irqTicks, sirqTicks, stealTicks FROM LatestCpuData " +
+            "WHERE coreNum >= 0 ORDER BY coreNum";
+    List<long[]> cores = new ArrayList<>();
+    try (Statement stmt = getConnection().createStatement();
+         ResultSet rs = stmt.executeQuery(sql)) {
+      while(rs.next()) {
+        if(rs.getInt(1) != cores.size()) {
+          return null; // Not every core was stored
+        }
+        long[] ticks = new long[CpuLoadTracker.TICK_TYPES];
+        for(int i = 0; i < ticks.length; i++) {
+          ticks[i] = rs.getLong(2 + i);
+          if(rs.wasNull()) {
+            return null;
+          }
+        }
+        cores.add(ticks);
+      }
+    } catch (SQLException e) {
+      logger.error(e.getMessage());
+      return null;
+    }
+    return cores.isEmpty() ? null : cores.toArray(new long[0][]);
+  }
+
   /**
    * createTables
    *
-   * Creates the tables for the Trik database.
+   * Creates the tables for the Trik database that do not exist yet, and
+   * records the schema version of a new database.
    */
-  public static void createTables() {
+  public static synchronized void createTables() {
     String system = ("CREATE TABLE IF NOT EXISTS System (\n"
             + " id INTEGER PRIMARY KEY, \n"
             + " owner TEXT, \n"
@@ -72,15 +646,30 @@ public class DBHelper {
             + " systemID INTEGER NOT NULL, \n"
             + " timestamp INTEGER NOT NULL, \n"
             + " procID INTEGER NOT NULL, \n"
-            + " name TEXT NOT NULL, \n"
-            + " user TEXT NOT NULL, \n"
+            + " nameID INTEGER NOT NULL, \n"
+            + " userID INTEGER NOT NULL, \n"
             + " startTime INTEGER NOT NULL, \n"
             + " upTime INTEGER NOT NULL, \n"
             + " cpuUsage REAL NOT NULL, \n"
-            + " PRIMARY KEY(systemID, timestamp, procID), \n"
-            + " FOREIGN KEY(systemID) REFERENCES System(id) \n"
+            + PROCESS_USAGE_DDL
+            + " PRIMARY KEY(systemID, procID, startTime), \n"
+            + " FOREIGN KEY(systemID) REFERENCES System(id), \n"
+            + " FOREIGN KEY(nameID) REFERENCES ProcessName(id), \n"
+            + " FOREIGN KEY(userID) REFERENCES ProcessUser(id) \n"
             + " );");
 
+    // Dictionaries of the process names and users in ProcessData
+    String processName = ("CREATE TABLE IF NOT EXISTS ProcessName (\n"
+            + " id INTEGER PRIMARY KEY, \n"
+            + " name TEXT NOT NULL UNIQUE \n"
+            + " );");
+
+    String processUser = ("CREATE TABLE IF NOT EXISTS ProcessUser (\n"
+            + " id INTEGER PRIMARY KEY, \n"
+            + " user TEXT NOT NULL UNIQUE \n"
+            + " );");
+
+
     String systemData = ("CREATE TABLE IF NOT EXISTS SystemData (\n"
             + " systemID INTEGER NOT NULL, \n"
             + " timestamp INTEGER NOT NULL, \n"
@@ -93,37 +682,113 @@ public class DBHelper {
             + " FOREIGN KEY(systemID) REFERENCES System(id) \n"
             + " );");
 
-    String cpuData = ("CREATE TABLE IF NOT EXISTS CpuData (\n"
+
+    // Per-minute and per-hour summaries of the raw samples, which outlive
+    // them. series tells apart entries of the same metric, eg. the CPU core
+    String rollup1m = rollupTable("Rollup1m");
+    String rollup1h = rollupTable("Rollup1h");
+
+    // Latest entry of every family, replaced by each round so reading the
+    // current values is a primary key lookup however much history is kept
+    String latestMemoryData = ("CREATE TABLE IF NOT EXISTS LatestMemoryData (\n"
+            + " systemID INTEGER PRIMARY KEY, \n"
+            + " timestamp INTEGER NOT NULL, \n"
+            + " avail INTEGER NOT NULL, \n"
+            + " total INTEGER NOT NULL, \n"
+            + " FOREIGN KEY(systemID) REFERENCES System(id) \n"
+            + " );");
+
+    String latestPowerData = ("CREATE TABLE IF NOT EXISTS LatestPowerData (\n"
+            + " systemID INTEGER PRIMARY KEY, \n"
+            + " timestamp INTEGER NOT NULL, \n"
+            + " currCapPer REAL NOT NULL, \n"
+            + " currCapTime REAL NOT NULL, \n"
+            + " temp REAL NOT NULL, \n"
+            + " isCharg INTEGER NOT NULL, \n"
+            + " FOREIGN KEY(systemID) REFERENCES System(id) \n"
+            + " );");
+
+    String latestSystemData = ("CREATE TABLE IF NOT EXISTS LatestSystemData (\n"
+            + " systemID INTEGER PRIMARY KEY, \n"
+            + " timestamp INTEGER NOT NULL, \n"
+            + " bootTime INTEGER NOT NULL, \n"
+            + " upTime INTEGER NOT NULL, \n"
+            + " procs INTEGER NOT NULL, \n"
+            + " servs INTEGER NOT NULL, \n"
+            + " threads INTEGER NOT NULL, \n"
+            + " FOREIGN KEY(systemID) REFERENCES System(id) \n"
+            + " );");
+
+    String latestCpuData = ("CREATE TABLE IF NOT EXISTS LatestCpuData (\n"
             + " systemID INTEGER NOT NULL, \n"
             + " timestamp INTEGER NOT NULL, \n"
             + " coreNum INTEGER NOT NULL, \n"
             + " currFreq INTEGER NOT NULL, \n"
             + " maxFreq INTEGER NOT NULL, \n"
-            + " userTicks INTEGER NOT NULL, \n"
-            + " niceTicks INTEGER NOT NULL, \n"
-            + " sysTicks INTEGER NOT NULL, \n"
-            + " idleTicks INTEGER NOT NULL, \n"
-            + " ioTicks INTEGER NOT NULL, \n"
-            + " irqTicks INTEGER NOT NULL, \n"
-            + " sirqTicks INTEGER NOT NULL, \n"
-            + " stealTicks INTEGER NOT NULL, \n"
-            + " PRIMARY KEY(systemID, timestamp, coreNum), \n"
+            + " userPct REAL, \n"
+            + " sysPct REAL, \n"
+            + " idlePct REAL, \n"
+            + " ioPct REAL, \n"
+            + " stealPct REAL, \n"
+            + " userTicks INTEGER, \n"
+            + " niceTicks INTEGER, \n"
+            + " sysTicks INTEGER, \n"
+            + " idleTicks INTEGER, \n"
+            + " ioTicks INTEGER, \n"
+            + " irqTicks INTEGER, \n"
+            + " sirqTicks INTEGER, \n"
+            + " stealTicks INTEGER, \n"
+            + " PRIMARY KEY(systemID, coreNum), \n"
             + " FOREIGN KEY(systemID) REFERENCES System(id) \n"
             + " );");
 
+    String schemaVersion = ("CREATE TABLE IF NOT EXISTS SchemaVersion (\n"
+            + " id INTEGER PRIMARY KEY CHECK(id = 1), \n"
+            + " version INTEGER NOT NULL \n"
+            + " );");
+
     try {
-      Connection conn = DriverManager.getConnection(URL);
-      Statement stmt = conn.createStatement();
+      Statement stmt = getConnection().createStatement();
 
       // Pass create table statements to the DB
+      stmt.addBatch(schemaVersion);
+      stmt.addBatch("INSERT OR IGNORE INTO SchemaVersion(id, version) VALUES (1, "
+              + SCHEMA_VERSION + ");");
       stmt.addBatch(system);
       stmt.addBatch(memoryData);
       stmt.addBatch(powerData);
+      stmt.addBatch(processName);
+      stmt.addBatch(processUser);
       stmt.addBatch(processData);
       stmt.addBatch(systemData);
-      stmt.addBatch(cpuData);
+      stmt.addBatch(rollup1m);
+      stmt.addBatch(rollup1h);
+      stmt.addBatch(latestMemoryData);
+      stmt.addBatch(latestPowerData);
+      stmt.addBatch(latestSystemData);
+      stmt.addBatch(latestCpuData);
+      stmt.addBatch(ChunkStore.DDL);
+      stmt.addBatch(ChunkStore.END_TIME_INDEX);
+      stmt.addBatch(instrumentationTable());
+      stmt.addBatch(sampleIntervalTable());
+
+      // Primary keys lead with systemID, so reads by time and retention
+      // deletes need their own indexes
+      stmt.addBatch(timestampIndex("MemoryData"));
+      stmt.addBatch(timestampIndex("PowerData"));
+      stmt.addBatch(timestampIndex("SystemData"));
+      stmt.addBatch(timestampIndex("ProcessData"));
+      stmt.addBatch(timestampIndex("Rollup1m"));
+      stmt.addBatch(timestampIndex("Rollup1h"));
+      stmt.addBatch(timestampIndex("Instrumentation"));
       stmt.executeBatch();
-      conn.close();
+      stmt.close();
+
+      // Make sure the views over the partitioned tables exist
+      long now = System.currentTimeMillis();
+      for(PartitionedTable table : partitioned.values()) {
+        table.route(getConnection(), now);
+      }
 
       logger.info("Tables created.");
     } catch (SQLException e) {
@@ -143,21 +808,23 @@ public class DBHelper {
    * @param cpuCores Number of physical cores in the CPU
    * @param cpuVendFreq Vendor frequency of the CPU in Hz
    */
-  public static void insertSystem(String os, String codeName, String version,
-                                  String cpuSignature, int cpuCores,
-                                  long cpuVendFreq) {
+  public static synchronized void insertSystem(String os, String codeName, String version,
+                                               String cpuSignature, int cpuCores,
+                                               long cpuVendFreq) {
+    long start = System.nanoTime();
     try {
-      Connection conn = DriverManager.getConnection(URL);
-      Statement stmt = conn.createStatement();
+      Statement stmt = getConnection().createStatement();
       String sql = "SELECT COUNT(*) FROM System;";
       ResultSet rs = stmt.executeQuery(sql);
+      int count = rs.getInt(1);
+      stmt.close();
 
       // Only insert if there is no data in System already
-      if(rs.getInt(1) == 0) {
+      if(count == 0) {
         sql = "INSERT INTO System(os, codeName, version, cpuSignature, "
                 + "cpuCores, cpuVendFreq) VALUES (?, ?, ?, ?, ?, ?)";
 
-        PreparedStatement pstmt = conn.prepareStatement(sql);
+        PreparedStatement pstmt = prepare(sql);
         pstmt.setString(1, os);
         pstmt.setString(2, codeName);
         pstmt.setString(3, version);
@@ -165,7 +832,6 @@ public class DBHelper {
         pstmt.setInt(5, cpuCores);
         pstmt.setLong(6, cpuVendFreq);
         pstmt.executeUpdate();
-        conn.close();
 
         logger.info("Entry inserted into System table");
         logger.debug(String.format("Data: ('%1$s', '%2$s', '%3$s', '%4$s', %5$d, %6$d)",
@@ -176,6 +842,7 @@ public class DBHelper {
     } catch (SQLException e) {
       logger.error(e.getMessage());
     }
+    Instrumentation.recordSince("db.insertSystem", start);
   }
 
   /**
@@ -187,21 +854,18 @@ public class DBHelper {
    * @param avail Amount of memory currently available
    * @param total Total amount of memory on the system
    */
-  public static void insertMemoryData(long timestamp, long avail, long total) {
-    String sql = "INSERT INTO MemoryData(systemID, timestamp, avail, total) " +
-            "VALUES (?, ?, ?, ?)";
+  public static synchronized void insertMemoryData(long timestamp, long avail, long total) {
+    long start = System.nanoTime();
     int systemID = 1; // systemID is always 1
 
     try {
-      Connection conn = DriverManager.getConnection(URL);
-      PreparedStatement pstmt = conn.prepareStatement(sql);
+      PreparedStatement pstmt = prepare(MEMORY_DATA_INSERT);
 
       pstmt.setInt(1, systemID);
       pstmt.setLong(2, timestamp);
       pstmt.setLong(3, avail);
       pstmt.setLong(4, total);
       pstmt.executeUpdate();
-      conn.close();
 
       logger.info("Entry inserted into MemoryData table");
       logger.debug(String.format("Data: (%1$d, %2$d, %3$d, %4$d)",
@@ -209,6 +873,7 @@ public class DBHelper {
     } catch (SQLException e) {
       logger.error(e.getMessage());
     }
+    Instrumentation.recordSince("db.insertMemoryData", start);
   }
 
   /**
@@ -222,15 +887,13 @@ public class DBHelper {
    * @param temp Temperature of the battery cell in Celsius
    * @param isCharg 1 if the battery is charging, false otherwise
    */
-  public static void insertPowerData(long timestamp, double currCapPer,
-                                     double currCapTime, double temp, int isCharg) {
-    String sql = "INSERT INTO PowerData(systemID, timestamp, currCapPer," +
-            "currCapTime, temp, isCharg) VALUES (?, ?, ?, ?, ?, ?)";
+  public static synchronized void insertPowerData(long timestamp, double currCapPer,
+                                                  double currCapTime, double temp, int isCharg) {
+    long start = System.nanoTime();
     int systemID = 1; // systemID is always 1
 
     try {
-      Connection conn = DriverManager.getConnection(URL);
-      PreparedStatement pstmt = conn.prepareStatement(sql);
+      PreparedStatement pstmt = prepare(POWER_DATA_INSERT);
 
       pstmt.setInt(1, systemID);
       pstmt.setLong(2, timestamp);
@@ -239,7 +902,6 @@ public class DBHelper {
       pstmt.setDouble(5, temp);
       pstmt.setInt(6, isCharg);
       pstmt.executeUpdate();
-      conn.close();
 
       logger.info("Entry inserted into PowerData table");
       logger.debug(String.format("Data: (%1$d, %2$d, %3$f, %4$f, %5$f, %6$d)",
@@ -247,6 +909,7 @@ public class DBHelper {
     } catch (SQLException e) {
       logger.error(e.getMessage());
     }
+    Instrumentation.recordSince("db.insertPowerData", start);
   }
 
   /**
@@ -259,29 +922,27 @@ public class DBHelper {
    * @param user The user running this process
    * @param startTime UNIX timestamp in milliseconds of when this process started
    * @param upTime Number of milliseconds since this process process started
-   * @param cpuUsage Percentage of CPU time this process has used since it was started
+   * @param cpuUsage Share of one logical processor this process used since the previous pass
    */
-  public static void insertProcessData(long timestamp, int procID, String name,
-                                       String user, long startTime, long upTime,
-                                       double cpuUsage) {
-    String sql = "INSERT INTO ProcessData(systemID, timestamp, procID, name, " +
-            "user, startTime, upTime, cpuUsage) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+  public static synchronized void insertProcessData(long timestamp, int procID,
+                                                    String name, String user,
+                                                    long startTime, long upTime,
+                                                    double cpuUsage) {
+    long start = System.nanoTime();
     int systemID = 1; // systemID is always 1
 
     try {
-      Connection conn = DriverManager.getConnection(URL);
-      PreparedStatement pstmt = conn.prepareStatement(sql);
+      PreparedStatement pstmt = prepare(PROCESS_DATA_INSERT);
 
       pstmt.setInt(1, systemID);
       pstmt.setLong(2, timestamp);
       pstmt.setInt(3, procID);
-      pstmt.setString(4, name);
-      pstmt.setString(5, user);
+      pstmt.setInt(4, encode(processNames, PROCESS_NAME_INSERT, name));
+      pstmt.setInt(5, encode(processUsers, PROCESS_USER_INSERT, user));
       pstmt.setLong(6, startTime);
       pstmt.setLong(7, upTime);
       pstmt.setDouble(8, cpuUsage);
       pstmt.executeUpdate();
-      conn.close();
 
       logger.info("Entry inserted into ProcessData table");
       logger.debug(String.format("Data: (%1$d, %2$d, %3$d, '%4$s', '%5$s', " +
@@ -290,6 +951,7 @@ public class DBHelper {
     } catch (SQLException e) {
       logger.error(e.getMessage());
     }
+    Instrumentation.recordSince("db.insertProcessData", start);
   }
 
   /**
@@ -299,19 +961,18 @@ public class DBHelper {
    *
    * @param timestamp timestamp of entries to be removed
    */
-  public static void removeProcessData(long timestamp) {
-    String sql = "DELETE FROM ProcessData WHERE timestamp = " + timestamp + ";";
+  public static synchronized void removeProcessData(long timestamp) {
+    long start = System.nanoTime();
     try {
-      Connection conn = DriverManager.getConnection(URL);
-      Statement stmt = conn.createStatement();
-      stmt.execute(sql);
-
-      conn.close();
+      PreparedStatement pstmt = prepare(PROCESS_DATA_DELETE);
+      pstmt.setLong(1, timestamp);
+      pstmt.executeUpdate();
 
       logger.info("ProcessData table purged");
     } catch (SQLException e) {
       logger.error(e.getMessage());
     }
+    Instrumentation.recordSince("db.removeProcessData", start);
   }
 
   /**
@@ -326,15 +987,13 @@ public class DBHelper {
    * @param servs Number of services currently active
    * @param threads Number of threads currently running
    */
-  public static void insertSystemData(long timestamp, long bootTime, long upTime,
-                                      int procs, int servs, int threads) {
-    String sql = "INSERT INTO SystemData(systemID, timestamp, bootTime, upTime," +
-            "procs, servs, threads) VALUES (?, ?, ?, ?, ?, ?, ?)";
+  public static synchronized void insertSystemData(long timestamp, long bootTime, long upTime,
+                                                   int procs, int servs, int threads) {
+    long start = System.nanoTime();
     int systemID = 1; // systemID is always 1
 
     try {
-      Connection conn = DriverManager.getConnection(URL);
-      PreparedStatement pstmt = conn.prepareStatement(sql);
+      PreparedStatement pstmt = prepare(SYSTEM_DATA_INSERT);
 
       pstmt.setInt(1, systemID);
       pstmt.setLong(2, timestamp);
@@ -344,7 +1003,6 @@ public class DBHelper {
       pstmt.setInt(6, servs);
       pstmt.setInt(7, threads);
       pstmt.executeUpdate();
-      conn.close();
 
       logger.info("Entry inserted into SystemData table");
       logger.debug(String.format("Data: (%1$d, %2$d, %3$d, %4$d, %5$d, " +
@@ -353,6 +1011,7 @@ public class DBHelper {
     } catch (SQLException e) {
       logger.error(e.getMessage());
     }
+    Instrumentation.recordSince("db.insertSystemData", start);
   }
 
   /**
@@ -373,19 +1032,16 @@ public class DBHelper {
    * @param sirqTicks Number of ticks spent in software interrupts since boot
    * @param stealTicks Number of sticks spent in steal state since boot
    */
-  public static void insertCpuData(long timestamp, int coreNum, long currFreq,
+  public static synchronized void insertCpuData(long timestamp, int coreNum, long currFreq,
                                    long maxFreq, long userTicks, long niceTicks,
                                    long sysTicks, long idleTicks, long ioTicks,
                                    long irqTicks, long sirqTicks, long stealTicks) {
-    String sql = "INSERT INTO CpuData(systemID, timestamp, coreNum, currFreq, " +
-            "maxFreq, userTicks, niceTicks, sysTicks, idleTicks, ioTicks, " +
-            "irqTicks, sirqTicks, stealTicks) " +
-            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    long start = System.nanoTime();
     int systemID = 1; // systemID is always 1
 
     try {
-      Connection conn = DriverManager.getConnection(URL);
-      PreparedStatement pstmt = conn.prepareStatement(sql);
+      String table = cpuData.route(getConnection(), timestamp);
+      PreparedStatement pstmt = prepare(String.format(CPU_DATA_INSERT, table));
 
       pstmt.setInt(1, systemID);
       pstmt.setLong(2, timestamp);
@@ -401,7 +1057,6 @@ public class DBHelper {
       pstmt.setLong(12, sirqTicks);
       pstmt.setLong(13, stealTicks);
       pstmt.executeUpdate();
-      conn.close();
 
       logger.info("Entry inserted into CpuData table");
       logger.debug(String.format("Data: (%1$d, %2$d, %3$d, %4$d, %5$d, " +
@@ -412,28 +1067,577 @@ public class DBHelper {
     } catch (SQLException e) {
       logger.error(e.getMessage());
     }
+    Instrumentation.recordSince("db.insertCpuData", start);
   }
 
   /**
-   * removeProcessData
+   * removeCpuData
    *
-   * Removes processData entries with the given timestamp
+   * Removes CpuData entries with the given timestamp. Nothing is done if
+   * their partition does not exist, eg. because retention dropped it.
    *
    * @param timestamp timestamp of entries to be removed
    */
-  public static void removeCpuData(long timestamp) {
-    String sql = "DELETE FROM ProcessData WHERE timestamp = " + timestamp + ";";
+  public static synchronized void removeCpuData(long timestamp) {
+    long start = System.nanoTime();
     try {
-      Connection conn = DriverManager.getConnection(URL);
-      Statement stmt = conn.createStatement();
-      stmt.execute(sql);
-
-      conn.close();
+      for(String table : cpuData.between(getConnection(), timestamp, timestamp + 1)) {
+        PreparedStatement pstmt = prepare(String.format(CPU_DATA_DELETE, table));
+        pstmt.setLong(1, timestamp);
+        pstmt.executeUpdate();
+      }
 
       logger.info("CpuData table purged");
     } catch (SQLException e) {
       logger.error(e.getMessage());
     }
+    Instrumentation.recordSince("db.removeCpuData", start);
+  }
+
+  /**
+   * timestampIndex
+   *
+   * @param table Name of a table with a timestamp column
+   * @return the statement that creates the table's timestamp index
+   */
+  protected static String timestampIndex(String table) {
+    return "CREATE INDEX IF NOT EXISTS " + table + "_timestamp ON " + table + "(timestamp);";
+  }
+
+  /**
+   * rollupTable
+   *
+   * @param name Name of the rollup table
+   * @return the statement that creates the rollup table
+   */
+  private static String rollupTable(String name) {
+    return ("CREATE TABLE IF NOT EXISTS " + name + " (\n"
+            + " systemID INTEGER NOT NULL, \n"
+            + " metric TEXT NOT NULL, \n"
+            + " series INTEGER NOT NULL, \n"
+            + " timestamp INTEGER NOT NULL, \n"
+            + " min REAL NOT NULL, \n"
+            + " avg REAL NOT NULL, \n"
+            + " max REAL NOT NULL, \n"
+            + " last REAL NOT NULL, \n"
+            + " count INTEGER NOT NULL, \n"
+            + " span INTEGER NOT NULL, \n"
+            + " PRIMARY KEY(systemID, metric, series, timestamp), \n"
+            + " FOREIGN KEY(systemID) REFERENCES System(id) \n"
+            + " );");
+  }
+
+  /**
+   * addRollupSpan
+   *
+   * span is the number of milliseconds the samples of a rollup stand
+   * for, which avg is weighted by, so that faster sampling during busy
+   * periods does not skew it.
+   *
+   * @param table Name of the rollup table
+   * @return the statement that adds the span column to a rollup table
+   */
+  private static String addRollupSpan(String table) {
+    return "ALTER TABLE " + table + " ADD COLUMN span INTEGER NOT NULL DEFAULT 0;";
+  }
+
+  /**
+   * setRollupSpan
+   *
+   * @param table Name of the rollup table
+   * @return the statement that sets the span of existing rollups from the
+   *         default interval of their metric's collector
+   */
+  private static String setRollupSpan(String table) {
+    return "UPDATE " + table + " SET span = count * CASE "
+            + "WHEN metric LIKE 'power.%' THEN " + MeTrik.POWER_INTERVAL + " "
+            + "WHEN metric LIKE 'system.%' THEN " + MeTrik.SYSTEM_INTERVAL + " "
+            + "ELSE " + MeTrik.MEMORY_INTERVAL + " END;";
+  }
+
+  /**
+   * sampleIntervalTable
+   *
+   * The interval each collector ran at, one entry each time it changed,
+   * so the interval an entry stands for is that of the newest entry for
+   * its collector at or before its timestamp.
+   *
+   * @return the statement that creates the SampleInterval table
+   */
+  private static String sampleIntervalTable() {
+    return ("CREATE TABLE IF NOT EXISTS SampleInterval (\n"
+            + " systemID INTEGER NOT NULL, \n"
+            + " collector TEXT NOT NULL, \n"
+            + " timestamp INTEGER NOT NULL, \n"
+            + " interval INTEGER NOT NULL, \n"
+            + " PRIMARY KEY(systemID, collector, timestamp), \n"
+            + " FOREIGN KEY(systemID) REFERENCES System(id) \n"
+            + " );");
+  }
+  /**
+   * processUsageDDL
+   *
+   * @return the definitions of the memory, thread and I/O columns of the
+   *         ProcessData and ProcessEvent tables
+   */
+  private static String processUsageDDL() {
+    StringBuilder ddl = new StringBuilder();
+    for(String column : PROCESS_USAGE_COLUMNS) {
+      ddl.append(" ").append(column).append(" INTEGER NOT NULL DEFAULT 0, \n");
+    }
+    return ddl.toString();
+  }
+
+  /**
+   * addProcessUsage
+   *
+   * Entries from before the columns were added keep 0 in them.
+   *
+   * @param tables Names of the tables
+   * @return the statements that add the memory, thread and I/O columns to
+   *         the given tables
+   */
+  private static String[] addProcessUsage(String... tables) {
+    String[] statements = new String[tables.length * PROCESS_USAGE_COLUMNS.length];
+    int i = 0;
+    for(String table : tables) {
+      for(String column : PROCESS_USAGE_COLUMNS) {
+        statements[i++] = "ALTER TABLE " + table + " ADD COLUMN " + column
+                + " INTEGER NOT NULL DEFAULT 0;";
+      }
+    }
+    return statements;
+  }
+
+  /**
+   * alteredPartitions
+   *
+   * A migration that alters a partitioned table is applied to each of its
+   * partitions, since the table itself is a view.
+   *
+   * @param sql Statement of a migration
+   * @return the partitioned table the statement alters, or null if it
+   *         does not alter one
+   */
+  private static PartitionedTable alteredPartitions(String sql) {
+    for(PartitionedTable table : partitioned.values()) {
+      if(sql.startsWith("ALTER TABLE " + table.name + " ")) {
+        return table;
+      }
+    }
+    return null;
+  }
+
+
+  /**
+   * instrumentationTable
+   *
+   * Summaries of the daemon's own latency histograms, one entry per
+   * histogram and interval. Latencies are in nanoseconds.
+   *
+   * @return the statement that creates the Instrumentation table
+   */
+  private static String instrumentationTable() {
+    return ("CREATE TABLE IF NOT EXISTS Instrumentation (\n"
+            + " systemID INTEGER NOT NULL, \n"
+            + " timestamp INTEGER NOT NULL, \n"
+            + " name TEXT NOT NULL, \n"
+            + " count INTEGER NOT NULL, \n"
+            + " mean REAL NOT NULL, \n"
+            + " p50 INTEGER NOT NULL, \n"
+            + " p90 INTEGER NOT NULL, \n"
+            + " p99 INTEGER NOT NULL, \n"
+            + " max INTEGER NOT NULL, \n"
+            + " PRIMARY KEY(systemID, name, timestamp), \n"
+            + " FOREIGN KEY(systemID) REFERENCES System(id) \n"
+            + " );");
+  }
+
+  /**
+   * insertRound
+   *
+   * Inserts every entry of a round of collection, applies its process
+   * events and folds its samples into the rollup tables in a single
+   * transaction, so readers never see a partially written round. About once
+   * a minute the same transaction also removes expired entries. Process,
+   * CPU and rollup entries are sent as JDBC batches.
+   *
+   * @param round the round of collection to insert
+   */
+  public static synchronized void insertRound(CollectionRound round) {
+    long start = System.nanoTime();
+    int systemID = 1; // systemID is always 1
+
+    try {
+      Connection conn = getConnection();
+      conn.setAutoCommit(false);
+      try {
+        PreparedStatement minute = prepare(ROLLUP_1M_UPSERT);
+        PreparedStatement hour = prepare(ROLLUP_1H_UPSERT);
+
+        if(round.memory != null) {
+          for(String sql : new String[] {MEMORY_DATA_INSERT, LATEST_MEMORY_DATA_UPSERT}) {
+            PreparedStatement pstmt = prepare(sql);
+            pstmt.setInt(1, systemID);
+            pstmt.setLong(2, round.timestamp);
+            pstmt.setLong(3, round.memory.avail);
+            pstmt.setLong(4, round.memory.total);
+            pstmt.executeUpdate();
+          }
+          rollup(minute, hour, round.timestamp, span(round, CollectionRound.MEMORY),
+                  "memory.avail", 0, round.memory.avail);
+        }
+
+        if(round.power != null) {
+          for(String sql : new String[] {POWER_DATA_INSERT, LATEST_POWER_DATA_UPSERT}) {
+            PreparedStatement pstmt = prepare(sql);
+            pstmt.setInt(1, systemID);
+            pstmt.setLong(2, round.timestamp);
+            pstmt.setDouble(3, round.power.currCapPer);
+            pstmt.setDouble(4, round.power.currCapTime);
+            pstmt.setDouble(5, round.power.temp);
+            pstmt.setInt(6, round.power.isCharg);
+            pstmt.executeUpdate();
+          }
+          long span = span(round, CollectionRound.POWER);
+          rollup(minute, hour, round.timestamp, span, "power.currCapPer", 0, round.power.currCapPer);
+          rollup(minute, hour, round.timestamp, span, "power.temp", 0, round.power.temp);
+        }
+
+        if(round.system != null) {
+          for(String sql : new String[] {SYSTEM_DATA_INSERT, LATEST_SYSTEM_DATA_UPSERT}) {
+            PreparedStatement pstmt = prepare(sql);
+            pstmt.setInt(1, systemID);
+            pstmt.setLong(2, round.timestamp);
+            pstmt.setLong(3, round.system.bootTime);
+            pstmt.setLong(4, round.system.upTime);
+            pstmt.setInt(5, round.system.procs);
+            pstmt.setInt(6, round.system.servs);
+            pstmt.setInt(7, round.system.threads);
+            pstmt.executeUpdate();
+          }
+          long span = span(round, CollectionRound.SYSTEM);
+          rollup(minute, hour, round.timestamp, span, "system.procs", 0, round.system.procs);
+          rollup(minute, hour, round.timestamp, span, "system.threads", 0, round.system.threads);
+        }
+
+        // Apply process events to ProcessData in order, and log them
+        if(!round.processes.isEmpty()) {
+          PreparedStatement upsert = prepare(PROCESS_DATA_UPSERT);
+          PreparedStatement exit = prepare(PROCESS_DATA_EXIT);
+          PreparedStatement event = prepare(String.format(PROCESS_EVENT_INSERT,
+                  processEvents.route(conn, round.timestamp)));
+          for(CollectionRound.ProcessData proc : round.processes) {
+            int nameID = encode(processNames, PROCESS_NAME_INSERT, proc.name);
+            int userID = encode(processUsers, PROCESS_USER_INSERT, proc.user);
+            if(proc.event == CollectionRound.ProcessEvent.EXIT
+                    || proc.event == CollectionRound.ProcessEvent.FOLD) {
+              exit.setInt(1, systemID);
+              exit.setInt(2, proc.procID);
+              exit.setLong(3, proc.startTime);
+              exit.addBatch();
+            } else {
+              upsert.setInt(1, systemID);
+              upsert.setLong(2, round.timestamp);
+              upsert.setInt(3, proc.procID);
+              upsert.setInt(4, nameID);
+              upsert.setInt(5, userID);
+              upsert.setLong(6, proc.startTime);
+              upsert.setLong(7, proc.upTime);
+              upsert.setDouble(8, proc.cpuUsage);
+              upsert.setLong(9, proc.residentSize);
+              upsert.setLong(10, proc.virtualSize);
+              upsert.setInt(11, proc.threads);
+              upsert.setLong(12, proc.bytesRead);
+              upsert.setLong(13, proc.bytesWritten);
+              upsert.addBatch();
+            }
+
+            event.setInt(1, systemID);
+            event.setLong(2, round.timestamp);
+            event.setInt(3, proc.procID);
+            event.setLong(4, proc.startTime);
+            event.setInt(5, proc.event.ordinal());
+            event.setInt(6, nameID);
+            event.setInt(7, userID);
+            event.setLong(8, proc.upTime);
+            event.setDouble(9, proc.cpuUsage);
+            event.setLong(10, proc.residentSize);
+            event.setLong(11, proc.virtualSize);
+            event.setInt(12, proc.threads);
+            event.setLong(13, proc.bytesRead);
+            event.setLong(14, proc.bytesWritten);
+            event.addBatch();
+          }
+          // A process's exit or fold always follows its start and updates
+          upsert.executeBatch();
+          exit.executeBatch();
+          event.executeBatch();
+        }
+
+        if(!round.cpus.isEmpty()) {
+          PreparedStatement pstmt = prepare(String.format(CPU_LOAD_INSERT,
+                  cpuData.route(conn, round.timestamp)));
+          PreparedStatement latest = prepare(LATEST_CPU_DATA_UPSERT);
+          long span = span(round, CollectionRound.CPU);
+          for(CollectionRound.CpuData core : round.cpus) {
+            bindCpuData(pstmt, systemID, round.timestamp, core, storeRawTicks);
+            pstmt.addBatch();
+            bindCpuData(latest, systemID, round.timestamp, core, true);
+            latest.addBatch();
+            rollup(minute, hour, round.timestamp, span, "cpu.userPct", core.coreNum, core.userPct);
+            rollup(minute, hour, round.timestamp, span, "cpu.sysPct", core.coreNum, core.sysPct);
+            rollup(minute, hour, round.timestamp, span, "cpu.ioPct", core.coreNum, core.ioPct);
+          }
+          pstmt.executeBatch();
+          latest.executeBatch();
+
+          // Cores missing from this round are no longer current
+          PreparedStatement prune = prepare(LATEST_CPU_DATA_PRUNE);
+          prune.setInt(1, systemID);
+          prune.setLong(2, round.timestamp);
+          prune.executeUpdate();
+        }
+
+        minute.executeBatch();
+        hour.executeBatch();
+
+        // Record the collectors' intervals when they change
+        for(Map.Entry<String, Long> interval : round.intervals.entrySet()) {
+          if(!interval.getValue().equals(lastIntervals.get(interval.getKey()))) {
+            PreparedStatement pstmt = prepare(SAMPLE_INTERVAL_INSERT);
+            pstmt.setInt(1, systemID);
+            pstmt.setString(2, interval.getKey());
+            pstmt.setLong(3, round.timestamp);
+            pstmt.setLong(4, interval.getValue());
+            pstmt.executeUpdate();
+            lastIntervals.put(interval.getKey(), interval.getValue());
+          }
+        }
+
+        if(!round.instrumentation.isEmpty()) {
+          PreparedStatement pstmt = prepare(INSTRUMENTATION_INSERT);
+          for(Instrumentation.Summary summary : round.instrumentation) {
+            pstmt.setInt(1, systemID);
+            pstmt.setLong(2, round.timestamp);
+            pstmt.setString(3, summary.name);
+            pstmt.setLong(4, summary.count);
+            pstmt.setDouble(5, summary.mean);
+            pstmt.setLong(6, summary.p50);
+            pstmt.setLong(7, summary.p90);
+            pstmt.setLong(8, summary.p99);
+            pstmt.setLong(9, summary.max);
+            pstmt.addBatch();
+          }
+          pstmt.executeBatch();
+        }
+
+        conn.commit();
+      } catch (SQLException e) {
+        conn.rollback();
+        dictionariesLoaded = false; // Drop entries that were rolled back
+        lastIntervals.clear();
+        for(PartitionedTable table : partitioned.values()) {
+          table.reset();
+        }
+        throw e;
+      } finally {
+        conn.setAutoCommit(true);
+      }
+
+      logger.info(String.format("Round inserted: %1$d process events, %2$d cores",
+              round.processes.size(), round.cpus.size()));
+    } catch (SQLException e) {
+      logger.error(e.getMessage());
+    }
+    Instrumentation.recordSince("db.insertRound", start);
+
+    if(round.timestamp - lastRetention >= RETENTION_INTERVAL) {
+      maintain(systemID, round.timestamp);
+    }
+  }
+
+  /**
+   * maintain
+   *
+   * Converts closed windows into chunks and applies the retention
+   * policies, in a transaction of their own after the round's, so a
+   * failure here does not lose the round. After a failure, both are tried
+   * again RETENTION_INTERVAL later.
+   *
+   * @param systemID ID of the system
+   * @param now UNIX timestamp in milliseconds of the latest round
+   */
+  private static void maintain(int systemID, long now) {
+    lastRetention = now;
+    try {
+      Connection conn = getConnection();
+      conn.setAutoCommit(false);
+      try {
+        long compactStart = System.nanoTime();
+        chunks.compact(conn, systemID, now);
+        Instrumentation.recordSince("db.compactChunks", compactStart);
+        deleteExpired(now);
+        conn.commit();
+      } catch (SQLException e) {
+        conn.rollback();
+        for(PartitionedTable table : partitioned.values()) {
+          table.reset(); // Partitions dropped by the rollback come back
+        }
+        throw e;
+      } finally {
+        conn.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      logger.error("Maintenance failed: " + e.getMessage());
+    }
+  }
+
+  /**
+   * bindCpuData
+   *
+   * Sets the parameters of a CPU_LOAD_COLUMNS statement.
+   *
+   * @param pstmt the statement to bind
+   * @param systemID ID of the system
+   * @param timestamp Timestamp of the round
+   * @param core the entry to bind
+   * @param withTicks false to leave out the tick counters
+   */
+  private static void bindCpuData(PreparedStatement pstmt, int systemID, long timestamp,
+                                  CollectionRound.CpuData core, boolean withTicks)
+          throws SQLException {
+    pstmt.setInt(1, systemID);
+    pstmt.setLong(2, timestamp);
+    pstmt.setInt(3, core.coreNum);
+    pstmt.setLong(4, core.currFreq);
+    pstmt.setLong(5, core.maxFreq);
+    pstmt.setDouble(6, core.userPct);
+    pstmt.setDouble(7, core.sysPct);
+    pstmt.setDouble(8, core.idlePct);
+    pstmt.setDouble(9, core.ioPct);
+    pstmt.setDouble(10, core.stealPct);
+    for(int i = 0; i < CpuLoadTracker.TICK_TYPES; i++) {
+      if(withTicks && core.ticks != null) {
+        pstmt.setLong(11 + i, core.ticks[i]);
+      } else {
+        pstmt.setNull(11 + i, Types.INTEGER);
+      }
+    }
+  }
+
+  /**
+   * rollup
+   *
+   * Adds a sample to the batches of the per-minute and per-hour rollups.
+   *
+   * @param minute Prepared Rollup1m upsert
+   * @param hour Prepared Rollup1h upsert
+   * @param timestamp UNIX timestamp of the sample in milliseconds
+   * @param span Milliseconds the sample stands for, its weight in avg
+   * @param metric Name of the metric
+   * @param series Series of the metric, eg. the CPU core, 0 if there is one
+   * @param value Value of the sample
+   */
+  private static void rollup(PreparedStatement minute, PreparedStatement hour,
+                             long timestamp, long span, String metric, int series,
+                             double value) throws SQLException {
+    addRollup(minute, timestamp - Math.floorMod(timestamp, MINUTE), span, metric, series, value);
+    addRollup(hour, timestamp - Math.floorMod(timestamp, HOUR), span, metric, series, value);
+  }
+
+  private static void addRollup(PreparedStatement pstmt, long bucket, long span,
+                                String metric, int series, double value) throws SQLException {
+    pstmt.setInt(1, 1); // systemID is always 1
+    pstmt.setString(2, metric);
+    pstmt.setInt(3, series);
+    pstmt.setLong(4, bucket);
+    pstmt.setDouble(5, value);
+    pstmt.setDouble(6, value);
+    pstmt.setDouble(7, value);
+    pstmt.setDouble(8, value);
+    pstmt.setLong(9, span);
+    pstmt.addBatch();
+  }
+
+  /**
+   * span
+   *
+   * @param round a round of collection
+   * @param collector Name of the collector of the entries
+   * @return Milliseconds the collector's entries in the round stand for
+   */
+  private static long span(CollectionRound round, String collector) {
+    long interval = round.getInterval(collector);
+    return interval > 0 ? interval : DEFAULT_SPAN;
+  }
+
+  /**
+   * applyRetention
+   *
+   * Removes the entries that are older than the retention policy of their
+   * table allows.
+   *
+   * @param now UNIX timestamp in milliseconds the entry ages are measured from
+   */
+  public static synchronized void applyRetention(long now) {
+    try {
+      deleteExpired(now);
+      lastRetention = now;
+    } catch (SQLException e) {
+      logger.error(e.getMessage());
+    }
+  }
+
+  private static void deleteExpired(long now) throws SQLException {
+    long start = System.nanoTime();
+    int deleted = 0;
+    for(RetentionPolicy policy : retentionPolicies) {
+      PartitionedTable table = partitioned.get(policy.table);
+      if(table != null) {
+        // Expire whole partitions instead of deleting entries
+        for(String partition : table.dropBefore(getConnection(), now - policy.retention)) {
+          closeStatements(partition);
+        }
+        continue;
+      }
+
+      PreparedStatement pstmt = prepare(String.format(RETENTION_DELETE, policy.table));
+      pstmt.setLong(1, now - policy.retention);
+      deleted += pstmt.executeUpdate();
+    }
+    for(RetentionPolicy policy : retentionPolicies) {
+      if(chunks.getFamily(policy.table) != null) {
+        deleted += chunks.expire(getConnection(), policy.table, now - policy.retention);
+      }
+    }
+    if(deleted > 0) {
+      logger.info(String.format("Retention removed %1$d entries", deleted));
+    }
+    Instrumentation.recordSince("db.retention", start);
+  }
+
+  /**
+   * readChunks
+   *
+   * Gets the compressed chunks of a series that may hold entries in the
+   * given range. Entries of the range that are not in a chunk yet are
+   * still in their table.
+   *
+   * @param family Name of the table, eg. CpuData
+   * @param series Series of the entries, the core for CpuData, otherwise 0
+   * @param from UNIX timestamp in milliseconds of the first entries
+   * @param to UNIX timestamp in milliseconds of the last entries
+   * @return a decoder for each chunk, oldest first
+   */
+  public static synchronized List<Chunk.Decoder> readChunks(String family, int series,
+                                                            long from, long to) {
+    try {
+      return chunks.read(getConnection(), 1, family, series, from, to);
+    } catch (SQLException e) {
+      logger.error(e.getMessage());
+      return new ArrayList<>();
+    }
   }
 
   protected static ResultSet query(String sql) {
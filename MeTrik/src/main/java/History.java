@@ -0,0 +1,180 @@
+/**
+ * History
+ *
+ * The most recent samples of memory, power, system and per-core CPU data
+ * in memory, so a window of them, eg. memory over the last 5 minutes, can
+ * be read without going to the database. Each family of data is kept in a
+ * SampleRing, whose columns are given by the constants below. The rounds
+ * must all be recorded from one thread; any thread may read the rings.
+ */
+public class History {
+  // Number of samples kept of each family
+  public static final int DEFAULT_SIZE = 3600;
+
+  // Columns of the memory ring
+  public static final int MEMORY_AVAIL = 0;
+  public static final int MEMORY_TOTAL = 1;
+  public static final int MEMORY_COLUMNS = 2;
+
+  // Columns of the power ring
+  public static final int POWER_CAPACITY = 0;
+  public static final int POWER_TIME = 1;
+  public static final int POWER_TEMP = 2;
+  public static final int POWER_CHARGING = 3;
+  public static final int POWER_COLUMNS = 4;
+
+  // Columns of the system ring
+  public static final int SYSTEM_UPTIME = 0;
+  public static final int SYSTEM_PROCS = 1;
+  public static final int SYSTEM_SERVS = 2;
+  public static final int SYSTEM_THREADS = 3;
+  public static final int SYSTEM_COLUMNS = 4;
+
+  public final int size;
+
+  private final SampleRing memory;
+  private final SampleRing power;
+  private final SampleRing system;
+  // Sized on the first round with CPU data, once the cores are known
+  private volatile SampleRing cpu;
+
+  /**
+   * History
+   *
+   * @param size Number of samples kept of each family
+   */
+  public History(int size) {
+    this.size = size;
+    this.memory = new SampleRing(size, MEMORY_COLUMNS);
+    this.power = new SampleRing(size, POWER_COLUMNS);
+    this.system = new SampleRing(size, SYSTEM_COLUMNS);
+  }
+
+  /**
+   * fromSystemProperties
+   *
+   * Builds a history of -Dtrik.history.size samples, falling back to the
+   * default size.
+   *
+   * @return the history, or null if the size is 0
+   */
+  public static History fromSystemProperties() {
+    int size = Integer.getInteger("trik.history.size", DEFAULT_SIZE);
+    return size > 0 ? new History(size) : null;
+  }
+
+  /**
+   * cpuColumn
+   *
+   * Gets the column of the CPU ring holding a field of a logical
+   * processor's CpuData.
+   *
+   * @param core Index number of the logical processor, -1 for all
+   * @param field CpuLoadTracker.USER, SYSTEM, IDLE, IOWAIT or STEAL
+   * @return Index of the column
+   */
+  public static int cpuColumn(int core, int field) {
+    return (core + 1) * CpuLoadTracker.FIELDS + field;
+  }
+
+  /**
+   * record
+   *
+   * Appends the data of a round to the rings. Only one thread may record.
+   *
+   * @param round the round of collection
+   */
+  public void record(CollectionRound round) {
+    if(round.memory != null) {
+      memory.set(MEMORY_AVAIL, round.memory.avail);
+      memory.set(MEMORY_TOTAL, round.memory.total);
+      memory.append(round.timestamp);
+    }
+    if(round.power != null) {
+      power.set(POWER_CAPACITY, round.power.currCapPer);
+      power.set(POWER_TIME, round.power.currCapTime);
+      power.set(POWER_TEMP, round.power.temp);
+      power.set(POWER_CHARGING, round.power.isCharg);
+      power.append(round.timestamp);
+    }
+    if(round.system != null) {
+      system.set(SYSTEM_UPTIME, round.system.upTime);
+      system.set(SYSTEM_PROCS, round.system.procs);
+      system.set(SYSTEM_SERVS, round.system.servs);
+      system.set(SYSTEM_THREADS, round.system.threads);
+      system.append(round.timestamp);
+    }
+    if(!round.cpus.isEmpty()) {
+      recordCpus(round);
+    }
+  }
+
+  /**
+   * recordCpus
+   *
+   * Appends the CpuData of a round to the CPU ring, creating it on the
+   * first call. Cores beyond those of the first call are skipped.
+   */
+  private void recordCpus(CollectionRound round) {
+    SampleRing ring = cpu;
+    if(ring == null) {
+      int cores = 0;
+      for(CollectionRound.CpuData data : round.cpus) {
+        cores = Math.max(cores, data.coreNum + 1);
+      }
+      ring = new SampleRing(size, cpuColumn(cores, 0));
+    }
+    for(CollectionRound.CpuData data : round.cpus) {
+      int column = cpuColumn(data.coreNum, 0);
+      if(column + CpuLoadTracker.FIELDS > ring.columns) {
+        continue;
+      }
+      ring.set(column + CpuLoadTracker.USER, data.userPct);
+      ring.set(column + CpuLoadTracker.SYSTEM, data.sysPct);
+      ring.set(column + CpuLoadTracker.IDLE, data.idlePct);
+      ring.set(column + CpuLoadTracker.IOWAIT, data.ioPct);
+      ring.set(column + CpuLoadTracker.STEAL, data.stealPct);
+    }
+    ring.append(round.timestamp);
+    cpu = ring;
+  }
+
+  /**
+   * getMemory
+   *
+   * @return Ring of MEMORY_AVAIL and MEMORY_TOTAL, in bytes
+   */
+  public SampleRing getMemory() {
+    return memory;
+  }
+
+  /**
+   * getPower
+   *
+   * @return Ring of POWER_CAPACITY, POWER_TIME, POWER_TEMP and
+   *         POWER_CHARGING
+   */
+  public SampleRing getPower() {
+    return power;
+  }
+
+  /**
+   * getSystem
+   *
+   * @return Ring of SYSTEM_UPTIME, SYSTEM_PROCS, SYSTEM_SERVS and
+   *         SYSTEM_THREADS
+   */
+  public SampleRing getSystem() {
+    return system;
+  }
+
+  /**
+   * getCpu
+   *
+   * @return Ring of the CPU columns given by cpuColumn, or null before
+   *         the first round with CPU data
+   */
+  public SampleRing getCpu() {
+    return cpu;
+  }
+}
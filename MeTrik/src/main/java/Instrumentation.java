@@ -0,0 +1,165 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Instrumentation
+ *
+ * The daemon's own latency histograms, by name, eg. collector.Process or
+ * db.insertRound. Names that end in .depth count rounds instead of
+ * nanoseconds. Every MeTrik.INSTRUMENTATION_INTERVAL the change since the
+ * previous interval is summarized into the Instrumentation table.
+ */
+public class Instrumentation {
+  private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+  // Snapshots the last interval ended with
+  private static final Map<String, LatencyHistogram.Snapshot> lastInterval = new HashMap<>();
+
+  /**
+   * Summary
+   *
+   * Count and distribution of a histogram's values over an interval.
+   */
+  public static class Summary {
+    public final String name;
+    public final long count;
+    public final double mean;
+    public final long p50;
+    public final long p90;
+    public final long p99;
+    public final long max;
+
+    public Summary(String name, long count, double mean, long p50, long p90,
+                   long p99, long max) {
+      this.name = name;
+      this.count = count;
+      this.mean = mean;
+      this.p50 = p50;
+      this.p90 = p90;
+      this.p99 = p99;
+      this.max = max;
+    }
+
+    static Summary of(String name, LatencyHistogram.Snapshot snapshot) {
+      return new Summary(name, snapshot.getCount(), snapshot.getMean(),
+              snapshot.getPercentile(50), snapshot.getPercentile(90),
+              snapshot.getPercentile(99), snapshot.getMax());
+    }
+  }
+
+  private Instrumentation() {}
+
+  /**
+   * histogram
+   *
+   * @param name Name of the histogram
+   * @return the histogram, created on first use
+   */
+  public static LatencyHistogram histogram(String name) {
+    LatencyHistogram histogram = histograms.get(name);
+    return histogram != null ? histogram
+            : histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+  }
+
+  /**
+   * recordSince
+   *
+   * Records the nanoseconds elapsed since the given System.nanoTime.
+   *
+   * @param name Name of the histogram
+   * @param start System.nanoTime at the start of the measured operation
+   */
+  public static void recordSince(String name, long start) {
+    histogram(name).record(System.nanoTime() - start);
+  }
+
+  /**
+   * forEach
+   *
+   * Visits the live histograms, in no particular order.
+   *
+   * @param action Receives the name and histogram of each
+   */
+  public static void forEach(BiConsumer<String, LatencyHistogram> action) {
+    histograms.forEach(action);
+  }
+
+  /**
+   * snapshot
+   *
+   * @return Snapshot of every histogram since the daemon started, by name
+   */
+  public static SortedMap<String, LatencyHistogram.Snapshot> snapshot() {
+    SortedMap<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+    for(Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+      snapshots.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    return snapshots;
+  }
+
+  /**
+   * summarize
+   *
+   * @return Summary of every histogram since the daemon started
+   */
+  public static List<Summary> summarize() {
+    List<Summary> summaries = new ArrayList<>();
+    for(Map.Entry<String, LatencyHistogram.Snapshot> entry : snapshot().entrySet()) {
+      summaries.add(Summary.of(entry.getKey(), entry.getValue()));
+    }
+    return summaries;
+  }
+
+  /**
+   * toJson
+   *
+   * Serializes the summaries since the daemon started, eg.
+   * {"collector.Cpu": {"count": 60, "mean": 412.5, "p50": 399, ...}, ...}
+   *
+   * @return UTF-8 encoded JSON object, by histogram name
+   */
+  public static byte[] toJson() {
+    StringBuilder sb = new StringBuilder("{");
+    for(Summary summary : summarize()) {
+      if(sb.length() > 1) {
+        sb.append(',');
+      }
+      sb.append('"').append(summary.name).append("\": {\"count\": ").append(summary.count)
+              .append(", \"mean\": ").append(summary.mean)
+              .append(", \"p50\": ").append(summary.p50)
+              .append(", \"p90\": ").append(summary.p90)
+              .append(", \"p99\": ").append(summary.p99)
+              .append(", \"max\": ").append(summary.max).append('}');
+    }
+    return sb.append('}').toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * interval
+   *
+   * Ends the current interval.
+   *
+   * @return Summary of the histograms that counted values during the interval
+   */
+  public static synchronized List<Summary> interval() {
+    List<Summary> summaries = new ArrayList<>();
+    for(Map.Entry<String, LatencyHistogram.Snapshot> entry : snapshot().entrySet()) {
+      LatencyHistogram.Snapshot previous = lastInterval.getOrDefault(entry.getKey(),
+              LatencyHistogram.Snapshot.EMPTY);
+      LatencyHistogram.Snapshot change = entry.getValue().minus(previous);
+      lastInterval.put(entry.getKey(), entry.getValue());
+      if(change.getCount() > 0) {
+        summaries.add(Summary.of(entry.getKey(), change));
+      }
+    }
+    return Collections.unmodifiableList(summaries);
+  }
+}
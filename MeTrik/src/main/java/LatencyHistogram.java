@@ -0,0 +1,230 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram
+ *
+ * Lock-free histogram of non-negative values, usually nanoseconds, with
+ * log-linear buckets in the manner of HdrHistogram: values below 32 are
+ * counted exactly, and every power of two above that is split into 32
+ * buckets, so any value is reported within about 3%. Recording is a
+ * couple of atomic increments, and counts are cumulative; the change over
+ * an interval is the difference of two snapshots.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  public static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+
+  /**
+   * record
+   *
+   * @param value the value to count, negative values count as 0
+   */
+  public void record(long value) {
+    value = Math.max(0, value);
+    counts.incrementAndGet(bucket(value));
+    sum.addAndGet(value);
+    count.incrementAndGet();
+  }
+
+  /**
+   * recordSince
+   *
+   * Records the nanoseconds elapsed since the given System.nanoTime.
+   *
+   * @param start System.nanoTime at the start of the measured operation
+   */
+  public void recordSince(long start) {
+    record(System.nanoTime() - start);
+  }
+
+  /**
+   * snapshot
+   *
+   * Copies the counts. Values recorded during the copy may be left out of
+   * this snapshot, they are in the next.
+   *
+   * @return the counts recorded so far
+   */
+  public Snapshot snapshot() {
+    long[] copy = new long[BUCKETS];
+    long total = 0;
+    for(int i = 0; i < BUCKETS; i++) {
+      copy[i] = counts.get(i);
+      total += copy[i];
+    }
+    return new Snapshot(copy, total, sum.get());
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getSum() {
+    return sum.get();
+  }
+
+  /**
+   * getPercentiles
+   *
+   * Reads percentiles straight from the live counts, without copying them
+   * like snapshot does. Values recorded during the read may or may not be
+   * included.
+   *
+   * @param percentiles Percentages of the values in ascending order, eg. 50, 99
+   * @param values Receives the value at each percentile, 0 if there are none
+   */
+  public void getPercentiles(double[] percentiles, long[] values) {
+    long total = count.get();
+    long seen = 0;
+    long value = 0;
+    int next = 0;
+    for(int i = 0; i < BUCKETS && next < percentiles.length; i++) {
+      long bucketCount = counts.get(i);
+      if(bucketCount == 0) {
+        continue;
+      }
+      seen += bucketCount;
+      value = highestValue(i);
+      while(next < percentiles.length && seen >= rank(percentiles[next], total)) {
+        values[next++] = value;
+      }
+    }
+    while(next < percentiles.length) {
+      values[next++] = value;
+    }
+  }
+
+  /**
+   * rank
+   *
+   * @param percentile Percentage of the values
+   * @param count Number of values
+   * @return how many of the smallest values the percentile covers, at least 1
+   */
+  private static long rank(double percentile, long count) {
+    return Math.max(1, (long) Math.ceil(percentile / 100 * count));
+  }
+
+  static int bucket(long value) {
+    if(value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BITS
+    int sub = (int) (value >>> (exponent - SUB_BITS)) - SUB_BUCKETS;
+    return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * highestValue
+   *
+   * @param bucket Index of a bucket
+   * @return the largest value counted in the bucket
+   */
+  static long highestValue(int bucket) {
+    if(bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+    long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+    long lowest = sub << (exponent - SUB_BITS);
+    return lowest + (1L << (exponent - SUB_BITS)) - 1;
+  }
+
+  /**
+   * Snapshot
+   *
+   * Counts of a histogram at one point in time, or over an interval.
+   */
+  public static class Snapshot {
+    public static final Snapshot EMPTY = new Snapshot(new long[BUCKETS], 0, 0);
+
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+
+    private Snapshot(long[] counts, long count, long sum) {
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+    }
+
+    /**
+     * minus
+     *
+     * @param earlier a snapshot of the same histogram taken before this one
+     * @return the counts recorded between the two snapshots
+     */
+    public Snapshot minus(Snapshot earlier) {
+      long[] diff = new long[BUCKETS];
+      long total = 0;
+      for(int i = 0; i < BUCKETS; i++) {
+        diff[i] = Math.max(0, counts[i] - earlier.counts[i]);
+        total += diff[i];
+      }
+      return new Snapshot(diff, total, Math.max(0, sum - earlier.sum));
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getSum() {
+      return sum;
+    }
+
+    public double getMean() {
+      return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * getPercentile
+     *
+     * @param percentile Percentage of the values, eg. 99
+     * @return the value that percentage of the values are at or below,
+     *         0 if there are none
+     */
+    public long getPercentile(double percentile) {
+      if(count == 0) {
+        return 0;
+      }
+      long rank = rank(percentile, count);
+      long seen = 0;
+      for(int i = 0; i < BUCKETS; i++) {
+        seen += counts[i];
+        if(seen >= rank) {
+          return highestValue(i);
+        }
+      }
+      return getMax();
+    }
+
+    /**
+     * getMax
+     *
+     * @return the largest value, 0 if there are none
+     */
+    public long getMax() {
+      for(int i = BUCKETS - 1; i >= 0; i--) {
+        if(counts[i] != 0) {
+          return highestValue(i);
+        }
+      }
+      return 0;
+    }
+
+    /**
+     * getCounts
+     *
+     * @return Count of each bucket, by index
+     */
+    long[] getCounts() {
+      return counts;
+    }
+  }
+}
@@ -5,8 +5,34 @@ import oshi.hardware.*;
 import oshi.software.os.OSProcess;
 import oshi.software.os.OperatingSystem;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 public class MeTrik {
   public static final int COLLECT_INTERVAL = 10000; // 10 seconds
+  public static final int QUEUE_CAPACITY = 64; // rounds waiting to be written
+  public static final long DRAIN_TIMEOUT = 30000; // 30 seconds
+  public static final long COLLECT_TIMEOUT = 5000; // 5 seconds
+  public static final int SNAPSHOT_PORT = 8710; // dashboard snapshot endpoint
+  public static final long CHUNK_SPAN = 0; // compressed chunks, off by default
+
+  // Per-collector intervals in milliseconds
+  public static final long MEMORY_INTERVAL = 1000;
+  public static final long CPU_INTERVAL = 1000;
+  public static final long POWER_INTERVAL = COLLECT_INTERVAL;
+  public static final long PROCESS_INTERVAL = COLLECT_INTERVAL;
+  public static final long SYSTEM_INTERVAL = 60000;
+  public static final long INSTRUMENTATION_INTERVAL = 60000;
+
+  // Minimum change in a process's CPU usage that is persisted, and in its
+  // resident memory as a fraction of the persisted size
+  public static final double PROCESS_CPU_THRESHOLD = 0.005;
+  public static final double PROCESS_MEMORY_THRESHOLD = 0.1;
+
+  // Whether CpuData also stores the raw tick counters. They are always
+  // kept for the newest round, to resume CPU load after a restart
+  public static final boolean STORE_RAW_TICKS = Boolean.getBoolean("trik.cpu.rawTicks");
 
   private static final Logger logger = Logger.getLogger("(MeTrik)");
 
@@ -18,46 +44,223 @@ public class MeTrik {
   private static final CentralProcessor cpu = si.getHardware().getProcessor();
   private static final GlobalMemory mem = hw.getMemory();
 
+  private static MetricSink sink = new SqliteSink();
+  private static WriteBehindQueue writer;
+  private static final SnapshotServer snapshots = new SnapshotServer();
+  private static CollectionScheduler scheduler;
+
+  // In adaptive mode (-Dtrik.adaptive=true) the sampler sets the interval
+  // of the collectors listed in -Dtrik.adaptive.collectors
+  private static AdaptiveSampler sampler;
+  private static String[] adaptiveCollectors = new String[0];
+  private static final CpuLoadTracker cpuLoad = new CpuLoadTracker();
+  private static final ProcessTracker processTracker = new ProcessTracker(
+          Double.parseDouble(System.getProperty("trik.process.cpuThreshold",
+                  String.valueOf(PROCESS_CPU_THRESHOLD))),
+          Double.parseDouble(System.getProperty("trik.process.memoryThreshold",
+                  String.valueOf(PROCESS_MEMORY_THRESHOLD))));
+  private static final ProcessCapture processCapture = ProcessCapture.fromSystemProperties();
+  // On Linux, CPU ticks, memory, threads and processes are read straight
+  // from /proc, unless -Dtrik.proc=false. The collectors run concurrently
+  // and a reader parses every file in one buffer, so each has its own
+  private static final ProcReader memoryProc = ProcReader.fromSystemProperties();
+  private static final ProcReader cpuProc = ProcReader.fromSystemProperties();
+  private static final ProcReader systemProc = ProcReader.fromSystemProperties();
+  private static final ProcReader processProc = ProcReader.fromSystemProperties();
+  // Tick counters read from /proc, indexed [core][tick type], reused by
+  // every round of the CPU collector
+  private static long[][] procTicks = new long[0][CpuLoadTracker.TICK_TYPES];
+  // The last -Dtrik.history.size samples of each family, kept in memory
+  private static final History history = History.fromSystemProperties();
+
   public static void main(String[] args) {
     // Initialize the logger
     PropertyConfigurator.configure("log4j.properties");
     logger.info("Metric Collector initialized");
+    if(cpuProc != null) {
+      logger.info("Reading CPU ticks, memory, threads and processes from /proc");
+    }
 
-    // Create database and its tables
-    DBHelper.createDB();
-    DBHelper.createTables();
+    // Rounds go to the sinks listed in -Dtrik.sink, eg. sqlite,memory.
+    // For 100 ms captures, use -Dtrik.sink=log with -Dtrik.interval.cpu=100
+    // and -Dtrik.interval.memory=100
+    // Reopen the database and resume from its newest round, or start a
+    // new one with -Dtrik.db.resume=false
+    DBHelper.setStorageProfile(StorageProfile.fromSystemProperties());
+    DBHelper.setStoreRawTicks(STORE_RAW_TICKS);
+    DBHelper.setChunkSpan(Long.getLong("trik.chunk.span", CHUNK_SPAN));
+    sink = createSink(System.getProperty("trik.sink", "sqlite"));
+    if(sink.open(Boolean.parseBoolean(System.getProperty("trik.db.resume", "true")))) {
+      restoreState();
+    }
 
     // Get System info once
     getSystemInfo();
 
-    boolean run = true;
+    // The dashboard reads the latest values from memory instead of the
+    // database. A negative port disables the endpoint
+    int snapshotPort = Integer.getInteger("trik.snapshot.port", SNAPSHOT_PORT);
+    if(snapshotPort >= 0) {
+      try {
+        snapshots.start(snapshotPort);
+      } catch (IOException e) {
+        logger.error("Snapshot endpoint not started: " + e.getMessage());
+      }
+    }
+
+    // Rounds are written by a separate writer thread so that database
+    // latency does not delay collection. On exit, flush the queued rounds
+    // and close the sink so the write-ahead log is checkpointed
+    writer = new WriteBehindQueue(
+            Integer.getInteger("trik.queue.capacity", QUEUE_CAPACITY),
+            WriteBehindQueue.OverflowPolicy.valueOf(
+                    System.getProperty("trik.queue.policy", "BLOCK")),
+            sink::write);
+    writer.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      snapshots.stop();
+      writer.shutdown(DRAIN_TIMEOUT);
+      sink.close();
+    }));
+
+    // Each collector runs at its own rate, concurrently with the others.
+    // Every round gets the timestamp of the tick it was collected on in
+    // order to synchronize entries
+    scheduler = new CollectionScheduler(MeTrik::queueRound,
+            Long.getLong("trik.collect.timeout", COLLECT_TIMEOUT));
+    scheduler.add(CollectionRound.MEMORY, Long.getLong("trik.interval.memory", MEMORY_INTERVAL),
+            MeTrik::getMemoryData);
+    scheduler.add(CollectionRound.POWER, Long.getLong("trik.interval.power", POWER_INTERVAL),
+            MeTrik::getPowerData);
+    // Processes are diffed on the scheduler's thread, only for passes that
+    // did not time out
+    scheduler.add(CollectionRound.PROCESS, Long.getLong("trik.interval.process", PROCESS_INTERVAL),
+            MeTrik::getProcessData, MeTrik::diffProcessData);
+    scheduler.add(CollectionRound.SYSTEM, Long.getLong("trik.interval.system", SYSTEM_INTERVAL),
+            MeTrik::getSystemData);
+    scheduler.add(CollectionRound.CPU, Long.getLong("trik.interval.cpu", CPU_INTERVAL),
+            MeTrik::getCpuData);
+    scheduler.add("Instrumentation", Long.getLong("trik.interval.instrumentation",
+            INSTRUMENTATION_INTERVAL), MeTrik::getInstrumentation);
+
+    // Adaptive collectors start at the floor interval and speed up while
+    // the system is busy. The Process collector is left out by default
+    // since listing every process is by far the slowest collection
+    if(Boolean.getBoolean("trik.adaptive")) {
+      sampler = AdaptiveSampler.fromSystemProperties();
+      adaptiveCollectors = System.getProperty("trik.adaptive.collectors",
+              CollectionRound.MEMORY + "," + CollectionRound.CPU).split(",");
+      setAdaptiveIntervals();
+    }
 
-    long prevTimestamp = 0;
     // Main loop
-    while(run) {
-      // Single timestamp is used for each round of collection in order
-      // to synchronize entries
-      long timestamp = System.currentTimeMillis();
-
-      // Collect metrics
-      getMemoryData(timestamp);
-      getPowerData(timestamp);
-      getProcessData(timestamp);
-      getSystemData(timestamp);
-      getCpuData(timestamp);
-
-      // Purge
-      purgeProcessData(prevTimestamp);
-      purgeCpuData(prevTimestamp);
-      prevTimestamp = timestamp;
-
-      // Wait for next cycle
-      try {
-        Thread.sleep(COLLECT_INTERVAL);
-      } catch (InterruptedException e) {
-        logger.error(e.getMessage());
+    scheduler.run();
+  }
+
+  /**
+   * createSink
+   *
+   * Builds the sink for a comma-separated list of names: sqlite, memory,
+   * null or log (a SampleLog). Several names make a TeeSink that writes to each in order.
+   *
+   * @param names Names of the sinks
+   * @return the sink
+   * @throws IllegalArgumentException if a name is unknown
+   */
+  protected static MetricSink createSink(String names) {
+    List<MetricSink> sinks = new ArrayList<>();
+    for(String name : names.split(",")) {
+      switch(name.trim()) {
+        case "sqlite":
+          sinks.add(new SqliteSink());
+          break;
+        case "memory":
+          sinks.add(new MemorySink());
+          break;
+        case "null":
+          sinks.add(new NullSink());
+          break;
+        case "log":
+          sinks.add(SampleLog.fromSystemProperties());
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown sink: " + name);
       }
     }
+    return sinks.size() == 1 ? sinks.get(0) : new TeeSink(sinks);
+  }
+
+  /**
+   * queueRound
+   *
+   * Publishes a round of collection to the snapshot and the history and
+   * queues it for writing.
+   *
+   * @param round the round of collection to write
+   */
+  protected static void queueRound(CollectionRound round) {
+    if(sampler != null && sampler.observe(round)) {
+      setAdaptiveIntervals();
+    }
+    snapshots.update(round);
+    if(history != null) {
+      history.record(round);
+    }
+    try {
+      writer.offer(round);
+      logger.debug(String.format("Queue depth: %1$d, dropped: %2$d",
+              writer.getDepth(), writer.getDropped()));
+    } catch (InterruptedException e) {
+      logger.error(e.getMessage());
+    }
+  }
+
+  /**
+   * getHistory
+   *
+   * @return the recent samples kept in memory, or null if
+   *         -Dtrik.history.size is 0
+   */
+  public static History getHistory() {
+    return history;
+  }
+
+  /**
+   * setAdaptiveIntervals
+   *
+   * Reschedules the adaptive collectors at the sampler's interval.
+   */
+  private static void setAdaptiveIntervals() {
+    for(String name : adaptiveCollectors) {
+      if(!scheduler.setInterval(name.trim(), sampler.getInterval())) {
+        logger.warn("No collector named " + name.trim() + " to adapt");
+      }
+    }
+  }
+
+  /**
+   * restoreState
+   *
+   * Rebuilds the state the collectors keep between rounds from the
+   * database, so the first round after a restart only records changes
+   * and computes CPU load from the stored tick counters. The snapshot
+   * starts out with the stored processes, since only changes to them
+   * will be collected.
+   */
+  protected static void restoreState() {
+    CollectionRound round = new CollectionRound(System.currentTimeMillis());
+    List<CollectionRound.ProcessData> processes = DBHelper.loadProcesses(round.timestamp);
+    processTracker.restore(processes);
+    round.processes.addAll(processes);
+    snapshots.update(round);
+
+    long[][] ticks = DBHelper.loadCpuTicks();
+    if(ticks != null) {
+      cpuLoad.restore(ticks);
+    }
+
+    logger.info(String.format("State restored: %1$d processes, %2$d cores",
+            processes.size(), ticks == null ? 0 : ticks.length));
   }
 
   /**
@@ -79,7 +282,10 @@ public class MeTrik {
     logger.info("System data collected");
 
     // Insert
-    DBHelper.insertSystem(osStr, codeName, version, cpuSignature, cpuCores, cpuVendFreq);
+    CollectionRound.SystemInfo info = new CollectionRound.SystemInfo(osStr, codeName,
+            version, cpuSignature, cpuCores, cpuVendFreq);
+    sink.writeSystem(info);
+    snapshots.setSystemInfo(info);
   }
 
   /**
@@ -87,27 +293,33 @@ public class MeTrik {
    *
    * Gets information for the MemoryData table.
    *
-   * @param timestamp UNIX timestamp in milliseconds
+   * @param round round of collection to add the entry to
    */
-  protected static void getMemoryData(long timestamp) {
+  protected static void getMemoryData(CollectionRound round) {
     // Get values
-    long avail = mem.getAvailable();
-    long total = mem.getTotal();
+    long avail;
+    long total;
+    if(memoryProc != null && memoryProc.readMemory()) {
+      avail = memoryProc.getMemAvailable();
+      total = memoryProc.getMemTotal();
+    } else {
+      avail = mem.getAvailable();
+      total = mem.getTotal();
+    }
 
     logger.info("Memory data collected");
 
-    // Insert
-    DBHelper.insertMemoryData(timestamp, avail, total);
+    round.memory = new CollectionRound.MemoryData(avail, total);
   }
 
   /**
-   * getMemoryData
+   * getPowerData
    *
    * Gets information for the PowerData table.
    *
-   * @param timestamp UNIX timestamp in milliseconds
+   * @param round round of collection to add the entry to
    */
-  protected static void getPowerData(long timestamp) {
+  protected static void getPowerData(CollectionRound round) {
     // Get values
     PowerSource pow = hw.getPowerSources()[0];
 
@@ -118,45 +330,51 @@ public class MeTrik {
 
     logger.info("Power data collected");
 
-    // Insert
-    DBHelper.insertPowerData(timestamp, currCapPer, currCapTime, temp, isCharg);
+    round.power = new CollectionRound.PowerData(currCapPer, currCapTime, temp, isCharg);
   }
 
   /**
    * getProcessData
    *
    * Gets information for the ProcessData table.
-   * Inserts an entry for each active process on every pass.
+   * Adds every process to store to the round, which diffProcessData then
+   * turns into the processes that started, changed or exited since the
+   * previous pass.
    *
-   * @param timestamp UNIX timestamp in milliseconds
+   * @param round round of collection to add the processes to
    */
-  protected static void getProcessData(long timestamp) {
-    // Collect data for each process
-    OSProcess[] procs = os.getProcesses();
-    for(OSProcess proc : procs) {
-      // Get values
-      int procID = proc.getProcessID();
-      String name = proc.getName();
-      String user = proc.getUser();
-      long startTime = proc.getStartTime();
-      long upTime = proc.getUpTime();
-      double cpuUsage = proc.calculateCpuPercent();
-
-      // Insert
-      DBHelper.insertProcessData(timestamp, procID, name, user, startTime, upTime, cpuUsage);
+  protected static void getProcessData(CollectionRound round) {
+    // Collect data for each process, or for the busiest ones and one row
+    // per user for the rest with -Dtrik.process.top
+    OSProcess[] procs = null;
+    int count = 0;
+    if(processProc != null) {
+      count = processProc.readProcesses(System.currentTimeMillis());
+      procs = processProc.getProcesses();
     }
+    if(Thread.currentThread().isInterrupted()) {
+      return; // Timed out, the part is discarded
+    }
+    if(count == 0) {
+      procs = os.getProcesses();
+      count = procs.length;
+    }
+    processCapture.capture(procs, count, round.processes);
   }
 
   /**
-   * purgeProcessData
+   * diffProcessData
    *
-   * Removes all entries from ProcessData table that match
-   * the given timestamp
+   * Replaces the processes getProcessData added to a round with the
+   * events since the previous pass that was dispatched.
    *
-   * @param timestamp timestamp of entries to be removed
+   * @param round round of collection the processes were added to
    */
-  protected static void purgeProcessData(long timestamp) {
-    DBHelper.removeProcessData(timestamp);
+  protected static void diffProcessData(CollectionRound round) {
+    List<CollectionRound.ProcessData> current = new ArrayList<>(round.processes);
+    round.processes.clear();
+    // Processes folded into an "other" row are still running
+    processTracker.diff(current, processCapture, round.processes);
   }
 
   /**
@@ -164,65 +382,85 @@ public class MeTrik {
    *
    * Gets information for the SystemData table
    *
-   * @param timestamp UNIX timestamp in milliseconds
+   * @param round round of collection to add the entry to
    */
-  protected static void getSystemData(long timestamp) {
+  protected static void getSystemData(CollectionRound round) {
     // Get values
     long bootTime = os.getSystemBootTime();
     long upTime = os.getSystemUptime();
     int procs = os.getProcessCount();
     int servs = os.getServices().length;
-    int threads = os.getThreadCount();
+    int threads = systemProc != null && systemProc.readLoadAverage()
+            ? systemProc.getThreadCount() : os.getThreadCount();
 
-    // Insert
-    DBHelper.insertSystemData(timestamp, bootTime, upTime, procs, servs, threads);
+    round.system = new CollectionRound.SystemData(bootTime, upTime, procs, servs, threads);
   }
 
   /**
    * getCpuData
    *
    * Gets information for the CpuData table.
-   * Inserts an entry for each logical processor on every pass.
+   * Adds an entry for each logical processor, and one for all of them
+   * together, with the utilization since the previous pass.
    *
-   * @param timestamp UNIX timestamp in milliseconds
+   * @param round round of collection to add the entries to
    */
-  protected static void getCpuData(long timestamp) {
+  protected static void getCpuData(CollectionRound round) {
     // Collect data for each logical processor
     CentralProcessor.LogicalProcessor[] cores = cpu.getLogicalProcessors();
     long[] currFreqs = cpu.getCurrentFreq();
-    long[][] ticks = cpu.getProcessorCpuLoadTicks();
+    long[][] ticks = null;
+    if(cpuProc != null) {
+      if(procTicks.length != cores.length) {
+        procTicks = new long[cores.length][CpuLoadTracker.TICK_TYPES];
+      }
+      if(cpuProc.readCpuTicks(procTicks)) {
+        ticks = procTicks;
+      }
+    }
+    if(ticks == null) {
+      ticks = cpu.getProcessorCpuLoadTicks();
+    }
+    long maxFreq = cpu.getMaxFreq();
+    cpuLoad.update(ticks);
 
+    long totalFreq = 0;
     for(CentralProcessor.LogicalProcessor core : cores) {
       // Get values
       int coreNum = core.getProcessorNumber();
       long currFreq = currFreqs[coreNum];
-      long maxFreq = cpu.getMaxFreq();
-      long userTicks = ticks[coreNum][0];
-      long niceTicks = ticks[coreNum][1];
-      long sysTicks = ticks[coreNum][2];
-      long idleTicks = ticks[coreNum][3];
-      long ioTicks = ticks[coreNum][4];
-      long irqTicks = ticks[coreNum][5];
-      long sirqTicks = ticks[coreNum][6];
-      long stealTicks = ticks[coreNum][7];
-
-      // Insert
-      DBHelper.insertCpuData(timestamp, coreNum, currFreq, maxFreq, userTicks,
-              niceTicks, sysTicks, idleTicks, ioTicks, irqTicks, sirqTicks,
-              stealTicks);
+      totalFreq += currFreq;
+
+      round.cpus.add(new CollectionRound.CpuData(coreNum, currFreq, maxFreq,
+              cpuLoad.getCorePercent(coreNum, CpuLoadTracker.USER),
+              cpuLoad.getCorePercent(coreNum, CpuLoadTracker.SYSTEM),
+              cpuLoad.getCorePercent(coreNum, CpuLoadTracker.IDLE),
+              cpuLoad.getCorePercent(coreNum, CpuLoadTracker.IOWAIT),
+              cpuLoad.getCorePercent(coreNum, CpuLoadTracker.STEAL),
+              // The round is written after the next read reuses procTicks
+              ticks == procTicks ? ticks[coreNum].clone() : ticks[coreNum]));
     }
 
+    // Entry for all logical processors together
+    round.cpus.add(new CollectionRound.CpuData(-1,
+            cores.length == 0 ? 0 : totalFreq / cores.length, maxFreq,
+            cpuLoad.getTotalPercent(CpuLoadTracker.USER),
+            cpuLoad.getTotalPercent(CpuLoadTracker.SYSTEM),
+            cpuLoad.getTotalPercent(CpuLoadTracker.IDLE),
+            cpuLoad.getTotalPercent(CpuLoadTracker.IOWAIT),
+            cpuLoad.getTotalPercent(CpuLoadTracker.STEAL),
+            null));
   }
 
   /**
-   * purgeCpuData
+   * getInstrumentation
    *
-   * Removes all entries from CpuData table that match
-   * the given timestamp
+   * Gets the entries for the Instrumentation table: a summary of each of
+   * the daemon's latency histograms since the previous pass.
    *
-   * @param timestamp timestamp of entries to be removed
+   * @param round round of collection to add the entries to
    */
-  protected static void purgeCpuData(long timestamp) {
-    DBHelper.removeCpuData(timestamp);
+  protected static void getInstrumentation(CollectionRound round) {
+    round.instrumentation.addAll(Instrumentation.interval());
   }
 }
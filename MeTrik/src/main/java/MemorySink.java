@@ -0,0 +1,94 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MemorySink
+ *
+ * Keeps the most recent rounds in memory, for tests and for readers that
+ * only need recent history. Once full, every new round evicts the oldest.
+ */
+public class MemorySink implements MetricSink {
+  public static final int DEFAULT_CAPACITY = 3600;
+
+  private final int capacity;
+  private final ArrayDeque<CollectionRound> rounds;
+  private CollectionRound.SystemInfo info;
+  private long evicted = 0;
+
+  public MemorySink() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * MemorySink
+   *
+   * @param capacity Maximum number of rounds kept
+   */
+  public MemorySink(int capacity) {
+    if(capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1");
+    }
+    this.capacity = capacity;
+    this.rounds = new ArrayDeque<>(Math.min(capacity, 1024));
+  }
+
+  @Override
+  public synchronized void writeSystem(CollectionRound.SystemInfo info) {
+    this.info = info;
+  }
+
+  @Override
+  public synchronized void write(CollectionRound round) {
+    if(rounds.size() == capacity) {
+      rounds.pollFirst();
+      evicted++;
+    }
+    rounds.addLast(round);
+  }
+
+  /**
+   * getSystemInfo
+   *
+   * @return the static system information, or null if none was written
+   */
+  public synchronized CollectionRound.SystemInfo getSystemInfo() {
+    return info;
+  }
+
+  /**
+   * getRounds
+   *
+   * @return the kept rounds, oldest first
+   */
+  public synchronized List<CollectionRound> getRounds() {
+    return new ArrayList<>(rounds);
+  }
+
+  /**
+   * getLatest
+   *
+   * @return the newest round, or null if none was written
+   */
+  public synchronized CollectionRound getLatest() {
+    return rounds.peekLast();
+  }
+
+  /**
+   * size
+   *
+   * @return Number of rounds kept
+   */
+  public synchronized int size() {
+    return rounds.size();
+  }
+
+  /**
+   * getEvicted
+   *
+   * @return Number of rounds evicted to make room for newer ones
+   */
+  public synchronized long getEvicted() {
+    return evicted;
+  }
+}
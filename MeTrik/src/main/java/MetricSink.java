@@ -0,0 +1,45 @@
+/**
+ * MetricSink
+ *
+ * Destination of the collected data. The collectors hand every round to
+ * a sink instead of calling DBHelper directly, so storage can be swapped,
+ * skipped or fanned out to several destinations.
+ *
+ * write is only called from the writer thread.
+ */
+public interface MetricSink {
+
+  /**
+   * open
+   *
+   * Prepares the sink for writing, resuming from what it stored before
+   * if it can.
+   *
+   * @param resume Whether to keep what the sink stored before
+   * @return true if the sink resumed from stored data
+   */
+  default boolean open(boolean resume) {
+    return false;
+  }
+
+  /**
+   * writeSystem
+   *
+   * @param info the static system information
+   */
+  void writeSystem(CollectionRound.SystemInfo info);
+
+  /**
+   * write
+   *
+   * @param round a round of collection
+   */
+  void write(CollectionRound round);
+
+  /**
+   * close
+   *
+   * Releases whatever the sink holds. Nothing is written after close.
+   */
+  default void close() {}
+}
@@ -0,0 +1,457 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * MetricsExporter
+ *
+ * Renders a Snapshot and the daemon's own latency histograms in the
+ * Prometheus text exposition format, for scraping at /metrics. Rendering
+ * reads only memory and writes into a buffer that is reused by every
+ * scrape, growing only when a scrape does not fit. Numbers are written
+ * digit by digit instead of through strings, so a scrape allocates almost
+ * nothing. Scrapes are rendered one at a time, then copied into a spare
+ * buffer that is written out after the lock is released, so a slow client
+ * does not hold up the others. Only a scrape that overlaps another
+ * allocates a buffer of its own.
+ */
+public class MetricsExporter {
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+  public static final int DEFAULT_TOP_PROCESSES = 10;
+  public static final int INITIAL_SIZE = 16384;
+
+  private static final String[] CPU_MODES = {"user", "system", "idle", "iowait", "steal"};
+  private static final double[] PERCENTILES = {50, 90, 99};
+  private static final String[] QUANTILES = {"0.5", "0.9", "0.99"};
+  private static final long NANOS_PER_SECOND = 1000000000L;
+
+  private final int topProcesses;
+  private byte[] buffer = new byte[INITIAL_SIZE];
+  private int length;
+  private final long[] percentiles = new long[PERCENTILES.length];
+  // Copy of a scrape being written out, taken by one scrape at a time
+  private final AtomicReference<byte[]> spare = new AtomicReference<>(new byte[INITIAL_SIZE]);
+
+  /**
+   * Output
+   *
+   * Receives a rendered scrape. The bytes are only valid during the call.
+   */
+  public interface Output {
+    void write(byte[] bytes, int length) throws IOException;
+  }
+
+  /**
+   * MetricsExporter
+   *
+   * @param topProcesses Number of processes with the most CPU usage to export
+   */
+  public MetricsExporter(int topProcesses) {
+    this.topProcesses = topProcesses;
+  }
+
+  /**
+   * render
+   *
+   * Renders a scrape and passes a copy of it to the output. Scrapes are
+   * rendered one at a time since they share the buffer, but the output is
+   * called without holding the lock.
+   *
+   * @param snapshot the latest snapshot
+   * @param out Receives the rendered scrape
+   * @throws IOException if the output fails
+   */
+  public void render(Snapshot snapshot, Output out) throws IOException {
+    byte[] copy = spare.getAndSet(null);
+    int size;
+    synchronized(this) {
+      length = 0;
+      renderSnapshot(snapshot);
+      renderInstrumentation();
+      if(copy == null || copy.length < length) {
+        copy = new byte[buffer.length];
+      }
+      System.arraycopy(buffer, 0, copy, 0, length);
+      size = length;
+    }
+    try {
+      out.write(copy, size);
+    } finally {
+      spare.set(copy);
+    }
+  }
+
+  /**
+   * toBytes
+   *
+   * @param snapshot the latest snapshot
+   * @return a copy of the rendered scrape
+   */
+  public synchronized byte[] toBytes(Snapshot snapshot) {
+    length = 0;
+    renderSnapshot(snapshot);
+    renderInstrumentation();
+    return Arrays.copyOf(buffer, length);
+  }
+
+  private void renderSnapshot(Snapshot snapshot) {
+    if(snapshot.timestamp > 0) {
+      family("trik_snapshot_timestamp_seconds", "gauge",
+              "Time of the latest round of collection.");
+      sample("trik_snapshot_timestamp_seconds");
+      value(snapshot.timestamp / 1000.0);
+    }
+
+    if(snapshot.memory != null) {
+      family("trik_memory_available_bytes", "gauge", "Memory currently available.");
+      sample("trik_memory_available_bytes");
+      value(snapshot.memory.avail);
+      family("trik_memory_total_bytes", "gauge", "Total memory of the system.");
+      sample("trik_memory_total_bytes");
+      value(snapshot.memory.total);
+    }
+
+    if(snapshot.power != null) {
+      family("trik_power_remaining_capacity_ratio", "gauge",
+              "Fraction of the battery capacity remaining.");
+      sample("trik_power_remaining_capacity_ratio");
+      value(snapshot.power.currCapPer);
+      family("trik_power_time_remaining_seconds", "gauge",
+              "Estimated battery time remaining, negative if unknown.");
+      sample("trik_power_time_remaining_seconds");
+      value(snapshot.power.currCapTime);
+      family("trik_power_temperature_celsius", "gauge", "Temperature of the battery.");
+      sample("trik_power_temperature_celsius");
+      value(snapshot.power.temp);
+      family("trik_power_charging", "gauge", "1 if the battery is charging.");
+      sample("trik_power_charging");
+      value(snapshot.power.isCharg);
+    }
+
+    if(snapshot.system != null) {
+      family("trik_system_uptime_seconds", "gauge", "Time since the system booted.");
+      sample("trik_system_uptime_seconds");
+      value(snapshot.system.upTime);
+      family("trik_system_processes", "gauge", "Number of processes.");
+      sample("trik_system_processes");
+      value(snapshot.system.procs);
+      family("trik_system_services", "gauge", "Number of services.");
+      sample("trik_system_services");
+      value(snapshot.system.servs);
+      family("trik_system_threads", "gauge", "Number of threads.");
+      sample("trik_system_threads");
+      value(snapshot.system.threads);
+    }
+
+    List<CollectionRound.CpuData> cpus = snapshot.cpus;
+    if(!cpus.isEmpty()) {
+      family("trik_cpu_frequency_hertz", "gauge",
+              "Current frequency of each logical processor, the average for core \"all\".");
+      for(CollectionRound.CpuData core : cpus) {
+        sample("trik_cpu_frequency_hertz");
+        coreLabel(core, null);
+        value(core.currFreq);
+      }
+      family("trik_cpu_usage_percent", "gauge",
+              "Share of each logical processor's time spent in each mode since the previous round.");
+      for(CollectionRound.CpuData core : cpus) {
+        for(int i = 0; i < CPU_MODES.length; i++) {
+          sample("trik_cpu_usage_percent");
+          coreLabel(core, CPU_MODES[i]);
+          value(cpuPercent(core, i));
+        }
+      }
+    }
+
+    List<Snapshot.ProcessEntry> processes = snapshot.getProcesses();
+    int count = Math.min(topProcesses, processes.size());
+    if(count > 0) {
+      family("trik_process_cpu_usage_ratio", "gauge",
+              "CPU usage of the processes using the most CPU, since the previous round.");
+      for(int i = 0; i < count; i++) {
+        sample("trik_process_cpu_usage_ratio");
+        processLabels(processes.get(i).data);
+        value(processes.get(i).data.cpuUsage);
+      }
+      family("trik_process_uptime_seconds", "gauge",
+              "Time since the processes using the most CPU started.");
+      for(int i = 0; i < count; i++) {
+        sample("trik_process_uptime_seconds");
+        processLabels(processes.get(i).data);
+        value(processes.get(i).data.upTime / 1000.0);
+      }
+      family("trik_process_resident_memory_bytes", "gauge",
+              "Physical memory in use by the processes using the most CPU.");
+      for(int i = 0; i < count; i++) {
+        sample("trik_process_resident_memory_bytes");
+        processLabels(processes.get(i).data);
+        value(processes.get(i).data.residentSize);
+      }
+      family("trik_process_threads", "gauge",
+              "Threads of the processes using the most CPU.");
+      for(int i = 0; i < count; i++) {
+        sample("trik_process_threads");
+        processLabels(processes.get(i).data);
+        value(processes.get(i).data.threads);
+      }
+    }
+  }
+
+  private static double cpuPercent(CollectionRound.CpuData core, int mode) {
+    switch(mode) {
+      case 0:
+        return core.userPct;
+      case 1:
+        return core.sysPct;
+      case 2:
+        return core.idlePct;
+      case 3:
+        return core.ioPct;
+      default:
+        return core.stealPct;
+    }
+  }
+
+  /**
+   * renderInstrumentation
+   *
+   * Renders the latency histograms as the summary trik_self_latency_seconds
+   * and the depth histograms as trik_self_depth, labelled by name.
+   */
+  private void renderInstrumentation() {
+    family("trik_self_latency_seconds", "summary",
+            "Latency of the daemon's own collectors, writes and maintenance.");
+    Instrumentation.forEach((name, histogram) -> {
+      if(!name.endsWith(".depth")) {
+        summary("trik_self_latency_seconds", name, histogram, true);
+      }
+    });
+    family("trik_self_depth", "summary", "Rounds waiting in the daemon's queues.");
+    Instrumentation.forEach((name, histogram) -> {
+      if(name.endsWith(".depth")) {
+        summary("trik_self_depth", name, histogram, false);
+      }
+    });
+  }
+
+  private void summary(String metric, String name, LatencyHistogram histogram,
+                       boolean nanos) {
+    long count = histogram.getCount();
+    long sum = histogram.getSum();
+    histogram.getPercentiles(PERCENTILES, percentiles);
+    for(int i = 0; i < PERCENTILES.length; i++) {
+      sample(metric);
+      append("{name=\"");
+      labelValue(name);
+      append("\",quantile=\"");
+      append(QUANTILES[i]);
+      append("\"} ");
+      scaled(percentiles[i], nanos);
+    }
+    sample(metric);
+    append("_sum{name=\"");
+    labelValue(name);
+    append("\"} ");
+    scaled(sum, nanos);
+    sample(metric);
+    append("_count{name=\"");
+    labelValue(name);
+    append("\"} ");
+    number(count);
+    append('\n');
+  }
+
+  private void scaled(long value, boolean nanos) {
+    if(nanos) {
+      number(value / (double) NANOS_PER_SECOND);
+    } else {
+      number(value);
+    }
+    append('\n');
+  }
+
+  private void family(String metric, String type, String help) {
+    append("# HELP ");
+    append(metric);
+    append(' ');
+    append(help);
+    append("\n# TYPE ");
+    append(metric);
+    append(' ');
+    append(type);
+    append('\n');
+  }
+
+  // Starts a sample line, the caller appends its labels and value
+  private void sample(String metric) {
+    append(metric);
+  }
+
+  private void coreLabel(CollectionRound.CpuData core, String mode) {
+    append("{core=\"");
+    if(core.coreNum < 0) {
+      append("all");
+    } else {
+      number(core.coreNum);
+    }
+    if(mode != null) {
+      append("\",mode=\"");
+      append(mode);
+    }
+    append("\"}");
+  }
+
+  private void processLabels(CollectionRound.ProcessData proc) {
+    append("{pid=\"");
+    number(proc.procID);
+    append("\",name=\"");
+    labelValue(proc.name);
+    append("\",user=\"");
+    labelValue(proc.user);
+    append("\"}");
+  }
+
+  private void value(double value) {
+    append(' ');
+    number(value);
+    append('\n');
+  }
+
+  private void value(long value) {
+    append(' ');
+    number(value);
+    append('\n');
+  }
+
+  /**
+   * labelValue
+   *
+   * Appends a label value as UTF-8, escaping backslashes, double quotes
+   * and line feeds.
+   */
+  private void labelValue(String value) {
+    if(value == null) {
+      return;
+    }
+    for(int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if(c == '\\' || c == '"') {
+        append('\\');
+        append(c);
+      } else if(c == '\n') {
+        append("\\n");
+      } else if(c < 0x80) {
+        append(c);
+      } else if(c < 0x800) {
+        put((byte) (0xc0 | (c >> 6)));
+        put((byte) (0x80 | (c & 0x3f)));
+      } else if(Character.isHighSurrogate(c) && i + 1 < value.length()
+              && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int code = Character.toCodePoint(c, value.charAt(++i));
+        put((byte) (0xf0 | (code >> 18)));
+        put((byte) (0x80 | ((code >> 12) & 0x3f)));
+        put((byte) (0x80 | ((code >> 6) & 0x3f)));
+        put((byte) (0x80 | (code & 0x3f)));
+      } else if(Character.isSurrogate(c)) {
+        append('?'); // Unpaired surrogate
+      } else {
+        put((byte) (0xe0 | (c >> 12)));
+        put((byte) (0x80 | ((c >> 6) & 0x3f)));
+        put((byte) (0x80 | (c & 0x3f)));
+      }
+    }
+  }
+
+  /**
+   * number
+   *
+   * Appends a double without allocating. Values below a billion are
+   * written with up to 9 decimals, enough for nanoseconds in seconds, and
+   * larger ones, eg. timestamps in seconds, with up to 3.
+   */
+  private void number(double value) {
+    double abs = Math.abs(value);
+    if(Double.isNaN(value)) {
+      append("NaN");
+    } else if(Double.isInfinite(value)) {
+      append(value > 0 ? "+Inf" : "-Inf");
+    } else if(value == (long) value) {
+      number((long) value);
+    } else if(abs < 1e15) {
+      int decimals = abs < 1e9 ? 9 : 3;
+      long scale = pow10(decimals);
+      long scaled = Math.round(abs * scale);
+      if(value < 0) {
+        append('-');
+      }
+      number(scaled / scale);
+      long fraction = scaled % scale;
+      if(fraction != 0) {
+        append('.');
+        while(fraction % 10 == 0) {
+          fraction /= 10;
+          decimals--;
+        }
+        for(long div = pow10(decimals - 1); div > 0; div /= 10) {
+          append((char) ('0' + fraction / div % 10));
+        }
+      }
+    } else {
+      append(Double.toString(value));
+    }
+  }
+
+  private void number(long value) {
+    if(value == Long.MIN_VALUE) {
+      append(Long.toString(value));
+      return;
+    }
+    if(value < 0) {
+      append('-');
+      value = -value;
+    }
+    long div = 1;
+    while(div <= value / 10) {
+      div *= 10;
+    }
+    for(; div > 0; div /= 10) {
+      append((char) ('0' + value / div % 10));
+    }
+  }
+
+  private static long pow10(int exponent) {
+    long value = 1;
+    for(int i = 0; i < exponent; i++) {
+      value *= 10;
+    }
+    return value;
+  }
+
+  // Appends ASCII text
+  private void append(String text) {
+    for(int i = 0; i < text.length(); i++) {
+      append(text.charAt(i));
+    }
+  }
+
+  private void append(char c) {
+    put((byte) c);
+  }
+
+  private void put(byte b) {
+    if(length == buffer.length) {
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    }
+    buffer[length++] = b;
+  }
+
+  /**
+   * getCapacity
+   *
+   * @return Size of the reused buffer in bytes
+   */
+  public synchronized int getCapacity() {
+    return buffer.length;
+  }
+}
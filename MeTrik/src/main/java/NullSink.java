@@ -0,0 +1,40 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NullSink
+ *
+ * Discards everything written to it, to measure the cost of collection
+ * without storage. It only counts what it was given.
+ */
+public class NullSink implements MetricSink {
+  private final AtomicLong rounds = new AtomicLong();
+  private final AtomicLong entries = new AtomicLong();
+
+  @Override
+  public void writeSystem(CollectionRound.SystemInfo info) {}
+
+  @Override
+  public void write(CollectionRound round) {
+    rounds.incrementAndGet();
+    entries.addAndGet((round.memory == null ? 0 : 1) + (round.power == null ? 0 : 1)
+            + (round.system == null ? 0 : 1) + round.processes.size() + round.cpus.size());
+  }
+
+  /**
+   * getRounds
+   *
+   * @return Number of rounds discarded
+   */
+  public long getRounds() {
+    return rounds.get();
+  }
+
+  /**
+   * getEntries
+   *
+   * @return Number of entries in the rounds discarded
+   */
+  public long getEntries() {
+    return entries.get();
+  }
+}
@@ -0,0 +1,220 @@
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * PartitionedTable
+ *
+ * A high-volume table split into one table per span of time, eg. CpuData
+ * into CpuData_440000, CpuData_440001, ... for consecutive hours. Inserts
+ * are routed to the partition of their timestamp and reads go through a
+ * UNION ALL view with the name of the table, so expiring old entries drops
+ * whole partitions instead of scanning the table with a DELETE. Every
+ * partition has an index on its timestamp column.
+ */
+public class PartitionedTable {
+  private static final Logger logger = Logger.getLogger("(PartitionedTable)");
+
+  public final String name;
+  public final long span;
+  private final String columns;
+
+  // Bucket numbers (timestamp / span) of the existing partitions
+  private final TreeSet<Long> partitions = new TreeSet<>();
+  private boolean loaded = false;
+
+  /**
+   * PartitionedTable
+   *
+   * @param name Name of the view the partitions are read through
+   * @param span Milliseconds of entries held by each partition
+   * @param columns Column and constraint definitions of every partition
+   */
+  public PartitionedTable(String name, long span, String columns) {
+    this.name = name;
+    this.span = span;
+    this.columns = columns;
+  }
+
+  /**
+   * partitionName
+   *
+   * @param bucket Bucket number of the partition
+   * @return Name of the partition table
+   */
+  public String partitionName(long bucket) {
+    return name + "_" + bucket;
+  }
+
+  /**
+   * route
+   *
+   * Gets the partition entries with the given timestamp are inserted into,
+   * creating it if it does not exist yet.
+   *
+   * @param conn the writer connection
+   * @param timestamp UNIX timestamp of the entries in milliseconds
+   * @return Name of the partition table
+   * @throws SQLException if the partition cannot be created
+   */
+  public String route(Connection conn, long timestamp) throws SQLException {
+    load(conn);
+    long bucket = Math.floorDiv(timestamp, span);
+    if(!partitions.contains(bucket)) {
+      try (Statement stmt = conn.createStatement()) {
+        stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + partitionName(bucket)
+                + " (\n" + columns + " );");
+        stmt.executeUpdate(DBHelper.timestampIndex(partitionName(bucket)));
+      }
+      partitions.add(bucket);
+      createView(conn);
+      logger.info("Partition " + partitionName(bucket) + " created");
+    }
+    return partitionName(bucket);
+  }
+
+  /**
+   * dropBefore
+   *
+   * Drops the partitions that only hold entries older than the cutoff.
+   * The newest partition is always kept, so the view has a table to read.
+   *
+   * @param conn the writer connection
+   * @param cutoff UNIX timestamp in milliseconds entries must be older than
+   * @return Names of the dropped partitions
+   * @throws SQLException if a partition cannot be dropped
+   */
+  public List<String> dropBefore(Connection conn, long cutoff) throws SQLException {
+    load(conn);
+    List<String> dropped = new ArrayList<>();
+    while(partitions.size() > 1 && (partitions.first() + 1) * span <= cutoff) {
+      long bucket = partitions.pollFirst();
+      try (Statement stmt = conn.createStatement()) {
+        stmt.executeUpdate("DROP TABLE IF EXISTS " + partitionName(bucket));
+      }
+      dropped.add(partitionName(bucket));
+    }
+    if(!dropped.isEmpty()) {
+      createView(conn);
+      logger.info("Partitions dropped: " + dropped);
+    }
+    return dropped;
+  }
+
+  /**
+   * alter
+   *
+   * Alters every partition the same way, eg. to add a column, and
+   * recreates the view over them. Partitions created afterwards take the
+   * column definitions given to the constructor, which must match.
+   *
+   * @param conn the writer connection
+   * @param alteration What follows ALTER TABLE and the table name, eg.
+   *                   "ADD COLUMN threads INTEGER NOT NULL DEFAULT 0"
+   * @throws SQLException if a partition cannot be altered
+   */
+  public void alter(Connection conn, String alteration) throws SQLException {
+    load(conn);
+    try (Statement stmt = conn.createStatement()) {
+      for(long bucket : partitions) {
+        stmt.executeUpdate("ALTER TABLE " + partitionName(bucket) + " " + alteration.trim());
+      }
+    }
+    if(!partitions.isEmpty()) {
+      createView(conn);
+    }
+    logger.info("Partitions of " + name + " altered: " + alteration.trim());
+  }
+
+  /**
+   * between
+   *
+   * Gets the partitions that may hold entries from from, inclusive, to to,
+   * exclusive.
+   *
+   * @param conn the writer connection
+   * @param from UNIX timestamp in milliseconds
+   * @param to UNIX timestamp in milliseconds
+   * @return Names of the partitions, oldest first
+   * @throws SQLException if the partitions cannot be read
+   */
+  public List<String> between(Connection conn, long from, long to) throws SQLException {
+    load(conn);
+    List<String> names = new ArrayList<>();
+    for(long bucket : partitions) {
+      if((bucket + 1) * span > from && bucket * span < to) {
+        names.add(partitionName(bucket));
+      }
+    }
+    return names;
+  }
+
+  /**
+   * size
+   *
+   * @return Number of partitions
+   */
+  public int size() {
+    return partitions.size();
+  }
+
+  /**
+   * reset
+   *
+   * Forgets the known partitions, to be read back from the database on
+   * next use.
+   */
+  public void reset() {
+    partitions.clear();
+    loaded = false;
+  }
+
+  /**
+   * load
+   *
+   * Reads the existing partitions back from the database the first time
+   * the table is used.
+   */
+  private void load(Connection conn) throws SQLException {
+    if(loaded) {
+      return;
+    }
+    try (Statement stmt = conn.createStatement();
+         ResultSet rs = stmt.executeQuery("SELECT name FROM sqlite_master " +
+                 "WHERE type = 'table' AND name LIKE '" + name + "\\_%' ESCAPE '\\'")) {
+      while(rs.next()) {
+        try {
+          partitions.add(Long.parseLong(rs.getString(1).substring(name.length() + 1)));
+        } catch (NumberFormatException e) {
+          logger.warn("Not a partition of " + name + ": " + rs.getString(1));
+        }
+      }
+    }
+    loaded = true;
+  }
+
+  /**
+   * createView
+   *
+   * Replaces the view with one over the current partitions.
+   */
+  private void createView(Connection conn) throws SQLException {
+    StringBuilder sql = new StringBuilder("CREATE VIEW " + name + " AS ");
+    String union = "";
+    for(long bucket : partitions) {
+      sql.append(union).append("SELECT * FROM ").append(partitionName(bucket));
+      union = " UNION ALL ";
+    }
+
+    try (Statement stmt = conn.createStatement()) {
+      stmt.executeUpdate("DROP VIEW IF EXISTS " + name);
+      stmt.executeUpdate(sql.toString());
+    }
+  }
+}
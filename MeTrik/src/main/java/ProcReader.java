@@ -0,0 +1,671 @@
+import org.apache.log4j.Logger;
+import oshi.software.os.OSProcess;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ProcReader
+ *
+ * Reads the CPU ticks, memory, load average and processes straight from
+ * the Linux /proc file system, instead of going through OSHI, which parses
+ * the same files through Strings and regular expressions on every call.
+ * /proc/stat, /proc/meminfo and /proc/loadavg are kept open and read again
+ * from the start each time. If one cannot be read, eg. because a cancelled
+ * collector's interrupt closed it, it is reopened on the next read. Every
+ * file is read into one reused direct buffer and numbers are parsed from
+ * its bytes. The files of each process come and go with it, so they are
+ * opened for every pass, and the name and user Strings of a process are
+ * reused while they do not change.
+ *
+ * Values are in OSHI's units, so either can be used from one round to the
+ * next: CPU ticks and process times in milliseconds, memory in bytes.
+ *
+ * A reader is not thread-safe, since every read goes through its buffer:
+ * collectors that run concurrently each need their own.
+ */
+public class ProcReader implements Closeable {
+  private static final Logger logger = Logger.getLogger("(ProcReader)");
+
+  // Clock ticks per second of the times in /proc. This is USER_HZ, which
+  // Linux fixes at 100 for user space on every mainstream architecture
+  public static final long USER_HZ = 100;
+  public static final long PAGE_SIZE = 4096;
+  private static final int INITIAL_BUFFER_SIZE = 16384;
+
+  private static final byte[] CPU = bytes("cpu");
+  private static final byte[] BTIME = bytes("btime ");
+  private static final byte[] MEM_TOTAL = bytes("MemTotal:");
+  private static final byte[] MEM_FREE = bytes("MemFree:");
+  private static final byte[] MEM_AVAILABLE = bytes("MemAvailable:");
+  private static final byte[] BUFFERS = bytes("Buffers:");
+  private static final byte[] CACHED = bytes("Cached:");
+  private static final byte[] UID = bytes("Uid:");
+  private static final byte[] READ_BYTES = bytes("read_bytes:");
+  private static final byte[] WRITE_BYTES = bytes("write_bytes:");
+
+  // Files that are kept open, and their channels, null until opened
+  private static final int STAT = 0;
+  private static final int MEMINFO = 1;
+  private static final int LOADAVG = 2;
+  private static final String[] FILES = {"stat", "meminfo", "loadavg"};
+
+  private final Path root;
+  private final Path passwd;
+  private final FileChannel[] channels = new FileChannel[FILES.length];
+
+  private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+  private int length;
+  // Index just after the last number parsed
+  private int end;
+  private byte[] scratch = new byte[256];
+
+  private long bootTime = -1;
+  private long memTotal;
+  private long memAvailable;
+  private final double[] loadAverage = new double[3];
+  private int threadCount;
+
+  // Processes of the latest pass, reused by the next one
+  private OSProcess[] processes = new OSProcess[0];
+  private int[] uids = new int[0];
+  private int processCount;
+  // User names by user ID, read from the passwd file
+  private Map<Integer, String> users;
+
+  /**
+   * ProcReader
+   *
+   * @param root Path of the /proc file system
+   * @param passwd Path of the file user names are read from
+   * @throws IOException if /proc/stat, /proc/meminfo or /proc/loadavg
+   *                     cannot be opened
+   */
+  public ProcReader(Path root, Path passwd) throws IOException {
+    this.root = root;
+    this.passwd = passwd;
+    for(int file = 0; file < FILES.length; file++) {
+      channels[file] = open(file);
+    }
+  }
+
+  /**
+   * fromSystemProperties
+   *
+   * Opens a reader over /proc on Linux, unless -Dtrik.proc=false.
+   *
+   * @return the reader, or null if /proc is not used
+   */
+  public static ProcReader fromSystemProperties() {
+    if(!System.getProperty("os.name", "").startsWith("Linux")
+            || !Boolean.parseBoolean(System.getProperty("trik.proc", "true"))) {
+      return null;
+    }
+    try {
+      return new ProcReader(Paths.get("/proc"), Paths.get("/etc/passwd"));
+    } catch (IOException e) {
+      logger.error(e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * readCpuTicks
+   *
+   * Reads the tick counters of every logical processor from /proc/stat,
+   * in the order of CpuLoadTracker's tick types. Counters the kernel does
+   * not report are left at 0.
+   *
+   * @param ticks Array to fill, indexed by processor number. Processors
+   *              that are offline or beyond its length are skipped
+   * @return true if /proc/stat was read
+   */
+  public boolean readCpuTicks(long[][] ticks) {
+    if(!read(STAT)) {
+      return false;
+    }
+    for(int i = 0; i < length; i = nextLine(i)) {
+      if(startsWith(i, CPU) && isDigit(i + CPU.length)) {
+        int core = (int) parseLong(i + CPU.length);
+        if(core < ticks.length) {
+          for(int type = 0; type < ticks[core].length; type++) {
+            ticks[core][type] = isNumberAt(end) ? parseLong(end) * 1000 / USER_HZ : 0;
+          }
+        }
+      } else if(startsWith(i, BTIME)) {
+        bootTime = parseLong(i + BTIME.length) * 1000;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * readMemory
+   *
+   * Reads the total and available memory from /proc/meminfo. Kernels
+   * older than 3.14 do not report the available memory, which is then
+   * estimated from the free memory, buffers and page cache.
+   *
+   * @return true if /proc/meminfo was read
+   */
+  public boolean readMemory() {
+    if(!read(MEMINFO)) {
+      return false;
+    }
+    long free = 0;
+    long buffers = 0;
+    long cached = 0;
+    long available = -1;
+    for(int i = 0; i < length; i = nextLine(i)) {
+      if(startsWith(i, MEM_TOTAL)) {
+        memTotal = parseLong(i + MEM_TOTAL.length) * 1024;
+      } else if(startsWith(i, MEM_AVAILABLE)) {
+        available = parseLong(i + MEM_AVAILABLE.length) * 1024;
+      } else if(startsWith(i, MEM_FREE)) {
+        free = parseLong(i + MEM_FREE.length) * 1024;
+      } else if(startsWith(i, BUFFERS)) {
+        buffers = parseLong(i + BUFFERS.length) * 1024;
+      } else if(startsWith(i, CACHED)) {
+        cached = parseLong(i + CACHED.length) * 1024;
+      }
+    }
+    memAvailable = available >= 0 ? available : free + buffers + cached;
+    return true;
+  }
+
+  /**
+   * readLoadAverage
+   *
+   * Reads the 1, 5 and 15 minute load averages and the number of threads
+   * from /proc/loadavg.
+   *
+   * @return true if /proc/loadavg was read
+   */
+  public boolean readLoadAverage() {
+    if(!read(LOADAVG)) {
+      return false;
+    }
+    int i = 0;
+    for(int n = 0; n < loadAverage.length; n++) {
+      loadAverage[n] = parseDecimal(i);
+      i = end;
+    }
+    // Runnable and total scheduling entities, eg. 2/98
+    parseLong(i);
+    threadCount = (int) parseLong(end + 1);
+    return true;
+  }
+
+  /**
+   * readProcesses
+   *
+   * Reads every process from /proc/[pid]/stat, /proc/[pid]/status and
+   * /proc/[pid]/io. The I/O counters of processes the daemon may not read
+   * are left at 0, like OSHI does.
+   *
+   * @param now UNIX timestamp in milliseconds, to compute up times from
+   * @return Number of processes read, which are the first entries of
+   *         getProcesses(), or 0 if the thread was interrupted, since every
+   *         file opened after that fails
+   */
+  public int readProcesses(long now) {
+    if(bootTime < 0 && !readCpuTicks(new long[0][])) {
+      return 0;
+    }
+    String[] pids = root.toFile().list();
+    if(pids == null) {
+      return 0;
+    }
+    if(processes.length < pids.length) {
+      OSProcess[] grown = new OSProcess[pids.length];
+      System.arraycopy(processes, 0, grown, 0, processes.length);
+      processes = grown;
+      uids = Arrays.copyOf(uids, pids.length);
+    }
+
+    int count = 0;
+    for(String name : pids) {
+      if(Thread.currentThread().isInterrupted()) {
+        count = 0;
+        break;
+      }
+      if(name.isEmpty() || !Character.isDigit(name.charAt(0))) {
+        continue;
+      }
+      if(processes[count] == null) {
+        processes[count] = new OSProcess(null);
+        uids[count] = -1;
+      }
+      if(readProcess(Integer.parseInt(name), root.resolve(name), processes[count],
+              count, now)) {
+        count++;
+      }
+    }
+    processCount = count;
+    return count;
+  }
+
+  /**
+   * readProcess
+   *
+   * Fills a pooled process from the files of one process.
+   *
+   * @return false if the process exited before it could be read
+   */
+  private boolean readProcess(int procID, Path dir, OSProcess proc, int index, long now) {
+    if(!read(dir.resolve("stat"))) {
+      return false;
+    }
+    // The name is between the first ( and the last ), and may hold both
+    int open = indexOf((byte) '(', 0);
+    int close = lastIndexOf((byte) ')');
+    if(open < 0 || close < open) {
+      return false;
+    }
+    // Fields after the name, numbered from 3 like in proc(5)
+    int i = skipFields(close + 1, 1); // past the state
+    long parentID = parseLong(i);
+    i = skipFields(end, 9); // to utime (14)
+    long userTicks = parseLong(i);
+    long kernelTicks = parseLong(end);
+    i = skipFields(end, 4); // to num_threads (20)
+    long threads = parseLong(i);
+    i = skipFields(end, 1); // to starttime (22)
+    long startTime = bootTime + parseLong(i) * 1000 / USER_HZ;
+    long virtualSize = parseLong(end);
+    long residentSize = parseLong(end) * PAGE_SIZE;
+
+    boolean same = proc.getProcessID() == procID && proc.getStartTime() == startTime;
+    if(!same || !nameEquals(proc.getName(), open + 1, close)) {
+      proc.setName(decode(open + 1, close));
+    }
+    proc.setProcessID(procID);
+    proc.setParentProcessID((int) parentID);
+    proc.setUserTime(userTicks * 1000 / USER_HZ);
+    proc.setKernelTime(kernelTicks * 1000 / USER_HZ);
+    proc.setThreadCount((int) threads);
+    proc.setStartTime(startTime);
+    proc.setUpTime(Math.max(0, now - startTime));
+    proc.setVirtualSize(virtualSize);
+    proc.setResidentSetSize(residentSize);
+
+    int uid = -1;
+    if(read(dir.resolve("status"))) {
+      int line = find(UID);
+      if(line >= 0) {
+        uid = (int) parseLong(line + UID.length);
+      }
+    }
+    if(!same || uid != uids[index] || proc.getUser() == null) {
+      uids[index] = uid;
+      proc.setUserID(String.valueOf(uid));
+      proc.setUser(user(uid));
+    }
+
+    long bytesRead = 0;
+    long bytesWritten = 0;
+    if(read(dir.resolve("io"))) {
+      int line = find(READ_BYTES);
+      bytesRead = line < 0 ? 0 : parseLong(line + READ_BYTES.length);
+      line = find(WRITE_BYTES);
+      bytesWritten = line < 0 ? 0 : parseLong(line + WRITE_BYTES.length);
+    }
+    proc.setBytesRead(bytesRead);
+    proc.setBytesWritten(bytesWritten);
+    return true;
+  }
+
+  /**
+   * user
+   *
+   * @param uid User ID
+   * @return the name of the user, or the ID if it has none
+   */
+  private String user(int uid) {
+    if(users == null) {
+      users = new HashMap<>();
+      try {
+        // name:password:uid:...
+        List<String> lines = Files.readAllLines(passwd, StandardCharsets.UTF_8);
+        for(String line : lines) {
+          String[] fields = line.split(":");
+          if(fields.length > 2) {
+            try {
+              users.putIfAbsent(Integer.parseInt(fields[2]), fields[0]);
+            } catch (NumberFormatException e) {
+              logger.warn("Not a user ID in " + passwd + ": " + fields[2]);
+            }
+          }
+        }
+      } catch (IOException e) {
+        logger.error(e.getMessage());
+      }
+    }
+    String user = users.get(uid);
+    return user == null ? String.valueOf(uid) : user;
+  }
+
+  /**
+   * open
+   *
+   * Opens one of the files that are kept open.
+   */
+  private FileChannel open(int file) throws IOException {
+    return FileChannel.open(root.resolve(FILES[file]), StandardOpenOption.READ);
+  }
+
+  /**
+   * read
+   *
+   * Reads a file that is kept open into the buffer, from the start,
+   * reopening it if it was closed. A file that cannot be read is closed,
+   * to be reopened by the next read.
+   *
+   * @return true if the file was read
+   */
+  private boolean read(int file) {
+    try {
+      if(channels[file] == null || !channels[file].isOpen()) {
+        if(channels[file] != null) {
+          logger.warn(root.resolve(FILES[file]) + " was closed, reopening it");
+        }
+        channels[file] = open(file);
+      }
+      fill(channels[file]);
+      return true;
+    } catch (IOException e) {
+      // Interrupts close the channel with no message
+      logger.error("Cannot read " + root.resolve(FILES[file])
+              + ", falling back to OSHI until the next read: " + e);
+      closeQuietly(file);
+      return false;
+    }
+  }
+
+  /**
+   * closeQuietly
+   *
+   * Closes one of the files that are kept open, if it is.
+   */
+  private void closeQuietly(int file) {
+    if(channels[file] != null) {
+      try {
+        channels[file].close();
+      } catch (IOException e) {
+        logger.error(e.getMessage());
+      }
+      channels[file] = null;
+    }
+  }
+
+  /**
+   * read
+   *
+   * Reads a file of a process into the buffer.
+   *
+   * @return false if the file is gone or may not be read
+   */
+  private boolean read(Path path) {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      fill(channel);
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * fill
+   *
+   * Reads a whole file into the buffer, doubling the buffer and starting
+   * over if the file does not fit, since the files in /proc are generated
+   * on each read.
+   */
+  private void fill(FileChannel channel) throws IOException {
+    while(true) {
+      buffer.clear();
+      int n;
+      do {
+        n = channel.read(buffer, buffer.position());
+      } while(n > 0 && buffer.hasRemaining());
+      if(buffer.hasRemaining()) {
+        length = buffer.position();
+        return;
+      }
+      buffer = ByteBuffer.allocateDirect(2 * buffer.capacity());
+    }
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private boolean isDigit(int i) {
+    return i < length && buffer.get(i) >= '0' && buffer.get(i) <= '9';
+  }
+
+  /**
+   * isNumberAt
+   *
+   * @return true if a number follows on the same line
+   */
+  private boolean isNumberAt(int i) {
+    while(i < length && buffer.get(i) == ' ') {
+      i++;
+    }
+    return isDigit(i);
+  }
+
+  private boolean startsWith(int i, byte[] prefix) {
+    if(i + prefix.length > length) {
+      return false;
+    }
+    for(int k = 0; k < prefix.length; k++) {
+      if(buffer.get(i + k) != prefix[k]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * find
+   *
+   * @return index of the line that starts with the prefix, or -1
+   */
+  private int find(byte[] prefix) {
+    for(int i = 0; i < length; i = nextLine(i)) {
+      if(startsWith(i, prefix)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int nextLine(int i) {
+    while(i < length && buffer.get(i) != '\n') {
+      i++;
+    }
+    return i + 1;
+  }
+
+  private int indexOf(byte b, int from) {
+    for(int i = from; i < length; i++) {
+      if(buffer.get(i) == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int lastIndexOf(byte b) {
+    for(int i = length - 1; i >= 0; i--) {
+      if(buffer.get(i) == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * skipFields
+   *
+   * @return index of the field the given number of space-separated
+   *         fields on from the one at i
+   */
+  private int skipFields(int i, int fields) {
+    for(int n = 0; n < fields && i < length; n++) {
+      while(i < length && buffer.get(i) == ' ') {
+        i++;
+      }
+      while(i < length && buffer.get(i) != ' ') {
+        i++;
+      }
+    }
+    return i;
+  }
+
+  /**
+   * parseLong
+   *
+   * Parses the unsigned number at or after i, skipping spaces and tabs,
+   * and moves end just after it.
+   *
+   * @return the number, 0 if there is none
+   */
+  private long parseLong(int i) {
+    while(i < length && (buffer.get(i) == ' ' || buffer.get(i) == '\t')) {
+      i++;
+    }
+    long value = 0;
+    while(isDigit(i)) {
+      value = 10 * value + (buffer.get(i) - '0');
+      i++;
+    }
+    end = i;
+    return value;
+  }
+
+  /**
+   * parseDecimal
+   *
+   * Parses a number with a fractional part, eg. 0.42, like parseLong.
+   */
+  private double parseDecimal(int i) {
+    long whole = parseLong(i);
+    if(end >= length || buffer.get(end) != '.') {
+      return whole;
+    }
+    int start = end + 1;
+    long fraction = parseLong(start);
+    return whole + fraction / Math.pow(10, end - start);
+  }
+
+  private boolean nameEquals(String name, int from, int to) {
+    if(name == null || name.length() != to - from) {
+      return false;
+    }
+    for(int k = 0; k < name.length(); k++) {
+      if(name.charAt(k) != (buffer.get(from + k) & 0xff)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String decode(int from, int to) {
+    if(scratch.length < to - from) {
+      scratch = new byte[to - from];
+    }
+    for(int k = from; k < to; k++) {
+      scratch[k - from] = buffer.get(k);
+    }
+    return new String(scratch, 0, to - from, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * getMemTotal
+   *
+   * @return Bytes of memory, as of the last readMemory
+   */
+  public long getMemTotal() {
+    return memTotal;
+  }
+
+  /**
+   * getMemAvailable
+   *
+   * @return Bytes of memory available to start new programs, as of the
+   *         last readMemory
+   */
+  public long getMemAvailable() {
+    return memAvailable;
+  }
+
+  /**
+   * getLoadAverage
+   *
+   * @param index 0, 1 or 2 for the 1, 5 or 15 minute average
+   * @return the load average, as of the last readLoadAverage
+   */
+  public double getLoadAverage(int index) {
+    return loadAverage[index];
+  }
+
+  /**
+   * getThreadCount
+   *
+   * @return Number of threads, kernel threads included, as of the last
+   *         readLoadAverage
+   */
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  /**
+   * getProcesses
+   *
+   * @return the processes of the last readProcesses, reused by the next
+   *         one. Only the first getProcessCount() are from the last pass
+   */
+  public OSProcess[] getProcesses() {
+    return processes;
+  }
+
+  /**
+   * getProcessCount
+   *
+   * @return Number of processes read by the last readProcesses
+   */
+  public int getProcessCount() {
+    return processCount;
+  }
+
+  /**
+   * getBootTime
+   *
+   * @return UNIX timestamp in milliseconds of when the system booted, or
+   *         -1 before /proc/stat was read
+   */
+  public long getBootTime() {
+    return bootTime;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for(int file = 0; file < FILES.length; file++) {
+      closeQuietly(file);
+    }
+  }
+}
@@ -0,0 +1,312 @@
+import oshi.software.os.OSProcess;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ProcessCapture
+ *
+ * Decides which processes of a pass over the process list are stored.
+ * With a limit of N, only the N processes using the most CPU and the N
+ * using the most resident memory are kept, and every other process is
+ * folded into one "other" row per user. The selection is made in a single
+ * pass with two fixed-size min-heaps of indexes, and the per-user totals
+ * are summed during the same pass and corrected for the kept processes
+ * afterwards. A limit of 0 keeps every process. CPU usage is measured over
+ * the interval since the previous pass, so a process that just got busy
+ * ranks by what it uses now rather than by its average since it started.
+ *
+ * OSHI's limited query, getProcesses(limit, sort), reads every process and
+ * sorts the full list before cutting it, so it is not used: one query per
+ * sort order would read the process list twice, and the "other" rows need
+ * every process anyway.
+ *
+ * A process that is folded into an "other" row is still running, which
+ * the capture tells ProcessTracker, so it is reported as folded rather
+ * than exited.
+ */
+public class ProcessCapture implements ProcessTracker.Running {
+  public static final String OTHER = "other";
+  public static final int DEFAULT_TOP = 0;
+
+  public final int top;
+  public final boolean others;
+
+  // CPU time of every process on the previous pass
+  private final ProcessCpuTable cpuTimes = new ProcessCpuTable();
+
+  // Usage of every process in the current pass, grown as needed
+  private double[] cpuUsage = new double[0];
+  private long[] residentSize = new long[0];
+  private boolean[] kept = new boolean[0];
+
+  // Min-heaps of indexes into the current pass. The root is the kept
+  // process with the least usage, the first to go for a busier one
+  private final int[] cpuHeap;
+  private final int[] memoryHeap;
+  private int cpuCount;
+  private int memoryCount;
+
+  // Folded processes of each user, reused between passes
+  private final Map<String, Other> otherByUser = new HashMap<>();
+
+  /**
+   * Other
+   *
+   * Running totals of the processes of one user that were not kept.
+   */
+  private static class Other {
+    final int procID;
+    int count;
+    double cpuUsage;
+    long residentSize;
+    long virtualSize;
+    int threads;
+    long bytesRead;
+    long bytesWritten;
+
+    Other(int procID) {
+      this.procID = procID;
+    }
+
+    // Adds a process to the totals with a sign of 1, takes it out with -1
+    void add(OSProcess proc, double cpuUsage, int sign) {
+      count += sign;
+      this.cpuUsage += sign * cpuUsage;
+      residentSize += sign * proc.getResidentSetSize();
+      virtualSize += sign * proc.getVirtualSize();
+      threads += sign * proc.getThreadCount();
+      bytesRead += sign * proc.getBytesRead();
+      bytesWritten += sign * proc.getBytesWritten();
+    }
+  }
+
+  /**
+   * ProcessCapture
+   *
+   * @param top Number of processes kept for each of CPU and memory, or 0
+   *            to keep every process
+   * @param others Whether to store the processes that are not kept as one
+   *               "other" row per user
+   */
+  public ProcessCapture(int top, boolean others) {
+    if(top < 0) {
+      throw new IllegalArgumentException("The number of processes kept can't be negative");
+    }
+    this.top = top;
+    this.others = others;
+    this.cpuHeap = new int[top];
+    this.memoryHeap = new int[top];
+  }
+
+  /**
+   * fromSystemProperties
+   *
+   * Builds a policy from -Dtrik.process.top and -Dtrik.process.others,
+   * falling back to keeping every process.
+   *
+   * @return the resulting policy
+   */
+  public static ProcessCapture fromSystemProperties() {
+    return new ProcessCapture(Integer.getInteger("trik.process.top", DEFAULT_TOP),
+            Boolean.parseBoolean(System.getProperty("trik.process.others", "true")));
+  }
+
+  /**
+   * otherID
+   *
+   * Gets the process ID of a user's "other" row. It is negative so it
+   * can't clash with a real process, and derived from the user name so the
+   * row keeps its identity between passes and restarts.
+   *
+   * @param user Name of the user
+   * @return the process ID
+   */
+  public static int otherID(String user) {
+    return -1 - ((user == null ? 0 : user.hashCode()) & Integer.MAX_VALUE);
+  }
+
+  /**
+   * capture
+   *
+   * Adds the processes to store from a pass over the process list.
+   *
+   * @param procs Every running process
+   * @param current List to add the kept processes and the "other" rows to
+   */
+  public void capture(OSProcess[] procs, List<CollectionRound.ProcessData> current) {
+    capture(procs, procs.length, current);
+  }
+
+  /**
+   * capture
+   *
+   * Adds the processes to store from a pass over the process list.
+   *
+   * @param procs Array whose first entries are every running process
+   * @param count Number of running processes in the array
+   * @param current List to add the kept processes and the "other" rows to
+   */
+  public void capture(OSProcess[] procs, int count,
+                      List<CollectionRound.ProcessData> current) {
+    if(top == 0 || count <= top) {
+      for(int i = 0; i < count; i++) {
+        current.add(toData(procs[i], cpuUsage(procs[i])));
+      }
+      cpuTimes.endPass();
+      return;
+    }
+
+    if(cpuUsage.length < count) {
+      cpuUsage = new double[count];
+      residentSize = new long[count];
+      kept = new boolean[count];
+    }
+    cpuCount = 0;
+    memoryCount = 0;
+    for(Other other : otherByUser.values()) {
+      other.count = 0;
+      other.cpuUsage = 0;
+      other.residentSize = 0;
+      other.virtualSize = 0;
+      other.threads = 0;
+      other.bytesRead = 0;
+      other.bytesWritten = 0;
+    }
+
+    for(int i = 0; i < count; i++) {
+      cpuUsage[i] = cpuUsage(procs[i]);
+      residentSize[i] = procs[i].getResidentSetSize();
+      kept[i] = false;
+      offerCpu(i);
+      offerMemory(i);
+      if(others) {
+        Other other = otherByUser.get(procs[i].getUser());
+        if(other == null) {
+          other = new Other(otherID(procs[i].getUser()));
+          otherByUser.put(procs[i].getUser(), other);
+        }
+        other.add(procs[i], cpuUsage[i], 1);
+      }
+    }
+    cpuTimes.endPass();
+
+    keep(procs, cpuHeap, cpuCount, current);
+    keep(procs, memoryHeap, memoryCount, current);
+
+    if(others) {
+      Iterator<Map.Entry<String, Other>> it = otherByUser.entrySet().iterator();
+      while(it.hasNext()) {
+        Map.Entry<String, Other> entry = it.next();
+        Other other = entry.getValue();
+        if(other.count == 0) {
+          // Every process of the user was kept, or the user is gone
+          it.remove();
+          continue;
+        }
+        current.add(new CollectionRound.ProcessData(CollectionRound.ProcessEvent.START,
+                other.procID, OTHER, entry.getKey(), 0, 0, Math.max(0, other.cpuUsage),
+                other.residentSize, other.virtualSize, other.threads,
+                other.bytesRead, other.bytesWritten));
+      }
+    }
+  }
+
+  /**
+   * keep
+   *
+   * Adds the processes in a heap that were not added yet, and takes them
+   * out of their user's "other" row.
+   */
+  private void keep(OSProcess[] procs, int[] heap, int count,
+                    List<CollectionRound.ProcessData> current) {
+    for(int k = 0; k < count; k++) {
+      int i = heap[k];
+      if(kept[i]) {
+        continue;
+      }
+      kept[i] = true;
+      current.add(toData(procs[i], cpuUsage[i]));
+      if(others) {
+        otherByUser.get(procs[i].getUser()).add(procs[i], cpuUsage[i], -1);
+      }
+    }
+  }
+
+  /**
+   * isRunning
+   *
+   * @param procID Process ID
+   * @param startTime UNIX timestamp in milliseconds of when the process started
+   * @return true if the process was in the latest capture, kept or not
+   */
+  @Override
+  public boolean isRunning(int procID, long startTime) {
+    return cpuTimes.contains(procID, startTime);
+  }
+
+  private double cpuUsage(OSProcess proc) {
+    return cpuTimes.update(proc.getProcessID(), proc.getStartTime(),
+            proc.getKernelTime() + proc.getUserTime(), proc.getUpTime());
+  }
+
+  private static CollectionRound.ProcessData toData(OSProcess proc, double cpuUsage) {
+    return new CollectionRound.ProcessData(CollectionRound.ProcessEvent.START,
+            proc.getProcessID(), proc.getName(), proc.getUser(), proc.getStartTime(),
+            proc.getUpTime(), cpuUsage, proc.getResidentSetSize(), proc.getVirtualSize(),
+            proc.getThreadCount(), proc.getBytesRead(), proc.getBytesWritten());
+  }
+
+  private void offerCpu(int i) {
+    if(cpuCount < top) {
+      int k = cpuCount++;
+      while(k > 0 && cpuUsage[cpuHeap[(k - 1) / 2]] > cpuUsage[i]) {
+        cpuHeap[k] = cpuHeap[(k - 1) / 2];
+        k = (k - 1) / 2;
+      }
+      cpuHeap[k] = i;
+    } else if(cpuUsage[i] > cpuUsage[cpuHeap[0]]) {
+      int k = 0;
+      while(2 * k + 1 < top) {
+        int child = 2 * k + 1;
+        if(child + 1 < top && cpuUsage[cpuHeap[child + 1]] < cpuUsage[cpuHeap[child]]) {
+          child++;
+        }
+        if(cpuUsage[cpuHeap[child]] >= cpuUsage[i]) {
+          break;
+        }
+        cpuHeap[k] = cpuHeap[child];
+        k = child;
+      }
+      cpuHeap[k] = i;
+    }
+  }
+
+  private void offerMemory(int i) {
+    if(memoryCount < top) {
+      int k = memoryCount++;
+      while(k > 0 && residentSize[memoryHeap[(k - 1) / 2]] > residentSize[i]) {
+        memoryHeap[k] = memoryHeap[(k - 1) / 2];
+        k = (k - 1) / 2;
+      }
+      memoryHeap[k] = i;
+    } else if(residentSize[i] > residentSize[memoryHeap[0]]) {
+      int k = 0;
+      while(2 * k + 1 < top) {
+        int child = 2 * k + 1;
+        if(child + 1 < top
+                && residentSize[memoryHeap[child + 1]] < residentSize[memoryHeap[child]]) {
+          child++;
+        }
+        if(residentSize[memoryHeap[child]] >= residentSize[i]) {
+          break;
+        }
+        memoryHeap[k] = memoryHeap[child];
+        k = child;
+      }
+      memoryHeap[k] = i;
+    }
+  }
+}
@@ -0,0 +1,200 @@
+import java.util.Arrays;
+
+/**
+ * ProcessCpuTable
+ *
+ * Turns the cumulative CPU time of each process into its CPU usage over
+ * the interval since the previous pass. The CPU time and up time seen on
+ * the previous pass are kept in an open-addressing table keyed by process
+ * ID and start time, held in primitive arrays. Each pass reads from the
+ * previous table and writes into a second one, and the two are swapped at
+ * the end of the pass, so processes that exited drop out without any
+ * removal and no memory is allocated once the tables are large enough.
+ */
+public class ProcessCpuTable {
+  private static final int INITIAL_CAPACITY = 1024;
+
+  // Previous pass
+  private int[] procIDs;
+  private long[] startTimes;
+  private long[] cpuTimes;
+  private long[] upTimes;
+  private boolean[] used;
+  private int count;
+
+  // Current pass
+  private int[] nextProcIDs;
+  private long[] nextStartTimes;
+  private long[] nextCpuTimes;
+  private long[] nextUpTimes;
+  private boolean[] nextUsed;
+  private int nextCount;
+
+  public ProcessCpuTable() {
+    allocate(INITIAL_CAPACITY);
+  }
+
+  private void allocate(int capacity) {
+    procIDs = new int[capacity];
+    startTimes = new long[capacity];
+    cpuTimes = new long[capacity];
+    upTimes = new long[capacity];
+    used = new boolean[capacity];
+    nextProcIDs = new int[capacity];
+    nextStartTimes = new long[capacity];
+    nextCpuTimes = new long[capacity];
+    nextUpTimes = new long[capacity];
+    nextUsed = new boolean[capacity];
+  }
+
+  /**
+   * update
+   *
+   * Records the times of a process on the current pass.
+   *
+   * @param procID Process ID
+   * @param startTime UNIX timestamp in milliseconds of when the process started
+   * @param cpuTime Milliseconds of kernel and user time the process has used
+   * @param upTime Milliseconds since the process started
+   * @return Share of one logical processor the process used since the
+   *         previous pass, or since it started if it was not seen then
+   */
+  public double update(int procID, long startTime, long cpuTime, long upTime) {
+    if(2 * (nextCount + 1) > nextUsed.length) {
+      grow();
+    }
+
+    long prevCpuTime = 0;
+    long prevUpTime = 0;
+    int slot = find(procIDs, startTimes, used, procID, startTime);
+    if(used[slot]) {
+      prevCpuTime = cpuTimes[slot];
+      prevUpTime = upTimes[slot];
+    }
+
+    slot = find(nextProcIDs, nextStartTimes, nextUsed, procID, startTime);
+    if(!nextUsed[slot]) {
+      nextUsed[slot] = true;
+      nextProcIDs[slot] = procID;
+      nextStartTimes[slot] = startTime;
+      nextCount++;
+    }
+    nextCpuTimes[slot] = cpuTime;
+    nextUpTimes[slot] = upTime;
+
+    if(upTime <= prevUpTime || cpuTime < prevCpuTime) {
+      return 0;
+    }
+    return (double) (cpuTime - prevCpuTime) / (upTime - prevUpTime);
+  }
+
+  /**
+   * endPass
+   *
+   * Makes the current pass the previous one. Processes that were not
+   * updated on the current pass are forgotten.
+   */
+  public void endPass() {
+    int[] ids = procIDs;
+    long[] starts = startTimes;
+    long[] cpus = cpuTimes;
+    long[] ups = upTimes;
+    boolean[] flags = used;
+
+    procIDs = nextProcIDs;
+    startTimes = nextStartTimes;
+    cpuTimes = nextCpuTimes;
+    upTimes = nextUpTimes;
+    used = nextUsed;
+    count = nextCount;
+
+    nextProcIDs = ids;
+    nextStartTimes = starts;
+    nextCpuTimes = cpus;
+    nextUpTimes = ups;
+    nextUsed = flags;
+    nextCount = 0;
+    Arrays.fill(nextUsed, false);
+  }
+
+  /**
+   * contains
+   *
+   * @param procID Process ID
+   * @param startTime UNIX timestamp in milliseconds of when the process started
+   * @return true if the process was seen on the previous pass
+   */
+  public boolean contains(int procID, long startTime) {
+    return used[find(procIDs, startTimes, used, procID, startTime)];
+  }
+
+  /**
+   * size
+   *
+   * @return Number of processes seen on the previous pass
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * find
+   *
+   * Probes linearly from the hash of the key.
+   *
+   * @return the slot holding the key, or the free slot it would go in
+   */
+  private static int find(int[] ids, long[] starts, boolean[] flags,
+                          int procID, long startTime) {
+    int mask = flags.length - 1;
+    int slot = hash(procID, startTime) & mask;
+    while(flags[slot] && (ids[slot] != procID || starts[slot] != startTime)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private static int hash(int procID, long startTime) {
+    int h = 31 * procID + Long.hashCode(startTime);
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * grow
+   *
+   * Doubles both tables, keeping the entries of the previous pass and
+   * those already recorded on the current one.
+   */
+  private void grow() {
+    int[] ids = procIDs;
+    long[] starts = startTimes;
+    long[] cpus = cpuTimes;
+    long[] ups = upTimes;
+    boolean[] flags = used;
+    int[] nextIds = nextProcIDs;
+    long[] nextStarts = nextStartTimes;
+    long[] nextCpus = nextCpuTimes;
+    long[] nextUps = nextUpTimes;
+    boolean[] nextFlags = nextUsed;
+
+    allocate(2 * flags.length);
+    for(int i = 0; i < flags.length; i++) {
+      if(flags[i]) {
+        int slot = find(procIDs, startTimes, used, ids[i], starts[i]);
+        used[slot] = true;
+        procIDs[slot] = ids[i];
+        startTimes[slot] = starts[i];
+        cpuTimes[slot] = cpus[i];
+        upTimes[slot] = ups[i];
+      }
+      if(nextFlags[i]) {
+        int slot = find(nextProcIDs, nextStartTimes, nextUsed, nextIds[i], nextStarts[i]);
+        nextUsed[slot] = true;
+        nextProcIDs[slot] = nextIds[i];
+        nextStartTimes[slot] = nextStarts[i];
+        nextCpuTimes[slot] = nextCpus[i];
+        nextUpTimes[slot] = nextUps[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,277 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * ProcessTracker
+ *
+ * Keeps the last persisted state of every running process, keyed by
+ * process ID and start time, and turns each pass over the process list
+ * into change events: START for new processes, UPDATE for processes whose
+ * values moved past the threshold and EXIT for processes that are gone.
+ * A process that is left out of a pass but still running, eg. because it
+ * dropped out of ProcessCapture's top N, gets a FOLD event, which takes it
+ * out of the current state, and is tracked until it has exited. If it is
+ * back in a later pass it gets an UPDATE.
+ */
+public class ProcessTracker {
+  // Start times are derived from the uptime of the process, so they can
+  // be a little off between runs of the collector
+  public static final long START_TIME_TOLERANCE = 1000;
+
+  private final double cpuThreshold;
+  private final double memoryThreshold;
+  private final Map<Key, Entry> known = new HashMap<>();
+  // Processes restored from before a restart that have not been seen yet
+  private final Map<Integer, Entry> restored = new HashMap<>();
+  private long pass;
+
+  // For diff without a way to tell: whatever is left out has exited
+  private static final Running NONE = (procID, startTime) -> false;
+
+  /**
+   * Running
+   *
+   * Tells whether a process that was left out of a pass is still running.
+   */
+  public interface Running {
+    /**
+     * isRunning
+     *
+     * @param procID Process ID
+     * @param startTime UNIX timestamp in milliseconds of when the process started
+     * @return true if the process is running
+     */
+    boolean isRunning(int procID, long startTime);
+  }
+
+  /**
+   * Key
+   *
+   * Identifies a process. The start time tells apart processes that
+   * reuse the same ID.
+   */
+  private static class Key {
+    final int procID;
+    final long startTime;
+
+    Key(int procID, long startTime) {
+      this.procID = procID;
+      this.startTime = startTime;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if(!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return procID == other.procID && startTime == other.startTime;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * procID + Long.hashCode(startTime);
+    }
+  }
+
+  /**
+   * Entry
+   *
+   * Last persisted state of a process, the pass it was last seen on and
+   * whether it was left out of the current state.
+   */
+  private static class Entry {
+    CollectionRound.ProcessData last;
+    long seen;
+    boolean folded;
+
+    Entry(CollectionRound.ProcessData last, long seen) {
+      this.last = last;
+      this.seen = seen;
+    }
+  }
+
+  /**
+   * ProcessTracker
+   *
+   * @param cpuThreshold Minimum change in CPU usage that produces an UPDATE
+   */
+  public ProcessTracker(double cpuThreshold) {
+    this(cpuThreshold, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * ProcessTracker
+   *
+   * @param cpuThreshold Minimum change in CPU usage that produces an UPDATE
+   * @param memoryThreshold Minimum change in resident memory, as a fraction
+   *                        of the last persisted size, that produces an UPDATE
+   */
+  public ProcessTracker(double cpuThreshold, double memoryThreshold) {
+    this.cpuThreshold = cpuThreshold;
+    this.memoryThreshold = memoryThreshold;
+  }
+
+  /**
+   * diff
+   *
+   * Compares the current processes against the known ones and adds the
+   * resulting events to the given list.
+   *
+   * @param current Every process running now
+   * @param events List to add the START, UPDATE and EXIT events to
+   */
+  public void diff(List<CollectionRound.ProcessData> current,
+                   List<CollectionRound.ProcessData> events) {
+    diff(current, NONE, events);
+  }
+
+  /**
+   * diff
+   *
+   * Compares the current processes against the known ones and adds the
+   * resulting events to the given list. Known processes that are not
+   * current only exit if they are no longer running, and are folded
+   * otherwise.
+   *
+   * @param current The processes to store
+   * @param running Tells whether a process left out of current is running
+   * @param events List to add the START, UPDATE, EXIT and FOLD events to
+   */
+  public void diff(List<CollectionRound.ProcessData> current, Running running,
+                   List<CollectionRound.ProcessData> events) {
+    pass++;
+
+    for(CollectionRound.ProcessData proc : current) {
+      Key key = new Key(proc.procID, proc.startTime);
+      Entry entry = known.get(key);
+      if(entry == null) {
+        entry = adopt(key, proc);
+      }
+      if(entry == null) {
+        known.put(key, new Entry(proc, pass));
+        events.add(proc.withEvent(CollectionRound.ProcessEvent.START));
+        continue;
+      }
+
+      if(proc.startTime != entry.last.startTime) {
+        // Keep the start time the process was first stored with
+        proc = proc.withStartTime(entry.last.startTime);
+      }
+      entry.seen = pass;
+      if(entry.folded || hasChanged(entry.last, proc)) {
+        entry.folded = false;
+        entry.last = proc;
+        events.add(proc.withEvent(CollectionRound.ProcessEvent.UPDATE));
+      }
+    }
+
+    // Processes that were not seen on this pass have exited if they are
+    // not running, and were folded otherwise
+    Iterator<Map.Entry<Key, Entry>> it = known.entrySet().iterator();
+    while(it.hasNext()) {
+      Map.Entry<Key, Entry> entry = it.next();
+      if(entry.getValue().seen != pass
+              && leftOut(entry.getValue(), entry.getKey().startTime, running, events)) {
+        it.remove();
+      }
+    }
+    Iterator<Entry> restoredIt = restored.values().iterator();
+    while(restoredIt.hasNext()) {
+      Entry entry = restoredIt.next();
+      if(leftOut(entry, entry.last.startTime, running, events)) {
+        restoredIt.remove();
+      }
+    }
+  }
+
+  /**
+   * leftOut
+   *
+   * Adds the event for a known process that was not seen on this pass:
+   * EXIT if it is no longer running, FOLD the first time it is left out
+   * while running.
+   *
+   * @param startTime Start time of the process as it was last seen
+   * @return true if the process exited and is no longer tracked
+   */
+  private static boolean leftOut(Entry entry, long startTime, Running running,
+                                 List<CollectionRound.ProcessData> events) {
+    if(!running.isRunning(entry.last.procID, startTime)) {
+      events.add(entry.last.withEvent(CollectionRound.ProcessEvent.EXIT));
+      return true;
+    }
+    if(!entry.folded) {
+      entry.folded = true;
+      events.add(entry.last.withEvent(CollectionRound.ProcessEvent.FOLD));
+    }
+    return false;
+  }
+
+  /**
+   * adopt
+   *
+   * Matches a process that is not known by its exact start time against
+   * the processes restored from before a restart.
+   *
+   * @param key Key of the process
+   * @param proc Current state of the process
+   * @return the restored entry, now known under the given key, or null if
+   *         the process was not running before the restart
+   */
+  private Entry adopt(Key key, CollectionRound.ProcessData proc) {
+    Entry entry = restored.get(proc.procID);
+    if(entry == null
+            || Math.abs(entry.last.startTime - proc.startTime) > START_TIME_TOLERANCE) {
+      return null;
+    }
+    restored.remove(proc.procID);
+    known.put(key, entry);
+    return entry;
+  }
+
+  /**
+   * restore
+   *
+   * Resumes tracking processes stored before a restart, so the first diff
+   * only reports what changed since they were stored. A stored process
+   * matches a running one with the same ID whose start time is within
+   * START_TIME_TOLERANCE. Stored processes that are no longer running are
+   * reported as EXIT, and those left out of a pass while running as FOLD.
+   *
+   * @param processes the stored processes
+   */
+  public void restore(List<CollectionRound.ProcessData> processes) {
+    for(CollectionRound.ProcessData proc : processes) {
+      restored.put(proc.procID, new Entry(proc, pass));
+    }
+  }
+
+  /**
+   * hasChanged
+   *
+   * @param last Last persisted state of the process
+   * @param proc Current state of the process
+   * @return true if the difference is worth persisting
+   */
+  private boolean hasChanged(CollectionRound.ProcessData last,
+                             CollectionRound.ProcessData proc) {
+    return Math.abs(proc.cpuUsage - last.cpuUsage) >= cpuThreshold
+            || Math.abs(proc.residentSize - last.residentSize)
+                    >= memoryThreshold * Math.max(last.residentSize, 1)
+            || !Objects.equals(proc.name, last.name)
+            || !Objects.equals(proc.user, last.user);
+  }
+
+  /**
+   * size
+   *
+   * @return Number of processes being tracked
+   */
+  public int size() {
+    return known.size() + restored.size();
+  }
+}
@@ -0,0 +1,55 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RetentionPolicy
+ *
+ * How long the entries of one table are kept. Entries older than the
+ * retention period are deleted by DBHelper.applyRetention. Raw samples can
+ * be kept for a short time since their history is also kept in the rollup
+ * tables.
+ */
+public class RetentionPolicy {
+  public static final long HOUR = 3600000;
+  public static final long DAY = 24 * HOUR;
+
+  public final String table;
+  public final long retention;
+
+  /**
+   * RetentionPolicy
+   *
+   * @param table Name of the table, which must have a timestamp column
+   * @param retention Milliseconds entries are kept for
+   */
+  public RetentionPolicy(String table, long retention) {
+    this.table = table;
+    this.retention = retention;
+  }
+
+  /**
+   * defaults
+   *
+   * Gets the default policies. The retention of each table can be
+   * overridden in hours with a system property, eg. -Dtrik.retention.CpuData=6
+   *
+   * @return a policy for every table that grows over time
+   */
+  public static List<RetentionPolicy> defaults() {
+    List<RetentionPolicy> policies = new ArrayList<>();
+    policies.add(fromSystemProperty("MemoryData", DAY));
+    policies.add(fromSystemProperty("PowerData", DAY));
+    policies.add(fromSystemProperty("SystemData", DAY));
+    policies.add(fromSystemProperty("CpuData", HOUR));
+    policies.add(fromSystemProperty("ProcessEvent", 7 * DAY));
+    policies.add(fromSystemProperty("Rollup1m", 30 * DAY));
+    policies.add(fromSystemProperty("Rollup1h", 400 * DAY));
+    policies.add(fromSystemProperty("Instrumentation", 7 * DAY));
+    return policies;
+  }
+
+  private static RetentionPolicy fromSystemProperty(String table, long retention) {
+    Long hours = Long.getLong("trik.retention." + table);
+    return new RetentionPolicy(table, hours == null ? retention : hours * HOUR);
+  }
+}
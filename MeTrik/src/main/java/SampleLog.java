@@ -0,0 +1,532 @@
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SampleLog
+ *
+ * Append-only storage for high-frequency captures, eg. CPU and memory
+ * every 100 ms. Every MemoryData, PowerData, SystemData and CpuData entry
+ * is a fixed-width record appended to a memory-mapped segment file, so a
+ * round costs a few buffer writes instead of SQLite inserts. When a
+ * segment is full, writing rolls over to a new one. Process events are
+ * not logged.
+ *
+ * A segment starts with a HEADER_SIZE byte header (magic, version, record
+ * size, capacity, number of records, timestamp of the first record),
+ * followed by RECORD_SIZE byte records:
+ *
+ *   0  timestamp (long)
+ *   8  type (short): MEMORY, POWER, SYSTEM or CPU
+ *   10 coreNum (short), -1 for all logical processors, 0 for other types
+ *   16 seven 8-byte slots:
+ *      MEMORY  avail, total
+ *      POWER   currCapPer, currCapTime, temp (doubles), isCharg
+ *      SYSTEM  bootTime, upTime, procs, servs, threads
+ *      CPU     currFreq, maxFreq, userPct, sysPct, idlePct, ioPct, stealPct
+ *              (percentages are doubles)
+ *
+ * Records are only counted once their whole round is written, and a
+ * round that does not fit in the rest of the current segment starts a new
+ * one, so a reader or a restart never sees part of a round. Only a round
+ * with more records than a whole segment holds is split across segments,
+ * each part committed as its segment fills. Rounds are appended in
+ * timestamp order, which lets each segment keep a sparse index of the
+ * timestamp of every INDEX_INTERVAL-th record.
+ */
+public class SampleLog implements MetricSink {
+  private static final Logger logger = Logger.getLogger("(SampleLog)");
+
+  public static final String DEFAULT_DIR = "sqlite/samples";
+  public static final long DEFAULT_SEGMENT_SIZE = 16L * 1024 * 1024; // 16 MiB
+
+  public static final long MAGIC = 0x54524B4C4F473031L; // TRKLOG01
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 64;
+  public static final int RECORD_SIZE = 72;
+  public static final int INDEX_INTERVAL = 256;
+  public static final String SUFFIX = ".seg";
+
+  // Record types
+  public static final short MEMORY = 1;
+  public static final short POWER = 2;
+  public static final short SYSTEM = 3;
+  public static final short CPU = 4;
+
+  // Header fields
+  private static final int COUNT_OFFSET = 20;
+  private static final int FIRST_TIMESTAMP_OFFSET = 24;
+
+  private final File dir;
+  private final int capacity;
+  private final int maxSegments;
+
+  private final List<Segment> segments = new ArrayList<>();
+  private Segment current;
+
+  /**
+   * Visitor
+   *
+   * Receives the records of a scan.
+   */
+  public interface Visitor {
+    /**
+     * visit
+     *
+     * @param record the record, only valid during this call
+     * @return false to stop the scan
+     */
+    boolean visit(Record record);
+  }
+
+  /**
+   * Record
+   *
+   * View of one record in a mapped segment. A scan moves the same view
+   * from record to record instead of copying them out.
+   */
+  public static final class Record {
+    private ByteBuffer buffer;
+    private int offset;
+
+    private Record at(ByteBuffer buffer, int offset) {
+      this.buffer = buffer;
+      this.offset = offset;
+      return this;
+    }
+
+    public long getTimestamp() {
+      return buffer.getLong(offset);
+    }
+
+    public short getType() {
+      return buffer.getShort(offset + 8);
+    }
+
+    public int getCoreNum() {
+      return buffer.getShort(offset + 10);
+    }
+
+    public long getLong(int slot) {
+      return buffer.getLong(offset + 16 + slot * 8);
+    }
+
+    public double getDouble(int slot) {
+      return buffer.getDouble(offset + 16 + slot * 8);
+    }
+  }
+
+  /**
+   * Segment
+   *
+   * One mapped segment file. Only the writer changes it; readers see the
+   * records below count, which is published after the records are written.
+   */
+  static class Segment {
+    final File file;
+    final MappedByteBuffer buffer;
+    final int capacity;
+    volatile int count;
+    volatile long firstTimestamp;
+    volatile long lastTimestamp;
+
+    // Timestamp of every INDEX_INTERVAL-th record
+    private long[] index = new long[16];
+    private volatile int indexSize = 0;
+
+    private Segment(File file, MappedByteBuffer buffer, int capacity) {
+      this.file = file;
+      this.buffer = buffer;
+      this.capacity = capacity;
+    }
+
+    static Segment create(File file, int capacity, long firstTimestamp) throws IOException {
+      Segment segment = new Segment(file, map(file, capacity), capacity);
+      segment.buffer.putLong(0, MAGIC);
+      segment.buffer.putInt(8, VERSION);
+      segment.buffer.putInt(12, RECORD_SIZE);
+      segment.buffer.putInt(16, capacity);
+      segment.buffer.putInt(COUNT_OFFSET, 0);
+      segment.buffer.putLong(FIRST_TIMESTAMP_OFFSET, firstTimestamp);
+      segment.firstTimestamp = firstTimestamp;
+      segment.lastTimestamp = firstTimestamp;
+      return segment;
+    }
+
+    static Segment open(File file) throws IOException {
+      long capacity = (file.length() - HEADER_SIZE) / RECORD_SIZE;
+      if(capacity <= 0 || capacity > (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE) {
+        throw new IOException("Not a sample log segment: " + file);
+      }
+      Segment segment = new Segment(file, map(file, (int) capacity), (int) capacity);
+      ByteBuffer buffer = segment.buffer;
+      if(buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION
+              || buffer.getInt(12) != RECORD_SIZE) {
+        throw new IOException("Not a version " + VERSION + " sample log segment: " + file);
+      }
+      segment.count = Math.min(buffer.getInt(COUNT_OFFSET), segment.capacity);
+      segment.firstTimestamp = buffer.getLong(FIRST_TIMESTAMP_OFFSET);
+      segment.lastTimestamp = segment.count == 0 ? segment.firstTimestamp
+              : buffer.getLong(offset(segment.count - 1));
+      for(int record = 0; record < segment.count; record += INDEX_INTERVAL) {
+        segment.addIndex(buffer.getLong(offset(record)));
+      }
+      return segment;
+    }
+
+    private static MappedByteBuffer map(File file, int capacity) throws IOException {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+           FileChannel channel = raf.getChannel()) {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_SIZE + (long) capacity * RECORD_SIZE);
+      }
+    }
+
+    static int offset(int record) {
+      return HEADER_SIZE + record * RECORD_SIZE;
+    }
+
+    private void addIndex(long timestamp) {
+      if(indexSize == index.length) {
+        index = Arrays.copyOf(index, indexSize * 2);
+      }
+      index[indexSize] = timestamp;
+      indexSize = indexSize + 1;
+    }
+
+    /**
+     * startOf
+     *
+     * @param from UNIX timestamp in milliseconds
+     * @return a record at or before the first one at or after from
+     */
+    int startOf(long from) {
+      int size = indexSize;
+      long[] index = this.index;
+      int low = 0;
+      int high = Math.min(size, index.length) - 1;
+      int start = 0;
+      while(low <= high) {
+        int mid = (low + high) >>> 1;
+        if(index[mid] < from) {
+          start = mid;
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return start * INDEX_INTERVAL;
+    }
+
+    /**
+     * commit
+     *
+     * Publishes the records written up to the given count.
+     */
+    void commit(int newCount) {
+      for(int record = (count + INDEX_INTERVAL - 1) / INDEX_INTERVAL * INDEX_INTERVAL;
+          record < newCount; record += INDEX_INTERVAL) {
+        addIndex(buffer.getLong(offset(record)));
+      }
+      if(newCount > 0) {
+        lastTimestamp = buffer.getLong(offset(newCount - 1));
+      }
+      buffer.putInt(COUNT_OFFSET, newCount);
+      count = newCount;
+    }
+  }
+
+  /**
+   * SampleLog
+   *
+   * @param dir Directory of the segment files
+   * @param segmentSize Size of each segment file in bytes
+   * @param maxSegments Number of segments kept, the oldest are deleted
+   *                    first, or 0 to keep every segment
+   */
+  public SampleLog(File dir, long segmentSize, int maxSegments) {
+    long capacity = (segmentSize - HEADER_SIZE) / RECORD_SIZE;
+    if(capacity < 1 || capacity > (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE) {
+      throw new IllegalArgumentException("Unsupported segment size: " + segmentSize);
+    }
+    this.dir = dir;
+    this.capacity = (int) capacity;
+    this.maxSegments = maxSegments;
+  }
+
+  /**
+   * fromSystemProperties
+   *
+   * Builds a log from the trik.log.* system properties, eg.
+   * -Dtrik.log.dir=capture -Dtrik.log.segmentSize=67108864
+   * -Dtrik.log.maxSegments=32
+   *
+   * @return the sample log
+   */
+  public static SampleLog fromSystemProperties() {
+    return new SampleLog(new File(System.getProperty("trik.log.dir", DEFAULT_DIR)),
+            Long.getLong("trik.log.segmentSize", DEFAULT_SEGMENT_SIZE),
+            Integer.getInteger("trik.log.maxSegments", 0));
+  }
+
+  /**
+   * open
+   *
+   * Reopens the existing segments, or deletes them to start a new log.
+   * Writing continues in the newest segment if it has room.
+   *
+   * @param resume Whether to keep the existing segments
+   * @return false, the log holds no collector state to resume from
+   */
+  @Override
+  public synchronized boolean open(boolean resume) {
+    segments.clear();
+    current = null;
+    if(!dir.isDirectory() && !dir.mkdirs()) {
+      logger.error("Sample log directory not created: " + dir);
+      return false;
+    }
+
+    File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+    if(files == null) {
+      files = new File[0];
+    }
+    Arrays.sort(files);
+    for(File file : files) {
+      if(!resume) {
+        if(!file.delete()) {
+          logger.warn("Segment not deleted: " + file);
+        }
+        continue;
+      }
+      try {
+        segments.add(Segment.open(file));
+      } catch (IOException e) {
+        logger.error(e.getMessage());
+      }
+    }
+
+    if(!segments.isEmpty()) {
+      Segment last = segments.get(segments.size() - 1);
+      if(last.count < last.capacity) {
+        current = last;
+      }
+      logger.info(String.format("Sample log reopened: %1$d segments", segments.size()));
+    }
+    return false;
+  }
+
+  @Override
+  public void writeSystem(CollectionRound.SystemInfo info) {}
+
+  /**
+   * write
+   *
+   * Appends a record for every MemoryData, PowerData, SystemData and
+   * CpuData entry of the round.
+   *
+   * @param round a round of collection
+   */
+  @Override
+  public synchronized void write(CollectionRound round) {
+    int records = (round.memory != null ? 1 : 0) + (round.power != null ? 1 : 0)
+            + (round.system != null ? 1 : 0) + round.cpus.size();
+    if(records == 0) {
+      return;
+    }
+    try {
+      if(current == null
+              || (current.count > 0 && current.count + records > current.capacity)) {
+        rollOver(current == null ? 0 : current.count, round.timestamp);
+      }
+      int count = current.count;
+
+      if(round.memory != null) {
+        count = next(count, round.timestamp);
+        ByteBuffer buffer = header(count, round.timestamp, MEMORY, 0);
+        buffer.putLong(slot(count, 0), round.memory.avail);
+        buffer.putLong(slot(count, 1), round.memory.total);
+        count++;
+      }
+      if(round.power != null) {
+        count = next(count, round.timestamp);
+        ByteBuffer buffer = header(count, round.timestamp, POWER, 0);
+        buffer.putDouble(slot(count, 0), round.power.currCapPer);
+        buffer.putDouble(slot(count, 1), round.power.currCapTime);
+        buffer.putDouble(slot(count, 2), round.power.temp);
+        buffer.putLong(slot(count, 3), round.power.isCharg);
+        count++;
+      }
+      if(round.system != null) {
+        count = next(count, round.timestamp);
+        ByteBuffer buffer = header(count, round.timestamp, SYSTEM, 0);
+        buffer.putLong(slot(count, 0), round.system.bootTime);
+        buffer.putLong(slot(count, 1), round.system.upTime);
+        buffer.putLong(slot(count, 2), round.system.procs);
+        buffer.putLong(slot(count, 3), round.system.servs);
+        buffer.putLong(slot(count, 4), round.system.threads);
+        count++;
+      }
+      for(CollectionRound.CpuData cpu : round.cpus) {
+        count = next(count, round.timestamp);
+        ByteBuffer buffer = header(count, round.timestamp, CPU, cpu.coreNum);
+        buffer.putLong(slot(count, 0), cpu.currFreq);
+        buffer.putLong(slot(count, 1), cpu.maxFreq);
+        buffer.putDouble(slot(count, 2), cpu.userPct);
+        buffer.putDouble(slot(count, 3), cpu.sysPct);
+        buffer.putDouble(slot(count, 4), cpu.idlePct);
+        buffer.putDouble(slot(count, 5), cpu.ioPct);
+        buffer.putDouble(slot(count, 6), cpu.stealPct);
+        count++;
+      }
+
+      if(count != current.count) {
+        current.commit(count);
+      }
+    } catch (IOException e) {
+      logger.error(e.getMessage());
+    }
+  }
+
+  /**
+   * next
+   *
+   * Makes room for one more record, rolling over to a new segment when
+   * the current one is full, which only happens in the middle of a round
+   * larger than a segment.
+   *
+   * @return Number of the record to write in the current segment
+   */
+  private int next(int count, long timestamp) throws IOException {
+    if(count < current.capacity) {
+      return count;
+    }
+    rollOver(count, timestamp);
+    return 0;
+  }
+
+  /**
+   * rollOver
+   *
+   * Commits the records written to the current segment, if any, and
+   * starts a new one. The oldest segments beyond the limit are deleted.
+   *
+   * @param count Number of records written to the current segment
+   * @param timestamp UNIX timestamp in milliseconds of the first record of
+   *                  the new segment
+   */
+  private void rollOver(int count, long timestamp) throws IOException {
+    if(current != null) {
+      if(count != current.count) {
+        current.commit(count);
+      }
+      current.buffer.force();
+    }
+
+    File file = new File(dir, String.format("%020d", timestamp) + SUFFIX);
+    for(int i = 1; file.exists(); i++) {
+      file = new File(dir, String.format("%020d-%d", timestamp, i) + SUFFIX);
+    }
+    current = Segment.create(file, capacity, timestamp);
+    segments.add(current);
+    logger.info("Segment " + file.getName() + " created");
+
+    while(maxSegments > 0 && segments.size() > maxSegments) {
+      Segment oldest = segments.remove(0);
+      if(!oldest.file.delete()) {
+        logger.warn("Segment not deleted: " + oldest.file);
+      }
+    }
+  }
+
+  private ByteBuffer header(int record, long timestamp, short type, int coreNum) {
+    ByteBuffer buffer = current.buffer;
+    int offset = Segment.offset(record);
+    buffer.putLong(offset, timestamp);
+    buffer.putShort(offset + 8, type);
+    buffer.putShort(offset + 10, (short) coreNum);
+    buffer.putInt(offset + 12, 0);
+    return buffer;
+  }
+
+  private static int slot(int record, int slot) {
+    return Segment.offset(record) + 16 + slot * 8;
+  }
+
+  /**
+   * scan
+   *
+   * Visits the records with timestamps from from to to, inclusive, in the
+   * order they were written. Records are read in place from the mapped
+   * segments. Rounds written during the scan may or may not be visited.
+   *
+   * @param from UNIX timestamp in milliseconds of the first records
+   * @param to UNIX timestamp in milliseconds of the last records
+   * @param visitor Receives each record
+   * @return Number of records visited
+   */
+  public long scan(long from, long to, Visitor visitor) {
+    List<Segment> snapshot;
+    synchronized(this) {
+      snapshot = new ArrayList<>(segments);
+    }
+
+    Record record = new Record();
+    long visited = 0;
+    for(Segment segment : snapshot) {
+      int count = segment.count;
+      if(count == 0 || segment.lastTimestamp < from || segment.firstTimestamp > to) {
+        continue;
+      }
+      for(int i = segment.startOf(from); i < count; i++) {
+        long timestamp = segment.buffer.getLong(Segment.offset(i));
+        if(timestamp > to) {
+          break;
+        }
+        if(timestamp >= from) {
+          visited++;
+          if(!visitor.visit(record.at(segment.buffer, Segment.offset(i)))) {
+            return visited;
+          }
+        }
+      }
+    }
+    return visited;
+  }
+
+  /**
+   * getSegments
+   *
+   * @return the segment files, oldest first
+   */
+  public synchronized List<File> getSegments() {
+    List<File> files = new ArrayList<>(segments.size());
+    for(Segment segment : segments) {
+      files.add(segment.file);
+    }
+    return files;
+  }
+
+  /**
+   * close
+   *
+   * Flushes the current segment to disk. Records written before a crash
+   * of the process are kept by the operating system even without it.
+   */
+  @Override
+  public synchronized void close() {
+    if(current != null) {
+      current.buffer.force();
+    }
+    segments.clear();
+    current = null;
+  }
+}
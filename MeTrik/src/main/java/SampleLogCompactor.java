@@ -0,0 +1,112 @@
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * SampleLogCompactor
+ *
+ * Loads the records of a SampleLog into a sink, one round per timestamp,
+ * eg. into the SQLite database after an incident capture:
+ *
+ *   java SampleLogCompactor [dir] [--delete]
+ *
+ * With --delete the segments are removed once they are loaded.
+ */
+public class SampleLogCompactor {
+  private static final Logger logger = Logger.getLogger("(SampleLogCompactor)");
+
+  public static void main(String[] args) {
+    PropertyConfigurator.configure("log4j.properties");
+
+    String dir = SampleLog.DEFAULT_DIR;
+    boolean delete = false;
+    for(String arg : args) {
+      if(arg.equals("--delete")) {
+        delete = true;
+      } else {
+        dir = arg;
+      }
+    }
+
+    SampleLog log = new SampleLog(new File(dir), SampleLog.DEFAULT_SEGMENT_SIZE, 0);
+    log.open(true);
+    SqliteSink sink = new SqliteSink();
+    sink.open(true);
+    long rounds = compact(log, sink, Long.MIN_VALUE, Long.MAX_VALUE);
+    sink.close();
+
+    List<File> segments = log.getSegments();
+    log.close();
+    if(delete) {
+      for(File segment : segments) {
+        if(!segment.delete()) {
+          logger.warn("Segment not deleted: " + segment);
+        }
+      }
+    }
+    logger.info(String.format("%1$d rounds loaded from %2$d segments", rounds, segments.size()));
+  }
+
+  /**
+   * compact
+   *
+   * Rebuilds the rounds of a time range from the log and writes them to
+   * the sink.
+   *
+   * @param log the sample log to read
+   * @param sink Receives the rounds
+   * @param from UNIX timestamp in milliseconds of the first round
+   * @param to UNIX timestamp in milliseconds of the last round
+   * @return Number of rounds written
+   */
+  public static long compact(SampleLog log, MetricSink sink, long from, long to) {
+    CollectionRound[] round = {null};
+    long[] rounds = {0};
+    log.scan(from, to, record -> {
+      if(round[0] == null || round[0].timestamp != record.getTimestamp()) {
+        if(round[0] != null) {
+          sink.write(round[0]);
+          rounds[0]++;
+        }
+        round[0] = new CollectionRound(record.getTimestamp());
+      }
+      add(round[0], record);
+      return true;
+    });
+    if(round[0] != null) {
+      sink.write(round[0]);
+      rounds[0]++;
+    }
+    return rounds[0];
+  }
+
+  /**
+   * add
+   *
+   * Copies a record into the matching entry of a round.
+   */
+  private static void add(CollectionRound round, SampleLog.Record record) {
+    switch(record.getType()) {
+      case SampleLog.MEMORY:
+        round.memory = new CollectionRound.MemoryData(record.getLong(0), record.getLong(1));
+        break;
+      case SampleLog.POWER:
+        round.power = new CollectionRound.PowerData(record.getDouble(0),
+                record.getDouble(1), record.getDouble(2), (int) record.getLong(3));
+        break;
+      case SampleLog.SYSTEM:
+        round.system = new CollectionRound.SystemData(record.getLong(0), record.getLong(1),
+                (int) record.getLong(2), (int) record.getLong(3), (int) record.getLong(4));
+        break;
+      case SampleLog.CPU:
+        round.cpus.add(new CollectionRound.CpuData(record.getCoreNum(), record.getLong(0),
+                record.getLong(1), record.getDouble(2), record.getDouble(3),
+                record.getDouble(4), record.getDouble(5), record.getDouble(6), null));
+        break;
+      default:
+        logger.warn("Unknown record type " + record.getType());
+    }
+  }
+}
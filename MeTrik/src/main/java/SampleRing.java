@@ -0,0 +1,225 @@
+import java.lang.invoke.VarHandle;
+
+/**
+ * SampleRing
+ *
+ * The most recent samples of a set of values, eg. the available and total
+ * memory, in preallocated arrays: one column of timestamps and one column
+ * of doubles per value, used as a ring. One thread appends and any number
+ * of threads read, without locks. The writer publishes each sample by
+ * advancing a volatile count after filling its slot. A reader notes the
+ * count, reads the slots it needs and checks the count again: if the
+ * writer came round to any slot it read in the meantime, the read is
+ * retried. An acquire fence keeps the reads of the slots ahead of the
+ * second read of the count, like StampedLock.validate, so the check holds
+ * on any processor. Samples must be appended in timestamp order.
+ */
+public class SampleRing {
+  public final int capacity;
+  public final int columns;
+
+  private final int slots;
+  private final long[] timestamps;
+  private final double[][] values;
+  // Number of samples ever appended. The sample with index i is in slot
+  // i % slots, and the slot of index written - slots may be mid-write
+  private volatile long written = 0;
+
+  /**
+   * Stats
+   *
+   * Minimum, maximum and average of one column over a range of samples.
+   */
+  public static class Stats {
+    public static final Stats EMPTY = new Stats(0, Double.NaN, Double.NaN, Double.NaN, 0, 0);
+
+    public final int count;
+    public final double min;
+    public final double max;
+    public final double avg;
+    public final long first;
+    public final long last;
+
+    /**
+     * Stats
+     *
+     * @param count Number of samples
+     * @param min Smallest value
+     * @param max Largest value
+     * @param avg Mean of the values
+     * @param first UNIX timestamp in milliseconds of the oldest sample
+     * @param last UNIX timestamp in milliseconds of the newest sample
+     */
+    public Stats(int count, double min, double max, double avg, long first, long last) {
+      this.count = count;
+      this.min = min;
+      this.max = max;
+      this.avg = avg;
+      this.first = first;
+      this.last = last;
+    }
+  }
+
+  /**
+   * SampleRing
+   *
+   * @param capacity Number of samples kept
+   * @param columns Number of values in each sample
+   */
+  public SampleRing(int capacity, int columns) {
+    if(capacity < 1 || columns < 1) {
+      throw new IllegalArgumentException("capacity and columns must be at least 1");
+    }
+    this.capacity = capacity;
+    this.columns = columns;
+    // One more slot than kept, for the one the writer may be filling
+    this.slots = capacity + 1;
+    this.timestamps = new long[slots];
+    this.values = new double[columns][slots];
+  }
+
+  /**
+   * set
+   *
+   * Sets a value of the next sample. Only the writer may call this.
+   *
+   * @param column Index of the value
+   * @param value the value
+   */
+  public void set(int column, double value) {
+    values[column][(int) (written % slots)] = value;
+  }
+
+  /**
+   * append
+   *
+   * Publishes the next sample, whose values were given with set. Values
+   * that were not set keep those of the sample that used the slot before.
+   * Only the writer may call this.
+   *
+   * @param timestamp UNIX timestamp in milliseconds of the sample
+   */
+  public void append(long timestamp) {
+    long index = written;
+    timestamps[(int) (index % slots)] = timestamp;
+    written = index + 1;
+  }
+
+  /**
+   * size
+   *
+   * @return Number of samples kept
+   */
+  public int size() {
+    return (int) Math.min(written, capacity);
+  }
+
+  /**
+   * getLatest
+   *
+   * @param column Index of the value
+   * @return the value of the newest sample, NaN if there is none
+   */
+  public double getLatest(int column) {
+    while(true) {
+      long end = written;
+      if(end == 0) {
+        return Double.NaN;
+      }
+      double value = values[column][(int) ((end - 1) % slots)];
+      VarHandle.acquireFence();
+      if(end - 1 > written - slots) {
+        return value;
+      }
+    }
+  }
+
+  /**
+   * slice
+   *
+   * Copies a column of the samples from from, inclusive, to to, exclusive.
+   * If there are more than the arrays hold, the newest are copied.
+   *
+   * @param from UNIX timestamp in milliseconds
+   * @param to UNIX timestamp in milliseconds
+   * @param column Index of the value
+   * @param outTimestamps Array to copy the timestamps to
+   * @param outValues Array to copy the values to, as long as outTimestamps
+   * @return Number of samples copied, oldest first
+   */
+  public int slice(long from, long to, int column, long[] outTimestamps, double[] outValues) {
+    while(true) {
+      long end = written;
+      long start = Math.max(0, end - capacity);
+      long lo = lowerBound(start, end, from);
+      long hi = lowerBound(lo, end, to);
+      int n = (int) Math.min(hi - lo, outTimestamps.length);
+      for(int k = 0; k < n; k++) {
+        int slot = (int) ((hi - n + k) % slots);
+        outTimestamps[k] = timestamps[slot];
+        outValues[k] = values[column][slot];
+      }
+      // Nothing older than start was read
+      VarHandle.acquireFence();
+      if(start > written - slots) {
+        return n;
+      }
+    }
+  }
+
+  /**
+   * stats
+   *
+   * Computes the minimum, maximum and average of a column over the
+   * samples from from, inclusive, to to, exclusive.
+   *
+   * @param from UNIX timestamp in milliseconds
+   * @param to UNIX timestamp in milliseconds
+   * @param column Index of the value
+   * @return the statistics, Stats.EMPTY if there are no samples
+   */
+  public Stats stats(long from, long to, int column) {
+    while(true) {
+      long end = written;
+      long start = Math.max(0, end - capacity);
+      long lo = lowerBound(start, end, from);
+      long hi = lowerBound(lo, end, to);
+      double min = Double.POSITIVE_INFINITY;
+      double max = Double.NEGATIVE_INFINITY;
+      double sum = 0;
+      for(long i = lo; i < hi; i++) {
+        double value = values[column][(int) (i % slots)];
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sum += value;
+      }
+      long first = hi > lo ? timestamps[(int) (lo % slots)] : 0;
+      long last = hi > lo ? timestamps[(int) ((hi - 1) % slots)] : 0;
+      VarHandle.acquireFence();
+      if(start > written - slots) {
+        return hi == lo ? Stats.EMPTY
+                : new Stats((int) (hi - lo), min, max, sum / (hi - lo), first, last);
+      }
+    }
+  }
+
+  /**
+   * lowerBound
+   *
+   * Binary searches the samples from index lo, inclusive, to hi,
+   * exclusive.
+   *
+   * @return Index of the first sample at or after the timestamp, or hi
+   */
+  private long lowerBound(long lo, long hi, long timestamp) {
+    while(lo < hi) {
+      long mid = (lo + hi) >>> 1;
+      if(timestamps[(int) (mid % slots)] < timestamp) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+}
@@ -0,0 +1,266 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot
+ *
+ * Immutable view of the most recent entry of every family of data, so the
+ * dashboard can be served without reading the database. Every round of
+ * collection produces a new snapshot that keeps the families the round
+ * does not have from the previous one.
+ */
+public class Snapshot {
+  public static final Snapshot EMPTY = new Snapshot();
+
+  public final long timestamp;
+  public final CollectionRound.SystemInfo info;
+  public final CollectionRound.MemoryData memory;
+  public final CollectionRound.PowerData power;
+  public final CollectionRound.SystemData system;
+  public final List<CollectionRound.CpuData> cpus;
+
+  // Running processes keyed by process ID and start time, like ProcessData
+  private final Map<String, ProcessEntry> processes;
+
+  // JSON of this snapshot and its processes by descending CPU usage,
+  // built the first time they are needed
+  private volatile byte[] json;
+  private volatile List<ProcessEntry> sortedProcesses;
+
+  /**
+   * ProcessEntry
+   *
+   * Latest state of a running process and the timestamp it was recorded at.
+   */
+  public static class ProcessEntry {
+    public final long timestamp;
+    public final CollectionRound.ProcessData data;
+
+    ProcessEntry(long timestamp, CollectionRound.ProcessData data) {
+      this.timestamp = timestamp;
+      this.data = data;
+    }
+  }
+
+  private Snapshot() {
+    this(0, null, null, null, null, Collections.emptyList(), Collections.emptyMap());
+  }
+
+  private Snapshot(long timestamp, CollectionRound.SystemInfo info,
+                   CollectionRound.MemoryData memory, CollectionRound.PowerData power,
+                   CollectionRound.SystemData system, List<CollectionRound.CpuData> cpus,
+                   Map<String, ProcessEntry> processes) {
+    this.timestamp = timestamp;
+    this.info = info;
+    this.memory = memory;
+    this.power = power;
+    this.system = system;
+    this.cpus = cpus;
+    this.processes = processes;
+  }
+
+  /**
+   * next
+   *
+   * Gets the snapshot after the given round. Process events are applied
+   * the same way they are applied to ProcessData.
+   *
+   * @param round the latest round of collection
+   * @return a new snapshot
+   */
+  public Snapshot next(CollectionRound round) {
+    Map<String, ProcessEntry> nextProcesses = processes;
+    if(!round.processes.isEmpty()) {
+      nextProcesses = new HashMap<>(processes);
+      for(CollectionRound.ProcessData proc : round.processes) {
+        String key = proc.procID + ":" + proc.startTime;
+        if(proc.event == CollectionRound.ProcessEvent.EXIT
+                || proc.event == CollectionRound.ProcessEvent.FOLD) {
+          nextProcesses.remove(key);
+        } else {
+          nextProcesses.put(key, new ProcessEntry(round.timestamp, proc));
+        }
+      }
+      nextProcesses = Collections.unmodifiableMap(nextProcesses);
+    }
+
+    return new Snapshot(Math.max(timestamp, round.timestamp), info,
+            round.memory != null ? round.memory : memory,
+            round.power != null ? round.power : power,
+            round.system != null ? round.system : system,
+            round.cpus.isEmpty() ? cpus : Collections.unmodifiableList(new ArrayList<>(round.cpus)),
+            nextProcesses);
+  }
+
+  /**
+   * withInfo
+   *
+   * @param info the static system information
+   * @return a copy of this snapshot with the given system information
+   */
+  public Snapshot withInfo(CollectionRound.SystemInfo info) {
+    return new Snapshot(timestamp, info, memory, power, system, cpus, processes);
+  }
+
+  /**
+   * getProcesses
+   *
+   * @return the running processes, by descending CPU usage
+   */
+  public List<ProcessEntry> getProcesses() {
+    List<ProcessEntry> sorted = sortedProcesses;
+    if(sorted == null) {
+      sorted = new ArrayList<>(processes.values());
+      sorted.sort((a, b) -> Double.compare(b.data.cpuUsage, a.data.cpuUsage));
+      sorted = Collections.unmodifiableList(sorted);
+      sortedProcesses = sorted;
+    }
+    return sorted;
+  }
+
+  /**
+   * toJson
+   *
+   * Gets the snapshot as UTF-8 JSON, with one member per dashboard query.
+   * A family that has not been collected yet is null.
+   *
+   * @return the JSON document
+   */
+  public byte[] toJson() {
+    byte[] bytes = json;
+    if(bytes == null) {
+      bytes = buildJson().getBytes(StandardCharsets.UTF_8);
+      json = bytes;
+    }
+    return bytes;
+  }
+
+  private String buildJson() {
+    StringBuilder sb = new StringBuilder(256 + 96 * processes.size());
+    sb.append("{\"timestamp\":").append(timestamp);
+
+    sb.append(",\"system\":");
+    if(info == null) {
+      sb.append("null");
+    } else {
+      sb.append("{\"os\":");
+      quote(sb, info.os);
+      sb.append(",\"codeName\":");
+      quote(sb, info.codeName);
+      sb.append(",\"version\":");
+      quote(sb, info.version);
+      sb.append(",\"cpuSignature\":");
+      quote(sb, info.cpuSignature);
+      sb.append('}');
+    }
+
+    sb.append(",\"systemData\":");
+    if(system == null) {
+      sb.append("null");
+    } else {
+      sb.append("{\"upTime\":").append(system.upTime)
+              .append(",\"procs\":").append(system.procs)
+              .append(",\"servs\":").append(system.servs)
+              .append(",\"threads\":").append(system.threads).append('}');
+    }
+
+    sb.append(",\"powerData\":");
+    if(power == null) {
+      sb.append("null");
+    } else {
+      sb.append("{\"currCapPer\":");
+      number(sb, power.currCapPer);
+      sb.append(",\"currCapTime\":");
+      number(sb, power.currCapTime);
+      sb.append(",\"temp\":");
+      number(sb, power.temp);
+      sb.append(",\"isCharg\":").append(power.isCharg).append('}');
+    }
+
+    sb.append(",\"memoryData\":");
+    if(memory == null) {
+      sb.append("null");
+    } else {
+      sb.append("{\"avail\":").append(memory.avail)
+              .append(",\"total\":").append(memory.total).append('}');
+    }
+
+    // Per-core entries only, like the dashboard's CpuData query
+    sb.append(",\"cpuData\":[");
+    String comma = "";
+    for(CollectionRound.CpuData core : cpus) {
+      if(core.coreNum < 0) {
+        continue;
+      }
+      sb.append(comma).append("{\"coreNum\":").append(core.coreNum).append(",\"userPct\":");
+      number(sb, core.userPct);
+      sb.append(",\"sysPct\":");
+      number(sb, core.sysPct);
+      sb.append(",\"idlePct\":");
+      number(sb, core.idlePct);
+      sb.append('}');
+      comma = ",";
+    }
+
+    sb.append("],\"processData\":[");
+    comma = "";
+    for(ProcessEntry entry : getProcesses()) {
+      sb.append(comma).append("{\"timestamp\":").append(entry.timestamp).append(",\"name\":");
+      quote(sb, entry.data.name);
+      sb.append(",\"upTime\":").append(entry.data.upTime).append(",\"cpuUsage\":");
+      number(sb, entry.data.cpuUsage);
+      sb.append('}');
+      comma = ",";
+    }
+    sb.append("]}");
+
+    return sb.toString();
+  }
+
+  private static void number(StringBuilder sb, double value) {
+    if(Double.isNaN(value) || Double.isInfinite(value)) {
+      sb.append("null"); // Not representable in JSON
+    } else {
+      sb.append(value);
+    }
+  }
+
+  private static void quote(StringBuilder sb, String value) {
+    if(value == null) {
+      sb.append("null");
+      return;
+    }
+    sb.append('"');
+    for(int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch(c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if(c < 0x20) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    sb.append('"');
+  }
+}
@@ -0,0 +1,339 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * SnapshotServer
+ *
+ * Keeps the latest Snapshot, swapped atomically after every round of
+ * collection, and serves it as JSON at http://127.0.0.1:port/snapshot.
+ * Every new snapshot is also pushed to the subscribers of the server-sent
+ * event stream at /events. The daemon's own latency histograms are
+ * served as JSON at /instrumentation, and the snapshot and histograms
+ * together in the Prometheus text format at /metrics. The server only
+ * listens on the loopback interface.
+ */
+public class SnapshotServer {
+  private static final Logger logger = Logger.getLogger("(SnapshotServer)");
+
+  public static final int MAX_SUBSCRIBERS = 16;
+  public static final long KEEP_ALIVE = 15000; // 15 seconds
+
+  private final AtomicReference<Snapshot> current = new AtomicReference<>(Snapshot.EMPTY);
+  private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final MetricsExporter exporter = new MetricsExporter(
+          Integer.getInteger("trik.metrics.topProcesses", MetricsExporter.DEFAULT_TOP_PROCESSES));
+  private HttpServer server;
+  private ExecutorService executor;
+
+  /**
+   * Subscriber
+   *
+   * A client of the event stream. It holds at most one snapshot that has
+   * not been sent yet, so a slow client skips to the newest snapshot
+   * instead of buffering every one it missed. Publishing never waits on
+   * a client.
+   */
+  private class Subscriber {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition ready = lock.newCondition();
+    private Snapshot pending;
+    private boolean closed;
+
+    void publish(Snapshot snapshot) {
+      lock.lock();
+      try {
+        if(pending != null) {
+          coalesced.incrementAndGet();
+        }
+        pending = snapshot;
+        ready.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * offer
+     *
+     * Publishes a snapshot only if none is waiting to be sent, since a
+     * waiting one was published later and is at least as new.
+     */
+    void offer(Snapshot snapshot) {
+      lock.lock();
+      try {
+        if(pending == null) {
+          pending = snapshot;
+          ready.signal();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void close() {
+      lock.lock();
+      try {
+        closed = true;
+        ready.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    boolean isClosed() {
+      lock.lock();
+      try {
+        return closed;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * take
+     *
+     * @return the next snapshot to send, or null if there was none within
+     *         the keep-alive period or the subscriber is closed
+     */
+    Snapshot take() throws InterruptedException {
+      lock.lock();
+      try {
+        if(pending == null && !closed) {
+          ready.await(KEEP_ALIVE, TimeUnit.MILLISECONDS);
+        }
+        Snapshot snapshot = pending;
+        pending = null;
+        return snapshot;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * update
+   *
+   * Replaces the snapshot with one that includes the given round.
+   *
+   * @param round the latest round of collection
+   */
+  public void update(CollectionRound round) {
+    Snapshot snapshot = current.updateAndGet(previous -> previous.next(round));
+    for(Subscriber subscriber : subscribers) {
+      subscriber.publish(snapshot);
+    }
+  }
+
+  /**
+   * setSystemInfo
+   *
+   * @param info the static system information
+   */
+  public void setSystemInfo(CollectionRound.SystemInfo info) {
+    current.updateAndGet(snapshot -> snapshot.withInfo(info));
+  }
+
+  /**
+   * get
+   *
+   * @return the latest snapshot
+   */
+  public Snapshot get() {
+    return current.get();
+  }
+
+  /**
+   * start
+   *
+   * Starts serving the snapshot on the loopback interface.
+   *
+   * @param port Port to listen on, 0 for any free port
+   * @throws IOException if the port cannot be bound
+   */
+  public void start(int port) throws IOException {
+    // Each event stream holds a thread for as long as it is open
+    executor = Executors.newCachedThreadPool(task -> {
+      Thread thread = new Thread(task, "trik-snapshot");
+      thread.setDaemon(true);
+      return thread;
+    });
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.setExecutor(executor);
+    server.createContext("/snapshot",
+            exchange -> serve(exchange, "application/json", () -> current.get().toJson()));
+    server.createContext("/instrumentation",
+            exchange -> serve(exchange, "application/json", Instrumentation::toJson));
+    server.createContext("/metrics", this::scrape);
+    server.createContext("/events", this::stream);
+    server.start();
+    logger.info("Serving snapshots on port " + getPort());
+  }
+
+  /**
+   * stop
+   *
+   * Stops serving the snapshot.
+   */
+  public void stop() {
+    for(Subscriber subscriber : subscribers) {
+      subscriber.close();
+    }
+    if(server != null) {
+      server.stop(0);
+      server = null;
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * getPort
+   *
+   * @return Port the server listens on, or -1 if it is not running
+   */
+  public int getPort() {
+    return server == null ? -1 : server.getAddress().getPort();
+  }
+
+  /**
+   * getSubscribers
+   *
+   * @return Number of open event streams
+   */
+  public int getSubscribers() {
+    return subscribers.size();
+  }
+
+  /**
+   * getCoalesced
+   *
+   * @return Number of snapshots replaced before a subscriber was sent them
+   */
+  public long getCoalesced() {
+    return coalesced.get();
+  }
+
+  /**
+   * serve
+   *
+   * Answers a GET request with a body built for it.
+   *
+   * @param exchange the request
+   * @param contentType Content type of the body
+   * @param content Builds the body
+   */
+  private static void serve(HttpExchange exchange, String contentType,
+                            Supplier<byte[]> content) throws IOException {
+    try {
+      if(!"GET".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+
+      byte[] body = content.get();
+      exchange.getResponseHeaders().set("Content-Type", contentType);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * scrape
+   *
+   * Serves /metrics, rendered by the exporter straight into the response.
+   */
+  private void scrape(HttpExchange exchange) throws IOException {
+    try {
+      if(!"GET".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+
+      exporter.render(current.get(), (bytes, length) -> {
+        exchange.getResponseHeaders().set("Content-Type", MetricsExporter.CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(bytes, 0, length);
+        }
+      });
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * stream
+   *
+   * Serves the event stream. The current snapshot is sent right away,
+   * then every new one as a "snapshot" event, until the client goes away
+   * or the server stops.
+   */
+  private void stream(HttpExchange exchange) throws IOException {
+    if(!"GET".equals(exchange.getRequestMethod())) {
+      exchange.sendResponseHeaders(405, -1);
+      exchange.close();
+      return;
+    }
+    if(subscribers.size() >= MAX_SUBSCRIBERS) {
+      exchange.sendResponseHeaders(503, -1);
+      exchange.close();
+      return;
+    }
+
+    // Register before reading the current snapshot, so that one published
+    // in between is not missed
+    Subscriber subscriber = new Subscriber();
+    subscribers.add(subscriber);
+    subscriber.offer(current.get());
+    logger.info("Event stream opened (" + subscribers.size() + " open)");
+
+    exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+    exchange.sendResponseHeaders(200, 0);
+    try (OutputStream out = exchange.getResponseBody()) {
+      while(true) {
+        Snapshot snapshot = subscriber.take();
+        if(subscriber.isClosed()) {
+          break;
+        } else if(snapshot == null) {
+          out.write(":\n\n".getBytes(StandardCharsets.UTF_8)); // keep-alive comment
+        } else {
+          out.write(("event: snapshot\nid: " + snapshot.timestamp + "\ndata: ")
+                  .getBytes(StandardCharsets.UTF_8));
+          out.write(snapshot.toJson());
+          out.write("\n\n".getBytes(StandardCharsets.UTF_8));
+        }
+        out.flush();
+      }
+    } catch (IOException e) {
+      logger.debug("Event stream closed by client: " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      subscribers.remove(subscriber);
+      exchange.close();
+      logger.info("Event stream closed (" + subscribers.size() + " open)");
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/**
+ * SqliteSink
+ *
+ * Writes to the SQLite database through DBHelper.
+ */
+public class SqliteSink implements MetricSink {
+
+  /**
+   * open
+   *
+   * Reopens the existing database, or starts a new one, and creates any
+   * table it is missing.
+   *
+   * @param resume Whether to reopen the existing database
+   * @return true if the existing database was reopened
+   */
+  @Override
+  public boolean open(boolean resume) {
+    boolean resumed;
+    if(resume) {
+      resumed = DBHelper.openDB();
+    } else {
+      DBHelper.createDB();
+      resumed = false;
+    }
+    DBHelper.createTables();
+    return resumed;
+  }
+
+  @Override
+  public void writeSystem(CollectionRound.SystemInfo info) {
+    DBHelper.insertSystem(info.os, info.codeName, info.version, info.cpuSignature,
+            info.cpuCores, info.cpuVendFreq);
+  }
+
+  @Override
+  public void write(CollectionRound round) {
+    DBHelper.insertRound(round);
+  }
+
+  @Override
+  public void close() {
+    DBHelper.closeConnection();
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * StorageProfile
+ *
+ * SQLite tuning applied to the DBHelper writer connection when it is opened.
+ * The defaults can be overridden with system properties, eg.
+ * -Dtrik.db.pageSize=8192 -Dtrik.db.synchronous=FULL
+ */
+public class StorageProfile {
+  public static final StorageProfile DEFAULT =
+          new StorageProfile(4096, -8192, 64L * 1024 * 1024, Synchronous.NORMAL);
+
+  /**
+   * Synchronous
+   *
+   * The levels of PRAGMA synchronous, from the fastest to the safest.
+   */
+  public enum Synchronous { OFF, NORMAL, FULL, EXTRA }
+
+  public final int pageSize;
+  public final int cacheSize;
+  public final long mmapSize;
+  public final Synchronous synchronous;
+
+  /**
+   * StorageProfile
+   *
+   * @param pageSize Database page size in bytes (only applies to a new database)
+   * @param cacheSize Page cache size, in pages if positive or KiB if negative
+   * @param mmapSize Maximum number of bytes of the database to memory-map
+   * @param synchronous Synchronous level
+   */
+  public StorageProfile(int pageSize, int cacheSize, long mmapSize, Synchronous synchronous) {
+    this.pageSize = pageSize;
+    this.cacheSize = cacheSize;
+    this.mmapSize = mmapSize;
+    this.synchronous = synchronous;
+  }
+
+  /**
+   * fromSystemProperties
+   *
+   * Builds a profile from the trik.db.* system properties, falling back
+   * to the default profile for any that are not set.
+   *
+   * @return the resulting storage profile
+   * @throws IllegalArgumentException if -Dtrik.db.synchronous is not one
+   *                                  of OFF, NORMAL, FULL or EXTRA
+   */
+  public static StorageProfile fromSystemProperties() {
+    return new StorageProfile(
+            Integer.getInteger("trik.db.pageSize", DEFAULT.pageSize),
+            Integer.getInteger("trik.db.cacheSize", DEFAULT.cacheSize),
+            Long.getLong("trik.db.mmapSize", DEFAULT.mmapSize),
+            Synchronous.valueOf(System.getProperty("trik.db.synchronous",
+                    DEFAULT.synchronous.name()).trim().toUpperCase()));
+  }
+
+  /**
+   * toPragmas
+   *
+   * Gets the PRAGMA statements for this profile, in the order they must
+   * be run. page_size has to come before journal_mode since the page size
+   * of a WAL database cannot be changed.
+   *
+   * @return PRAGMA statements to run on a new connection
+   */
+  public String[] toPragmas() {
+    return new String[] {
+            "PRAGMA page_size = " + pageSize + ";",
+            "PRAGMA journal_mode = WAL;",
+            "PRAGMA synchronous = " + synchronous + ";",
+            "PRAGMA cache_size = " + cacheSize + ";",
+            "PRAGMA mmap_size = " + mmapSize + ";"
+    };
+  }
+}
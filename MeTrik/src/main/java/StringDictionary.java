@@ -0,0 +1,87 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * StringDictionary
+ *
+ * In-memory, two-way mapping between strings and the integer IDs they are
+ * stored under in a dictionary table, so that encoding a value does not
+ * need a database lookup. IDs start at 1.
+ */
+public class StringDictionary {
+  private final Map<String, Integer> ids = new HashMap<>();
+  private final List<String> values = new ArrayList<>();
+
+  /**
+   * getId
+   *
+   * @param value the string to look up
+   * @return ID of the string, or 0 if it has no ID yet
+   */
+  public int getId(String value) {
+    Integer id = ids.get(value);
+    return id == null ? 0 : id;
+  }
+
+  /**
+   * getValue
+   *
+   * @param id ID to look up
+   * @return the string with that ID, or null if there is none
+   */
+  public String getValue(int id) {
+    return id > 0 && id <= values.size() ? values.get(id - 1) : null;
+  }
+
+  /**
+   * add
+   *
+   * Gives the string the next free ID. The caller is responsible for
+   * storing the new entry in the dictionary table.
+   *
+   * @param value a string without an ID
+   * @return the new ID
+   */
+  public int add(String value) {
+    values.add(value);
+    ids.put(value, values.size());
+    return values.size();
+  }
+
+  /**
+   * put
+   *
+   * Adds an entry read back from the dictionary table.
+   *
+   * @param id ID of the entry
+   * @param value the string stored under that ID
+   */
+  public void put(int id, String value) {
+    while(values.size() < id) {
+      values.add(null);
+    }
+    values.set(id - 1, value);
+    ids.put(value, id);
+  }
+
+  /**
+   * clear
+   *
+   * Removes every entry.
+   */
+  public void clear() {
+    ids.clear();
+    values.clear();
+  }
+
+  /**
+   * size
+   *
+   * @return Number of IDs given out
+   */
+  public int size() {
+    return values.size();
+  }
+}
@@ -0,0 +1,94 @@
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * TeeSink
+ *
+ * Writes everything to several sinks, in order. A sink that fails does
+ * not keep the others from being written.
+ */
+public class TeeSink implements MetricSink {
+  private static final Logger logger = Logger.getLogger("(TeeSink)");
+
+  private final List<MetricSink> sinks;
+
+  public TeeSink(MetricSink... sinks) {
+    this(Arrays.asList(sinks));
+  }
+
+  /**
+   * TeeSink
+   *
+   * @param sinks Sinks to write to, in order
+   */
+  public TeeSink(List<MetricSink> sinks) {
+    this.sinks = Collections.unmodifiableList(new ArrayList<>(sinks));
+  }
+
+  /**
+   * open
+   *
+   * Opens every sink.
+   *
+   * @param resume Whether to keep what the sinks stored before
+   * @return true if any sink resumed from stored data
+   */
+  @Override
+  public boolean open(boolean resume) {
+    boolean resumed = false;
+    for(MetricSink sink : sinks) {
+      try {
+        resumed |= sink.open(resume);
+      } catch (RuntimeException e) {
+        logger.error(sink.getClass().getName() + " not opened: " + e.getMessage());
+      }
+    }
+    return resumed;
+  }
+
+  @Override
+  public void writeSystem(CollectionRound.SystemInfo info) {
+    for(MetricSink sink : sinks) {
+      try {
+        sink.writeSystem(info);
+      } catch (RuntimeException e) {
+        logger.error(sink.getClass().getName() + ": " + e.getMessage());
+      }
+    }
+  }
+
+  @Override
+  public void write(CollectionRound round) {
+    for(MetricSink sink : sinks) {
+      try {
+        sink.write(round);
+      } catch (RuntimeException e) {
+        logger.error(sink.getClass().getName() + ": " + e.getMessage());
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    for(MetricSink sink : sinks) {
+      try {
+        sink.close();
+      } catch (RuntimeException e) {
+        logger.error(sink.getClass().getName() + " not closed: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * getSinks
+   *
+   * @return the sinks written to, in order
+   */
+  public List<MetricSink> getSinks() {
+    return sinks;
+  }
+}
@@ -0,0 +1,247 @@
+import org.apache.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * WriteBehindQueue
+ *
+ * Bounded queue between the collectors and a dedicated writer thread, so
+ * that a slow database write never delays the next round of collection.
+ * When the queue is full, the overflow policy decides what happens to
+ * the incoming round. Process events are never dropped, since later rounds
+ * only record what changed.
+ */
+public class WriteBehindQueue {
+  private static final Logger logger = Logger.getLogger("(WriteBehindQueue)");
+
+  /**
+   * OverflowPolicy
+   *
+   * What to do with a round offered to a full queue.
+   * BLOCK waits for the writer to make room, DROP_OLDEST discards the
+   * oldest queued round, except for its process events which move to the
+   * next round, and COALESCE merges the incoming round into the newest
+   * queued round.
+   */
+  public enum OverflowPolicy { BLOCK, DROP_OLDEST, COALESCE }
+
+  private final int capacity;
+  private final OverflowPolicy policy;
+  private final Consumer<CollectionRound> writer;
+
+  private final ArrayDeque<CollectionRound> queue;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private boolean running = true;
+  private Thread thread;
+
+  // Counters
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private volatile int maxDepth;
+  private final LatencyHistogram depth = Instrumentation.histogram("queue.depth");
+  private final LatencyHistogram wait = Instrumentation.histogram("queue.wait");
+  private final LatencyHistogram write = Instrumentation.histogram("queue.write");
+
+  /**
+   * WriteBehindQueue
+   *
+   * @param capacity Maximum number of rounds waiting to be written
+   * @param policy What to do with a round offered to a full queue
+   * @param writer Writes a round, called only from the writer thread
+   */
+  public WriteBehindQueue(int capacity, OverflowPolicy policy,
+                          Consumer<CollectionRound> writer) {
+    this.capacity = capacity;
+    this.policy = policy;
+    this.writer = writer;
+    this.queue = new ArrayDeque<>(capacity);
+  }
+
+  /**
+   * start
+   *
+   * Starts the writer thread.
+   */
+  public void start() {
+    thread = new Thread(this::drain, "trik-writer");
+    thread.start();
+    logger.info(String.format("Writer started (capacity %1$d, policy %2$s)",
+            capacity, policy));
+  }
+
+  /**
+   * offer
+   *
+   * Queues a round to be written. Returns false if the queue has been shut
+   * down, in which case the round is dropped.
+   *
+   * @param round the round of collection to write
+   * @return true if the round was queued or coalesced
+   * @throws InterruptedException if interrupted while waiting for room
+   */
+  public boolean offer(CollectionRound round) throws InterruptedException {
+    long start = System.nanoTime();
+    lock.lock();
+    try {
+      if(policy == OverflowPolicy.BLOCK) {
+        while(running && queue.size() >= capacity) {
+          notFull.await();
+        }
+      }
+
+      if(!running) {
+        dropped.incrementAndGet();
+        return false;
+      }
+
+      if(queue.size() >= capacity) {
+        if(policy == OverflowPolicy.DROP_OLDEST) {
+          CollectionRound oldest = queue.pollFirst();
+          CollectionRound next = queue.isEmpty() ? round : queue.peekFirst();
+          next.processes.addAll(0, oldest.processes);
+          dropped.incrementAndGet();
+          logger.warn("Queue full, oldest round dropped");
+        } else {
+          round.absorb(queue.pollLast());
+          coalesced.incrementAndGet();
+          logger.warn("Queue full, round coalesced");
+        }
+      }
+
+      queue.addLast(round);
+      maxDepth = Math.max(maxDepth, queue.size());
+      depth.record(queue.size());
+      wait.recordSince(start);
+      notEmpty.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * shutdown
+   *
+   * Stops accepting rounds and waits for the writer thread to flush the
+   * rounds that are still queued.
+   *
+   * @param timeoutMillis Maximum time to wait for the queue to drain
+   */
+  public void shutdown(long timeoutMillis) {
+    lock.lock();
+    try {
+      running = false;
+      notEmpty.signalAll();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+
+    if(thread != null) {
+      try {
+        thread.join(timeoutMillis);
+      } catch (InterruptedException e) {
+        logger.error(e.getMessage());
+      }
+    }
+
+    logger.info(String.format("Writer stopped: %1$d written, %2$d dropped, " +
+            "%3$d coalesced, %4$d left in queue", getWritten(), getDropped(),
+            getCoalesced(), getDepth()));
+  }
+
+  /**
+   * drain
+   *
+   * Body of the writer thread. Writes rounds in the order they were queued
+   * until the queue is shut down and empty.
+   */
+  private void drain() {
+    while(true) {
+      CollectionRound round;
+      lock.lock();
+      try {
+        while(running && queue.isEmpty()) {
+          notEmpty.await(1, TimeUnit.SECONDS);
+        }
+        round = queue.pollFirst();
+        if(round == null) {
+          return; // Shut down and fully drained
+        }
+        notFull.signal();
+      } catch (InterruptedException e) {
+        logger.error(e.getMessage());
+        return;
+      } finally {
+        lock.unlock();
+      }
+
+      long start = System.nanoTime();
+      try {
+        writer.accept(round);
+        written.incrementAndGet();
+        write.recordSince(start);
+      } catch (RuntimeException e) {
+        logger.error("Round could not be written: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * getDepth
+   *
+   * @return Number of rounds currently waiting to be written
+   */
+  public int getDepth() {
+    lock.lock();
+    try {
+      return queue.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * getMaxDepth
+   *
+   * @return Largest number of rounds that have been waiting at once
+   */
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /**
+   * getWritten
+   *
+   * @return Number of rounds handed to the writer
+   */
+  public long getWritten() {
+    return written.get();
+  }
+
+  /**
+   * getDropped
+   *
+   * @return Number of rounds discarded without being written
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * getCoalesced
+   *
+   * @return Number of rounds merged into a newer round
+   */
+  public long getCoalesced() {
+    return coalesced.get();
+  }
+}
@@ -0,0 +1,73 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class Test_AdaptiveSampler {
+
+  private static AdaptiveSampler sampler() {
+    return new AdaptiveSampler(500, 10000, 30000, 0.05, 0.05, 90, 3);
+  }
+
+  private static CollectionRound quiet(long timestamp) {
+    CollectionRound round = new CollectionRound(timestamp);
+    round.memory = new CollectionRound.MemoryData(500, 1000);
+    round.cpus.add(new CollectionRound.CpuData(0, 1, 2, 10, 5, 85, 0, 0, null));
+    return round;
+  }
+
+  @Test
+  public void testBackoff() {
+    AdaptiveSampler sampler = sampler();
+    assertEquals(10000, sampler.getInterval());
+    assertFalse(sampler.observe(quiet(0)));
+
+    // A busy core switches to the fast interval right away
+    CollectionRound busy = quiet(10000);
+    busy.cpus.add(new CollectionRound.CpuData(1, 1, 2, 90, 5, 5, 0, 0, null));
+    assertTrue(sampler.observe(busy));
+    assertEquals(500, sampler.getInterval());
+    assertEquals(1, sampler.getTriggers());
+
+    // Then doubles after each hold period without a threshold crossed
+    long time = 10000;
+    for(; time < 40000; time += 500) {
+      assertFalse(sampler.observe(quiet(time)));
+    }
+    assertTrue(sampler.observe(quiet(time)));
+    assertEquals(1000, sampler.getInterval());
+    assertFalse(sampler.observe(quiet(time + 29000)));
+    assertTrue(sampler.observe(quiet(time + 30000)));
+    assertEquals(2000, sampler.getInterval());
+    for(int i = 2; i <= 4; i++) {
+      assertTrue(sampler.observe(quiet(time + i * 30000)));
+    }
+    assertEquals(10000, sampler.getInterval()); // 16000 capped at the floor
+    assertFalse(sampler.observe(quiet(time + 200000)));
+  }
+
+  @Test
+  public void testThresholds() {
+    AdaptiveSampler sampler = sampler();
+    sampler.observe(quiet(0));
+
+    // Available memory dropping by 5% of the total
+    CollectionRound round = new CollectionRound(1000);
+    round.memory = new CollectionRound.MemoryData(450, 1000);
+    assertTrue(sampler.observe(round));
+
+    sampler = sampler();
+    round = new CollectionRound(1000);
+    round.memory = new CollectionRound.MemoryData(40, 1000);
+    assertTrue(sampler.observe(round));
+
+    // Process churn counts starts and exits, not updates
+    sampler = sampler();
+    round = new CollectionRound(1000);
+    CollectionRound.ProcessData proc = new CollectionRound.ProcessData(1, "sh", "me", 0, 0, 0);
+    round.processes.add(proc.withEvent(CollectionRound.ProcessEvent.START));
+    round.processes.add(proc.withEvent(CollectionRound.ProcessEvent.EXIT));
+    round.processes.add(proc.withEvent(CollectionRound.ProcessEvent.UPDATE));
+    assertFalse(sampler.observe(round));
+    round.processes.add(proc.withEvent(CollectionRound.ProcessEvent.START));
+    assertTrue(sampler.observe(round));
+  }
+}
@@ -0,0 +1,68 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class Test_Chunk {
+  private static final int[] KINDS = {Chunk.LONG, Chunk.DOUBLE,
+          Chunk.LONG | Chunk.NULLABLE, Chunk.DOUBLE | Chunk.NULLABLE};
+
+  @Test
+  public void testRoundTrip() {
+    Random random = new Random(7);
+    int rows = 5000;
+    long[] timestamps = new long[rows];
+    long[] longs = new long[rows];
+    double[] doubles = new double[rows];
+
+    Chunk.Encoder encoder = new Chunk.Encoder(KINDS);
+    long timestamp = 1584000000000L;
+    for(int i = 0; i < rows; i++) {
+      // Mostly regular intervals with some jitter and the odd gap
+      timestamp += 1000 + (i % 10 == 0 ? random.nextInt(50) : 0) + (i == 2500 ? 86400000 : 0);
+      timestamps[i] = timestamp;
+      longs[i] = i % 100 == 0 ? random.nextLong() : 8000000000L - i * 4096;
+      doubles[i] = i % 7 == 0 ? Double.NaN : random.nextDouble() * 100;
+
+      encoder.row(timestamp).putLong(longs[i]).putDouble(doubles[i]);
+      if(i % 3 == 0) {
+        encoder.putNull().putNull();
+      } else {
+        encoder.putLong(-longs[i]).putDouble(-doubles[i]);
+      }
+    }
+    assertEquals(rows, encoder.getCount());
+
+    Chunk.Decoder decoder = new Chunk.Decoder(encoder.finish(), KINDS);
+    assertEquals(rows, decoder.getCount());
+    for(int i = 0; i < rows; i++) {
+      assertTrue(decoder.next());
+      assertEquals(timestamps[i], decoder.getTimestamp());
+      assertEquals(longs[i], decoder.getLong(0));
+      assertEquals(Double.doubleToRawLongBits(doubles[i]),
+              Double.doubleToRawLongBits(decoder.getDouble(1)));
+      assertEquals(i % 3 == 0, decoder.isNull(2));
+      assertEquals(i % 3 == 0, decoder.isNull(3));
+      if(i % 3 != 0) {
+        assertEquals(-longs[i], decoder.getLong(2));
+        assertEquals(-doubles[i], decoder.getDouble(3), 0);
+      }
+    }
+    assertFalse(decoder.next());
+  }
+
+  @Test
+  public void testCompression() {
+    // A steady series at a regular interval costs a few bits per row
+    Chunk.Encoder encoder = new Chunk.Encoder(new int[] {Chunk.LONG, Chunk.DOUBLE});
+    for(int i = 0; i < 3600; i++) {
+      encoder.row(1584000000000L + i * 1000L).putLong(8000000000L).putDouble(12.5);
+    }
+    assertTrue(encoder.finish().length < 3600 * 3 / 8 + 64);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testMissingColumn() {
+    new Chunk.Encoder(KINDS).row(1).putLong(1).row(2);
+  }
+}
@@ -0,0 +1,257 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class Test_CollectionScheduler {
+
+  // Dispatches parts until every run started so far is dispatched or timed out
+  private static void settle(CollectionScheduler scheduler) {
+    try {
+      while(scheduler.getPending() > 0) {
+        scheduler.await(1000);
+      }
+    } catch (InterruptedException e) {
+      fail(e.getMessage());
+    }
+  }
+
+  // Parts are dispatched as their collectors finish, merged here by tick
+  private static List<CollectionRound> byTick(List<CollectionRound> parts) {
+    Map<Long, CollectionRound> rounds = new TreeMap<>();
+    for(CollectionRound part : parts) {
+      rounds.computeIfAbsent(part.timestamp, CollectionRound::new).absorb(part);
+    }
+    return new ArrayList<>(rounds.values());
+  }
+
+  @Test
+  public void testCadences() {
+    List<CollectionRound> rounds = new ArrayList<>();
+    int[] runs = new int[2];
+
+    CollectionScheduler scheduler = new CollectionScheduler(rounds::add, 1000);
+    scheduler.add("Fast", 1000, round -> runs[0]++);
+    scheduler.add("Slow", 10000, round -> runs[1]++);
+    assertEquals(1000, scheduler.getBaseTick());
+
+    for(long time = 10000; time < 30000; time += 1000) {
+      scheduler.tick(time);
+      settle(scheduler);
+    }
+
+    assertEquals(20, runs[0]);
+    assertEquals(2, runs[1]);
+    assertEquals(20, byTick(rounds).size());
+    assertEquals(10000, rounds.get(0).timestamp);
+  }
+
+  @Test
+  public void testNoRoundWhenNothingDue() {
+    List<CollectionRound> rounds = new ArrayList<>();
+
+    CollectionScheduler scheduler = new CollectionScheduler(rounds::add, 1000);
+    scheduler.add("Slow", 10000, round -> { });
+    scheduler.add("Slower", 15000, round -> { });
+    assertEquals(5000, scheduler.getBaseTick());
+
+    for(long time = 10000; time < 30000; time += 5000) {
+      scheduler.tick(time);
+      settle(scheduler);
+    }
+
+    assertEquals(4, scheduler.getTicks());
+    assertEquals(3, byTick(rounds).size());
+  }
+
+  @Test
+  public void testOverrun() {
+    CollectionScheduler scheduler = new CollectionScheduler(round -> { }, 1000);
+    scheduler.add("Fast", 1000, round -> { });
+
+    // On time
+    assertEquals(11000, scheduler.nextTick(10000, 10400));
+    assertEquals(0, scheduler.getOverruns());
+
+    // Ran 3.5 ticks long: ticks at 11000, 12000 and 13000 are skipped
+    assertEquals(14000, scheduler.nextTick(10000, 13500));
+    assertEquals(1, scheduler.getOverruns());
+    assertEquals(3, scheduler.getMissedTicks());
+
+    // Clock set back
+    assertEquals(6000, scheduler.nextTick(10000, 5500));
+  }
+
+  @Test
+  public void testMissedCollectorRealigns() {
+    int[] runs = new int[1];
+    CollectionScheduler scheduler = new CollectionScheduler(round -> { }, 1000);
+    scheduler.add("Fast", 1000, round -> { });
+    scheduler.add("Slow", 10000, round -> runs[0]++);
+
+    // Tick at 20000 was missed
+    for(long time : new long[] {10000, 21000, 22000, 30000}) {
+      scheduler.tick(time);
+      settle(scheduler);
+    }
+
+    assertEquals(3, runs[0]);
+  }
+
+  @Test
+  public void testCollectorsRunConcurrently() {
+    List<CollectionRound> rounds = new ArrayList<>();
+    CollectionScheduler scheduler = new CollectionScheduler(rounds::add, 5000);
+    scheduler.add("Memory", 1000, round -> {
+      sleep(300);
+      round.memory = new CollectionRound.MemoryData(1, 2);
+    });
+    scheduler.add("System", 1000, round -> {
+      sleep(300);
+      round.system = new CollectionRound.SystemData(1, 2, 3, 4, 5);
+    });
+
+    long start = System.currentTimeMillis();
+    scheduler.tick(1000);
+    settle(scheduler);
+    long elapsed = System.currentTimeMillis() - start;
+
+    assertTrue(elapsed < 550);
+    rounds = byTick(rounds);
+    assertEquals(1, rounds.size());
+    assertNotNull(rounds.get(0).memory);
+    assertNotNull(rounds.get(0).system);
+  }
+
+  @Test
+  public void testSlowCollectorDoesNotHoldUpOthers() throws InterruptedException {
+    List<CollectionRound> rounds = new ArrayList<>();
+    CountDownLatch release = new CountDownLatch(1);
+    CollectionScheduler scheduler = new CollectionScheduler(rounds::add, 5000);
+    scheduler.add("Memory", 1000, round -> round.memory = new CollectionRound.MemoryData(1, 2));
+    scheduler.add("System", 1000, round -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      round.system = new CollectionRound.SystemData(1, 2, 3, 4, 5);
+    });
+
+    // Each tick's memory is dispatched while System is still running
+    long start = System.currentTimeMillis();
+    for(long time = 1000; time <= 3000; time += 1000) {
+      scheduler.tick(time);
+      while(rounds.isEmpty() || rounds.get(rounds.size() - 1).timestamp != time) {
+        scheduler.await(1000);
+      }
+      assertNotNull(rounds.get(rounds.size() - 1).memory);
+      assertNull(rounds.get(rounds.size() - 1).system);
+    }
+    assertTrue(System.currentTimeMillis() - start < 1000);
+    assertEquals(3, rounds.size());
+    assertEquals(2, scheduler.getSkipped());
+
+    // System's part keeps the tick it was started on
+    release.countDown();
+    settle(scheduler);
+    assertEquals(4, rounds.size());
+    assertEquals(1000, rounds.get(3).timestamp);
+    assertNotNull(rounds.get(3).system);
+    assertEquals(0, scheduler.getTimeouts());
+  }
+
+  @Test
+  public void testTimeoutAndFailure() throws InterruptedException {
+    List<CollectionRound> rounds = new ArrayList<>();
+    AtomicBoolean release = new AtomicBoolean();
+    CollectionScheduler scheduler = new CollectionScheduler(rounds::add, 200);
+    scheduler.add("Memory", 1000, round -> round.memory = new CollectionRound.MemoryData(1, 2));
+    scheduler.add("Power", 1000, round -> {
+      throw new ArrayIndexOutOfBoundsException("No power sources");
+    });
+    scheduler.add("Hung", 1000, round -> {
+      round.system = new CollectionRound.SystemData(1, 2, 3, 4, 5);
+      while(!release.get()) {
+        // Ignores interrupts, like a stuck native call
+      }
+    });
+
+    scheduler.tick(1000);
+    settle(scheduler);
+    scheduler.tick(2000);
+    settle(scheduler);
+
+    assertEquals(2, rounds.size());
+    assertNotNull(rounds.get(0).memory);
+    assertNull(rounds.get(0).power);
+    assertNull(rounds.get(0).system);
+    assertEquals(1, scheduler.getTimeouts());
+    assertEquals(2, scheduler.getFailures());
+    assertEquals(1, scheduler.getSkipped());
+
+    // Once the hung run finishes its part is discarded, and it runs again
+    release.set(true);
+    for(int i = 0; i < 10; i++) {
+      scheduler.await(100);
+    }
+    scheduler.tick(3000);
+    settle(scheduler);
+    assertEquals(1, scheduler.getSkipped());
+    assertEquals(3000, rounds.get(rounds.size() - 1).timestamp);
+    rounds = byTick(rounds);
+    assertEquals(3, rounds.size());
+    assertNull(rounds.get(1).system);
+    assertNotNull(rounds.get(2).system);
+    scheduler.stop();
+  }
+
+  @Test
+  public void testSetInterval() {
+    List<CollectionRound> parts = new ArrayList<>();
+    CollectionScheduler scheduler = new CollectionScheduler(parts::add, 1000);
+    scheduler.add("Memory", 10000, round -> { });
+    scheduler.add("System", 60000, round -> { });
+    assertEquals(10000, scheduler.getBaseTick());
+
+    scheduler.tick(60000);
+    settle(scheduler);
+    assertEquals(10000, byTick(parts).get(0).getInterval("Memory"));
+    assertEquals(60000, byTick(parts).get(0).getInterval("System"));
+
+    // Speeding up runs on the next boundary of the new interval
+    assertTrue(scheduler.setInterval("Memory", 500));
+    assertFalse(scheduler.setInterval("Missing", 500));
+    assertEquals(500, scheduler.getBaseTick());
+    assertEquals(60500, scheduler.nextTick(60000, 60100));
+    scheduler.tick(60500);
+    settle(scheduler);
+    assertEquals(2, byTick(parts).size());
+    assertEquals(500, byTick(parts).get(1).getInterval("Memory"));
+    assertEquals(0, byTick(parts).get(1).getInterval("System"));
+
+    // Slowing down realigns the ticks to the new base tick
+    scheduler.setInterval("Memory", 2000);
+    assertEquals(2000, scheduler.getBaseTick());
+    assertEquals(62000, scheduler.nextTick(60500, 60600));
+    scheduler.tick(61000);
+    settle(scheduler);
+    assertEquals(2, byTick(parts).size());
+    scheduler.tick(62000);
+    settle(scheduler);
+    assertEquals(3, byTick(parts).size());
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
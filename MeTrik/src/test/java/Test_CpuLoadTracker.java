@@ -0,0 +1,62 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class Test_CpuLoadTracker {
+
+  @Test
+  public void testFirstUpdateIsSinceBoot() {
+    CpuLoadTracker tracker = new CpuLoadTracker();
+    tracker.update(new long[][] {{50, 0, 25, 25, 0, 0, 0, 0}});
+
+    assertEquals(1, tracker.getCoreCount());
+    assertEquals(50, tracker.getCorePercent(0, CpuLoadTracker.USER), 1e-9);
+    assertEquals(25, tracker.getCorePercent(0, CpuLoadTracker.SYSTEM), 1e-9);
+    assertEquals(25, tracker.getCorePercent(0, CpuLoadTracker.IDLE), 1e-9);
+  }
+
+  @Test
+  public void testIntervalDeltas() {
+    CpuLoadTracker tracker = new CpuLoadTracker();
+    tracker.update(new long[][] {
+            {1000, 100, 500, 5000, 10, 1, 1, 0},
+            {2000, 0, 800, 9000, 20, 2, 2, 5}});
+    tracker.update(new long[][] {
+            {1060, 140, 520, 5070, 10, 11, 1, 0},  // 100 user, 30 sys, 70 idle
+            {2000, 0, 800, 9100, 20, 2, 2, 105}}); // 100 idle, 100 steal
+
+    assertEquals(50, tracker.getCorePercent(0, CpuLoadTracker.USER), 1e-9);
+    assertEquals(15, tracker.getCorePercent(0, CpuLoadTracker.SYSTEM), 1e-9);
+    assertEquals(35, tracker.getCorePercent(0, CpuLoadTracker.IDLE), 1e-9);
+    assertEquals(50, tracker.getCorePercent(1, CpuLoadTracker.IDLE), 1e-9);
+    assertEquals(50, tracker.getCorePercent(1, CpuLoadTracker.STEAL), 1e-9);
+
+    // 100 user, 30 sys, 170 idle and 100 steal of 400 ticks in total
+    assertEquals(25, tracker.getTotalPercent(CpuLoadTracker.USER), 1e-9);
+    assertEquals(7.5, tracker.getTotalPercent(CpuLoadTracker.SYSTEM), 1e-9);
+    assertEquals(42.5, tracker.getTotalPercent(CpuLoadTracker.IDLE), 1e-9);
+    assertEquals(25, tracker.getTotalPercent(CpuLoadTracker.STEAL), 1e-9);
+  }
+
+  @Test
+  public void testNoTicksIsIdle() {
+    CpuLoadTracker tracker = new CpuLoadTracker();
+    long[][] ticks = {{10, 0, 10, 80, 0, 0, 0, 0}};
+    tracker.update(ticks);
+    tracker.update(ticks);
+
+    assertEquals(0, tracker.getCorePercent(0, CpuLoadTracker.USER), 0);
+    assertEquals(100, tracker.getCorePercent(0, CpuLoadTracker.IDLE), 0);
+  }
+
+  @Test
+  public void testRestore() {
+    CpuLoadTracker tracker = new CpuLoadTracker();
+    tracker.restore(new long[][] {{1000, 100, 500, 5000, 10, 1, 1, 0}});
+    tracker.update(new long[][] {{1060, 140, 520, 5070, 10, 11, 1, 0}});
+
+    // Deltas from the stored ticks, not since boot
+    assertEquals(50, tracker.getCorePercent(0, CpuLoadTracker.USER), 1e-9);
+    assertEquals(15, tracker.getCorePercent(0, CpuLoadTracker.SYSTEM), 1e-9);
+    assertEquals(35, tracker.getCorePercent(0, CpuLoadTracker.IDLE), 1e-9);
+  }
+}
@@ -4,6 +4,9 @@ import org.junit.Test;
 import java.io.File;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class Test_DBHelper {
 
@@ -19,7 +22,8 @@ public class Test_DBHelper {
 		DBHelper.createTables();
 
 		String[] tables = {"System", "MemoryData", "PowerData", "ProcessData",
-						"SystemData", "CPUData"};
+						"SystemData", "CPUData", "LatestMemoryData", "LatestPowerData",
+						"LatestSystemData", "LatestCpuData"};
 		int fails = 0;
 		for (String table : tables) {
 			ResultSet rs = DBHelper.query("Select * from " + table + ";");
@@ -120,7 +124,9 @@ public class Test_DBHelper {
 		DBHelper.createTables();
 		DBHelper.insertProcessData(timestamp, procID, name, user, startTime, upTime, cpuUsage);
 
-		ResultSet rs = DBHelper.query("Select * from ProcessData " +
+		ResultSet rs = DBHelper.query("Select p.*, n.name, u.user from ProcessData p " +
+						"join ProcessName n on n.id = p.nameID " +
+						"join ProcessUser u on u.id = p.userID " +
 						"where timestamp = " + timestamp + ";");
 
 		try {
@@ -205,4 +211,494 @@ public class Test_DBHelper {
 		}
 	}
 
+	@Test
+	public void testInsertRound() {
+		long timestamp = System.currentTimeMillis();
+
+		DBHelper.createDB();
+		DBHelper.createTables();
+
+		CollectionRound first = new CollectionRound(timestamp);
+		first.memory = new CollectionRound.MemoryData(100000, 10000000);
+		first.processes.add(new CollectionRound.ProcessData(1, "init", "root", 1000, 100, 0.5));
+		first.processes.add(new CollectionRound.ProcessData(2, "sh", "me", 2000, 200, 0.25));
+		first.cpus.add(new CollectionRound.CpuData(0, 100000, 1000000, 10, 5, 85, 0, 0,
+						new long[] {1, 2, 3, 4, 5, 6, 7, 8}));
+		DBHelper.insertRound(first);
+
+		CollectionRound second = new CollectionRound(timestamp + 1);
+		second.processes.add(new CollectionRound.ProcessData(CollectionRound.ProcessEvent.UPDATE,
+						1, "init", "root", 1000, 101, 0.75));
+		second.processes.add(new CollectionRound.ProcessData(CollectionRound.ProcessEvent.EXIT,
+						2, "sh", "me", 2000, 200, 0.25));
+		second.cpus.add(new CollectionRound.CpuData(0, 100000, 1000000, 20, 10, 70, 0, 0, null));
+		DBHelper.insertRound(second);
+
+		try {
+			assertEquals(1, DBHelper.query("Select COUNT(*) from MemoryData;").getInt(1));
+			assertEquals(1, DBHelper.query("Select COUNT(*) from ProcessData;").getInt(1));
+			assertEquals(4, DBHelper.query("Select COUNT(*) from ProcessEvent;").getInt(1));
+			assertEquals(0.75, DBHelper.query("Select cpuUsage from ProcessData;").getDouble(1), 0);
+			assertEquals(2, DBHelper.query("Select COUNT(*) from ProcessName;").getInt(1));
+			assertEquals(2, DBHelper.query("Select COUNT(*) from ProcessUser;").getInt(1));
+			assertEquals(2, DBHelper.query("Select COUNT(*) from CpuData;").getInt(1));
+			assertEquals(timestamp + 1, DBHelper.query("Select timestamp from ProcessData;").getLong(1));
+
+			ResultSet rs = DBHelper.query("Select * from CpuData order by timestamp desc;");
+			assertEquals(20, rs.getDouble("userPct"), 0);
+			assertEquals(10, rs.getDouble("sysPct"), 0);
+			assertEquals(70, rs.getDouble("idlePct"), 0);
+			rs.getLong("userTicks");
+			assertTrue(rs.wasNull());
+		} catch (SQLException e) {
+			fail("SQL Exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testRollups() {
+		long bucket = 1584000000000L; // Start of an hour
+		long[] timestamps = {bucket + 1000, bucket + 2000, bucket + 3000, bucket + DBHelper.MINUTE};
+		long[] avail = {300, 100, 200, 400};
+
+		DBHelper.createDB();
+		DBHelper.createTables();
+
+		for(int i = 0; i < timestamps.length; i++) {
+			CollectionRound round = new CollectionRound(timestamps[i]);
+			round.memory = new CollectionRound.MemoryData(avail[i], 1000);
+			round.cpus.add(new CollectionRound.CpuData(1, 100000, 1000000, 10 * i, 0, 0, 0, 0, null));
+			DBHelper.insertRound(round);
+		}
+
+		try {
+			assertEquals(2, DBHelper.query("Select COUNT(*) from Rollup1m " +
+							"where metric = 'memory.avail';").getInt(1));
+			ResultSet rs = DBHelper.query("Select * from Rollup1m " +
+							"where metric = 'memory.avail' and timestamp = " + bucket + ";");
+			assertEquals(100, rs.getDouble("min"), 0);
+			assertEquals(200, rs.getDouble("avg"), 0.0001);
+			assertEquals(300, rs.getDouble("max"), 0);
+			assertEquals(200, rs.getDouble("last"), 0);
+			assertEquals(3, rs.getInt("count"));
+
+			assertEquals(1, DBHelper.query("Select COUNT(*) from Rollup1h " +
+							"where metric = 'memory.avail';").getInt(1));
+			rs = DBHelper.query("Select * from Rollup1h where metric = 'memory.avail';");
+			assertEquals(bucket, rs.getLong("timestamp"));
+			assertEquals(250, rs.getDouble("avg"), 0.0001);
+			assertEquals(4, rs.getInt("count"));
+
+			rs = DBHelper.query("Select * from Rollup1h where metric = 'cpu.userPct';");
+			assertEquals(1, rs.getInt("series"));
+			assertEquals(30, rs.getDouble("max"), 0);
+		} catch (SQLException e) {
+			fail("SQL Exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testApplyRetention() {
+		long timestamp = 1584000000000L;
+
+		DBHelper.createDB();
+		DBHelper.createTables();
+		DBHelper.setRetentionPolicies(Arrays.asList(
+						new RetentionPolicy("MemoryData", RetentionPolicy.HOUR),
+						new RetentionPolicy("Rollup1m", RetentionPolicy.DAY),
+						new RetentionPolicy("CpuData", RetentionPolicy.HOUR)));
+
+		try {
+			CollectionRound old = new CollectionRound(timestamp);
+			old.memory = new CollectionRound.MemoryData(100, 1000);
+			old.cpus.add(new CollectionRound.CpuData(0, 100000, 1000000, 10, 5, 85, 0, 0, null));
+			DBHelper.insertRound(old);
+
+			CollectionRound recent = new CollectionRound(timestamp + 2 * RetentionPolicy.HOUR);
+			recent.memory = new CollectionRound.MemoryData(200, 1000);
+			recent.cpus.add(new CollectionRound.CpuData(0, 100000, 1000000, 10, 5, 85, 0, 0, null));
+			DBHelper.insertRound(recent);
+
+			// Raw entries expire after an hour, their rollups are kept
+			assertEquals(1, DBHelper.query("Select COUNT(*) from MemoryData;").getInt(1));
+			assertEquals(1, DBHelper.query("Select COUNT(*) from CpuData;").getInt(1));
+			assertEquals(0, DBHelper.query("Select COUNT(*) from sqlite_master " +
+							"where name = 'CpuData_" + timestamp / RetentionPolicy.HOUR + "';").getInt(1));
+
+			// Removing entries of a dropped partition does not create it again
+			DBHelper.removeCpuData(timestamp);
+			assertEquals(0, DBHelper.query("Select COUNT(*) from sqlite_master " +
+							"where name like 'CpuData_" + timestamp / RetentionPolicy.HOUR + "%';").getInt(1));
+			DBHelper.removeCpuData(timestamp + 2 * RetentionPolicy.HOUR);
+			assertEquals(0, DBHelper.query("Select COUNT(*) from CpuData;").getInt(1));
+			assertEquals(2, DBHelper.query("Select COUNT(*) from Rollup1m " +
+							"where metric = 'memory.avail';").getInt(1));
+
+			DBHelper.applyRetention(timestamp + 2 * RetentionPolicy.DAY);
+			assertEquals(0, DBHelper.query("Select COUNT(*) from MemoryData;").getInt(1));
+			assertEquals(0, DBHelper.query("Select COUNT(*) from Rollup1m;").getInt(1));
+			assertEquals(2, DBHelper.query("Select COUNT(*) from Rollup1h " +
+							"where metric = 'memory.avail';").getInt(1));
+		} catch (SQLException e) {
+			fail("SQL Exception:" + e.getMessage());
+		} finally {
+			DBHelper.setRetentionPolicies(RetentionPolicy.defaults());
+		}
+	}
+
+	@Test
+	public void testLatestTables() {
+		long timestamp = 1584000000000L;
+
+		DBHelper.createDB();
+		DBHelper.createTables();
+
+		CollectionRound first = new CollectionRound(timestamp);
+		first.memory = new CollectionRound.MemoryData(100, 1000);
+		first.system = new CollectionRound.SystemData(1, 2, 3, 4, 5);
+		first.cpus.add(new CollectionRound.CpuData(0, 100000, 1000000, 10, 5, 85, 0, 0, null));
+		first.cpus.add(new CollectionRound.CpuData(1, 100000, 1000000, 20, 5, 75, 0, 0, null));
+		DBHelper.insertRound(first);
+
+		// A column added by a migration goes at the end of the raw table only
+		try {
+			DBHelper.getConnection().createStatement().executeUpdate(
+							"ALTER TABLE MemoryData ADD COLUMN extra INTEGER NOT NULL DEFAULT 7");
+		} catch (SQLException e) {
+			fail("SQL Exception:" + e.getMessage());
+		}
+
+		CollectionRound second = new CollectionRound(timestamp + 1000);
+		second.memory = new CollectionRound.MemoryData(200, 1000);
+		second.cpus.add(new CollectionRound.CpuData(0, 100000, 1000000, 30, 5, 65, 0, 0, null));
+		DBHelper.insertRound(second);
+
+		try {
+			assertEquals(1, DBHelper.query("Select COUNT(*) from LatestMemoryData;").getInt(1));
+			assertEquals(200, DBHelper.query("Select avail from LatestMemoryData;").getLong(1));
+			assertEquals(1000, DBHelper.query("Select total from LatestMemoryData;").getLong(1));
+			assertEquals(timestamp, DBHelper.query("Select timestamp from LatestSystemData;").getLong(1));
+			assertEquals(0, DBHelper.query("Select COUNT(*) from LatestPowerData;").getInt(1));
+
+			// Cores that are missing from the latest round are removed
+			assertEquals(1, DBHelper.query("Select COUNT(*) from LatestCpuData;").getInt(1));
+			assertEquals(30, DBHelper.query("Select userPct from LatestCpuData;").getDouble(1), 0);
+		} catch (SQLException e) {
+			fail("SQL Exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testTimestampIndexes() {
+		DBHelper.createDB();
+		DBHelper.createTables();
+
+		try {
+			String[] tables = {"MemoryData", "PowerData", "SystemData", "ProcessData",
+							"Rollup1m", "Rollup1h"};
+			for (String table : tables) {
+				assertEquals(table, 1, DBHelper.query("Select COUNT(*) from sqlite_master " +
+								"where type = 'index' and name = '" + table + "_timestamp';").getInt(1));
+			}
+			// Partitions of the current time are created with the tables
+			String[] partitioned = {"CpuData", "ProcessEvent"};
+			for (String table : partitioned) {
+				assertEquals(table, 1, DBHelper.query("Select COUNT(*) from sqlite_master " +
+								"where type = 'index' and name like '" + table + "!_%!_timestamp' escape '!';").getInt(1));
+			}
+		} catch (SQLException e) {
+			fail("SQL Exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testOpenDB() {
+		long timestamp = 1584000000000L;
+
+		DBHelper.createDB();
+		DBHelper.createTables();
+
+		CollectionRound round = new CollectionRound(timestamp);
+		round.memory = new CollectionRound.MemoryData(100, 1000);
+		round.processes.add(new CollectionRound.ProcessData(1, "init", "root", 1000, 100, 0.5));
+		round.cpus.add(new CollectionRound.CpuData(0, 100000, 1000000, 10, 5, 85, 0, 0,
+						new long[] {1, 2, 3, 4, 5, 6, 7, 8}));
+		round.cpus.add(new CollectionRound.CpuData(1, 100000, 1000000, 10, 5, 85, 0, 0,
+						new long[] {8, 7, 6, 5, 4, 3, 2, 1}));
+		DBHelper.insertRound(round);
+
+		// Reopening keeps the history and the state of the newest round
+		assertTrue(DBHelper.openDB());
+		DBHelper.createTables();
+		try {
+			assertEquals(DBHelper.SCHEMA_VERSION, DBHelper.getSchemaVersion());
+			assertEquals(1, DBHelper.query("Select COUNT(*) from MemoryData;").getInt(1));
+			assertEquals(2, DBHelper.query("Select COUNT(*) from CpuData;").getInt(1));
+		} catch (SQLException e) {
+			fail("SQL Exception:" + e.getMessage());
+		}
+
+		List<CollectionRound.ProcessData> processes = DBHelper.loadProcesses(timestamp + 500);
+		assertEquals(1, processes.size());
+		assertEquals(600, processes.get(0).upTime);
+		assertEquals("init", processes.get(0).name);
+		assertEquals("root", processes.get(0).user);
+		assertEquals(1000, processes.get(0).startTime);
+
+		long[][] ticks = DBHelper.loadCpuTicks();
+		assertEquals(2, ticks.length);
+		assertArrayEquals(new long[] {8, 7, 6, 5, 4, 3, 2, 1}, ticks[1]);
+
+		// Rounds after the restart still write to the same tables
+		round = new CollectionRound(timestamp + 1000);
+		round.processes.add(new CollectionRound.ProcessData(2, "sh", "me", 2000, 200, 0.25));
+		DBHelper.insertRound(round);
+		assertEquals(2, DBHelper.loadProcesses(timestamp + 1000).size());
+	}
+
+	@Test
+	public void testOpenDBUnsupportedVersion() {
+		DBHelper.createDB();
+		DBHelper.createTables();
+
+		// A newer database is moved aside rather than deleted
+		File aside = new File("sqlite/db/Trik.db.v" + (DBHelper.SCHEMA_VERSION + 1));
+		try {
+			DBHelper.getConnection().createStatement().executeUpdate(
+							"UPDATE SchemaVersion SET version = " + (DBHelper.SCHEMA_VERSION + 1));
+			assertFalse(DBHelper.openDB());
+			assertTrue(aside.exists());
+			DBHelper.createTables();
+			assertEquals(DBHelper.SCHEMA_VERSION, DBHelper.getSchemaVersion());
+		} catch (SQLException e) {
+			fail("SQL Exception:" + e.getMessage());
+		} finally {
+			aside.delete();
+		}
+
+		// A database from before schema versions is recreated
+		DBHelper.createDB();
+		assertFalse(DBHelper.openDB());
+	}
+
+	@Test
+	public void testOpenDBFailureKeepsDatabase() {
+		DBHelper.createDB();
+		DBHelper.createTables();
+		CollectionRound round = new CollectionRound(System.currentTimeMillis());
+		round.memory = new CollectionRound.MemoryData(100000, 10000000);
+		DBHelper.insertRound(round);
+
+		// Migrating again to the last version fails on its existing columns
+		try {
+			DBHelper.getConnection().createStatement().executeUpdate(
+							"UPDATE SchemaVersion SET version = " + (DBHelper.SCHEMA_VERSION - 1));
+			DBHelper.openDB();
+			fail("Opened a database that failed to migrate");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getCause() instanceof SQLException);
+		} catch (SQLException e) {
+			fail("SQL Exception:" + e.getMessage());
+		}
+
+		try {
+			assertEquals(DBHelper.SCHEMA_VERSION - 1, DBHelper.getSchemaVersion());
+			assertEquals(1, DBHelper.query("Select COUNT(*) from MemoryData;").getInt(1));
+		} catch (SQLException e) {
+			fail("SQL Exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testMigrate() {
+		DBHelper.createDB();
+		DBHelper.createTables();
+
+		String[][] migrations = new String[DBHelper.SCHEMA_VERSION + 1][];
+		migrations[DBHelper.SCHEMA_VERSION - 1] = new String[] {
+						"ALTER TABLE System ADD COLUMN hostName TEXT"};
+		migrations[DBHelper.SCHEMA_VERSION] = new String[] {
+						"UPDATE System SET hostName = 'localhost'"};
+
+		try {
+			DBHelper.insertSystem("os", "name", "1", "cpu", 1, 1);
+			assertEquals(DBHelper.SCHEMA_VERSION + 2, DBHelper.migrate(DBHelper.SCHEMA_VERSION, migrations));
+			assertEquals(DBHelper.SCHEMA_VERSION + 2, DBHelper.getSchemaVersion());
+			assertEquals("localhost", DBHelper.query("Select hostName from System;").getString(1));
+		} catch (SQLException e) {
+			fail("SQL Exception:" + e.getMessage());
+		}
+
+		DBHelper.createDB();
+	}
+
+
+	@Test
+	public void testChunks() {
+		long timestamp = 1584000000000L; // on the hour
+
+		DBHelper.createDB();
+		DBHelper.createTables();
+		DBHelper.setStoreRawTicks(false);
+		DBHelper.setRetentionPolicies(Collections.emptyList());
+		DBHelper.setChunkSpan(RetentionPolicy.HOUR);
+
+		try {
+			// Two hours and two minutes of rounds every 10 seconds
+			for(int i = 0; i <= 733; i++) {
+				CollectionRound round = new CollectionRound(timestamp + i * 10000L);
+				round.memory = new CollectionRound.MemoryData(4000000000L + (i % 5) * 4096, 8000000000L);
+				round.cpus.add(new CollectionRound.CpuData(0, 100000, 1000000, i % 10, 5, 85, 0, 0, null));
+				round.cpus.add(new CollectionRound.CpuData(-1, 100000, 1000000, i % 10, 5, 85, 0, 0, null));
+				DBHelper.insertRound(round);
+			}
+
+			// Both closed hours are in chunks, the open one is not
+			assertEquals(14, DBHelper.query("Select COUNT(*) from MemoryData;").getInt(1));
+			assertEquals(28, DBHelper.query("Select COUNT(*) from CpuData;").getInt(1));
+			assertEquals(6, DBHelper.query("Select COUNT(*) from DataChunk;").getInt(1));
+			assertEquals(360, DBHelper.query("Select count from DataChunk " +
+							"where family = 'MemoryData' and timestamp = " + timestamp + ";").getInt(1));
+
+			List<Chunk.Decoder> chunks = DBHelper.readChunks("CpuData", -1,
+							timestamp + 30 * 60000, timestamp + 90 * 60000);
+			assertEquals(2, chunks.size());
+			Chunk.Decoder decoder = chunks.get(1);
+			assertTrue(decoder.next());
+			assertEquals(timestamp + RetentionPolicy.HOUR, decoder.getTimestamp());
+			assertEquals(100000, decoder.getLong(0));
+			assertEquals(0, decoder.getDouble(2), 0);
+			assertTrue(decoder.next());
+			assertEquals(1, decoder.getDouble(2), 0);
+			assertTrue(decoder.isNull(7)); // No raw ticks
+
+			// A late entry for a closed hour is merged into its chunk
+			DBHelper.insertMemoryData(timestamp + 5, 1, 8000000000L);
+			CollectionRound round = new CollectionRound(timestamp + 3 * RetentionPolicy.HOUR);
+			DBHelper.insertRound(round);
+			assertEquals(361, DBHelper.query("Select count from DataChunk " +
+							"where family = 'MemoryData' and timestamp = " + timestamp + ";").getInt(1));
+			decoder = DBHelper.readChunks("MemoryData", 0, timestamp, timestamp).get(0);
+			assertTrue(decoder.next());
+			assertTrue(decoder.next());
+			assertEquals(timestamp + 5, decoder.getTimestamp());
+			assertEquals(1, decoder.getLong(0));
+		} catch (SQLException e) {
+			fail("SQL Exception:" + e.getMessage());
+		} finally {
+			DBHelper.setChunkSpan(0);
+			DBHelper.setStoreRawTicks(true);
+			DBHelper.setRetentionPolicies(RetentionPolicy.defaults());
+		}
+	}
+
+	@Test
+	public void testInstrumentation() {
+		long timestamp = 1584000000000L;
+
+		DBHelper.createDB();
+		DBHelper.createTables();
+
+		CollectionRound round = new CollectionRound(timestamp);
+		round.instrumentation.add(new Instrumentation.Summary("collector.Cpu", 60, 1500.5,
+						1400, 2000, 3000, 4000));
+		round.instrumentation.add(new Instrumentation.Summary("queue.depth", 60, 1, 1, 1, 2, 2));
+		DBHelper.insertRound(round);
+
+		try {
+			ResultSet rs = DBHelper.query("Select * from Instrumentation " +
+							"where name = 'collector.Cpu';");
+			assertEquals(timestamp, rs.getLong("timestamp"));
+			assertEquals(60, rs.getLong("count"));
+			assertEquals(1500.5, rs.getDouble("mean"), 0);
+			assertEquals(3000, rs.getLong("p99"));
+			assertEquals(4000, rs.getLong("max"));
+			assertEquals(2, DBHelper.query("Select COUNT(*) from Instrumentation;").getInt(1));
+
+			// The write itself was timed
+			assertTrue(Instrumentation.histogram("db.insertRound").snapshot().getCount() > 0);
+		} catch (SQLException e) {
+			fail("SQL Exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testSampleIntervals() {
+		long timestamp = 1584000000000L; // on the minute
+
+		DBHelper.createDB();
+		DBHelper.createTables();
+
+		// 10 seconds at 20% every 10 s, then 10 seconds at 80% every 500 ms
+		CollectionRound round = new CollectionRound(timestamp);
+		round.intervals.put(CollectionRound.MEMORY, 10000L);
+		round.memory = new CollectionRound.MemoryData(200, 1000);
+		DBHelper.insertRound(round);
+		for(int i = 0; i < 20; i++) {
+			round = new CollectionRound(timestamp + 10000 + i * 500);
+			round.intervals.put(CollectionRound.MEMORY, 500L);
+			round.memory = new CollectionRound.MemoryData(800, 1000);
+			DBHelper.insertRound(round);
+		}
+
+		try {
+			// Weighted by time rather than by sample
+			ResultSet rs = DBHelper.query("Select avg, count, span from Rollup1m " +
+							"where metric = 'memory.avail';");
+			assertEquals(500, rs.getDouble("avg"), 1e-9);
+			assertEquals(21, rs.getInt("count"));
+			assertEquals(20000, rs.getLong("span"));
+
+			// Intervals are recorded when they change
+			assertEquals(2, DBHelper.query("Select COUNT(*) from SampleInterval;").getInt(1));
+			rs = DBHelper.query("Select interval from SampleInterval where collector = 'Memory' " +
+							"and timestamp <= " + (timestamp + 15000) + " order by timestamp desc limit 1;");
+			assertEquals(500, rs.getLong(1));
+		} catch (SQLException e) {
+			fail("SQL Exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testProcessUsage() {
+		long timestamp = 1584000000000L;
+
+		DBHelper.createDB();
+		DBHelper.createTables();
+
+		CollectionRound round = new CollectionRound(timestamp);
+		round.processes.add(new CollectionRound.ProcessData(CollectionRound.ProcessEvent.START,
+						1, "init", "root", 1000, 100, 0.5, 4096, 8192, 3, 10, 20));
+		DBHelper.insertRound(round);
+
+		try {
+			ResultSet rs = DBHelper.query("Select * from ProcessData;");
+			assertEquals(4096, rs.getLong("residentSize"));
+			assertEquals(8192, rs.getLong("virtualSize"));
+			assertEquals(3, rs.getInt("threads"));
+			assertEquals(10, rs.getLong("bytesRead"));
+			assertEquals(20, rs.getLong("bytesWritten"));
+			rs = DBHelper.query("Select * from ProcessEvent;");
+			assertEquals(4096, rs.getLong("residentSize"));
+			assertEquals(20, rs.getLong("bytesWritten"));
+
+			// Migrations that alter a partitioned table alter every partition
+			round = new CollectionRound(timestamp + 24 * DBHelper.HOUR);
+			round.processes.add(new CollectionRound.ProcessData(2, "sh", "me", 2000, 200, 0.25));
+			DBHelper.insertRound(round);
+			String[][] migrations = new String[DBHelper.SCHEMA_VERSION][];
+			migrations[DBHelper.SCHEMA_VERSION - 1] = new String[] {
+							"ALTER TABLE ProcessEvent ADD COLUMN extra INTEGER NOT NULL DEFAULT 7"};
+			assertEquals(DBHelper.SCHEMA_VERSION + 1, DBHelper.migrate(DBHelper.SCHEMA_VERSION, migrations));
+			assertEquals(14, DBHelper.query("Select SUM(extra) from ProcessEvent;").getInt(1));
+		} catch (SQLException e) {
+			fail("SQL Exception:" + e.getMessage());
+		}
+
+		CollectionRound.ProcessData proc = DBHelper.loadProcesses(timestamp).get(0);
+		assertEquals(4096, proc.residentSize);
+		assertEquals(3, proc.threads);
+
+		DBHelper.createDB();
+	}
 }
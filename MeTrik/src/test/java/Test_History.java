@@ -0,0 +1,53 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class Test_History {
+
+  private static CollectionRound round(long timestamp, long avail) {
+    CollectionRound round = new CollectionRound(timestamp);
+    round.memory = new CollectionRound.MemoryData(avail, 8000);
+    round.system = new CollectionRound.SystemData(0, timestamp / 1000, 100, 0, 900);
+    round.cpus.add(new CollectionRound.CpuData(-1, 0, 0, 30, 10, 60, 0, 0, null));
+    round.cpus.add(new CollectionRound.CpuData(0, 0, 0, 40, 10, 50, 0, 0, null));
+    round.cpus.add(new CollectionRound.CpuData(1, 0, 0, 20, 10, 70, 0, 0, null));
+    return round;
+  }
+
+  @Test
+  public void testRecord() {
+    History history = new History(3);
+    assertNull(history.getCpu());
+
+    for(int i = 1; i <= 5; i++) {
+      history.record(round(i * 1000, i * 1000));
+    }
+    CollectionRound round = new CollectionRound(6000);
+    round.power = new CollectionRound.PowerData(80, 3600, 40, 1);
+    history.record(round);
+
+    // The last 3 samples of each family
+    SampleRing.Stats avail = history.getMemory().stats(0, Long.MAX_VALUE, History.MEMORY_AVAIL);
+    assertEquals(3, avail.count);
+    assertEquals(3000, avail.min, 1e-9);
+    assertEquals(5000, avail.max, 1e-9);
+    assertEquals(4000, avail.avg, 1e-9);
+    assertEquals(8000, history.getMemory().getLatest(History.MEMORY_TOTAL), 1e-9);
+    assertEquals(900, history.getSystem().getLatest(History.SYSTEM_THREADS), 1e-9);
+    assertEquals(1, history.getPower().size());
+    assertEquals(80, history.getPower().getLatest(History.POWER_CAPACITY), 1e-9);
+
+    // Every core and the total
+    SampleRing cpu = history.getCpu();
+    assertEquals(3, cpu.size());
+    assertEquals(History.cpuColumn(2, 0), cpu.columns);
+    assertEquals(30, cpu.getLatest(History.cpuColumn(-1, CpuLoadTracker.USER)), 1e-9);
+    assertEquals(40, cpu.getLatest(History.cpuColumn(0, CpuLoadTracker.USER)), 1e-9);
+    assertEquals(70, cpu.getLatest(History.cpuColumn(1, CpuLoadTracker.IDLE)), 1e-9);
+
+    // Cores beyond those of the first round are skipped
+    round = round(7000, 0);
+    round.cpus.add(new CollectionRound.CpuData(2, 0, 0, 99, 0, 1, 0, 0, null));
+    history.record(round);
+    assertEquals(7000, cpu.stats(0, Long.MAX_VALUE, 0).last);
+  }
+}
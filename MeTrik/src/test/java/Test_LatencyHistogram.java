@@ -0,0 +1,96 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Test_LatencyHistogram {
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for(long value = 1; value <= 1000; value++) {
+      histogram.record(value * 1000);
+    }
+
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(1000, snapshot.getCount());
+    assertEquals(500500, snapshot.getMean(), 0);
+    // Reported within the 1/32 precision of the buckets
+    assertEquals(500000, snapshot.getPercentile(50), 500000 / 32);
+    assertEquals(990000, snapshot.getPercentile(99), 990000 / 32);
+    assertTrue(snapshot.getPercentile(99) >= 990000);
+    assertEquals(1000000, snapshot.getMax(), 1000000 / 32);
+    assertEquals(1000, snapshot.getPercentile(0), 1000 / 32);
+  }
+
+  @Test
+  public void testBuckets() {
+    for(long value : new long[] {0, 1, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE}) {
+      int bucket = LatencyHistogram.bucket(value);
+      assertTrue(bucket < LatencyHistogram.BUCKETS);
+      assertTrue(value <= LatencyHistogram.highestValue(bucket));
+      assertTrue(bucket == 0 || value > LatencyHistogram.highestValue(bucket - 1));
+    }
+    // Small values are exact
+    assertEquals(31, LatencyHistogram.highestValue(LatencyHistogram.bucket(31)));
+  }
+
+  @Test
+  public void testInterval() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(10);
+    LatencyHistogram.Snapshot first = histogram.snapshot();
+    histogram.record(20);
+    histogram.record(-5); // counted as 0
+
+    LatencyHistogram.Snapshot interval = histogram.snapshot().minus(first);
+    assertEquals(2, interval.getCount());
+    assertEquals(20, interval.getMax());
+    assertEquals(0, interval.getPercentile(50));
+    assertEquals(0, LatencyHistogram.Snapshot.EMPTY.getPercentile(99));
+  }
+
+  @Test
+  public void testConcurrentRecord() throws InterruptedException {
+    LatencyHistogram histogram = new LatencyHistogram();
+    List<Thread> threads = new ArrayList<>();
+    for(int t = 0; t < 4; t++) {
+      Thread thread = new Thread(() -> {
+        for(int i = 0; i < 10000; i++) {
+          histogram.record(i);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for(Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(40000, histogram.snapshot().getCount());
+    assertEquals(4L * 9999 * 10000 / 2, histogram.snapshot().getSum());
+  }
+
+  @Test
+  public void testInstrumentation() {
+    Instrumentation.interval();
+    Instrumentation.histogram("test.latency").record(1000);
+    Instrumentation.histogram("test.latency").record(3000);
+
+    Instrumentation.Summary summary = null;
+    for(Instrumentation.Summary s : Instrumentation.interval()) {
+      if(s.name.equals("test.latency")) {
+        summary = s;
+      }
+    }
+    assertNotNull(summary);
+    assertEquals(2, summary.count);
+    assertEquals(2000, summary.mean, 0);
+
+    // Nothing new since the last interval
+    for(Instrumentation.Summary s : Instrumentation.interval()) {
+      assertNotEquals("test.latency", s.name);
+    }
+    assertTrue(new String(Instrumentation.toJson()).contains("\"test.latency\": {\"count\": 2"));
+  }
+}
@@ -26,8 +26,9 @@ public class Test_MeTrik {
     DBHelper.createDB();
     DBHelper.createTables();
 
-    long timestamp = System.currentTimeMillis();
-    MeTrik.getMemoryData(timestamp);
+    CollectionRound round = new CollectionRound(System.currentTimeMillis());
+    MeTrik.getMemoryData(round);
+    DBHelper.insertRound(round);
 
     ResultSet rs = DBHelper.query("SELECT COUNT(*) FROM MemoryData;");
     try {
@@ -43,8 +44,9 @@ public class Test_MeTrik {
     DBHelper.createDB();
     DBHelper.createTables();
 
-    long timestamp = System.currentTimeMillis();
-    MeTrik.getPowerData(timestamp);
+    CollectionRound round = new CollectionRound(System.currentTimeMillis());
+    MeTrik.getPowerData(round);
+    DBHelper.insertRound(round);
 
     ResultSet rs = DBHelper.query("SELECT COUNT(*) FROM PowerData");
     try {
@@ -60,8 +62,10 @@ public class Test_MeTrik {
     DBHelper.createDB();
     DBHelper.createTables();
 
-    long timestamp = System.currentTimeMillis();
-    MeTrik.getProcessData(timestamp);
+    CollectionRound round = new CollectionRound(System.currentTimeMillis());
+    MeTrik.getProcessData(round);
+    MeTrik.diffProcessData(round);
+    DBHelper.insertRound(round);
 
     ResultSet rs = DBHelper.query("SELECT COUNT(*) FROM ProcessData;");
     try {
@@ -77,8 +81,9 @@ public class Test_MeTrik {
     DBHelper.createDB();
     DBHelper.createTables();
 
-    long timestamp = System.currentTimeMillis();
-    MeTrik.getSystemData(timestamp);
+    CollectionRound round = new CollectionRound(System.currentTimeMillis());
+    MeTrik.getSystemData(round);
+    DBHelper.insertRound(round);
 
     ResultSet rs = DBHelper.query("SELECT COUNT(*) FROM SystemData;");
     try {
@@ -94,8 +99,9 @@ public class Test_MeTrik {
     DBHelper.createDB();
     DBHelper.createTables();
 
-    long timestamp = System.currentTimeMillis();
-    MeTrik.getCpuData(timestamp);
+    CollectionRound round = new CollectionRound(System.currentTimeMillis());
+    MeTrik.getCpuData(round);
+    DBHelper.insertRound(round);
 
     ResultSet rs = DBHelper.query("SELECT COUNT(*) FROM CpuData;");
     try {
@@ -105,4 +111,22 @@ public class Test_MeTrik {
       fail("SQL Exception:" + e.getMessage());
     }
   }
+
+  @Test
+  public void testCreateSink() {
+    assertTrue(MeTrik.createSink("sqlite") instanceof SqliteSink);
+    assertTrue(MeTrik.createSink("null") instanceof NullSink);
+
+    MetricSink sink = MeTrik.createSink("sqlite, memory");
+    assertTrue(sink instanceof TeeSink);
+    assertEquals(2, ((TeeSink) sink).getSinks().size());
+    assertTrue(((TeeSink) sink).getSinks().get(1) instanceof MemorySink);
+
+    try {
+      MeTrik.createSink("postgres");
+      fail("Unknown sink accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
 }
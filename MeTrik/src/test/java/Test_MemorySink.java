@@ -0,0 +1,22 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class Test_MemorySink {
+
+  @Test
+  public void testWrite() {
+    MemorySink sink = new MemorySink(3);
+    assertNull(sink.getLatest());
+
+    sink.writeSystem(new CollectionRound.SystemInfo("Linux", "x", "1.0", "cpu", 4, 1));
+    for(int i = 1; i <= 5; i++) {
+      sink.write(new CollectionRound(i));
+    }
+
+    assertEquals("Linux", sink.getSystemInfo().os);
+    assertEquals(3, sink.size());
+    assertEquals(2, sink.getEvicted());
+    assertEquals(3, sink.getRounds().get(0).timestamp);
+    assertEquals(5, sink.getLatest().timestamp);
+  }
+}
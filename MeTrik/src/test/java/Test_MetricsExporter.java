@@ -0,0 +1,113 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class Test_MetricsExporter {
+
+  private static Snapshot snapshot() {
+    CollectionRound round = new CollectionRound(1584000000500L);
+    round.memory = new CollectionRound.MemoryData(100, 1000);
+    round.power = new CollectionRound.PowerData(0.25, Double.POSITIVE_INFINITY, 35.5, 1);
+    round.cpus.add(new CollectionRound.CpuData(0, 2400000000L, 3000000000L, 12.5, 2, 85.5, 0, 0, null));
+    round.cpus.add(new CollectionRound.CpuData(-1, 2400000000L, 3000000000L, 12.5, 2, 85.5, 0, 0, null));
+    for(int i = 0; i < 5; i++) {
+      round.processes.add(new CollectionRound.ProcessData(100 + i, "proc \"" + i + "\"",
+              "root", 0, 1500, i / 10.0));
+    }
+    return Snapshot.EMPTY.next(round);
+  }
+
+  @Test
+  public void testRender() {
+    String text = new String(new MetricsExporter(2).toBytes(snapshot()), StandardCharsets.UTF_8);
+
+    assertTrue(text.contains("# TYPE trik_memory_available_bytes gauge\ntrik_memory_available_bytes 100\n"));
+    assertTrue(text.contains("\ntrik_snapshot_timestamp_seconds 1584000000.5\n"));
+    assertTrue(text.contains("\ntrik_power_remaining_capacity_ratio 0.25\n"));
+    assertTrue(text.contains("\ntrik_power_time_remaining_seconds +Inf\n"));
+    assertTrue(text.contains("\ntrik_cpu_frequency_hertz{core=\"0\"} 2400000000\n"));
+    assertTrue(text.contains("\ntrik_cpu_usage_percent{core=\"all\",mode=\"idle\"} 85.5\n"));
+    assertFalse(text.contains("trik_system_threads")); // Not collected yet
+
+    // Only the top 2 processes, label values escaped
+    assertTrue(text.contains("\ntrik_process_cpu_usage_ratio{pid=\"104\",name=\"proc \\\"4\\\"\","
+            + "user=\"root\"} 0.4\n"));
+    assertTrue(text.contains("pid=\"103\""));
+    assertFalse(text.contains("pid=\"102\""));
+    assertTrue(text.contains("\ntrik_process_uptime_seconds{pid=\"104\",name=\"proc \\\"4\\\"\","
+            + "user=\"root\"} 1.5\n"));
+
+    // One sample per line, every sample after its family's TYPE
+    for(String line : text.split("\n")) {
+      assertTrue(line, line.startsWith("# ") || line.matches("trik_[a-z_]+(\\{.*\\})? \\S+"));
+    }
+  }
+
+  @Test
+  public void testInstrumentation() {
+    Instrumentation.histogram("test.exporter").record(1500000);
+    Instrumentation.histogram("test.exporter.depth").record(3);
+    String text = new String(new MetricsExporter(0).toBytes(Snapshot.EMPTY),
+            StandardCharsets.UTF_8);
+
+    assertTrue(text.contains("\ntrik_self_latency_seconds_count{name=\"test.exporter\"} 1\n"));
+    assertTrue(text.matches("(?s).*\ntrik_self_latency_seconds\\{name=\"test.exporter\","
+            + "quantile=\"0.99\"} 0\\.0015\\d*\n.*"));
+    assertTrue(text.contains("\ntrik_self_depth{name=\"test.exporter.depth\",quantile=\"0.5\"} 3\n"));
+    assertFalse(text.contains("trik_memory")); // Nothing collected yet
+  }
+
+  @Test
+  public void testReusedBuffer() {
+    MetricsExporter exporter = new MetricsExporter(MetricsExporter.DEFAULT_TOP_PROCESSES);
+    Snapshot snapshot = snapshot();
+    byte[] first = exporter.toBytes(snapshot);
+    int capacity = exporter.getCapacity();
+    for(int i = 0; i < 100; i++) {
+      exporter.toBytes(snapshot);
+    }
+    assertEquals(capacity, exporter.getCapacity());
+    assertEquals(MetricsExporter.INITIAL_SIZE, capacity);
+    assertTrue(first.length < capacity);
+  }
+
+  @Test
+  public void testSlowOutputDoesNotBlockOthers() throws Exception {
+    MetricsExporter exporter = new MetricsExporter(MetricsExporter.DEFAULT_TOP_PROCESSES);
+    Snapshot snapshot = snapshot();
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Thread slow = new Thread(() -> {
+      try {
+        exporter.render(snapshot, (bytes, length) -> {
+          writing.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+      } catch (IOException e) {
+        fail(e.getMessage());
+      }
+    });
+    slow.start();
+    assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+    // Another scrape completes while the first is still being written
+    byte[] expected = exporter.toBytes(snapshot);
+    byte[][] rendered = new byte[1][];
+    exporter.render(snapshot, (bytes, length) ->
+            rendered[0] = Arrays.copyOf(bytes, length));
+    assertArrayEquals(expected, rendered[0]);
+
+    release.countDown();
+    slow.join(5000);
+    assertFalse(slow.isAlive());
+  }
+}
@@ -0,0 +1,77 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+public class Test_PartitionedTable {
+  private static final String COLUMNS = " timestamp INTEGER NOT NULL, \n"
+          + " value REAL NOT NULL \n";
+
+  private static void insert(Connection conn, PartitionedTable table,
+                             long timestamp) throws SQLException {
+    try (Statement stmt = conn.createStatement()) {
+      stmt.executeUpdate("INSERT INTO " + table.route(conn, timestamp)
+              + " VALUES (" + timestamp + ", 1)");
+    }
+  }
+
+  private static long count(Connection conn, String sql) throws SQLException {
+    try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+      return rs.getLong(1);
+    }
+  }
+
+  @Test
+  public void testRouteAndRead() throws SQLException {
+    try (Connection conn = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+      PartitionedTable table = new PartitionedTable("Samples", 1000, COLUMNS);
+      insert(conn, table, 500);
+      insert(conn, table, 999);
+      insert(conn, table, 1000);
+      insert(conn, table, 2500);
+
+      assertEquals("Samples_0", table.route(conn, 0));
+      assertEquals(3, table.size());
+      assertEquals(4, count(conn, "SELECT COUNT(*) FROM Samples"));
+      assertEquals(2500, count(conn, "SELECT MAX(timestamp) FROM Samples"));
+    }
+  }
+
+  @Test
+  public void testDropBefore() throws SQLException {
+    try (Connection conn = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+      PartitionedTable table = new PartitionedTable("Samples", 1000, COLUMNS);
+      insert(conn, table, 500);
+      insert(conn, table, 1500);
+      insert(conn, table, 2500);
+
+      // Only partitions that end at or before the cutoff are dropped
+      assertEquals(Arrays.asList("Samples_0"), table.dropBefore(conn, 1999));
+      assertEquals(2, count(conn, "SELECT COUNT(*) FROM Samples"));
+
+      // The newest partition is kept
+      assertEquals(Arrays.asList("Samples_1"), table.dropBefore(conn, 10000));
+      assertEquals(1, table.size());
+      assertEquals(1, count(conn, "SELECT COUNT(*) FROM Samples"));
+    }
+  }
+
+  @Test
+  public void testLoadExisting() throws SQLException {
+    try (Connection conn = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+      PartitionedTable table = new PartitionedTable("Samples", 1000, COLUMNS);
+      insert(conn, table, 500);
+      insert(conn, table, 1500);
+
+      PartitionedTable reopened = new PartitionedTable("Samples", 1000, COLUMNS);
+      insert(conn, reopened, 2500);
+      assertEquals(3, reopened.size());
+      assertEquals(3, count(conn, "SELECT COUNT(*) FROM Samples"));
+    }
+  }
+}
@@ -0,0 +1,161 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import oshi.software.os.OSProcess;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Test_ProcReader {
+  private static final long BOOT_TIME = 1584000000000L;
+
+  // Snapshots of /proc in src/test/resources
+  private static ProcReader open(String root) throws IOException, URISyntaxException {
+    return new ProcReader(resource(root), resource("/passwd"));
+  }
+
+  private static Path resource(String name) throws URISyntaxException {
+    return Paths.get(Test_ProcReader.class.getResource(name).toURI());
+  }
+
+  private static OSProcess find(ProcReader reader, int count, int procID) {
+    for(int i = 0; i < count; i++) {
+      if(reader.getProcesses()[i].getProcessID() == procID) {
+        return reader.getProcesses()[i];
+      }
+    }
+    fail("No process " + procID);
+    return null;
+  }
+
+  @Test
+  public void testCpuTicks() throws Exception {
+    try (ProcReader reader = open("/proc")) {
+      long[][] ticks = new long[2][CpuLoadTracker.TICK_TYPES];
+      assertTrue(reader.readCpuTicks(ticks));
+      assertArrayEquals(new long[] {10000, 100, 5000, 200000, 500, 0, 250, 150}, ticks[0]);
+      assertArrayEquals(new long[] {20000, 100, 5000, 200000, 500, 0, 250, 150}, ticks[1]);
+      assertEquals(BOOT_TIME, reader.getBootTime());
+
+      // Processors beyond the array are skipped
+      ticks = new long[1][CpuLoadTracker.TICK_TYPES];
+      assertTrue(reader.readCpuTicks(ticks));
+      assertEquals(10000, ticks[0][CpuLoadTracker.USER_TICKS]);
+    }
+
+    // Older kernels report fewer counters
+    try (ProcReader reader = open("/proc-legacy")) {
+      long[][] ticks = new long[1][CpuLoadTracker.TICK_TYPES];
+      assertTrue(reader.readCpuTicks(ticks));
+      assertArrayEquals(new long[] {3000, 0, 1000, 40000, 100, 0, 50, 0}, ticks[0]);
+    }
+  }
+
+  @Test
+  public void testMemory() throws Exception {
+    try (ProcReader reader = open("/proc")) {
+      assertTrue(reader.readMemory());
+      assertEquals(5000000L * 1024, reader.getMemAvailable());
+      assertEquals(8000000L * 1024, reader.getMemTotal());
+    }
+
+    // Without MemAvailable, free memory, buffers and page cache
+    try (ProcReader reader = open("/proc-legacy")) {
+      assertTrue(reader.readMemory());
+      assertEquals((100 + 20 + 300) * 1024, reader.getMemAvailable());
+      assertEquals(1000 * 1024, reader.getMemTotal());
+    }
+  }
+
+  @Test
+  public void testReopenAfterInterrupt() throws Exception {
+    try (ProcReader reader = open("/proc")) {
+      // A cancelled collector's interrupt closes the channel mid-read
+      Thread.currentThread().interrupt();
+      try {
+        assertFalse(reader.readMemory());
+      } finally {
+        Thread.interrupted();
+      }
+
+      assertTrue(reader.readMemory());
+      assertEquals(8000000L * 1024, reader.getMemTotal());
+    }
+  }
+
+  @Test
+  public void testLoadAverage() throws Exception {
+    try (ProcReader reader = open("/proc")) {
+      assertTrue(reader.readLoadAverage());
+      assertEquals(0.63, reader.getLoadAverage(0), 1e-9);
+      assertEquals(0.42, reader.getLoadAverage(1), 1e-9);
+      assertEquals(0.36, reader.getLoadAverage(2), 1e-9);
+      assertEquals(98, reader.getThreadCount());
+    }
+    try (ProcReader reader = open("/proc-legacy")) {
+      assertTrue(reader.readLoadAverage());
+      assertEquals(10.25, reader.getLoadAverage(2), 1e-9);
+      assertEquals(50, reader.getThreadCount());
+    }
+  }
+
+  @Test
+  public void testProcesses() throws Exception {
+    long now = BOOT_TIME + 1000000;
+    try (ProcReader reader = open("/proc")) {
+      int count = reader.readProcesses(now);
+      assertEquals(2, count);
+      assertEquals(2, reader.getProcessCount());
+
+      OSProcess init = find(reader, count, 1);
+      assertEquals("init", init.getName());
+      assertEquals("root", init.getUser());
+      assertEquals(0, init.getParentProcessID());
+      assertEquals(1500, init.getUserTime());
+      assertEquals(500, init.getKernelTime());
+      assertEquals(1, init.getThreadCount());
+      assertEquals(BOOT_TIME + 100, init.getStartTime());
+      assertEquals(now - BOOT_TIME - 100, init.getUpTime());
+      assertEquals(170000000, init.getVirtualSize());
+      assertEquals(3000 * ProcReader.PAGE_SIZE, init.getResidentSetSize());
+      assertEquals(40960, init.getBytesRead());
+      assertEquals(8192, init.getBytesWritten());
+
+      // The name may hold spaces and parentheses, and the I/O may not be readable
+      OSProcess proc = find(reader, count, 4242);
+      assertEquals("my (odd) proc", proc.getName());
+      assertEquals("me", proc.getUser());
+      assertEquals(1, proc.getParentProcessID());
+      assertEquals(12340, proc.getUserTime());
+      assertEquals(5670, proc.getKernelTime());
+      assertEquals(12, proc.getThreadCount());
+      assertEquals(BOOT_TIME + 500000, proc.getStartTime());
+      assertEquals(287 * ProcReader.PAGE_SIZE, proc.getResidentSetSize());
+      assertEquals(0, proc.getBytesRead());
+
+      // The next pass reuses the processes and their Strings
+      String name = proc.getName();
+      String user = proc.getUser();
+      assertEquals(2, reader.readProcesses(now + 1000));
+      OSProcess again = find(reader, count, 4242);
+      assertSame(proc, again);
+      assertSame(name, again.getName());
+      assertSame(user, again.getUser());
+      assertEquals(now + 1000 - BOOT_TIME - 500000, again.getUpTime());
+    }
+  }
+
+  @Test
+  public void testCapture() throws Exception {
+    try (ProcReader reader = open("/proc")) {
+      ProcessCapture capture = new ProcessCapture(0, true);
+      List<CollectionRound.ProcessData> current = new ArrayList<>();
+      int count = reader.readProcesses(BOOT_TIME + 1000000);
+      capture.capture(reader.getProcesses(), count, current);
+      assertEquals(2, current.size());
+    }
+  }
+}
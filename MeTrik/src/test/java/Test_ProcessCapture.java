@@ -0,0 +1,248 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import oshi.software.os.OSProcess;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Test_ProcessCapture {
+
+  private static OSProcess proc(int procID, String user, long cpuTime, long residentSize) {
+    return proc(procID, user, cpuTime, residentSize, 1000);
+  }
+
+  private static OSProcess proc(int procID, String user, long cpuTime, long residentSize,
+                                long upTime) {
+    OSProcess proc = new OSProcess(null);
+    proc.setProcessID(procID);
+    proc.setName("proc" + procID);
+    proc.setUser(user);
+    proc.setStartTime(procID * 10);
+    proc.setUpTime(upTime);
+    proc.setUserTime(cpuTime);
+    proc.setResidentSetSize(residentSize);
+    return proc;
+  }
+
+  private static Map<Integer, CollectionRound.ProcessData> byID(List<CollectionRound.ProcessData> data) {
+    Map<Integer, CollectionRound.ProcessData> map = new HashMap<>();
+    for(CollectionRound.ProcessData proc : data) {
+      assertNull(map.put(proc.procID, proc));
+    }
+    return map;
+  }
+
+  @Test
+  public void testKeepsEveryProcess() {
+    ProcessCapture capture = new ProcessCapture(0, true);
+    OSProcess[] procs = new OSProcess[50];
+    for(int i = 0; i < procs.length; i++) {
+      procs[i] = proc(i + 1, "me", i, i);
+    }
+    List<CollectionRound.ProcessData> current = new ArrayList<>();
+    capture.capture(procs, current);
+    assertEquals(50, current.size());
+    assertEquals(0.01, byID(current).get(11).cpuUsage, 1e-9);
+  }
+
+  @Test
+  public void testTopByCpuAndMemory() {
+    ProcessCapture capture = new ProcessCapture(3, true);
+    // CPU usage rises with the ID and memory falls with it, in shuffled order
+    OSProcess[] procs = new OSProcess[100];
+    for(int i = 0; i < procs.length; i++) {
+      int id = (i * 37) % 100 + 1;
+      procs[i] = proc(id, id % 2 == 0 ? "even" : "odd", id, 1000 - id);
+    }
+    List<CollectionRound.ProcessData> current = new ArrayList<>();
+    capture.capture(procs, current);
+
+    Map<Integer, CollectionRound.ProcessData> kept = byID(current);
+    assertEquals(8, kept.size());
+    for(int id : new int[] {98, 99, 100, 1, 2, 3}) {
+      assertTrue("process " + id, kept.containsKey(id));
+    }
+
+    // 47 even processes are left, with IDs summing to 2550 - 2 - 98 - 100
+    CollectionRound.ProcessData even = kept.get(ProcessCapture.otherID("even"));
+    assertEquals(ProcessCapture.OTHER, even.name);
+    assertEquals("even", even.user);
+    assertEquals(0, even.startTime);
+    assertEquals(2350 / 1000.0, even.cpuUsage, 1e-9);
+    CollectionRound.ProcessData odd = kept.get(ProcessCapture.otherID("odd"));
+    assertEquals((2500 - 1 - 3 - 99) / 1000.0, odd.cpuUsage, 1e-9);
+  }
+
+  @Test
+  public void testOverlapAndWithoutOthers() {
+    ProcessCapture capture = new ProcessCapture(2, false);
+    // The same two processes lead on both CPU and memory
+    OSProcess[] procs = new OSProcess[10];
+    for(int i = 0; i < procs.length; i++) {
+      procs[i] = proc(i + 1, "me", i + 1, i + 1);
+    }
+    List<CollectionRound.ProcessData> current = new ArrayList<>();
+    capture.capture(procs, current);
+    assertEquals(2, current.size());
+    assertTrue(byID(current).keySet().containsAll(Arrays.asList(9, 10)));
+  }
+
+  @Test
+  public void testOtherRowsAreStable() {
+    ProcessCapture capture = new ProcessCapture(1, true);
+    ProcessTracker tracker = new ProcessTracker(0.01);
+    List<CollectionRound.ProcessData> events = new ArrayList<>();
+
+    OSProcess[] procs = {proc(1, "a", 500, 10), proc(2, "a", 0, 5), proc(3, "b", 0, 20),
+            proc(4, "b", 0, 1)};
+    List<CollectionRound.ProcessData> current = new ArrayList<>();
+    capture.capture(procs, current);
+    tracker.diff(current, events);
+    // Process 1 for CPU, process 3 for memory, and one row for each user
+    assertEquals(4, events.size());
+
+    // The next pass with the same usage changes nothing
+    procs = new OSProcess[] {proc(1, "a", 1000, 10, 2000), proc(2, "a", 0, 5, 2000),
+            proc(3, "b", 0, 20, 2000), proc(4, "b", 0, 1, 2000)};
+    events.clear();
+    current.clear();
+    capture.capture(procs, current);
+    tracker.diff(current, events);
+    assertEquals(0, events.size());
+
+    // Once user b only has its kept process, its row goes away
+    events.clear();
+    current.clear();
+    capture.capture(new OSProcess[] {proc(1, "a", 1500, 10, 3000), proc(2, "a", 0, 5, 3000),
+            proc(3, "b", 0, 20, 3000)}, current);
+    tracker.diff(current, events);
+    assertEquals(1, events.size());
+    assertEquals(CollectionRound.ProcessEvent.EXIT, events.get(0).event);
+    assertEquals(ProcessCapture.otherID("b"), events.get(0).procID);
+  }
+
+  private static List<CollectionRound.ProcessData> pass(ProcessCapture capture,
+                                                        ProcessTracker tracker,
+                                                        OSProcess... procs) {
+    List<CollectionRound.ProcessData> current = new ArrayList<>();
+    List<CollectionRound.ProcessData> events = new ArrayList<>();
+    capture.capture(procs, current);
+    tracker.diff(current, capture, events);
+    return events;
+  }
+
+  @Test
+  public void testFoldedProcessesDoNotExit() {
+    ProcessCapture capture = new ProcessCapture(1, true);
+    ProcessTracker tracker = new ProcessTracker(0.01);
+
+    // Process 1 leads on CPU and process 2 on memory
+    assertEquals(3, pass(capture, tracker, proc(1, "a", 500, 10, 1000),
+            proc(2, "a", 0, 100, 1000), proc(3, "a", 0, 1, 1000)).size());
+
+    // Process 3 takes the lead on CPU and process 1 is folded, but still runs
+    Map<Integer, CollectionRound.ProcessData> events = byID(pass(capture, tracker,
+            proc(1, "a", 500, 10, 2000), proc(2, "a", 0, 100, 2000), proc(3, "a", 800, 1, 2000)));
+    assertEquals(2, events.size());
+    assertEquals(CollectionRound.ProcessEvent.START, events.get(3).event);
+    assertEquals(CollectionRound.ProcessEvent.FOLD, events.get(1).event);
+
+    // Folded once, until it is back
+    events = byID(pass(capture, tracker,
+            proc(1, "a", 500, 10, 3000), proc(2, "a", 0, 100, 3000), proc(3, "a", 1600, 1, 3000)));
+    assertEquals(0, events.size());
+
+    // Back in the lead, process 1 is updated rather than started again
+    events = byID(pass(capture, tracker,
+            proc(1, "a", 2500, 10, 5000), proc(2, "a", 0, 100, 5000), proc(3, "a", 1600, 1, 5000)));
+    assertEquals(2, events.size());
+    assertEquals(CollectionRound.ProcessEvent.UPDATE, events.get(1).event);
+    assertEquals(CollectionRound.ProcessEvent.FOLD, events.get(3).event);
+
+    // Process 3 exits while folded, and with it the "other" row
+    events = byID(pass(capture, tracker, proc(1, "a", 4500, 10, 7000), proc(2, "a", 0, 100, 7000)));
+    assertEquals(2, events.size());
+    assertEquals(CollectionRound.ProcessEvent.EXIT, events.get(3).event);
+    assertEquals(CollectionRound.ProcessEvent.EXIT, events.get(ProcessCapture.otherID("a")).event);
+  }
+
+  @Test
+  public void testFoldedProcessLeavesCurrentState() throws SQLException {
+    DBHelper.createDB();
+    DBHelper.createTables();
+    ProcessCapture capture = new ProcessCapture(1, false);
+    ProcessTracker tracker = new ProcessTracker(0.01);
+    Snapshot snapshot = Snapshot.EMPTY;
+
+    // Process 1 is busy, then process 3 is busier and pushes it out
+    CollectionRound round = new CollectionRound(1000);
+    round.processes.addAll(pass(capture, tracker, proc(1, "a", 900, 10, 1000),
+            proc(2, "a", 0, 100, 1000), proc(3, "a", 0, 1, 1000)));
+    DBHelper.insertRound(round);
+    snapshot = snapshot.next(round);
+    round = new CollectionRound(2000);
+    round.processes.addAll(pass(capture, tracker, proc(1, "a", 1700, 10, 2000),
+            proc(2, "a", 0, 100, 2000), proc(3, "a", 950, 1, 2000)));
+    DBHelper.insertRound(round);
+    snapshot = snapshot.next(round);
+
+    // Its row is gone rather than stuck at its last CPU usage, and it did not exit
+    assertEquals(0, DBHelper.query("SELECT COUNT(*) FROM ProcessData WHERE procID = 1;").getInt(1));
+    assertEquals(2, DBHelper.query("SELECT COUNT(*) FROM ProcessData;").getInt(1));
+    assertEquals(CollectionRound.ProcessEvent.FOLD.ordinal(), DBHelper.query(
+            "SELECT event FROM ProcessEvent WHERE procID = 1 ORDER BY timestamp DESC;").getInt(1));
+    for(Snapshot.ProcessEntry entry : snapshot.getProcesses()) {
+      assertNotEquals(1, entry.data.procID);
+    }
+    assertEquals(2, snapshot.getProcesses().size());
+  }
+
+  @Test
+  public void testIntervalCpuAndUsage() {
+    ProcessCapture capture = new ProcessCapture(1, true);
+    List<CollectionRound.ProcessData> current = new ArrayList<>();
+
+    // A long-running process that just got busy
+    OSProcess daemon = proc(1, "a", 1000, 100, 1000000);
+    daemon.setVirtualSize(1000);
+    daemon.setThreadCount(4);
+    daemon.setBytesRead(10);
+    daemon.setBytesWritten(20);
+    OSProcess[] procs = {daemon, proc(2, "a", 10, 50, 1000), proc(3, "a", 20, 60, 1000)};
+    capture.capture(procs, current);
+    assertEquals(0.001, byID(current).get(1).cpuUsage, 1e-9);
+
+    daemon.setUpTime(1002000);
+    daemon.setUserTime(3000);
+    procs[1].setUpTime(3000);
+    procs[2].setUpTime(3000);
+    current.clear();
+    capture.capture(procs, current);
+    Map<Integer, CollectionRound.ProcessData> kept = byID(current);
+    CollectionRound.ProcessData busy = kept.get(1);
+    assertEquals(1.0, busy.cpuUsage, 1e-9);
+    assertEquals(100, busy.residentSize);
+    assertEquals(1000, busy.virtualSize);
+    assertEquals(4, busy.threads);
+    assertEquals(10, busy.bytesRead);
+    assertEquals(20, busy.bytesWritten);
+
+    // Processes 2 and 3 are folded into the other row, their CPU time did not move
+    assertEquals(2, kept.size());
+    CollectionRound.ProcessData other = kept.get(ProcessCapture.otherID("a"));
+    assertEquals(0, other.cpuUsage, 0);
+    assertEquals(110, other.residentSize);
+  }
+
+  @Test
+  public void testOtherIDs() {
+    assertTrue(ProcessCapture.otherID("root") < 0);
+    assertTrue(ProcessCapture.otherID(null) < 0);
+    assertEquals(ProcessCapture.otherID("root"), ProcessCapture.otherID("root"));
+    assertNotEquals(ProcessCapture.otherID("root"), ProcessCapture.otherID("daemon"));
+  }
+}
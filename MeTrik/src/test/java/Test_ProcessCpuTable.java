@@ -0,0 +1,43 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class Test_ProcessCpuTable {
+
+  @Test
+  public void testInterval() {
+    ProcessCpuTable table = new ProcessCpuTable();
+    // Unknown processes get their usage since they started
+    assertEquals(0.1, table.update(1, 100, 100, 1000), 1e-9);
+    assertEquals(0.0, table.update(2, 200, 0, 1000), 1e-9);
+    table.endPass();
+    assertEquals(2, table.size());
+
+    assertEquals(0.5, table.update(1, 100, 600, 2000), 1e-9);
+    // Same ID, new start time: a different process
+    assertEquals(0.25, table.update(2, 300, 250, 1000), 1e-9);
+    table.endPass();
+    assertEquals(2, table.size());
+
+    // Process 1 was not seen on the last pass, so it starts over
+    table.update(2, 300, 250, 2000);
+    table.endPass();
+    assertEquals(0.3, table.update(1, 100, 900, 3000), 1e-9);
+    // No time passed
+    assertEquals(0.0, table.update(2, 300, 250, 2000), 0);
+  }
+
+  @Test
+  public void testGrow() {
+    ProcessCpuTable table = new ProcessCpuTable();
+    for(int pass = 1; pass <= 3; pass++) {
+      for(int i = 0; i < 5000; i++) {
+        double usage = table.update(i, i * 7L, pass * (long) i, pass * 10000L);
+        if(pass > 1) {
+          assertEquals("process " + i, i / 10000.0, usage, 1e-12);
+        }
+      }
+      table.endPass();
+      assertEquals(5000, table.size());
+    }
+  }
+}
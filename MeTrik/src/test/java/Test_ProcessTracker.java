@@ -0,0 +1,114 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class Test_ProcessTracker {
+
+  private static CollectionRound.ProcessData proc(int procID, long startTime, double cpuUsage) {
+    return new CollectionRound.ProcessData(procID, "proc" + procID, "me",
+            startTime, 1000, cpuUsage);
+  }
+
+  private static CollectionRound.ProcessData proc(int procID, long startTime, double cpuUsage,
+                                                  long residentSize) {
+    return new CollectionRound.ProcessData(CollectionRound.ProcessEvent.START, procID,
+            "proc" + procID, "me", startTime, 1000, cpuUsage, residentSize, 0, 0, 0, 0);
+  }
+
+  @Test
+  public void testStartUpdateExit() {
+    ProcessTracker tracker = new ProcessTracker(0.01);
+    List<CollectionRound.ProcessData> events = new ArrayList<>();
+
+    tracker.diff(Arrays.asList(proc(1, 100, 0.1), proc(2, 200, 0.2)), events);
+    assertEquals(2, events.size());
+    assertEquals(CollectionRound.ProcessEvent.START, events.get(0).event);
+    assertEquals(2, tracker.size());
+
+    // Nothing moved past the threshold
+    events.clear();
+    tracker.diff(Arrays.asList(proc(1, 100, 0.105), proc(2, 200, 0.2)), events);
+    assertEquals(0, events.size());
+
+    // Process 1 changed, process 2 exited and a new process reused its ID
+    events.clear();
+    tracker.diff(Arrays.asList(proc(1, 100, 0.3), proc(2, 300, 0.0)), events);
+    assertEquals(3, events.size());
+    assertEquals(CollectionRound.ProcessEvent.UPDATE, events.get(0).event);
+    assertEquals(0.3, events.get(0).cpuUsage, 0);
+    assertEquals(CollectionRound.ProcessEvent.START, events.get(1).event);
+    assertEquals(300, events.get(1).startTime);
+    assertEquals(CollectionRound.ProcessEvent.EXIT, events.get(2).event);
+    assertEquals(200, events.get(2).startTime);
+    assertEquals(2, tracker.size());
+  }
+
+  @Test
+  public void testThresholdIsFromLastPersisted() {
+    ProcessTracker tracker = new ProcessTracker(0.01);
+    List<CollectionRound.ProcessData> events = new ArrayList<>();
+
+    tracker.diff(Arrays.asList(proc(1, 100, 0.100)), events);
+    tracker.diff(Arrays.asList(proc(1, 100, 0.106)), events);
+    tracker.diff(Arrays.asList(proc(1, 100, 0.112)), events);
+
+    // Small steps add up to an update
+    assertEquals(2, events.size());
+    assertEquals(0.112, events.get(1).cpuUsage, 0);
+  }
+
+  @Test
+  public void testRestore() {
+    ProcessTracker tracker = new ProcessTracker(0.01);
+    tracker.restore(Arrays.asList(proc(1, 100, 0.1), proc(2, 200, 0.2)));
+    assertEquals(2, tracker.size());
+
+    // Restored processes are not started again, the one that is gone exits
+    List<CollectionRound.ProcessData> events = new ArrayList<>();
+    tracker.diff(Arrays.asList(proc(1, 100, 0.1), proc(3, 300, 0.3)), events);
+    assertEquals(2, events.size());
+    assertEquals(CollectionRound.ProcessEvent.START, events.get(0).event);
+    assertEquals(3, events.get(0).procID);
+    assertEquals(CollectionRound.ProcessEvent.EXIT, events.get(1).event);
+    assertEquals(2, events.get(1).procID);
+    assertEquals(2, tracker.size());
+  }
+
+  @Test
+  public void testRestoreStartTimeTolerance() {
+    ProcessTracker tracker = new ProcessTracker(0.01);
+    tracker.restore(Arrays.asList(proc(1, 10000, 0.1), proc(2, 20000, 0.2)));
+
+    // Process 1's start time moved by a millisecond, process 2's ID was reused
+    List<CollectionRound.ProcessData> events = new ArrayList<>();
+    tracker.diff(Arrays.asList(proc(1, 10001, 0.1), proc(2, 90000, 0.2)), events);
+    assertEquals(2, events.size());
+    assertEquals(CollectionRound.ProcessEvent.START, events.get(0).event);
+    assertEquals(90000, events.get(0).startTime);
+    assertEquals(CollectionRound.ProcessEvent.EXIT, events.get(1).event);
+    assertEquals(20000, events.get(1).startTime);
+
+    // Updates keep the start time process 1 was stored with
+    events.clear();
+    tracker.diff(Arrays.asList(proc(1, 10001, 0.5), proc(2, 90000, 0.2)), events);
+    assertEquals(1, events.size());
+    assertEquals(CollectionRound.ProcessEvent.UPDATE, events.get(0).event);
+    assertEquals(10000, events.get(0).startTime);
+  }
+
+  @Test
+  public void testMemoryThreshold() {
+    ProcessTracker tracker = new ProcessTracker(0.01, 0.1);
+    List<CollectionRound.ProcessData> events = new ArrayList<>();
+
+    tracker.diff(Arrays.asList(proc(1, 100, 0.1, 1000)), events);
+    tracker.diff(Arrays.asList(proc(1, 100, 0.1, 1050)), events);
+    assertEquals(1, events.size());
+    tracker.diff(Arrays.asList(proc(1, 100, 0.1, 1100)), events);
+    assertEquals(2, events.size());
+    assertEquals(1100, events.get(1).residentSize);
+  }
+}
@@ -0,0 +1,116 @@
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Test_SampleLog {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static CollectionRound round(long timestamp) {
+    CollectionRound round = new CollectionRound(timestamp);
+    round.memory = new CollectionRound.MemoryData(timestamp, 1000);
+    round.cpus.add(new CollectionRound.CpuData(0, 1, 2, 10, 5, 85, 0, 0, null));
+    round.cpus.add(new CollectionRound.CpuData(-1, 1, 2, 10, 5, 85, 0, 0, null));
+    return round;
+  }
+
+  @Test
+  public void testScan() {
+    SampleLog log = new SampleLog(folder.getRoot(), SampleLog.DEFAULT_SEGMENT_SIZE, 0);
+    assertFalse(log.open(false));
+    for(long ts = 1; ts <= 1000; ts++) {
+      log.write(round(ts));
+    }
+
+    List<Long> timestamps = new ArrayList<>();
+    long visited = log.scan(500, 509, record -> {
+      timestamps.add(record.getTimestamp());
+      if(record.getType() == SampleLog.MEMORY) {
+        assertEquals(record.getTimestamp(), record.getLong(0));
+      } else {
+        assertEquals(SampleLog.CPU, record.getType());
+        assertEquals(85, record.getDouble(4), 0);
+      }
+      return true;
+    });
+    assertEquals(30, visited);
+    assertEquals(Long.valueOf(500), timestamps.get(0));
+    assertEquals(Long.valueOf(509), timestamps.get(29));
+
+    // Stops when the visitor returns false
+    assertEquals(1, log.scan(0, Long.MAX_VALUE, record -> false));
+  }
+
+  @Test
+  public void testRollover() {
+    // Room for 10 records, ie. 3 rounds and a third of a fourth
+    long segmentSize = SampleLog.HEADER_SIZE + 10 * SampleLog.RECORD_SIZE;
+    SampleLog log = new SampleLog(folder.getRoot(), segmentSize, 3);
+    log.open(false);
+    for(long ts = 1; ts <= 20; ts++) {
+      log.write(round(ts));
+    }
+
+    // A round that does not fit starts a new segment, so 20 rounds take
+    // 7 segments, of which the 3 newest are kept: rounds 13 to 20
+    assertEquals(3, log.getSegments().size());
+    assertEquals(3, folder.getRoot().listFiles().length);
+    assertEquals(24, log.scan(0, Long.MAX_VALUE, record -> true));
+    assertEquals(0, log.scan(0, 12, record -> true));
+    assertEquals(3, log.scan(13, 13, record -> true));
+    assertEquals(3, log.scan(20, 20, record -> true));
+  }
+
+  @Test
+  public void testReopen() {
+    SampleLog log = new SampleLog(folder.getRoot(), SampleLog.DEFAULT_SEGMENT_SIZE, 0);
+    log.open(false);
+    for(long ts = 1; ts <= 600; ts++) {
+      log.write(round(ts));
+    }
+    log.close();
+
+    log = new SampleLog(folder.getRoot(), SampleLog.DEFAULT_SEGMENT_SIZE, 0);
+    log.open(true);
+    log.write(round(601));
+    assertEquals(1, log.getSegments().size());
+    assertEquals(1803, log.scan(0, Long.MAX_VALUE, record -> true));
+    assertEquals(6, log.scan(300, 301, record -> true));
+
+    log.open(false);
+    assertEquals(0, log.scan(0, Long.MAX_VALUE, record -> true));
+    assertEquals(0, folder.getRoot().listFiles().length);
+  }
+
+  @Test
+  public void testCompact() {
+    SampleLog log = new SampleLog(new File(folder.getRoot(), "samples"),
+            SampleLog.DEFAULT_SEGMENT_SIZE, 0);
+    log.open(false);
+    CollectionRound first = round(1);
+    first.power = new CollectionRound.PowerData(0.5, 3600, 40, 1);
+    first.system = new CollectionRound.SystemData(10, 20, 300, 4, 1200);
+    log.write(first);
+    log.write(round(2));
+    log.write(round(3));
+
+    MemorySink sink = new MemorySink();
+    assertEquals(2, SampleLogCompactor.compact(log, sink, 1, 2));
+
+    CollectionRound round = sink.getRounds().get(0);
+    assertEquals(1, round.timestamp);
+    assertEquals(1, round.memory.avail);
+    assertEquals(0.5, round.power.currCapPer, 0);
+    assertEquals(1, round.power.isCharg);
+    assertEquals(1200, round.system.threads);
+    assertEquals(2, round.cpus.size());
+    assertEquals(-1, round.cpus.get(1).coreNum);
+    assertEquals(2, sink.getLatest().timestamp);
+  }
+}
@@ -0,0 +1,109 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class Test_SampleRing {
+
+  private static void append(SampleRing ring, long timestamp, double value) {
+    ring.set(0, value);
+    ring.set(1, -value);
+    ring.append(timestamp);
+  }
+
+  @Test
+  public void testSliceAndStats() {
+    SampleRing ring = new SampleRing(10, 2);
+    assertEquals(0, ring.size());
+    assertTrue(Double.isNaN(ring.getLatest(0)));
+    assertSame(SampleRing.Stats.EMPTY, ring.stats(0, Long.MAX_VALUE, 0));
+
+    for(int i = 1; i <= 5; i++) {
+      append(ring, i * 1000, i);
+    }
+    assertEquals(5, ring.size());
+    assertEquals(5, ring.getLatest(0), 1e-9);
+    assertEquals(-5, ring.getLatest(1), 1e-9);
+
+    // From inclusive, to exclusive
+    long[] timestamps = new long[10];
+    double[] values = new double[10];
+    assertEquals(3, ring.slice(2000, 5000, 1, timestamps, values));
+    assertArrayEquals(new long[] {2000, 3000, 4000}, Arrays.copyOf(timestamps, 3));
+    assertArrayEquals(new double[] {-2, -3, -4}, Arrays.copyOf(values, 3), 1e-9);
+
+    SampleRing.Stats stats = ring.stats(1500, Long.MAX_VALUE, 0);
+    assertEquals(4, stats.count);
+    assertEquals(2, stats.min, 1e-9);
+    assertEquals(5, stats.max, 1e-9);
+    assertEquals(3.5, stats.avg, 1e-9);
+    assertEquals(2000, stats.first);
+    assertEquals(5000, stats.last);
+
+    // Arrays too short for the range get the newest samples
+    timestamps = new long[2];
+    values = new double[2];
+    assertEquals(2, ring.slice(0, Long.MAX_VALUE, 0, timestamps, values));
+    assertArrayEquals(new long[] {4000, 5000}, timestamps);
+  }
+
+  @Test
+  public void testWraparound() {
+    SampleRing ring = new SampleRing(4, 2);
+    for(int i = 1; i <= 10; i++) {
+      append(ring, i * 1000, i);
+    }
+    assertEquals(4, ring.size());
+
+    long[] timestamps = new long[10];
+    double[] values = new double[10];
+    assertEquals(4, ring.slice(0, Long.MAX_VALUE, 0, timestamps, values));
+    assertArrayEquals(new long[] {7000, 8000, 9000, 10000}, Arrays.copyOf(timestamps, 4));
+    assertArrayEquals(new double[] {7, 8, 9, 10}, Arrays.copyOf(values, 4), 1e-9);
+
+    SampleRing.Stats stats = ring.stats(0, Long.MAX_VALUE, 1);
+    assertEquals(4, stats.count);
+    assertEquals(-10, stats.min, 1e-9);
+    assertEquals(-7, stats.max, 1e-9);
+    assertEquals(-8.5, stats.avg, 1e-9);
+    assertEquals(0, ring.stats(0, 7000, 0).count);
+  }
+
+  @Test
+  public void testConcurrentReader() throws InterruptedException {
+    // Every sample has value i at timestamp i, so a torn read shows up as
+    // a value that does not match its timestamp
+    SampleRing ring = new SampleRing(64, 2);
+    final int samples = 200000;
+    AtomicReference<String> failure = new AtomicReference<>();
+    Thread reader = new Thread(() -> {
+      long[] timestamps = new long[64];
+      double[] values = new double[64];
+      long newest = 0;
+      while(newest < samples && failure.get() == null) {
+        int n = ring.slice(0, Long.MAX_VALUE, 0, timestamps, values);
+        for(int k = 0; k < n; k++) {
+          if(values[k] != timestamps[k] || (k > 0 && timestamps[k] != timestamps[k - 1] + 1)) {
+            failure.set("Sample " + timestamps[k] + " read as " + values[k]);
+          }
+        }
+        SampleRing.Stats stats = ring.stats(0, Long.MAX_VALUE, 0);
+        if(stats.count > 0 && (stats.min != stats.first || stats.max != stats.last)) {
+          failure.set("Stats from " + stats.first + " to " + stats.last
+                  + " read as " + stats.min + " to " + stats.max);
+        }
+        if(n > 0) {
+          newest = timestamps[n - 1];
+        }
+      }
+    });
+    reader.start();
+    for(int i = 1; i <= samples; i++) {
+      append(ring, i, i);
+    }
+    reader.join(10000);
+    assertFalse(reader.isAlive());
+    assertNull(failure.get());
+  }
+}
@@ -0,0 +1,70 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class Test_Snapshot {
+
+  @Test
+  public void testNextKeepsMissingFamilies() {
+    CollectionRound first = new CollectionRound(1000);
+    first.memory = new CollectionRound.MemoryData(100, 1000);
+    first.cpus.add(new CollectionRound.CpuData(0, 1, 1, 10, 5, 85, 0, 0, null));
+    Snapshot snapshot = Snapshot.EMPTY.next(first);
+
+    CollectionRound second = new CollectionRound(2000);
+    second.memory = new CollectionRound.MemoryData(200, 1000);
+    Snapshot next = snapshot.next(second);
+
+    assertEquals(2000, next.timestamp);
+    assertEquals(200, next.memory.avail);
+    assertEquals(1, next.cpus.size());
+    assertNull(next.power);
+
+    // Earlier snapshots are not changed
+    assertEquals(100, snapshot.memory.avail);
+    assertNull(Snapshot.EMPTY.memory);
+  }
+
+  @Test
+  public void testProcessEvents() {
+    CollectionRound first = new CollectionRound(1000);
+    first.processes.add(new CollectionRound.ProcessData(1, "init", "root", 10, 100, 0.1));
+    first.processes.add(new CollectionRound.ProcessData(2, "sh", "me", 20, 200, 0.2));
+    Snapshot snapshot = Snapshot.EMPTY.next(first);
+    assertEquals(2, snapshot.getProcesses().size());
+    assertEquals("sh", snapshot.getProcesses().get(0).data.name);
+
+    CollectionRound second = new CollectionRound(2000);
+    second.processes.add(new CollectionRound.ProcessData(CollectionRound.ProcessEvent.UPDATE,
+            1, "init", "root", 10, 110, 0.5));
+    second.processes.add(new CollectionRound.ProcessData(CollectionRound.ProcessEvent.EXIT,
+            2, "sh", "me", 20, 200, 0.2));
+    snapshot = snapshot.next(second);
+
+    assertEquals(1, snapshot.getProcesses().size());
+    assertEquals(2000, snapshot.getProcesses().get(0).timestamp);
+    assertEquals(0.5, snapshot.getProcesses().get(0).data.cpuUsage, 0);
+  }
+
+  @Test
+  public void testToJson() {
+    CollectionRound round = new CollectionRound(1000);
+    round.memory = new CollectionRound.MemoryData(100, 1000);
+    round.cpus.add(new CollectionRound.CpuData(-1, 1, 1, 10, 5, 85, 0, 0, null));
+    round.cpus.add(new CollectionRound.CpuData(0, 1, 1, 10, 5, 85, 0, 0, null));
+    round.processes.add(new CollectionRound.ProcessData(1, "a \"quoted\" name", "root", 10, 100, 0.1));
+    Snapshot snapshot = Snapshot.EMPTY.next(round)
+            .withInfo(new CollectionRound.SystemInfo("Linux", "x", "1.0", "cpu", 4, 3000000000L));
+
+    String json = new String(snapshot.toJson(), StandardCharsets.UTF_8);
+    assertEquals("{\"timestamp\":1000,"
+            + "\"system\":{\"os\":\"Linux\",\"codeName\":\"x\",\"version\":\"1.0\",\"cpuSignature\":\"cpu\"},"
+            + "\"systemData\":null,\"powerData\":null,"
+            + "\"memoryData\":{\"avail\":100,\"total\":1000},"
+            + "\"cpuData\":[{\"coreNum\":0,\"userPct\":10.0,\"sysPct\":5.0,\"idlePct\":85.0}],"
+            + "\"processData\":[{\"timestamp\":1000,\"name\":\"a \\\"quoted\\\" name\",\"upTime\":100,\"cpuUsage\":0.1}]}",
+            json);
+    assertSame(snapshot.toJson(), snapshot.toJson());
+  }
+}
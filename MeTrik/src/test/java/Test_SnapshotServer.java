@@ -0,0 +1,113 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+public class Test_SnapshotServer {
+
+  private static String get(int port) throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) new URL(
+            "http://127.0.0.1:" + port + "/snapshot").openConnection();
+    assertEquals(200, conn.getResponseCode());
+    assertEquals("application/json", conn.getContentType());
+    try (InputStream in = conn.getInputStream()) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int n;
+      while((n = in.read(buffer)) > 0) {
+        out.write(buffer, 0, n);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test
+  public void testServeLatest() throws IOException {
+    SnapshotServer server = new SnapshotServer();
+    server.start(0);
+    try {
+      assertTrue(get(server.getPort()).startsWith("{\"timestamp\":0,"));
+
+      CollectionRound round = new CollectionRound(1000);
+      round.memory = new CollectionRound.MemoryData(100, 1000);
+      server.update(round);
+
+      String json = get(server.getPort());
+      assertTrue(json.startsWith("{\"timestamp\":1000,"));
+      assertTrue(json.contains("\"memoryData\":{\"avail\":100,\"total\":1000}"));
+    } finally {
+      server.stop();
+    }
+    assertEquals(-1, server.getPort());
+  }
+
+  private static String nextEvent(BufferedReader reader) throws IOException {
+    String line;
+    String data = null;
+    while((line = reader.readLine()) != null && !line.isEmpty()) {
+      if(line.startsWith("data: ")) {
+        data = line.substring(6);
+      }
+    }
+    return data;
+  }
+
+  @Test
+  public void testEventStream() throws Exception {
+    SnapshotServer server = new SnapshotServer();
+    server.start(0);
+    try {
+      HttpURLConnection conn = (HttpURLConnection) new URL(
+              "http://127.0.0.1:" + server.getPort() + "/events").openConnection();
+      assertEquals(200, conn.getResponseCode());
+      assertEquals("text/event-stream", conn.getContentType());
+      BufferedReader reader = new BufferedReader(
+              new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8));
+
+      // The current snapshot is sent on subscribing
+      assertTrue(nextEvent(reader).startsWith("{\"timestamp\":0,"));
+      assertEquals(1, server.getSubscribers());
+
+      server.update(new CollectionRound(1000));
+      assertTrue(nextEvent(reader).startsWith("{\"timestamp\":1000,"));
+      server.update(new CollectionRound(2000));
+      assertTrue(nextEvent(reader).startsWith("{\"timestamp\":2000,"));
+      conn.disconnect();
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testMetrics() throws IOException {
+    SnapshotServer server = new SnapshotServer();
+    server.start(0);
+    try {
+      CollectionRound round = new CollectionRound(1000);
+      round.memory = new CollectionRound.MemoryData(100, 1000);
+      server.update(round);
+
+      HttpURLConnection conn = (HttpURLConnection) new URL(
+              "http://127.0.0.1:" + server.getPort() + "/metrics").openConnection();
+      assertEquals(200, conn.getResponseCode());
+      assertEquals(MetricsExporter.CONTENT_TYPE, conn.getContentType());
+      BufferedReader reader = new BufferedReader(
+              new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8));
+      boolean found = false;
+      String line;
+      while((line = reader.readLine()) != null) {
+        found |= line.equals("trik_memory_available_bytes 100");
+      }
+      assertTrue(found);
+    } finally {
+      server.stop();
+    }
+  }
+}
@@ -0,0 +1,32 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class Test_StringDictionary {
+
+  @Test
+  public void testAddAndLookup() {
+    StringDictionary dictionary = new StringDictionary();
+    assertEquals(0, dictionary.getId("java"));
+
+    assertEquals(1, dictionary.add("java"));
+    assertEquals(2, dictionary.add("node"));
+    assertEquals(1, dictionary.getId("java"));
+    assertEquals("node", dictionary.getValue(2));
+    assertNull(dictionary.getValue(3));
+    assertEquals(2, dictionary.size());
+  }
+
+  @Test
+  public void testPutFromTable() {
+    StringDictionary dictionary = new StringDictionary();
+    dictionary.put(3, "sshd");
+    dictionary.put(1, "init");
+
+    assertEquals(3, dictionary.getId("sshd"));
+    assertEquals("init", dictionary.getValue(1));
+    assertEquals(4, dictionary.add("bash"));
+
+    dictionary.clear();
+    assertEquals(0, dictionary.getId("sshd"));
+  }
+}
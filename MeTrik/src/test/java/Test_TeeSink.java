@@ -0,0 +1,56 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class Test_TeeSink {
+
+  @Test
+  public void testWrite() {
+    MemorySink memory = new MemorySink();
+    NullSink discard = new NullSink();
+    TeeSink sink = new TeeSink(new SqliteSink(), memory, discard);
+    assertFalse(sink.open(false));
+
+    sink.writeSystem(new CollectionRound.SystemInfo("Linux", "x", "1.0", "cpu", 4, 1));
+    CollectionRound round = new CollectionRound(System.currentTimeMillis());
+    round.memory = new CollectionRound.MemoryData(100, 1000);
+    round.cpus.add(new CollectionRound.CpuData(-1, 1, 1, 10, 5, 85, 0, 0, null));
+    sink.write(round);
+
+    assertSame(round, memory.getLatest());
+    assertEquals(1, discard.getRounds());
+    assertEquals(2, discard.getEntries());
+    try {
+      ResultSet rs = DBHelper.query("SELECT COUNT(*) FROM MemoryData;");
+      assertEquals(1, rs.getInt(1));
+      rs = DBHelper.query("SELECT COUNT(*) FROM System;");
+      assertEquals(1, rs.getInt(1));
+    } catch (SQLException e) {
+      fail("SQL Exception:" + e.getMessage());
+    }
+  }
+
+  @Test
+  public void testFailingSink() {
+    MemorySink memory = new MemorySink();
+    TeeSink sink = new TeeSink(new MetricSink() {
+      @Override
+      public void writeSystem(CollectionRound.SystemInfo info) {
+        throw new IllegalStateException("unavailable");
+      }
+
+      @Override
+      public void write(CollectionRound round) {
+        throw new IllegalStateException("unavailable");
+      }
+    }, memory);
+
+    sink.writeSystem(new CollectionRound.SystemInfo("Linux", "x", "1.0", "cpu", 4, 1));
+    sink.write(new CollectionRound(1));
+
+    assertNotNull(memory.getSystemInfo());
+    assertEquals(1, memory.size());
+  }
+}
@@ -0,0 +1,80 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class Test_WriteBehindQueue {
+
+  @Test
+  public void testDrainOnShutdown() throws InterruptedException {
+    List<CollectionRound> written = Collections.synchronizedList(new ArrayList<>());
+    WriteBehindQueue queue = new WriteBehindQueue(4,
+            WriteBehindQueue.OverflowPolicy.BLOCK, written::add);
+
+    queue.offer(new CollectionRound(1));
+    queue.offer(new CollectionRound(2));
+    queue.offer(new CollectionRound(3));
+    queue.start();
+    queue.shutdown(5000);
+
+    assertEquals(3, written.size());
+    assertEquals(3, queue.getWritten());
+    assertEquals(0, queue.getDepth());
+    assertEquals(3, written.get(2).timestamp);
+    assertFalse(queue.offer(new CollectionRound(4)));
+  }
+
+  @Test
+  public void testDropOldest() throws InterruptedException {
+    List<CollectionRound> written = Collections.synchronizedList(new ArrayList<>());
+    WriteBehindQueue queue = new WriteBehindQueue(2,
+            WriteBehindQueue.OverflowPolicy.DROP_OLDEST, written::add);
+
+    for(int i = 1; i <= 5; i++) {
+      CollectionRound round = new CollectionRound(i);
+      round.processes.add(new CollectionRound.ProcessData(i, "proc", "me", i, 0, 0));
+      queue.offer(round);
+    }
+    assertEquals(2, queue.getDepth());
+    assertEquals(3, queue.getDropped());
+
+    queue.start();
+    queue.shutdown(5000);
+
+    assertEquals(2, written.size());
+    assertEquals(4, written.get(0).timestamp);
+    assertEquals(5, written.get(1).timestamp);
+
+    // Process events of the dropped rounds were carried forward
+    assertEquals(4, written.get(0).processes.size());
+    assertEquals(1, written.get(0).processes.get(0).procID);
+    assertEquals(1, written.get(1).processes.size());
+  }
+
+  @Test
+  public void testCoalesce() throws InterruptedException {
+    List<CollectionRound> written = Collections.synchronizedList(new ArrayList<>());
+    WriteBehindQueue queue = new WriteBehindQueue(1,
+            WriteBehindQueue.OverflowPolicy.COALESCE, written::add);
+
+    CollectionRound first = new CollectionRound(1);
+    first.memory = new CollectionRound.MemoryData(1, 10);
+    first.system = new CollectionRound.SystemData(0, 1, 2, 3, 4);
+    CollectionRound second = new CollectionRound(2);
+    second.memory = new CollectionRound.MemoryData(2, 10);
+    queue.offer(first);
+    queue.offer(second);
+    assertEquals(1, queue.getDepth());
+    assertEquals(1, queue.getCoalesced());
+
+    queue.start();
+    queue.shutdown(5000);
+
+    assertEquals(1, written.size());
+    assertEquals(2, written.get(0).timestamp);
+    assertEquals(2, written.get(0).memory.avail);
+    assertSame(first.system, written.get(0).system);
+  }
+}